@@ -0,0 +1,94 @@
+/*
+ * The MIT License
+ * Copyright (c) 2015 CSC - IT Center for Science, http://www.csc.fi
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package fi.mpass.shibboleth.attribute.resolver.data;
+
+import java.io.IOException;
+
+import com.google.gson.TypeAdapter;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
+
+import fi.mpass.shibboleth.attribute.resolver.data.UserDTO.AttributesDTO;
+
+/**
+ * Converts {@link AttributesDTO} object to and from JSON without reflection. Class extends {@link TypeAdapter}.
+ */
+public class AttributesTypeAdapter extends TypeAdapter<AttributesDTO> {
+
+	/**
+	 * Writes one AttributesDTO object for value.
+	 * 
+	 * @param attribute the {@link AttributesDTO} object to write. May be null.
+	 */
+	@Override
+	public void write(final JsonWriter out, final AttributesDTO attribute) throws IOException {
+		if (attribute == null) {
+			out.nullValue();
+			return;
+		}
+		out.beginObject();
+		out.name("name").value(attribute.getName());
+		out.name("value").value(attribute.getValue());
+		out.endObject();
+	}
+
+	/**
+	 * Reads one JSON value and converts it to an {@link AttributesDTO} object owned by a new {@link UserDTO}.
+	 * 
+	 * @return the converted {@link AttributesDTO} object, or null if the value is null.
+	 * @throws IOException If the value cannot be read.
+	 */
+	@Override
+	public AttributesDTO read(final JsonReader in) throws IOException {
+		return read(in, new UserDTO());
+	}
+
+	/**
+	 * Reads one JSON value and converts it to an {@link AttributesDTO} object owned by the given user. Unknown
+	 * fields are skipped and non-string values are converted to strings.
+	 * 
+	 * @param in The reader.
+	 * @param user The user owning the attribute.
+	 * @return the converted {@link AttributesDTO} object, or null if the value is null.
+	 * @throws IOException If the value cannot be read.
+	 */
+	public AttributesDTO read(final JsonReader in, final UserDTO user) throws IOException {
+		if (in.peek() == JsonToken.NULL) {
+			in.nextNull();
+			return null;
+		}
+		final AttributesDTO attribute = user.new AttributesDTO();
+		in.beginObject();
+		while (in.hasNext()) {
+			switch (in.nextName()) {
+				case "name" : { attribute.setName(JsonReaderSupport.nextString(in)); break; }
+				case "value" : { attribute.setValue(JsonReaderSupport.nextString(in)); break; }
+				default: in.skipValue(); break;
+			}
+		}
+		in.endObject();
+		return attribute;
+	}
+}
@@ -0,0 +1,99 @@
+/*
+ * The MIT License
+ * Copyright (c) 2015 CSC - IT Center for Science, http://www.csc.fi
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package fi.mpass.shibboleth.attribute.resolver.data;
+
+import java.io.IOException;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+import org.slf4j.Logger;
+
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+
+/**
+ * Lenient value readers shared by the streaming type adapters of this package.
+ */
+final class JsonReaderSupport {
+
+	/** Constructor. */
+	private JsonReaderSupport() {
+	}
+
+	/**
+	 * Reads the next value as a string. Numbers and booleans are converted to strings, null is returned as null
+	 * and any other value is skipped.
+	 * 
+	 * @param in The reader.
+	 * @return The string value, or null.
+	 * @throws IOException If the value cannot be read.
+	 */
+	@Nullable static String nextString(@Nonnull final JsonReader in) throws IOException {
+		final JsonToken token = in.peek();
+		switch (token) {
+			case STRING:
+			case NUMBER:
+				return in.nextString();
+			case BOOLEAN:
+				return String.valueOf(in.nextBoolean());
+			case NULL:
+				in.nextNull();
+				return null;
+			default:
+				in.skipValue();
+				return null;
+		}
+	}
+
+	/**
+	 * Reads the next value as an integer. A value that is not an integer is logged and skipped, like in
+	 * {@link RolesTypeAdapter}.
+	 * 
+	 * @param in The reader.
+	 * @param name The name of the field, used in logging.
+	 * @param logger The logger.
+	 * @return The integer value, or null.
+	 * @throws IOException If the value cannot be read.
+	 */
+	@Nullable static Integer nextInteger(@Nonnull final JsonReader in, @Nonnull final String name,
+			@Nonnull final Logger logger) throws IOException {
+		final JsonToken token = in.peek();
+		if (token == JsonToken.NULL) {
+			in.nextNull();
+			return null;
+		}
+		if (token != JsonToken.NUMBER && token != JsonToken.STRING) {
+			logger.warn("{} is not int, skipping a {} value", name, token);
+			in.skipValue();
+			return null;
+		}
+		try {
+			return in.nextInt();
+		} catch (NumberFormatException e) {
+			logger.warn("{} is not int: {}", name, in.nextString());
+			return null;
+		}
+	}
+}
@@ -0,0 +1,83 @@
+/*
+ * The MIT License
+ * Copyright (c) 2015 CSC - IT Center for Science, http://www.csc.fi
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package fi.mpass.shibboleth.attribute.resolver.data;
+
+import java.io.IOException;
+
+import com.google.gson.TypeAdapter;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
+
+/**
+ * Converts {@link OpintopolkuOppilaitosMetadataDTO} object to and from JSON without reflection. Class extends
+ * {@link TypeAdapter}.
+ */
+public class OpintopolkuOppilaitosMetadataTypeAdapter extends TypeAdapter<OpintopolkuOppilaitosMetadataDTO> {
+
+	/**
+	 * Writes one OpintopolkuOppilaitosMetadataDTO object for value.
+	 * 
+	 * @param metadata the {@link OpintopolkuOppilaitosMetadataDTO} object to write. May be null.
+	 */
+	@Override
+	public void write(final JsonWriter out, final OpintopolkuOppilaitosMetadataDTO metadata) throws IOException {
+		if (metadata == null) {
+			out.nullValue();
+			return;
+		}
+		out.beginObject();
+		out.name("nimi").value(metadata.getName());
+		out.name("lyhytNimi").value(metadata.getShortName());
+		out.name("kieli").value(metadata.getLanguage());
+		out.endObject();
+	}
+
+	/**
+	 * Reads one JSON value and converts it to a {@link OpintopolkuOppilaitosMetadataDTO} object. Null values and
+	 * unknown fields are skipped.
+	 * 
+	 * @return the converted {@link OpintopolkuOppilaitosMetadataDTO} object, or null if the value is null.
+	 * @throws IOException If the value cannot be read.
+	 */
+	@Override
+	public OpintopolkuOppilaitosMetadataDTO read(final JsonReader in) throws IOException {
+		if (in.peek() == JsonToken.NULL) {
+			in.nextNull();
+			return null;
+		}
+		final OpintopolkuOppilaitosMetadataDTO metadata = new OpintopolkuOppilaitosMetadataDTO();
+		in.beginObject();
+		while (in.hasNext()) {
+			switch (in.nextName()) {
+				case "nimi" : { metadata.setName(JsonReaderSupport.nextString(in)); break; }
+				case "lyhytNimi" : { metadata.setShortName(JsonReaderSupport.nextString(in)); break; }
+				case "kieli" : { metadata.setLanguage(JsonReaderSupport.nextString(in)); break; }
+				default: in.skipValue(); break;
+			}
+		}
+		in.endObject();
+		return metadata;
+	}
+}
@@ -0,0 +1,129 @@
+/*
+ * The MIT License
+ * Copyright (c) 2015 CSC - IT Center for Science, http://www.csc.fi
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package fi.mpass.shibboleth.attribute.resolver.data;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import com.google.gson.TypeAdapter;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
+
+/**
+ * Converts {@link OpintopolkuOppilaitosDTO} object to and from JSON without reflection. The metadata is converted
+ * with {@link OpintopolkuOppilaitosMetadataTypeAdapter}. Class extends {@link TypeAdapter}.
+ */
+public class OpintopolkuOppilaitosTypeAdapter extends TypeAdapter<OpintopolkuOppilaitosDTO> {
+
+	/** The adapter for the metadata. */
+	private final OpintopolkuOppilaitosMetadataTypeAdapter metadataAdapter =
+			new OpintopolkuOppilaitosMetadataTypeAdapter();
+
+	/**
+	 * Writes one OpintopolkuOppilaitosDTO object for value.
+	 * 
+	 * @param school the {@link OpintopolkuOppilaitosDTO} object to write. May be null.
+	 */
+	@Override
+	public void write(final JsonWriter out, final OpintopolkuOppilaitosDTO school) throws IOException {
+		if (school == null) {
+			out.nullValue();
+			return;
+		}
+		out.beginObject();
+		out.name("koodiUri").value(school.getCodeUri());
+		if (school.getMetadata() != null) {
+			out.name("metadata").beginArray();
+			for (final OpintopolkuOppilaitosMetadataDTO metadata : school.getMetadata()) {
+				metadataAdapter.write(out, metadata);
+			}
+			out.endArray();
+		}
+		out.name("versio").value(school.getVersion());
+		out.name("koodiArvo").value(school.getCodeValue());
+		out.name("oid").value(school.getOid());
+		out.name("parentOid").value(school.getParentOid());
+		out.name("parentName").value(school.getParentName());
+		out.name("organizationType").value(school.getOrganizationType());
+		out.endObject();
+	}
+
+	/**
+	 * Reads one JSON value and converts it to a {@link OpintopolkuOppilaitosDTO} object. Null values and unknown
+	 * fields are skipped, and a numeric version is read as a string.
+	 * 
+	 * @return the converted {@link OpintopolkuOppilaitosDTO} object, or null if the value is null.
+	 * @throws IOException If the value cannot be read.
+	 */
+	@Override
+	public OpintopolkuOppilaitosDTO read(final JsonReader in) throws IOException {
+		if (in.peek() == JsonToken.NULL) {
+			in.nextNull();
+			return null;
+		}
+		final OpintopolkuOppilaitosDTO school = new OpintopolkuOppilaitosDTO();
+		in.beginObject();
+		while (in.hasNext()) {
+			switch (in.nextName()) {
+				case "koodiUri" : { school.setCodeUri(JsonReaderSupport.nextString(in)); break; }
+				case "metadata" : { school.setMetadata(readMetadata(in)); break; }
+				case "versio" : { school.setVersion(JsonReaderSupport.nextString(in)); break; }
+				case "koodiArvo" : { school.setCodeValue(JsonReaderSupport.nextString(in)); break; }
+				case "oid" : { school.setOid(JsonReaderSupport.nextString(in)); break; }
+				case "parentOid" : { school.setParentOid(JsonReaderSupport.nextString(in)); break; }
+				case "parentName" : { school.setParentName(JsonReaderSupport.nextString(in)); break; }
+				case "organizationType" : { school.setOrganizationType(JsonReaderSupport.nextString(in)); break; }
+				default: in.skipValue(); break;
+			}
+		}
+		in.endObject();
+		return school;
+	}
+
+	/**
+	 * Reads the array of metadata. Null elements are skipped.
+	 * 
+	 * @param in The reader.
+	 * @return The metadata, or null if the value is not an array.
+	 * @throws IOException If the value cannot be read.
+	 */
+	private OpintopolkuOppilaitosMetadataDTO[] readMetadata(final JsonReader in) throws IOException {
+		if (in.peek() != JsonToken.BEGIN_ARRAY) {
+			in.skipValue();
+			return null;
+		}
+		final List<OpintopolkuOppilaitosMetadataDTO> metadata = new ArrayList<>();
+		in.beginArray();
+		while (in.hasNext()) {
+			final OpintopolkuOppilaitosMetadataDTO element = metadataAdapter.read(in);
+			if (element != null) {
+				metadata.add(element);
+			}
+		}
+		in.endArray();
+		return metadata.toArray(new OpintopolkuOppilaitosMetadataDTO[metadata.size()]);
+	}
+}
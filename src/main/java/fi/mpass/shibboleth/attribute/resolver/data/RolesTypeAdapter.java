@@ -26,6 +26,10 @@ public class RolesTypeAdapter extends TypeAdapter<RolesDTO>{
 	 */
 	@Override
 	public void write(JsonWriter out, RolesDTO roles) throws IOException {
+		if (roles == null) {
+			out.nullValue();
+			return;
+		}
 		out.beginObject();
 		out.name("school");
 		out.value(roles.getSchool());
@@ -39,17 +43,23 @@ public class RolesTypeAdapter extends TypeAdapter<RolesDTO>{
 		out.value(roles.getLearningMaterialsCharge());
 		out.name("municipality");
 		out.value(roles.getMunicipality());
+		out.endObject();
 	}
 	
 	/**
-	 * Reads one JSON value and converts it to a {@link RolesDTO} object. Null values are skipped.
+	 * Reads one JSON value and converts it to a {@link RolesDTO} object. Null values and unknown fields are skipped.
 	 * 
-	 * @return the converted {@link RolesDTO} object.
+	 * @return the converted {@link RolesDTO} object, or null if the value is null.
 	 * @throws IOExection
 	 */
 	@Override
 	public RolesDTO read(JsonReader in) throws IOException {
 		
+		if (in.peek() == JsonToken.NULL) {
+			in.nextNull();
+			return null;
+		}
+		
 		RolesDTO roles = new UserDTO().new RolesDTO();
 		
 		in.beginObject();
@@ -67,29 +77,20 @@ public class RolesTypeAdapter extends TypeAdapter<RolesDTO>{
 			}
 			
 			switch(fieldName) {
-				case "school" : { roles.setSchool(in.nextString()); break; }
-				case "role" : { roles.setRole(in.nextString()); break; }
-				case "group" : { roles.setGroup(in.nextString()); break; }
-				case "groupLevel" : { 
-					try {
-						roles.setGroupLevel(in.nextInt());
-					}
-					catch (IllegalStateException | NumberFormatException e) {
-						logger.warn("Group level is not int: {}", in.nextString());
-					};
+				case "school" : { roles.setSchool(JsonReaderSupport.nextString(in)); break; }
+				case "role" : { roles.setRole(JsonReaderSupport.nextString(in)); break; }
+				case "group" : { roles.setGroup(JsonReaderSupport.nextString(in)); break; }
+				case "groupLevel" : {
+					roles.setGroupLevel(JsonReaderSupport.nextInteger(in, "Group level", logger));
 					break;
 				}
-				case "learningMaterialsCharge" : { 
-					try {
-						roles.setLearningMaterialsCharge(in.nextInt());
-					}
-					catch (IllegalStateException | NumberFormatException e) {
-						logger.warn("Learning materials charge is not int: {}", in.nextString());
-					};
+				case "learningMaterialsCharge" : {
+					roles.setLearningMaterialsCharge(
+							JsonReaderSupport.nextInteger(in, "Learning materials charge", logger));
 					break;
 				}
-				case "municipality" : { roles.setMunicipality(in.nextString()); break; }
-				default: in.nextString(); break;
+				case "municipality" : { roles.setMunicipality(JsonReaderSupport.nextString(in)); break; }
+				default: in.skipValue(); break;
 			}
 		}
 		
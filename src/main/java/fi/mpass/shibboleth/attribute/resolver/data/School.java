@@ -23,6 +23,16 @@ public class School {
 	private String organizationType;
 
 	public School() {};
+
+	/**
+	 * Copy constructor.
+	 * 
+	 * @param other The school whose values are copied.
+	 */
+	public School(School other) {
+		this(other.id, other.name, other.oid, other.officeOid, other.officeName, other.parentOid, other.parentName,
+				other.organizationType);
+	}
 	
 	public School(String id, String name, String parentOid, String parentName) {
 		this.id = id;
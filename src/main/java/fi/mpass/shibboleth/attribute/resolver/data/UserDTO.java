@@ -64,6 +64,48 @@ public class UserDTO {
 	/** The array of attributes for the user. */
 	private AttributesDTO[] attributes;
 
+	/**
+	 * Constructor.
+	 */
+	public UserDTO() {
+	}
+
+	/**
+	 * Copy constructor. The roles and attributes are copied too.
+	 * 
+	 * @param other The user whose values are copied.
+	 */
+	public UserDTO(final UserDTO other) {
+		username = other.username;
+		firstName = other.firstName;
+		lastName = other.lastName;
+		nickName = other.nickName;
+		if (other.roles != null) {
+			roles = new RolesDTO[other.roles.length];
+			for (int i = 0; i < roles.length; i++) {
+				if (other.roles[i] != null) {
+					roles[i] = new RolesDTO();
+					roles[i].school = other.roles[i].school;
+					roles[i].role = other.roles[i].role;
+					roles[i].group = other.roles[i].group;
+					roles[i].learningMaterialsCharge = other.roles[i].learningMaterialsCharge;
+					roles[i].municipality = other.roles[i].municipality;
+					roles[i].groupLevel = other.roles[i].groupLevel;
+				}
+			}
+		}
+		if (other.attributes != null) {
+			attributes = new AttributesDTO[other.attributes.length];
+			for (int i = 0; i < attributes.length; i++) {
+				if (other.attributes[i] != null) {
+					attributes[i] = new AttributesDTO();
+					attributes[i].name = other.attributes[i].name;
+					attributes[i].value = other.attributes[i].value;
+				}
+			}
+		}
+	}
+
 	/** Return AttributesDTO by name */
 	public AttributesDTO getAttribute(@Nonnull final String attributeName) {
 
@@ -0,0 +1,160 @@
+/*
+ * The MIT License
+ * Copyright (c) 2015 CSC - IT Center for Science, http://www.csc.fi
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package fi.mpass.shibboleth.attribute.resolver.data;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import com.google.gson.TypeAdapter;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
+
+import fi.mpass.shibboleth.attribute.resolver.data.UserDTO.AttributesDTO;
+import fi.mpass.shibboleth.attribute.resolver.data.UserDTO.RolesDTO;
+
+/**
+ * Converts {@link UserDTO} object to and from JSON without reflection. The roles and attributes are converted with
+ * {@link RolesTypeAdapter} and {@link AttributesTypeAdapter}. Class extends {@link TypeAdapter}.
+ */
+public class UserTypeAdapter extends TypeAdapter<UserDTO> {
+
+	/** The adapter for the roles. */
+	private final RolesTypeAdapter rolesAdapter = new RolesTypeAdapter();
+
+	/** The adapter for the attributes. */
+	private final AttributesTypeAdapter attributesAdapter = new AttributesTypeAdapter();
+
+	/**
+	 * Writes one UserDTO object for value.
+	 * 
+	 * @param user the {@link UserDTO} object to write. May be null.
+	 */
+	@Override
+	public void write(final JsonWriter out, final UserDTO user) throws IOException {
+		if (user == null) {
+			out.nullValue();
+			return;
+		}
+		out.beginObject();
+		out.name("username").value(user.getUsername());
+		out.name("first_name").value(user.getFirstName());
+		out.name("last_name").value(user.getLastName());
+		out.name("nickname").value(user.getNickName());
+		if (user.getRoles() != null) {
+			out.name("roles").beginArray();
+			for (final RolesDTO role : user.getRoles()) {
+				rolesAdapter.write(out, role);
+			}
+			out.endArray();
+		}
+		if (user.getAttributes() != null) {
+			out.name("attributes").beginArray();
+			for (final AttributesDTO attribute : user.getAttributes()) {
+				attributesAdapter.write(out, attribute);
+			}
+			out.endArray();
+		}
+		out.endObject();
+	}
+
+	/**
+	 * Reads one JSON value and converts it to a {@link UserDTO} object. Null values and unknown fields are skipped.
+	 * 
+	 * @return the converted {@link UserDTO} object, or null if the value is null.
+	 * @throws IOException If the value cannot be read.
+	 */
+	@Override
+	public UserDTO read(final JsonReader in) throws IOException {
+		if (in.peek() == JsonToken.NULL) {
+			in.nextNull();
+			return null;
+		}
+		final UserDTO user = new UserDTO();
+		in.beginObject();
+		while (in.hasNext()) {
+			switch (in.nextName()) {
+				case "username" : { user.setUsername(JsonReaderSupport.nextString(in)); break; }
+				case "first_name" : { user.setFirstName(JsonReaderSupport.nextString(in)); break; }
+				case "last_name" : { user.setLastName(JsonReaderSupport.nextString(in)); break; }
+				case "nickname" : { user.setNickName(JsonReaderSupport.nextString(in)); break; }
+				case "roles" : { user.setRoles(readRoles(in)); break; }
+				case "attributes" : { user.setAttributes(readAttributes(in, user)); break; }
+				default: in.skipValue(); break;
+			}
+		}
+		in.endObject();
+		return user;
+	}
+
+	/**
+	 * Reads the array of roles. Null elements are skipped.
+	 * 
+	 * @param in The reader.
+	 * @return The roles, or null if the value is not an array.
+	 * @throws IOException If the value cannot be read.
+	 */
+	private RolesDTO[] readRoles(final JsonReader in) throws IOException {
+		if (in.peek() != JsonToken.BEGIN_ARRAY) {
+			in.skipValue();
+			return null;
+		}
+		final List<RolesDTO> roles = new ArrayList<>();
+		in.beginArray();
+		while (in.hasNext()) {
+			final RolesDTO role = rolesAdapter.read(in);
+			if (role != null) {
+				roles.add(role);
+			}
+		}
+		in.endArray();
+		return roles.toArray(new RolesDTO[roles.size()]);
+	}
+
+	/**
+	 * Reads the array of attributes. Null elements are skipped.
+	 * 
+	 * @param in The reader.
+	 * @param user The user owning the attributes.
+	 * @return The attributes, or null if the value is not an array.
+	 * @throws IOException If the value cannot be read.
+	 */
+	private AttributesDTO[] readAttributes(final JsonReader in, final UserDTO user) throws IOException {
+		if (in.peek() != JsonToken.BEGIN_ARRAY) {
+			in.skipValue();
+			return null;
+		}
+		final List<AttributesDTO> attributes = new ArrayList<>();
+		in.beginArray();
+		while (in.hasNext()) {
+			final AttributesDTO attribute = attributesAdapter.read(in, user);
+			if (attribute != null) {
+				attributes.add(attribute);
+			}
+		}
+		in.endArray();
+		return attributes.toArray(new AttributesDTO[attributes.size()]);
+	}
+}
@@ -0,0 +1,203 @@
+/*
+ * The MIT License
+ * Copyright (c) 2015 CSC - IT Center for Science, http://www.csc.fi
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package fi.mpass.shibboleth.attribute.resolver.dc.impl;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+import net.shibboleth.idp.attribute.IdPAttribute;
+import net.shibboleth.idp.attribute.IdPAttributeValue;
+import net.shibboleth.idp.attribute.StringAttributeValue;
+import net.shibboleth.shared.logic.Constraint;
+import net.shibboleth.shared.primitive.StringSupport;
+
+/**
+ * Collects the string values of the attributes resolved for one user, and builds each {@link IdPAttribute} once
+ * all of them have been collected. The values of an attribute are kept in the order they were first added, and a
+ * value added again is ignored. The values are trimmed, and null or empty values are ignored.
+ *
+ * Adding a value takes constant time, unlike appending it to an existing {@link IdPAttribute}, which copies all its
+ * values. The values of the fixed attributes of the {@link AttributeLayout} are kept by slot.
+ */
+public class AttributeAccumulator {
+
+    /** The names of the resulting attributes. */
+    private final AttributeLayout layout;
+
+    /** The values of the fixed attributes by slot, null for the attributes without values. */
+    private final Set<String>[] slotValues;
+
+    /** The values of the other attributes by the prefixed attribute name, in the order they were first added. */
+    private final Map<String, Set<String>> values;
+
+    /**
+     * Constructor for an accumulator without fixed attributes.
+     *
+     * @param attributePrefix The prefix for the attribute ids.
+     */
+    public AttributeAccumulator(@Nullable final String attributePrefix) {
+        this(new AttributeLayout(attributePrefix, ""));
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param attributeLayout The names of the resulting attributes.
+     */
+    @SuppressWarnings("unchecked")
+    public AttributeAccumulator(@Nonnull final AttributeLayout attributeLayout) {
+        layout = Constraint.isNotNull(attributeLayout, "The attribute layout cannot be null");
+        slotValues = new Set[layout.size()];
+        values = new LinkedHashMap<>();
+    }
+
+    /**
+     * Adds a value to the fixed attribute in the given slot.
+     *
+     * @param slot The slot of the attribute in the layout.
+     * @param attributeValue The attribute value.
+     * @return true if the value was added, false if it was empty or already added.
+     */
+    public boolean add(final int slot, @Nullable final String attributeValue) {
+        final String trimmedValue = StringSupport.trimOrNull(attributeValue);
+        if (trimmedValue == null) {
+            return false;
+        }
+        if (slotValues[slot] == null) {
+            slotValues[slot] = new LinkedHashSet<>();
+        }
+        return slotValues[slot].add(trimmedValue);
+    }
+
+    /**
+     * Adds a value to the attribute with the given id.
+     *
+     * @param attributeId The attribute id, without the prefix.
+     * @param attributeValue The attribute value.
+     * @return true if the value was added, false if it was empty or already added.
+     */
+    public boolean add(@Nullable final String attributeId, @Nullable final String attributeValue) {
+        if (StringSupport.trimOrNull(attributeId) == null) {
+            return false;
+        }
+        final int slot = layout.getSlot(attributeId);
+        return slot < 0 ? addNamed(layout.getName(attributeId), attributeValue) : add(slot, attributeValue);
+    }
+
+    /**
+     * Adds a value to the dynamic attribute with the given name.
+     *
+     * @param name The name of the dynamic attribute, without the prefixes.
+     * @param attributeValue The attribute value.
+     * @return true if the value was added, false if it was empty or already added.
+     */
+    public boolean addDynamic(@Nullable final String name, @Nullable final String attributeValue) {
+        return addNamed(layout.getDynamicName(name), attributeValue);
+    }
+
+    /**
+     * Adds a value to the attribute with the given prefixed name.
+     *
+     * @param attributeName The prefixed attribute name.
+     * @param attributeValue The attribute value.
+     * @return true if the value was added, false if it was empty or already added.
+     */
+    private boolean addNamed(@Nonnull final String attributeName, @Nullable final String attributeValue) {
+        final String trimmedValue = StringSupport.trimOrNull(attributeValue);
+        if (trimmedValue == null) {
+            return false;
+        }
+        return values.computeIfAbsent(attributeName, id -> new LinkedHashSet<>()).add(trimmedValue);
+    }
+
+    /**
+     * Checks whether any values have been added.
+     *
+     * @return true if no values have been added, false otherwise.
+     */
+    public boolean isEmpty() {
+        for (final Set<String> slotValue : slotValues) {
+            if (slotValue != null) {
+                return false;
+            }
+        }
+        return values.isEmpty();
+    }
+
+    /**
+     * Builds the collected attributes into the given map. The values of an attribute already in the map are kept
+     * first, followed by the collected values it does not have yet.
+     *
+     * @param attributes The map of attributes by id.
+     */
+    public void addTo(@Nonnull final Map<String, IdPAttribute> attributes) {
+        for (int slot = 0; slot < slotValues.length; slot++) {
+            if (slotValues[slot] != null) {
+                addTo(attributes, layout.getName(slot), slotValues[slot]);
+            }
+        }
+        for (final Map.Entry<String, Set<String>> entry : values.entrySet()) {
+            addTo(attributes, entry.getKey(), entry.getValue());
+        }
+    }
+
+    /**
+     * Builds one collected attribute into the given map.
+     *
+     * @param attributes The map of attributes by id.
+     * @param attributeName The prefixed attribute name.
+     * @param collectedValues The collected values of the attribute.
+     */
+    private void addTo(@Nonnull final Map<String, IdPAttribute> attributes, @Nonnull final String attributeName,
+            @Nonnull final Set<String> collectedValues) {
+        final IdPAttribute existing = attributes.get(attributeName);
+        if (existing == null) {
+            final List<IdPAttributeValue> attributeValues = new ArrayList<>(collectedValues.size());
+            for (final String value : collectedValues) {
+                attributeValues.add(new StringAttributeValue(value));
+            }
+            final IdPAttribute attribute = new IdPAttribute(attributeName);
+            attribute.setValues(attributeValues);
+            attributes.put(attributeName, attribute);
+        } else {
+            final List<IdPAttributeValue> attributeValues = new ArrayList<>(existing.getValues());
+            final Set<IdPAttributeValue> existingValues = new HashSet<>(attributeValues);
+            for (final String value : collectedValues) {
+                final StringAttributeValue attributeValue = new StringAttributeValue(value);
+                if (existingValues.add(attributeValue)) {
+                    attributeValues.add(attributeValue);
+                }
+            }
+            existing.setValues(attributeValues);
+        }
+    }
+}
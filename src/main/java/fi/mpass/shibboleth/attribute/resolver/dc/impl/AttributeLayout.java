@@ -0,0 +1,157 @@
+/*
+ * The MIT License
+ * Copyright (c) 2015 CSC - IT Center for Science, http://www.csc.fi
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+
+package fi.mpass.shibboleth.attribute.resolver.dc.impl;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+import net.shibboleth.shared.logic.Constraint;
+
+/**
+ * The compiled names of the resulting attributes. Each of the fixed attribute ids is given a slot, an index into a
+ * table of the prefixed attribute names, so that the names are concatenated once instead of for every value. The
+ * names of the dynamic attributes, whose ids are only known from the upstream responses, are concatenated once and
+ * kept in a small cache.
+ */
+public class AttributeLayout {
+
+    /** The maximum number of cached dynamic attribute names. */
+    public static final int MAX_DYNAMIC_NAMES = 256;
+
+    /** The prefix for all the attribute names. */
+    private final String prefix;
+
+    /** The additional prefix for the dynamic attribute names. */
+    private final String dynamicPrefix;
+
+    /** The prefixed attribute names by slot. */
+    private final String[] names;
+
+    /** The slots by the attribute id, without the prefix. */
+    private final Map<String, Integer> slots;
+
+    /** The prefixed dynamic attribute names by their unprefixed names. */
+    private final Map<String, String> dynamicNames;
+
+    /**
+     * Constructor.
+     *
+     * @param attributePrefix The prefix for all the attribute names.
+     * @param dynamicAttributePrefix The additional prefix for the dynamic attribute names.
+     * @param attributeIds The fixed attribute ids, without the prefix, in slot order.
+     */
+    public AttributeLayout(@Nullable final String attributePrefix, @Nullable final String dynamicAttributePrefix,
+            @Nonnull final String... attributeIds) {
+        Constraint.isNotNull(attributeIds, "The attribute ids cannot be null");
+        prefix = attributePrefix == null ? "null" : attributePrefix;
+        dynamicPrefix = prefix + dynamicAttributePrefix;
+        names = new String[attributeIds.length];
+        slots = new HashMap<>();
+        for (int slot = 0; slot < attributeIds.length; slot++) {
+            Constraint.isNotEmpty(attributeIds[slot], "The attribute ids cannot be empty");
+            Constraint.isTrue(slots.put(attributeIds[slot], slot) == null,
+                    "Duplicate attribute id " + attributeIds[slot]);
+            names[slot] = prefix + attributeIds[slot];
+        }
+        dynamicNames = new ConcurrentHashMap<>();
+    }
+
+    /**
+     * Get the number of slots.
+     *
+     * @return The number of slots.
+     */
+    public int size() {
+        return names.length;
+    }
+
+    /**
+     * Get the slot of the given fixed attribute id.
+     *
+     * @param attributeId The attribute id, without the prefix.
+     * @return The slot, or -1 if the id is not one of the fixed attribute ids.
+     */
+    public int getSlot(@Nullable final String attributeId) {
+        final Integer slot = attributeId == null ? null : slots.get(attributeId);
+        return slot == null ? -1 : slot;
+    }
+
+    /**
+     * Get the prefixed attribute name of the given slot.
+     *
+     * @param slot The slot.
+     * @return The prefixed attribute name.
+     */
+    @Nonnull public String getName(final int slot) {
+        return names[slot];
+    }
+
+    /**
+     * Get the prefixed attribute name of the given attribute id, which does not need to be one of the fixed ones.
+     *
+     * @param attributeId The attribute id, without the prefix.
+     * @return The prefixed attribute name.
+     */
+    @Nonnull public String getName(@Nullable final String attributeId) {
+        final int slot = getSlot(attributeId);
+        return slot < 0 ? prefix + attributeId : names[slot];
+    }
+
+    /**
+     * Get the prefixed name of the given dynamic attribute. The names are cached until the cache is full, after
+     * which the new names are concatenated on every call.
+     *
+     * @param name The name of the dynamic attribute, without either of the prefixes.
+     * @return The prefixed attribute name.
+     */
+    @Nonnull public String getDynamicName(@Nullable final String name) {
+        if (name == null) {
+            return dynamicPrefix + name;
+        }
+        final String cached = dynamicNames.get(name);
+        if (cached != null) {
+            return cached;
+        }
+        final String dynamicName = dynamicPrefix + name;
+        if (dynamicNames.size() < MAX_DYNAMIC_NAMES) {
+            final String previous = dynamicNames.putIfAbsent(name, dynamicName);
+            return previous == null ? dynamicName : previous;
+        }
+        return dynamicName;
+    }
+
+    /**
+     * Get the number of cached dynamic attribute names.
+     *
+     * @return The number of cached dynamic attribute names.
+     */
+    public int getDynamicNameCount() {
+        return dynamicNames.size();
+    }
+}
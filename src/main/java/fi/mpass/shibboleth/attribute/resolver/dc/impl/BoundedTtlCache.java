@@ -0,0 +1,451 @@
+/*
+ * The MIT License
+ * Copyright (c) 2015 CSC - IT Center for Science, http://www.csc.fi
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package fi.mpass.shibboleth.attribute.resolver.dc.impl;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongSupplier;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+import net.shibboleth.shared.logic.Constraint;
+
+/**
+ * A size-bounded in-memory cache whose entries expire after a time-to-live. When the cache is full, the least
+ * recently used entry is evicted. A cache with zero maximum entries or zero time-to-live stores nothing.
+ *
+ * @param <K> The type of the keys.
+ * @param <V> The type of the values.
+ */
+public class BoundedTtlCache<K, V> {
+
+    /** The maximum number of entries. */
+    private final int maxEntries;
+
+    /** The default time-to-live for the entries, in milliseconds. */
+    private final long ttl;
+
+    /** The source of the current time, in milliseconds. */
+    private final LongSupplier clock;
+
+    /** The entries in access order. */
+    private final LinkedHashMap<K, Entry<V>> entries;
+
+    /** The number of lookups that found a live entry with a value. */
+    private final AtomicLong hitCount;
+
+    /** The number of lookups that did not find a live entry. */
+    private final AtomicLong missCount;
+
+    /** The number of lookups that found a live entry without a value. */
+    private final AtomicLong negativeHitCount;
+
+    /** The number of entries evicted because the cache was full. */
+    private final AtomicLong evictionCount;
+
+    /** The number of lookups that found an expired entry still within the allowed staleness. */
+    private final AtomicLong staleHitCount;
+
+    /**
+     * Constructor.
+     *
+     * @param max The maximum number of entries.
+     * @param timeToLive The default time-to-live for the entries.
+     */
+    public BoundedTtlCache(final int max, @Nonnull final Duration timeToLive) {
+        this(max, timeToLive, System::currentTimeMillis);
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param max The maximum number of entries.
+     * @param timeToLive The default time-to-live for the entries.
+     * @param currentTime The source of the current time, in milliseconds.
+     */
+    protected BoundedTtlCache(final int max, @Nonnull final Duration timeToLive,
+            @Nonnull final LongSupplier currentTime) {
+        Constraint.isGreaterThanOrEqual(0, max, "The maximum number of entries cannot be negative");
+        Constraint.isFalse(Constraint.isNotNull(timeToLive, "The time-to-live cannot be null").isNegative(),
+                "The time-to-live cannot be negative");
+        maxEntries = max;
+        ttl = timeToLive.toMillis();
+        clock = Constraint.isNotNull(currentTime, "The clock cannot be null");
+        hitCount = new AtomicLong();
+        missCount = new AtomicLong();
+        negativeHitCount = new AtomicLong();
+        evictionCount = new AtomicLong();
+        staleHitCount = new AtomicLong();
+        entries = new LinkedHashMap<>(16, 0.75f, true) {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(final Map.Entry<K, Entry<V>> eldest) {
+                if (size() > maxEntries) {
+                    evictionCount.incrementAndGet();
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    /**
+     * Checks whether this cache stores anything.
+     *
+     * @return true if the cache has room for entries and they live for some time, false otherwise.
+     */
+    public boolean isEnabled() {
+        return maxEntries > 0 && ttl > 0;
+    }
+
+    /**
+     * Gets a live value from the cache.
+     *
+     * @param key The key of the value.
+     * @return The value, or null if it does not exist or has expired.
+     */
+    @Nullable public V get(@Nonnull final K key) {
+        final Entry<V> entry = getLive(key);
+        return entry == null ? null : entry.getValue();
+    }
+
+    /**
+     * Gets a live entry from the cache. Unlike {@link #get(Object)}, this method tells a cached null value, such as
+     * a cached negative result, apart from a missing entry.
+     *
+     * @param key The key of the entry.
+     * @return The entry, or null if it does not exist or has expired.
+     */
+    @Nullable public Entry<V> getLive(@Nonnull final K key) {
+        final Entry<V> entry = getEntry(key);
+        if (entry == null || entry.isExpired(clock.getAsLong())) {
+            missCount.incrementAndGet();
+            return null;
+        }
+        if (entry.getValue() == null) {
+            negativeHitCount.incrementAndGet();
+        } else {
+            hitCount.incrementAndGet();
+        }
+        return entry;
+    }
+
+    /**
+     * Gets an expired value that has not been expired for longer than the given staleness.
+     *
+     * @param key The key of the value.
+     * @param maxStaleness The maximum time the value may have been expired.
+     * @return The stale value, or null if it does not exist, has not expired or has been expired for too long.
+     */
+    @Nullable public V getStale(@Nonnull final K key, @Nonnull final Duration maxStaleness) {
+        final Entry<V> entry = getEntry(key);
+        final long now = clock.getAsLong();
+        if (entry == null || !entry.isExpired(now) || now >= entry.getExpiresAt() + maxStaleness.toMillis()) {
+            return null;
+        }
+        staleHitCount.incrementAndGet();
+        return entry.getValue();
+    }
+
+    /**
+     * Gets the entry for the given key, whether it has expired or not. This method does not update the hit and
+     * miss counters.
+     *
+     * @param key The key of the entry.
+     * @return The entry, or null if it does not exist.
+     */
+    @Nullable public Entry<V> getEntry(@Nonnull final K key) {
+        if (!isEnabled()) {
+            return null;
+        }
+        synchronized (entries) {
+            return entries.get(key);
+        }
+    }
+
+    /**
+     * Stores a value with the default time-to-live.
+     *
+     * @param key The key of the value.
+     * @param value The value, may be null.
+     */
+    public void put(@Nonnull final K key, @Nullable final V value) {
+        put(key, value, ttl);
+    }
+
+    /**
+     * Stores a value with the given time-to-live.
+     *
+     * @param key The key of the value.
+     * @param value The value, may be null.
+     * @param timeToLive The time-to-live for this entry.
+     */
+    public void put(@Nonnull final K key, @Nullable final V value, @Nonnull final Duration timeToLive) {
+        put(key, value, timeToLive.toMillis());
+    }
+
+    /**
+     * Stores a value with the given time-to-live.
+     *
+     * @param key The key of the value.
+     * @param value The value, may be null.
+     * @param timeToLive The time-to-live for this entry, in milliseconds.
+     */
+    private void put(@Nonnull final K key, @Nullable final V value, final long timeToLive) {
+        if (!isEnabled() || timeToLive <= 0) {
+            return;
+        }
+        final long now = clock.getAsLong();
+        final Entry<V> entry = new Entry<>(value, now, now + timeToLive);
+        synchronized (entries) {
+            entries.put(key, entry);
+        }
+    }
+
+    /**
+     * Stores a value loaded at the given time with the default time-to-live. Unlike the other put methods, the
+     * value is stored even if it has already expired, so that it is still available as an expired entry.
+     *
+     * @param key The key of the value.
+     * @param value The value, may be null.
+     * @param loadedAt The time when the value was loaded, in milliseconds. A time in the future is taken as now.
+     */
+    public void restore(@Nonnull final K key, @Nullable final V value, final long loadedAt) {
+        if (!isEnabled()) {
+            return;
+        }
+        final long loadTime = Math.min(loadedAt, clock.getAsLong());
+        final Entry<V> entry = new Entry<>(value, loadTime, loadTime + ttl);
+        synchronized (entries) {
+            entries.put(key, entry);
+        }
+    }
+
+    /**
+     * Gets all the entries in the cache, including the expired ones, from the least to the most recently used.
+     * This method does not update the hit and miss counters.
+     *
+     * @return A copy of the entries.
+     */
+    @Nonnull public Map<K, Entry<V>> getEntries() {
+        synchronized (entries) {
+            return new LinkedHashMap<>(entries);
+        }
+    }
+
+    /**
+     * Gets the live values in the cache, from the least to the most recently used. This method does not update the
+     * hit and miss counters.
+     *
+     * @return A copy of the live values, may contain nulls.
+     */
+    @Nonnull public List<V> values() {
+        final long now = clock.getAsLong();
+        synchronized (entries) {
+            final List<V> values = new ArrayList<>(entries.size());
+            for (final Entry<V> entry : entries.values()) {
+                if (!entry.isExpired(now)) {
+                    values.add(entry.getValue());
+                }
+            }
+            return values;
+        }
+    }
+
+    /**
+     * Removes the entry for the given key.
+     *
+     * @param key The key of the entry.
+     */
+    public void invalidate(@Nonnull final K key) {
+        synchronized (entries) {
+            entries.remove(key);
+        }
+    }
+
+    /**
+     * Removes all entries.
+     */
+    public void clear() {
+        synchronized (entries) {
+            entries.clear();
+        }
+    }
+
+    /**
+     * Get the current number of entries, including the expired ones not yet evicted.
+     *
+     * @return The current number of entries.
+     */
+    public int size() {
+        synchronized (entries) {
+            return entries.size();
+        }
+    }
+
+    /**
+     * Get the maximum number of entries.
+     *
+     * @return The maximum number of entries.
+     */
+    public int getMaxEntries() {
+        return maxEntries;
+    }
+
+    /**
+     * Get the default time-to-live for the entries.
+     *
+     * @return The default time-to-live for the entries.
+     */
+    @Nonnull public Duration getTimeToLive() {
+        return Duration.ofMillis(ttl);
+    }
+
+    /**
+     * Get the number of lookups that found a live entry with a value.
+     *
+     * @return The number of hits.
+     */
+    public long getHitCount() {
+        return hitCount.get();
+    }
+
+    /**
+     * Get the number of lookups that did not find a live entry.
+     *
+     * @return The number of misses.
+     */
+    public long getMissCount() {
+        return missCount.get();
+    }
+
+    /**
+     * Get the number of lookups that found a live entry without a value.
+     *
+     * @return The number of negative hits.
+     */
+    public long getNegativeHitCount() {
+        return negativeHitCount.get();
+    }
+
+    /**
+     * Get the number of entries evicted because the cache was full.
+     *
+     * @return The number of evictions.
+     */
+    public long getEvictionCount() {
+        return evictionCount.get();
+    }
+
+    /**
+     * Get the number of lookups that found an expired entry still within the allowed staleness.
+     *
+     * @return The number of stale hits.
+     */
+    public long getStaleHitCount() {
+        return staleHitCount.get();
+    }
+
+    /**
+     * Get the current time used by this cache.
+     *
+     * @return The current time, in milliseconds.
+     */
+    protected long currentTime() {
+        return clock.getAsLong();
+    }
+
+    /**
+     * One cached value with its load and expiration times.
+     *
+     * @param <V> The type of the value.
+     */
+    public static final class Entry<V> {
+
+        /** The cached value. */
+        private final V value;
+
+        /** The time when the value was stored, in milliseconds. */
+        private final long loadedAt;
+
+        /** The time when the value expires, in milliseconds. */
+        private final long expiresAt;
+
+        /**
+         * Constructor.
+         *
+         * @param cachedValue The cached value.
+         * @param loadTime The time when the value was stored, in milliseconds.
+         * @param expirationTime The time when the value expires, in milliseconds.
+         */
+        Entry(@Nullable final V cachedValue, final long loadTime, final long expirationTime) {
+            value = cachedValue;
+            loadedAt = loadTime;
+            expiresAt = expirationTime;
+        }
+
+        /**
+         * Get the cached value.
+         *
+         * @return The cached value.
+         */
+        @Nullable public V getValue() {
+            return value;
+        }
+
+        /**
+         * Get the time when the value was stored.
+         *
+         * @return The time when the value was stored, in milliseconds.
+         */
+        public long getLoadedAt() {
+            return loadedAt;
+        }
+
+        /**
+         * Get the time when the value expires.
+         *
+         * @return The time when the value expires, in milliseconds.
+         */
+        public long getExpiresAt() {
+            return expiresAt;
+        }
+
+        /**
+         * Checks whether the value has expired at the given time.
+         *
+         * @param now The current time, in milliseconds.
+         * @return true if expired, false otherwise.
+         */
+        public boolean isExpired(final long now) {
+            return now >= expiresAt;
+        }
+    }
+}
@@ -0,0 +1,319 @@
+/*
+ * The MIT License
+ * Copyright (c) 2015 CSC - IT Center for Science, http://www.csc.fi
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package fi.mpass.shibboleth.attribute.resolver.dc.impl;
+
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongSupplier;
+
+import javax.annotation.Nonnull;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import net.shibboleth.shared.logic.Constraint;
+
+/**
+ * A circuit breaker for one upstream. The outcomes of the last calls are kept in a fixed-size window, and the
+ * breaker opens when the window is full and the share of failures in it reaches the threshold. While open, the
+ * calls are rejected immediately. After the open duration, a limited number of probe calls are let through: the
+ * breaker closes if all of them succeed and opens again on the first failure. A threshold of zero disables the
+ * breaker.
+ *
+ * The callers must record the outcome of every call permitted by {@link #tryAcquire()} with either
+ * {@link #onSuccess()} or {@link #onFailure()}.
+ */
+public class CircuitBreaker {
+
+    /** The states of the breaker. */
+    public enum State {
+        /** The calls are let through and their outcomes recorded. */
+        CLOSED,
+        /** The calls are rejected. */
+        OPEN,
+        /** A limited number of probe calls are let through. */
+        HALF_OPEN
+    }
+
+    /** Class logger. */
+    private final Logger log = LoggerFactory.getLogger(CircuitBreaker.class);
+
+    /** The name of the upstream, used in logging. */
+    private final String name;
+
+    /** The percentage of failures in the window opening the breaker, zero disables the breaker. */
+    private final int failureRateThreshold;
+
+    /** The outcomes of the last calls, true for a failure. */
+    private final boolean[] window;
+
+    /** The time the breaker stays open before the probe calls, in milliseconds. */
+    private final long openDuration;
+
+    /** The number of successful probe calls closing the breaker. */
+    private final int halfOpenProbes;
+
+    /** The source of the current time, in milliseconds. */
+    private final LongSupplier clock;
+
+    /** The current state. */
+    private State state;
+
+    /** The index of the next outcome in the window. */
+    private int windowIndex;
+
+    /** The number of outcomes in the window. */
+    private int windowCount;
+
+    /** The number of failures in the window. */
+    private int windowFailures;
+
+    /** The time when the breaker was opened, in milliseconds. */
+    private long openedAt;
+
+    /** The number of probe calls let through in the half-open state. */
+    private int probesStarted;
+
+    /** The number of successful probe calls in the half-open state. */
+    private int probesSucceeded;
+
+    /** The number of times the breaker has opened. */
+    private final AtomicLong openedCount;
+
+    /** The number of times the breaker has moved to the half-open state. */
+    private final AtomicLong halfOpenedCount;
+
+    /** The number of times the breaker has closed after probing. */
+    private final AtomicLong closedCount;
+
+    /** The number of calls rejected while the breaker was open or probing. */
+    private final AtomicLong rejectedCount;
+
+    /**
+     * Constructor.
+     *
+     * @param upstreamName The name of the upstream, used in logging.
+     * @param threshold The percentage of failures in the window opening the breaker, zero disables the breaker.
+     * @param windowSize The number of last calls whose outcomes are considered.
+     * @param duration The time the breaker stays open before the probe calls.
+     * @param probes The number of successful probe calls closing the breaker.
+     */
+    public CircuitBreaker(@Nonnull final String upstreamName, final int threshold, final int windowSize,
+            @Nonnull final Duration duration, final int probes) {
+        this(upstreamName, threshold, windowSize, duration, probes, System::currentTimeMillis);
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param upstreamName The name of the upstream, used in logging.
+     * @param threshold The percentage of failures in the window opening the breaker, zero disables the breaker.
+     * @param windowSize The number of last calls whose outcomes are considered.
+     * @param duration The time the breaker stays open before the probe calls.
+     * @param probes The number of successful probe calls closing the breaker.
+     * @param currentTime The source of the current time, in milliseconds.
+     */
+    protected CircuitBreaker(@Nonnull final String upstreamName, final int threshold, final int windowSize,
+            @Nonnull final Duration duration, final int probes, @Nonnull final LongSupplier currentTime) {
+        Constraint.isGreaterThanOrEqual(0, threshold, "The failure rate threshold cannot be negative");
+        Constraint.isTrue(threshold <= 100, "The failure rate threshold cannot exceed 100");
+        Constraint.isGreaterThan(0, windowSize, "The window size must be positive");
+        Constraint.isFalse(Constraint.isNotNull(duration, "The open duration cannot be null").isNegative(),
+                "The open duration cannot be negative");
+        Constraint.isGreaterThan(0, probes, "The number of probe calls must be positive");
+        name = Constraint.isNotNull(upstreamName, "The upstream name cannot be null");
+        failureRateThreshold = threshold;
+        window = new boolean[windowSize];
+        openDuration = duration.toMillis();
+        halfOpenProbes = probes;
+        clock = Constraint.isNotNull(currentTime, "The clock cannot be null");
+        state = State.CLOSED;
+        openedCount = new AtomicLong();
+        halfOpenedCount = new AtomicLong();
+        closedCount = new AtomicLong();
+        rejectedCount = new AtomicLong();
+    }
+
+    /**
+     * Checks whether a call may be made now. When the open duration has passed, the breaker moves to the
+     * half-open state and lets the probe calls through.
+     *
+     * @return true if the call may be made, false if it is rejected.
+     */
+    public synchronized boolean tryAcquire() {
+        if (state == State.OPEN) {
+            if (clock.getAsLong() - openedAt < openDuration) {
+                rejectedCount.incrementAndGet();
+                return false;
+            }
+            state = State.HALF_OPEN;
+            probesStarted = 0;
+            probesSucceeded = 0;
+            halfOpenedCount.incrementAndGet();
+            log.info("Circuit breaker for {} is half-open, probing the upstream", name);
+        }
+        if (state == State.HALF_OPEN) {
+            if (probesStarted >= halfOpenProbes) {
+                rejectedCount.incrementAndGet();
+                return false;
+            }
+            probesStarted++;
+        }
+        return true;
+    }
+
+    /**
+     * Records a successful call.
+     */
+    public synchronized void onSuccess() {
+        if (state == State.HALF_OPEN) {
+            if (++probesSucceeded >= halfOpenProbes) {
+                close();
+            }
+        } else if (state == State.CLOSED) {
+            record(false);
+        }
+    }
+
+    /**
+     * Records a failed call.
+     */
+    public synchronized void onFailure() {
+        if (state == State.HALF_OPEN) {
+            open();
+        } else if (state == State.CLOSED) {
+            record(true);
+            if (failureRateThreshold > 0 && windowCount == window.length
+                    && windowFailures * 100 >= failureRateThreshold * windowCount) {
+                open();
+            }
+        }
+    }
+
+    /**
+     * Records a call abandoned before the upstream answered, such as one that ran out of the time budget of its
+     * caller. The outcome is not recorded, and in the half-open state the probe is given back.
+     */
+    public synchronized void onCancel() {
+        if (state == State.HALF_OPEN && probesStarted > probesSucceeded) {
+            probesStarted--;
+        }
+    }
+
+    /**
+     * Records an outcome in the window, replacing the oldest one when the window is full.
+     *
+     * @param failure Whether the call failed.
+     */
+    private void record(final boolean failure) {
+        if (windowCount == window.length) {
+            if (window[windowIndex]) {
+                windowFailures--;
+            }
+        } else {
+            windowCount++;
+        }
+        window[windowIndex] = failure;
+        if (failure) {
+            windowFailures++;
+        }
+        windowIndex = (windowIndex + 1) % window.length;
+    }
+
+    /**
+     * Opens the breaker.
+     */
+    private void open() {
+        state = State.OPEN;
+        openedAt = clock.getAsLong();
+        openedCount.incrementAndGet();
+        log.warn("Circuit breaker for {} opened, rejecting the calls for {} ms", name, openDuration);
+    }
+
+    /**
+     * Closes the breaker and clears the window.
+     */
+    private void close() {
+        state = State.CLOSED;
+        windowIndex = 0;
+        windowCount = 0;
+        windowFailures = 0;
+        closedCount.incrementAndGet();
+        log.info("Circuit breaker for {} closed", name);
+    }
+
+    /**
+     * Get the current state. An open breaker whose open duration has passed is reported open until the next call.
+     *
+     * @return The current state.
+     */
+    @Nonnull public synchronized State getState() {
+        return state;
+    }
+
+    /**
+     * Get the name of the upstream.
+     *
+     * @return The name of the upstream.
+     */
+    @Nonnull public String getName() {
+        return name;
+    }
+
+    /**
+     * Get the number of times the breaker has opened.
+     *
+     * @return The number of openings.
+     */
+    public long getOpenedCount() {
+        return openedCount.get();
+    }
+
+    /**
+     * Get the number of times the breaker has moved to the half-open state.
+     *
+     * @return The number of half-openings.
+     */
+    public long getHalfOpenedCount() {
+        return halfOpenedCount.get();
+    }
+
+    /**
+     * Get the number of times the breaker has closed after probing.
+     *
+     * @return The number of closings.
+     */
+    public long getClosedCount() {
+        return closedCount.get();
+    }
+
+    /**
+     * Get the number of calls rejected while the breaker was open or probing.
+     *
+     * @return The number of rejected calls.
+     */
+    public long getRejectedCount() {
+        return rejectedCount.get();
+    }
+}
@@ -0,0 +1,148 @@
+/*
+ * The MIT License
+ * Copyright (c) 2015 CSC - IT Center for Science, http://www.csc.fi
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package fi.mpass.shibboleth.attribute.resolver.dc.impl;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Connection usage statistics for one upstream HTTP connection pool used by the {@link RestDataConnector}.
+ *
+ * The counters are maintained by the connector around each request: a request is pending while it waits for
+ * the pool to hand out a connection and the response headers to arrive, and leased until its response entity
+ * has been consumed and the connection returned to the pool.
+ */
+public class ConnectionPoolStatistics {
+
+    /** The name of the upstream, used in logging. */
+    private final String name;
+
+    /** The maximum number of connections in the pool. */
+    private volatile int maxConnections;
+
+    /** The number of requests currently holding a connection. */
+    private final AtomicInteger leased;
+
+    /** The number of requests currently waiting for a connection or a response. */
+    private final AtomicInteger pending;
+
+    /**
+     * Constructor.
+     *
+     * @param upstreamName The name of the upstream, used in logging.
+     */
+    public ConnectionPoolStatistics(final String upstreamName) {
+        name = upstreamName;
+        leased = new AtomicInteger();
+        pending = new AtomicInteger();
+    }
+
+    /**
+     * Records that a request has been sent to the pool.
+     */
+    protected void requestStarted() {
+        pending.incrementAndGet();
+    }
+
+    /**
+     * Records that a pending request received a connection and a response.
+     */
+    protected void connectionLeased() {
+        pending.decrementAndGet();
+        leased.incrementAndGet();
+    }
+
+    /**
+     * Records that a pending request failed before it received a response.
+     */
+    protected void requestFailed() {
+        pending.decrementAndGet();
+    }
+
+    /**
+     * Records that a leased connection has been returned to the pool.
+     */
+    protected void connectionReleased() {
+        leased.decrementAndGet();
+    }
+
+    /**
+     * Get the name of the upstream.
+     *
+     * @return The name of the upstream.
+     */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Get the maximum number of connections in the pool.
+     *
+     * @return The maximum number of connections in the pool.
+     */
+    public int getMaxConnections() {
+        return maxConnections;
+    }
+
+    /**
+     * Set the maximum number of connections in the pool.
+     *
+     * @param max What to set.
+     */
+    protected void setMaxConnections(final int max) {
+        maxConnections = max;
+    }
+
+    /**
+     * Get the number of requests currently holding a connection.
+     *
+     * @return The number of leased connections.
+     */
+    public int getLeased() {
+        return leased.get();
+    }
+
+    /**
+     * Get the number of requests currently waiting for a connection or a response.
+     *
+     * @return The number of pending requests.
+     */
+    public int getPending() {
+        return pending.get();
+    }
+
+    /**
+     * Get the number of connections that can still be leased before requests start to queue.
+     *
+     * @return The number of available connections.
+     */
+    public int getAvailable() {
+        return Math.max(0, maxConnections - leased.get() - pending.get());
+    }
+
+    @Override
+    public String toString() {
+        return "ConnectionPoolStatistics [name=" + name + ", max=" + maxConnections + ", leased=" + getLeased()
+                + ", pending=" + getPending() + ", available=" + getAvailable() + "]";
+    }
+}
@@ -0,0 +1,341 @@
+/*
+ * The MIT License
+ * Copyright (c) 2015 CSC - IT Center for Science, http://www.csc.fi
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package fi.mpass.shibboleth.attribute.resolver.dc.impl;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongSupplier;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import net.shibboleth.shared.logic.Constraint;
+
+/**
+ * Selects one of the replicas of an upstream for each request. The replica is picked either by the least number
+ * of outstanding requests, or by the exponentially weighted moving average (EWMA) of its latencies multiplied by
+ * its outstanding requests plus one. The ties are broken in a round-robin fashion. A replica failing the given
+ * number of consecutive requests is ejected for the given duration. When all the candidate replicas are ejected,
+ * the one whose ejection ends first is used anyway.
+ *
+ * The callers must record the outcome of every request started with {@link #onStart(Endpoint)} with
+ * {@link #onSuccess(Endpoint, long)}, {@link #onFailure(Endpoint)} or {@link #onCancel(Endpoint)}.
+ */
+public class EndpointSelector {
+
+    /** The strategy picking the replica with the least outstanding requests. */
+    public static final String STRATEGY_LEAST_OUTSTANDING = "least-outstanding";
+
+    /** The strategy picking the replica with the lowest EWMA latency weighted by its outstanding requests. */
+    public static final String STRATEGY_EWMA = "ewma";
+
+    /** The weight of a new latency in the moving average. */
+    private static final double EWMA_ALPHA = 0.3;
+
+    /** Class logger. */
+    private final Logger log = LoggerFactory.getLogger(EndpointSelector.class);
+
+    /** The replicas. */
+    private final List<Endpoint> endpoints;
+
+    /** Whether the EWMA latency is considered. */
+    private final boolean ewma;
+
+    /** The number of consecutive failures ejecting a replica, zero disables the ejection. */
+    private final int ejectionThreshold;
+
+    /** The time a replica stays ejected, in nanoseconds. */
+    private final long ejectionDuration;
+
+    /** The source of the current time, in nanoseconds. */
+    private final LongSupplier clock;
+
+    /** The counter rotating the tie-breaking order. */
+    private final AtomicInteger nextIndex;
+
+    /**
+     * Constructor.
+     *
+     * @param urls The URLs of the replicas.
+     * @param strategy The selection strategy, {@link #STRATEGY_LEAST_OUTSTANDING} or {@link #STRATEGY_EWMA}.
+     * @param threshold The number of consecutive failures ejecting a replica, zero disables the ejection.
+     * @param duration The time a replica stays ejected.
+     */
+    public EndpointSelector(@Nonnull final List<String> urls, @Nonnull final String strategy, final int threshold,
+            @Nonnull final Duration duration) {
+        this(urls, strategy, threshold, duration, System::nanoTime);
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param urls The URLs of the replicas.
+     * @param strategy The selection strategy, {@link #STRATEGY_LEAST_OUTSTANDING} or {@link #STRATEGY_EWMA}.
+     * @param threshold The number of consecutive failures ejecting a replica, zero disables the ejection.
+     * @param duration The time a replica stays ejected.
+     * @param currentTime The source of the current time, in nanoseconds.
+     */
+    protected EndpointSelector(@Nonnull final List<String> urls, @Nonnull final String strategy,
+            final int threshold, @Nonnull final Duration duration, @Nonnull final LongSupplier currentTime) {
+        Constraint.isFalse(Constraint.isNotNull(urls, "The URLs cannot be null").isEmpty(),
+                "At least one URL is required");
+        Constraint.isTrue(STRATEGY_LEAST_OUTSTANDING.equals(strategy) || STRATEGY_EWMA.equals(strategy),
+                "Unknown selection strategy " + strategy);
+        Constraint.isGreaterThanOrEqual(0, threshold, "The ejection threshold cannot be negative");
+        Constraint.isFalse(Constraint.isNotNull(duration, "The ejection duration cannot be null").isNegative(),
+                "The ejection duration cannot be negative");
+        final List<Endpoint> replicas = new ArrayList<>(urls.size());
+        for (final String url : urls) {
+            replicas.add(new Endpoint(Constraint.isNotEmpty(url, "The URL cannot be empty")));
+        }
+        endpoints = Collections.unmodifiableList(replicas);
+        ewma = STRATEGY_EWMA.equals(strategy);
+        ejectionThreshold = threshold;
+        ejectionDuration = duration.toNanos();
+        clock = Constraint.isNotNull(currentTime, "The clock cannot be null");
+        nextIndex = new AtomicInteger();
+    }
+
+    /**
+     * Selects a replica for a request.
+     *
+     * @param excluded The replicas not to select, such as the ones already tried for the request.
+     * @return The selected replica, or null if all the replicas are excluded.
+     */
+    @Nullable public Endpoint select(@Nonnull final Collection<Endpoint> excluded) {
+        final long now = clock.getAsLong();
+        final int size = endpoints.size();
+        final int start = Math.floorMod(nextIndex.getAndIncrement(), size);
+        Endpoint best = null;
+        double bestCost = Double.MAX_VALUE;
+        Endpoint leastEjected = null;
+        for (int i = 0; i < size; i++) {
+            final Endpoint endpoint = endpoints.get((start + i) % size);
+            if (excluded.contains(endpoint)) {
+                continue;
+            }
+            final long ejectedUntil = endpoint.ejectedUntil;
+            if (ejectedUntil - now > 0) {
+                if (leastEjected == null || ejectedUntil - leastEjected.ejectedUntil < 0) {
+                    leastEjected = endpoint;
+                }
+                continue;
+            }
+            final double cost = ewma ? endpoint.ewmaLatency * (endpoint.outstanding.get() + 1)
+                    : endpoint.outstanding.get();
+            if (cost < bestCost) {
+                best = endpoint;
+                bestCost = cost;
+            }
+        }
+        return best != null ? best : leastEjected;
+    }
+
+    /**
+     * Records a request started on the given replica.
+     *
+     * @param endpoint The replica.
+     */
+    public void onStart(@Nonnull final Endpoint endpoint) {
+        endpoint.outstanding.incrementAndGet();
+        endpoint.requestCount.incrementAndGet();
+    }
+
+    /**
+     * Records a successful request on the given replica.
+     *
+     * @param endpoint The replica.
+     * @param latency The latency of the request, in nanoseconds.
+     */
+    public void onSuccess(@Nonnull final Endpoint endpoint, final long latency) {
+        endpoint.outstanding.decrementAndGet();
+        synchronized (endpoint) {
+            endpoint.consecutiveFailures = 0;
+            endpoint.ewmaLatency = endpoint.latencySamples == 0 ? latency
+                    : EWMA_ALPHA * latency + (1 - EWMA_ALPHA) * endpoint.ewmaLatency;
+            endpoint.latencySamples++;
+        }
+    }
+
+    /**
+     * Records a failed request on the given replica, ejecting it if it has failed too many times in a row.
+     *
+     * @param endpoint The replica.
+     */
+    public void onFailure(@Nonnull final Endpoint endpoint) {
+        endpoint.outstanding.decrementAndGet();
+        endpoint.failureCount.incrementAndGet();
+        synchronized (endpoint) {
+            if (ejectionThreshold > 0 && ++endpoint.consecutiveFailures >= ejectionThreshold) {
+                endpoint.consecutiveFailures = 0;
+                endpoint.ejectedUntil = clock.getAsLong() + ejectionDuration;
+                endpoint.ejectedCount.incrementAndGet();
+                log.warn("Ejecting {} for {} ms after {} consecutive failures", endpoint.getUrl(),
+                        ejectionDuration / 1000000, ejectionThreshold);
+            }
+        }
+    }
+
+    /**
+     * Records a request on the given replica cancelled before it was answered. The outcome is not recorded.
+     *
+     * @param endpoint The replica.
+     */
+    public void onCancel(@Nonnull final Endpoint endpoint) {
+        endpoint.outstanding.decrementAndGet();
+    }
+
+    /**
+     * Checks whether the given replica is currently ejected.
+     *
+     * @param endpoint The replica.
+     * @return true if ejected, false otherwise.
+     */
+    public boolean isEjected(@Nonnull final Endpoint endpoint) {
+        return endpoint.ejectedUntil - clock.getAsLong() > 0;
+    }
+
+    /**
+     * Get the replicas.
+     *
+     * @return The replicas, in the configured order.
+     */
+    @Nonnull public List<Endpoint> getEndpoints() {
+        return endpoints;
+    }
+
+    /**
+     * One replica of the upstream with its load and health.
+     */
+    public static final class Endpoint {
+
+        /** The URL of the replica. */
+        private final String url;
+
+        /** The number of requests started and not yet answered. */
+        private final AtomicInteger outstanding;
+
+        /** The number of requests started. */
+        private final AtomicLong requestCount;
+
+        /** The number of failed requests. */
+        private final AtomicLong failureCount;
+
+        /** The number of times the replica has been ejected. */
+        private final AtomicLong ejectedCount;
+
+        /** The moving average of the latencies, in nanoseconds. */
+        private volatile double ewmaLatency;
+
+        /** The number of latencies recorded. */
+        private long latencySamples;
+
+        /** The number of failures since the last success or ejection. */
+        private int consecutiveFailures;
+
+        /** The time when the ejection ends, in nanoseconds. */
+        private volatile long ejectedUntil;
+
+        /**
+         * Constructor.
+         *
+         * @param endpointUrl The URL of the replica.
+         */
+        Endpoint(@Nonnull final String endpointUrl) {
+            url = endpointUrl;
+            outstanding = new AtomicInteger();
+            requestCount = new AtomicLong();
+            failureCount = new AtomicLong();
+            ejectedCount = new AtomicLong();
+        }
+
+        /**
+         * Get the URL of the replica.
+         *
+         * @return The URL.
+         */
+        @Nonnull public String getUrl() {
+            return url;
+        }
+
+        /**
+         * Get the number of requests started and not yet answered.
+         *
+         * @return The number of outstanding requests.
+         */
+        public int getOutstanding() {
+            return outstanding.get();
+        }
+
+        /**
+         * Get the number of requests started.
+         *
+         * @return The number of requests.
+         */
+        public long getRequestCount() {
+            return requestCount.get();
+        }
+
+        /**
+         * Get the number of failed requests.
+         *
+         * @return The number of failures.
+         */
+        public long getFailureCount() {
+            return failureCount.get();
+        }
+
+        /**
+         * Get the number of times the replica has been ejected.
+         *
+         * @return The number of ejections.
+         */
+        public long getEjectedCount() {
+            return ejectedCount.get();
+        }
+
+        /**
+         * Get the moving average of the latencies.
+         *
+         * @return The average latency.
+         */
+        @Nonnull public Duration getEwmaLatency() {
+            return Duration.ofNanos((long) ewmaLatency);
+        }
+
+        /** {@inheritDoc} */
+        @Override
+        public String toString() {
+            return url;
+        }
+    }
+}
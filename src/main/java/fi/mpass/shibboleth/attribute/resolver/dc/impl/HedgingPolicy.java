@@ -0,0 +1,214 @@
+/*
+ * The MIT License
+ * Copyright (c) 2015 CSC - IT Center for Science, http://www.csc.fi
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package fi.mpass.shibboleth.attribute.resolver.dc.impl;
+
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+import net.shibboleth.shared.logic.Constraint;
+
+/**
+ * The policy for hedging the requests to one upstream. The latencies of the last requests are kept in a fixed-size
+ * window, and a request that has not answered after the configured percentile of them may be hedged with a second,
+ * identical request. The hedges are limited with a budget: every request earns the configured percentage of a
+ * hedge, and a hedge is sent only when a whole one has been earned. The unused budget is capped, so that a quiet
+ * period cannot be followed by a burst of hedges.
+ */
+public class HedgingPolicy {
+
+    /** The number of latencies needed before any request is hedged. */
+    public static final int MIN_SAMPLES = 20;
+
+    /** The maximum number of unused hedges in the budget. */
+    private static final int MAX_BUDGET = 10;
+
+    /** The number of new latencies after which the hedge delay is recomputed. */
+    private static final int RECOMPUTE_INTERVAL = 16;
+
+    /** The percentile of the latencies after which a request is hedged. */
+    private final int percentile;
+
+    /** The maximum percentage of the requests that are hedged. */
+    private final int maxHedgePercent;
+
+    /** The minimum delay before a request is hedged, in nanoseconds. */
+    private final long minDelay;
+
+    /** The latencies of the last requests, in nanoseconds. */
+    private final long[] latencies;
+
+    /** The number of latencies recorded so far. */
+    private long sampleCount;
+
+    /** The cached hedge delay, in nanoseconds, or a negative value if it must be recomputed. */
+    private long hedgeDelay;
+
+    /** The hedges earned and not yet used, in hundredths of a hedge. */
+    private int budget;
+
+    /** The number of hedged requests. */
+    private final AtomicLong hedgedCount;
+
+    /** The number of hedges not sent because the budget was used up. */
+    private final AtomicLong throttledCount;
+
+    /** The number of hedges that answered before the original request. */
+    private final AtomicLong hedgeWonCount;
+
+    /**
+     * Constructor.
+     *
+     * @param hedgePercentile The percentile of the latencies after which a request is hedged, from 1 to 99.
+     * @param maxPercent The maximum percentage of the requests that are hedged.
+     * @param minHedgeDelay The minimum delay before a request is hedged.
+     * @param windowSize The number of last latencies considered.
+     */
+    public HedgingPolicy(final int hedgePercentile, final int maxPercent, @Nonnull final Duration minHedgeDelay,
+            final int windowSize) {
+        Constraint.isTrue(hedgePercentile > 0 && hedgePercentile < 100, "The percentile must be from 1 to 99");
+        Constraint.isTrue(maxPercent >= 0 && maxPercent <= 100, "The hedge percentage must be from 0 to 100");
+        Constraint.isFalse(Constraint.isNotNull(minHedgeDelay, "The minimum delay cannot be null").isNegative(),
+                "The minimum delay cannot be negative");
+        Constraint.isGreaterThanOrEqual(MIN_SAMPLES, windowSize, "The window size must be at least " + MIN_SAMPLES);
+        percentile = hedgePercentile;
+        maxHedgePercent = maxPercent;
+        minDelay = minHedgeDelay.toNanos();
+        latencies = new long[windowSize];
+        hedgeDelay = -1;
+        hedgedCount = new AtomicLong();
+        throttledCount = new AtomicLong();
+        hedgeWonCount = new AtomicLong();
+    }
+
+    /**
+     * Records the latency of an answered request.
+     *
+     * @param latency The latency, in nanoseconds.
+     */
+    public synchronized void recordLatency(final long latency) {
+        latencies[(int) (sampleCount % latencies.length)] = latency;
+        sampleCount++;
+        if (sampleCount % RECOMPUTE_INTERVAL == 0 || sampleCount == MIN_SAMPLES) {
+            hedgeDelay = -1;
+        }
+    }
+
+    /**
+     * Records a new request, earning a part of a hedge into the budget.
+     */
+    public synchronized void onRequest() {
+        budget = Math.min(MAX_BUDGET * 100, budget + maxHedgePercent);
+    }
+
+    /**
+     * Gets the delay after which a request still not answered is hedged.
+     *
+     * @return The delay, or null if too few latencies have been recorded for hedging.
+     */
+    @Nullable public synchronized Duration getHedgeDelay() {
+        if (sampleCount < MIN_SAMPLES) {
+            return null;
+        }
+        if (hedgeDelay < 0) {
+            final int count = (int) Math.min(sampleCount, latencies.length);
+            final long[] sorted = Arrays.copyOf(latencies, count);
+            Arrays.sort(sorted);
+            // the nearest-rank percentile
+            final int rank = (int) Math.ceil(percentile / 100.0 * count);
+            hedgeDelay = Math.max(minDelay, sorted[Math.max(0, rank - 1)]);
+        }
+        return Duration.ofNanos(hedgeDelay);
+    }
+
+    /**
+     * Takes a hedge from the budget.
+     *
+     * @return true if the request may be hedged, false if the budget has been used up.
+     */
+    public synchronized boolean tryHedge() {
+        if (budget < 100) {
+            throttledCount.incrementAndGet();
+            return false;
+        }
+        budget -= 100;
+        hedgedCount.incrementAndGet();
+        return true;
+    }
+
+    /**
+     * Records a hedge that answered before the original request.
+     */
+    public void onHedgeWon() {
+        hedgeWonCount.incrementAndGet();
+    }
+
+    /**
+     * Get the percentile of the latencies after which a request is hedged.
+     *
+     * @return The percentile.
+     */
+    public int getPercentile() {
+        return percentile;
+    }
+
+    /**
+     * Get the maximum percentage of the requests that are hedged.
+     *
+     * @return The maximum percentage.
+     */
+    public int getMaxHedgePercent() {
+        return maxHedgePercent;
+    }
+
+    /**
+     * Get the number of hedged requests.
+     *
+     * @return The number of hedged requests.
+     */
+    public long getHedgedCount() {
+        return hedgedCount.get();
+    }
+
+    /**
+     * Get the number of hedges not sent because the budget was used up.
+     *
+     * @return The number of throttled hedges.
+     */
+    public long getThrottledCount() {
+        return throttledCount.get();
+    }
+
+    /**
+     * Get the number of hedges that answered before the original request.
+     *
+     * @return The number of won hedges.
+     */
+    public long getHedgeWonCount() {
+        return hedgeWonCount.get();
+    }
+}
@@ -0,0 +1,146 @@
+/*
+ * The MIT License
+ * Copyright (c) 2015 CSC - IT Center for Science, http://www.csc.fi
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package fi.mpass.shibboleth.attribute.resolver.dc.impl;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.time.Duration;
+import java.util.Locale;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.annotation.Nonnull;
+
+import net.shibboleth.shared.logic.Constraint;
+
+/**
+ * Caps the number of concurrent requests to each upstream host with a semaphore per scheme, host and port. A
+ * caller that cannot get a permit within the given time fails instead of waiting for longer.
+ */
+public class HostConcurrencyLimiter {
+
+    /** The maximum number of concurrent requests per host. */
+    private final int maxPerHost;
+
+    /** The permits keyed by the scheme, host and port. */
+    private final ConcurrentMap<String, Semaphore> permits;
+
+    /** The number of callers that could not get a permit in time. */
+    private final AtomicLong rejectedCount;
+
+    /**
+     * Constructor.
+     *
+     * @param max The maximum number of concurrent requests per host.
+     */
+    public HostConcurrencyLimiter(final int max) {
+        Constraint.isGreaterThan(0, max, "The maximum number of concurrent requests per host must be positive");
+        maxPerHost = max;
+        permits = new ConcurrentHashMap<>();
+        rejectedCount = new AtomicLong();
+    }
+
+    /**
+     * Acquires a permit for a request to the host of the given URL. The returned semaphore must be released
+     * when the request has completed.
+     *
+     * @param url The URL of the request.
+     * @param maxWait The maximum time to wait for a permit.
+     * @return The semaphore the permit was acquired from.
+     * @throws IOException If no permit was available in time, or the thread was interrupted while waiting.
+     */
+    @Nonnull public Semaphore acquire(@Nonnull final String url, @Nonnull final Duration maxWait)
+            throws IOException {
+        final String host = getHostKey(url);
+        final Semaphore semaphore = permits.computeIfAbsent(host, key -> new Semaphore(maxPerHost, true));
+        try {
+            if (semaphore.tryAcquire(maxWait.toNanos(), TimeUnit.NANOSECONDS)) {
+                return semaphore;
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for a request permit to " + host);
+        }
+        rejectedCount.incrementAndGet();
+        throw new IOException("Too many concurrent requests to " + host);
+    }
+
+    /**
+     * Get the number of requests currently running to the host of the given URL.
+     *
+     * @param url The URL of the request.
+     * @return The number of requests currently running.
+     */
+    public int getActiveCount(@Nonnull final String url) {
+        final Semaphore semaphore = permits.get(getHostKey(url));
+        return semaphore == null ? 0 : maxPerHost - semaphore.availablePermits();
+    }
+
+    /**
+     * Get the maximum number of concurrent requests per host.
+     *
+     * @return The maximum number of concurrent requests per host.
+     */
+    public int getMaxPerHost() {
+        return maxPerHost;
+    }
+
+    /**
+     * Get the number of callers that could not get a permit in time.
+     *
+     * @return The number of rejected callers.
+     */
+    public long getRejectedCount() {
+        return rejectedCount.get();
+    }
+
+    /**
+     * Builds the key of the host of the given URL, consisting of its scheme, host and port, with the
+     * default port of the scheme if the URL has none. A URL that cannot be parsed is used as such.
+     *
+     * @param url The URL.
+     * @return The key of the host.
+     */
+    @Nonnull public static String getHostKey(@Nonnull final String url) {
+        try {
+            final URI uri = new URI(url);
+            if (uri.getHost() == null) {
+                return url;
+            }
+            final String scheme = uri.getScheme() == null ? "" : uri.getScheme().toLowerCase(Locale.ROOT);
+            int port = uri.getPort();
+            if (port == -1) {
+                port = "https".equals(scheme) ? 443 : 80;
+            }
+            return scheme + "://" + uri.getHost().toLowerCase(Locale.ROOT) + ":" + port;
+        } catch (URISyntaxException e) {
+            return url;
+        }
+    }
+}
@@ -0,0 +1,163 @@
+/*
+ * The MIT License
+ * Copyright (c) 2015 CSC - IT Center for Science, http://www.csc.fi
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+
+package fi.mpass.shibboleth.attribute.resolver.dc.impl;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+/**
+ * Splits and joins the multi-value attribute values, whose values are separated by a single character, without
+ * regular expressions.
+ *
+ * A value is split in a single pass: the backslashes are removed from each value and the value is trimmed as it is
+ * copied, and an empty value becomes null. A backslash does not escape the separator.
+ */
+public final class MultiValueTokenizer {
+
+    /** The escape character removed from the values. */
+    public static final char ESCAPE = '\\';
+
+    /** Constructor. */
+    private MultiValueTokenizer() {
+    }
+
+    /**
+     * Splits the given multi-value attribute value. Like {@link String#split(String, int)} with a negative limit,
+     * the empty values before, between and after the separators are kept, as nulls.
+     *
+     * @param value The multi-value attribute value.
+     * @param separator The separator of the values.
+     * @return The trimmed values without backslashes, null for the empty ones, or null if the whole value is null
+     *         or empty after trimming.
+     */
+    @Nullable public static String[] split(@Nullable final String value, final char separator) {
+        if (value == null || isBlank(value)) {
+            return null;
+        }
+        int count = 1;
+        for (int i = value.indexOf(separator); i >= 0; i = value.indexOf(separator, i + 1)) {
+            count++;
+        }
+        final String[] values = new String[count];
+        int start = 0;
+        for (int i = 0; i < count; i++) {
+            int end = value.indexOf(separator, start);
+            if (end < 0) {
+                end = value.length();
+            }
+            values[i] = token(value, start, end);
+            start = end + 1;
+        }
+        return values;
+    }
+
+    /**
+     * Joins the given fields with the given separator, unless a field contains the separator and the result would
+     * have more fields than given. A null field is joined as "null", like in string concatenation.
+     *
+     * @param separator The separator of the fields.
+     * @param fields The fields.
+     * @return The joined fields, or null if a field contains the separator.
+     */
+    @Nullable public static String join(final char separator, @Nonnull final String... fields) {
+        int length = fields.length - 1;
+        for (final String field : fields) {
+            final String text = String.valueOf(field);
+            if (text.indexOf(separator) >= 0) {
+                return null;
+            }
+            length += text.length();
+        }
+        final StringBuilder builder = new StringBuilder(Math.max(length, 0));
+        for (int i = 0; i < fields.length; i++) {
+            if (i > 0) {
+                builder.append(separator);
+            }
+            builder.append(fields[i]);
+        }
+        return builder.toString();
+    }
+
+    /**
+     * Gets one value between the given indexes, without backslashes and trimmed.
+     *
+     * @param value The multi-value attribute value.
+     * @param start The start index of the value, inclusive.
+     * @param end The end index of the value, exclusive.
+     * @return The value, or null if it is empty.
+     */
+    @Nullable private static String token(@Nonnull final String value, final int start, final int end) {
+        int from = start;
+        while (from < end && isIgnoredAtEnds(value.charAt(from))) {
+            from++;
+        }
+        int to = end;
+        while (to > from && isIgnoredAtEnds(value.charAt(to - 1))) {
+            to--;
+        }
+        if (from == to) {
+            return null;
+        }
+        final int escape = value.indexOf(ESCAPE, from);
+        if (escape < 0 || escape >= to) {
+            return value.substring(from, to);
+        }
+        final StringBuilder builder = new StringBuilder(to - from);
+        builder.append(value, from, escape);
+        for (int i = escape + 1; i < to; i++) {
+            final char c = value.charAt(i);
+            if (c != ESCAPE) {
+                builder.append(c);
+            }
+        }
+        return builder.toString();
+    }
+
+    /**
+     * Checks whether the given value is empty after trimming.
+     *
+     * @param value The value.
+     * @return true if the value only has whitespace, false otherwise.
+     */
+    private static boolean isBlank(@Nonnull final String value) {
+        for (int i = 0; i < value.length(); i++) {
+            if (value.charAt(i) > ' ') {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Checks whether the given character is dropped from the ends of the values: a backslash, or whitespace as
+     * trimmed by {@link String#trim()}.
+     *
+     * @param c The character.
+     * @return true if the character is dropped from the ends, false otherwise.
+     */
+    private static boolean isIgnoredAtEnds(final char c) {
+        return c == ESCAPE || c <= ' ';
+    }
+}
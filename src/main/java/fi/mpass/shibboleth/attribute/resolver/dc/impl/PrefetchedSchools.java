@@ -0,0 +1,111 @@
+/*
+ * The MIT License
+ * Copyright (c) 2015 CSC - IT Center for Science, http://www.csc.fi
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package fi.mpass.shibboleth.attribute.resolver.dc.impl;
+
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+import fi.mpass.shibboleth.attribute.resolver.data.School;
+
+/**
+ * The school information looked up ahead for a single resolution, keyed by the request URL. The lookups complete
+ * concurrently, so the schools may be added from any thread. A school unknown to the API is stored as a missing
+ * value, so that it is told apart from a school that has not been looked up.
+ */
+public class PrefetchedSchools {
+
+    /** The looked up schools. */
+    private final Map<String, Optional<School>> schools;
+
+    /** Whether the resolution deadline has passed before all the lookups completed. */
+    private volatile boolean deadlineExceeded;
+
+    /**
+     * Constructor.
+     */
+    public PrefetchedSchools() {
+        schools = new ConcurrentHashMap<>();
+    }
+
+    /**
+     * Stores a looked up school.
+     *
+     * @param key The request URL of the school.
+     * @param school The school, or null if it is unknown or could not be fetched.
+     */
+    public void put(@Nonnull final String key, @Nullable final School school) {
+        schools.put(key, Optional.ofNullable(school));
+    }
+
+    /**
+     * Checks whether the school has been looked up.
+     *
+     * @param key The request URL of the school.
+     * @return true if the school has been looked up, false otherwise.
+     */
+    public boolean contains(@Nonnull final String key) {
+        return schools.containsKey(key);
+    }
+
+    /**
+     * Gets a copy of a looked up school.
+     *
+     * @param key The request URL of the school.
+     * @return A copy of the school, or null if it is unknown or has not been looked up.
+     */
+    @Nullable public School get(@Nonnull final String key) {
+        final Optional<School> school = schools.get(key);
+        return school == null ? null : school.map(School::new).orElse(null);
+    }
+
+    /**
+     * Gets the number of looked up schools.
+     *
+     * @return The number of looked up schools.
+     */
+    public int size() {
+        return schools.size();
+    }
+
+    /**
+     * Checks whether the resolution deadline has passed before all the lookups completed. The schools not looked
+     * up by then should not be fetched anymore.
+     *
+     * @return true if the deadline has passed, false otherwise.
+     */
+    public boolean isDeadlineExceeded() {
+        return deadlineExceeded;
+    }
+
+    /**
+     * Records that the resolution deadline has passed before all the lookups completed.
+     */
+    public void setDeadlineExceeded() {
+        deadlineExceeded = true;
+    }
+}
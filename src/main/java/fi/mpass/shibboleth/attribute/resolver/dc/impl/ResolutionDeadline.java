@@ -0,0 +1,123 @@
+/*
+ * The MIT License
+ * Copyright (c) 2015 CSC - IT Center for Science, http://www.csc.fi
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package fi.mpass.shibboleth.attribute.resolver.dc.impl;
+
+import java.time.Duration;
+import java.util.function.LongSupplier;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+import net.shibboleth.shared.logic.Constraint;
+
+/**
+ * The overall time budget of one resolution, started when the resolution starts. The remaining budget is passed
+ * down as the timeouts of the upstream requests made by the resolution. The budget may also be unlimited, in which
+ * case the deadline never passes. The deadline also records whether the resolution was degraded, i.e. whether
+ * some of its upstream data was skipped or replaced by a fallback.
+ */
+public class ResolutionDeadline {
+
+    /** The source of the current time, in nanoseconds. */
+    private final LongSupplier clock;
+
+    /** Whether the budget is limited. */
+    private final boolean limited;
+
+    /** The time when the budget runs out, in nanoseconds. */
+    private final long expiresAt;
+
+    /** Whether the resolution was degraded. */
+    private volatile boolean degraded;
+
+    /**
+     * Constructor.
+     *
+     * @param budget The overall time budget, null if the budget is not limited.
+     */
+    public ResolutionDeadline(@Nullable final Duration budget) {
+        this(budget, System::nanoTime);
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param budget The overall time budget, null if the budget is not limited.
+     * @param nanoTime The source of the current time, in nanoseconds.
+     */
+    protected ResolutionDeadline(@Nullable final Duration budget, @Nonnull final LongSupplier nanoTime) {
+        Constraint.isFalse(budget != null && budget.isNegative(), "The budget cannot be negative");
+        clock = Constraint.isNotNull(nanoTime, "The clock cannot be null");
+        limited = budget != null;
+        expiresAt = limited ? clock.getAsLong() + budget.toNanos() : 0;
+    }
+
+    /**
+     * Checks whether the budget is limited.
+     *
+     * @return true if the budget is limited, false if the deadline never passes.
+     */
+    public boolean isLimited() {
+        return limited;
+    }
+
+    /**
+     * Get the remaining budget.
+     *
+     * @return The remaining budget, zero if it has run out, or null if the budget is not limited.
+     */
+    @Nullable public Duration getRemaining() {
+        if (!limited) {
+            return null;
+        }
+        final long remaining = expiresAt - clock.getAsLong();
+        return remaining > 0 ? Duration.ofNanos(remaining) : Duration.ZERO;
+    }
+
+    /**
+     * Checks whether the budget has run out.
+     *
+     * @return true if the budget has run out, false otherwise or if the budget is not limited.
+     */
+    public boolean isExpired() {
+        return limited && expiresAt - clock.getAsLong() <= 0;
+    }
+
+    /**
+     * Marks the resolution as degraded.
+     */
+    public void markDegraded() {
+        degraded = true;
+    }
+
+    /**
+     * Checks whether the resolution was degraded. The result of a degraded resolution is incomplete and should not
+     * be cached.
+     *
+     * @return true if the resolution was degraded, false otherwise.
+     */
+    public boolean isDegraded() {
+        return degraded;
+    }
+}
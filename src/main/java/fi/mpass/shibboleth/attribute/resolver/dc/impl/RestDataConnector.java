@@ -23,51 +23,121 @@
 
 package fi.mpass.shibboleth.attribute.resolver.dc.impl;
 
+import java.io.ByteArrayInputStream;
+import java.io.Closeable;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.InterruptedIOException;
+import java.io.Reader;
+import java.io.UncheckedIOException;
 import java.io.UnsupportedEncodingException;
+import java.net.ConnectException;
 import java.net.URLEncoder;
+import java.net.UnknownHostException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.security.Principal;
+import java.time.Duration;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Locale;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.Objects;
 import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+import java.util.function.Supplier;
 
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
 import javax.security.auth.Subject;
 
 import org.apache.commons.codec.digest.DigestUtils;
+import org.apache.hc.client5.http.ConnectTimeoutException;
+import org.apache.hc.client5.http.async.methods.SimpleHttpRequest;
+import org.apache.hc.client5.http.async.methods.SimpleHttpResponse;
+import org.apache.hc.client5.http.async.methods.SimpleRequestBuilder;
+import org.apache.hc.client5.http.async.methods.SimpleRequestProducer;
+import org.apache.hc.client5.http.auth.AuthScope;
+import org.apache.hc.client5.http.auth.UsernamePasswordCredentials;
 import org.apache.hc.client5.http.classic.HttpClient;
+import org.apache.hc.client5.http.config.ConnectionConfig;
+import org.apache.hc.client5.http.config.RequestConfig;
+import org.apache.hc.client5.http.impl.async.CloseableHttpAsyncClient;
+import org.apache.hc.client5.http.impl.async.HttpAsyncClientBuilder;
+import org.apache.hc.client5.http.impl.async.HttpAsyncClients;
+import org.apache.hc.client5.http.impl.auth.BasicCredentialsProvider;
+import org.apache.hc.client5.http.impl.nio.PoolingAsyncClientConnectionManagerBuilder;
 import org.apache.hc.client5.http.protocol.HttpClientContext;
+import org.apache.hc.client5.http.ssl.ClientTlsStrategyBuilder;
+import org.apache.hc.client5.http.ssl.NoopHostnameVerifier;
+import org.apache.hc.client5.http.ssl.TrustAllStrategy;
+import org.apache.hc.core5.concurrent.FutureCallback;
 import org.apache.hc.core5.http.ClassicHttpRequest;
 import org.apache.hc.core5.http.ClassicHttpResponse;
+import org.apache.hc.core5.http.ContentType;
 import org.apache.hc.core5.http.Header;
+import org.apache.hc.core5.http.HttpEntity;
+import org.apache.hc.core5.http.HttpException;
+import org.apache.hc.core5.http.HttpHost;
+import org.apache.hc.core5.http.HttpResponse;
 import org.apache.hc.core5.http.HttpStatus;
-import org.apache.hc.core5.http.ParseException;
+import org.apache.hc.core5.http.NoHttpResponseException;
 import org.apache.hc.core5.http.io.entity.EntityUtils;
 import org.apache.hc.core5.http.io.support.ClassicRequestBuilder;
-import org.apache.hc.core5.http.protocol.HttpContext;
+import org.apache.hc.core5.io.CloseMode;
+import org.apache.hc.core5.ssl.SSLContextBuilder;
+import org.apache.hc.core5.util.Timeout;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import com.google.gson.Gson;
 import com.google.gson.GsonBuilder;
-import com.google.gson.JsonSyntaxException;
+import com.google.gson.JsonParseException;
+import com.google.gson.stream.JsonReader;
 
+import fi.mpass.shibboleth.attribute.resolver.data.AttributesTypeAdapter;
 import fi.mpass.shibboleth.attribute.resolver.data.OpintopolkuOppilaitosDTO;
 import fi.mpass.shibboleth.attribute.resolver.data.OpintopolkuOppilaitosMetadataDTO;
+import fi.mpass.shibboleth.attribute.resolver.data.OpintopolkuOppilaitosMetadataTypeAdapter;
+import fi.mpass.shibboleth.attribute.resolver.data.OpintopolkuOppilaitosTypeAdapter;
 import fi.mpass.shibboleth.attribute.resolver.data.RolesTypeAdapter;
 import fi.mpass.shibboleth.attribute.resolver.data.School;
 import fi.mpass.shibboleth.attribute.resolver.data.UserDTO;
 import fi.mpass.shibboleth.attribute.resolver.data.UserDTO.AttributesDTO;
 import fi.mpass.shibboleth.attribute.resolver.data.UserDTO.RolesDTO;
+import fi.mpass.shibboleth.attribute.resolver.data.UserTypeAdapter;
 import net.shibboleth.idp.attribute.IdPAttribute;
 import net.shibboleth.idp.attribute.IdPAttributeValue;
-import net.shibboleth.idp.attribute.StringAttributeValue;
 import net.shibboleth.idp.attribute.resolver.AbstractDataConnector;
 import net.shibboleth.idp.attribute.resolver.DataConnector;
 import net.shibboleth.idp.attribute.resolver.ResolutionException;
@@ -77,6 +147,7 @@ import net.shibboleth.idp.attribute.resolver.context.AttributeResolverWorkContex
 import net.shibboleth.idp.authn.context.AuthenticationContext;
 import net.shibboleth.idp.authn.principal.IdPAttributePrincipal;
 import net.shibboleth.shared.annotation.constraint.NotEmpty;
+import net.shibboleth.shared.component.ComponentInitializationException;
 import net.shibboleth.shared.httpclient.HttpClientBuilder;
 import net.shibboleth.shared.logic.Constraint;
 import net.shibboleth.shared.primitive.StringSupport;
@@ -180,18 +251,229 @@ public class RestDataConnector extends AbstractDataConnector {
 
 	public static final String ATTR_ID_EDUCATION_PROVIDER_NAME = "educationProviderNames";
 
+	/** The attribute ids populated from the user object, in the order of their slots in the attribute layout. */
+	private static final String[] LAYOUT_ATTRIBUTE_IDS = {
+		ATTR_ID_USERNAME,
+		ATTR_ID_FIRSTNAME,
+		ATTR_ID_SURNAME,
+		ATTR_ID_NICKNAME,
+		ATTR_ID_SCHOOL_IDS,
+		ATTR_ID_SCHOOL_OIDS,
+		ATTR_ID_SCHOOLS,
+		ATTR_ID_SCHOOL_INFOS,
+		ATTR_ID_EDUCATION_PROVIDER_OID,
+		ATTR_ID_EDUCATION_PROVIDER_NAME,
+		ATTR_ID_EDUCATION_PROVIDER_INFOS,
+		ATTR_ID_LEARNINGMATERIALSCHARGES,
+		ATTR_ID_ROLES,
+		ATTR_ID_MUNICIPALITIES,
+		ATTR_ID_GROUPS,
+		ATTR_ID_GROUP_LEVELS,
+		ATTR_ID_STRUCTURED_ROLES,
+		ATTR_ID_STRUCTURED_ROLES_WID,
+		ATTR_ID_STRUCTURED_ROLES_WITH_PARENT_OID };
+
+	/** The slot of {@link #ATTR_ID_USERNAME} in the attribute layout. */
+	private static final int SLOT_USERNAME = 0;
+
+	/** The slot of {@link #ATTR_ID_FIRSTNAME} in the attribute layout. */
+	private static final int SLOT_FIRSTNAME = 1;
+
+	/** The slot of {@link #ATTR_ID_SURNAME} in the attribute layout. */
+	private static final int SLOT_SURNAME = 2;
+
+	/** The slot of {@link #ATTR_ID_NICKNAME} in the attribute layout. */
+	private static final int SLOT_NICKNAME = 3;
+
+	/** The slot of {@link #ATTR_ID_SCHOOL_IDS} in the attribute layout. */
+	private static final int SLOT_SCHOOL_IDS = 4;
+
+	/** The slot of {@link #ATTR_ID_SCHOOL_OIDS} in the attribute layout. */
+	private static final int SLOT_SCHOOL_OIDS = 5;
+
+	/** The slot of {@link #ATTR_ID_SCHOOLS} in the attribute layout. */
+	private static final int SLOT_SCHOOLS = 6;
+
+	/** The slot of {@link #ATTR_ID_SCHOOL_INFOS} in the attribute layout. */
+	private static final int SLOT_SCHOOL_INFOS = 7;
+
+	/** The slot of {@link #ATTR_ID_EDUCATION_PROVIDER_OID} in the attribute layout. */
+	private static final int SLOT_EDUCATION_PROVIDER_OID = 8;
+
+	/** The slot of {@link #ATTR_ID_EDUCATION_PROVIDER_NAME} in the attribute layout. */
+	private static final int SLOT_EDUCATION_PROVIDER_NAME = 9;
+
+	/** The slot of {@link #ATTR_ID_EDUCATION_PROVIDER_INFOS} in the attribute layout. */
+	private static final int SLOT_EDUCATION_PROVIDER_INFOS = 10;
+
+	/** The slot of {@link #ATTR_ID_LEARNINGMATERIALSCHARGES} in the attribute layout. */
+	private static final int SLOT_LEARNINGMATERIALSCHARGES = 11;
+
+	/** The slot of {@link #ATTR_ID_ROLES} in the attribute layout. */
+	private static final int SLOT_ROLES = 12;
+
+	/** The slot of {@link #ATTR_ID_MUNICIPALITIES} in the attribute layout. */
+	private static final int SLOT_MUNICIPALITIES = 13;
+
+	/** The slot of {@link #ATTR_ID_GROUPS} in the attribute layout. */
+	private static final int SLOT_GROUPS = 14;
+
+	/** The slot of {@link #ATTR_ID_GROUP_LEVELS} in the attribute layout. */
+	private static final int SLOT_GROUP_LEVELS = 15;
+
+	/** The slot of {@link #ATTR_ID_STRUCTURED_ROLES} in the attribute layout. */
+	private static final int SLOT_STRUCTURED_ROLES = 16;
+
+	/** The slot of {@link #ATTR_ID_STRUCTURED_ROLES_WID} in the attribute layout. */
+	private static final int SLOT_STRUCTURED_ROLES_WID = 17;
+
+	/** The slot of {@link #ATTR_ID_STRUCTURED_ROLES_WITH_PARENT_OID} in the attribute layout. */
+	private static final int SLOT_STRUCTURED_ROLES_WITH_PARENT_OID = 18;
+
 	/** The default base URL for fetching school info. */
 	public static final String DEFAULT_BASE_URL_SCHOOL_INFO = "https://virkailija.opintopolku.fi/koodisto-service/rest/codeelement/oppilaitosnumero_";
 
 	public static final String HEADER_NAME_CALLER_ID = "caller-id";
+
+	/**
+	 * The default maximum number of pooled connections, both in total and per route, for each upstream: 0 keeps the
+	 * pool sizes set on the {@link HttpClientBuilder}.
+	 */
+	public static final int DEFAULT_MAX_CONNECTIONS = 0;
+
+	/** The maximum number of pooled connections of HttpClient when neither the connector nor the builder sets it. */
+	private static final int HTTP_CLIENT_MAX_CONNECTIONS_TOTAL = 25;
+
+	/**
+	 * The maximum number of pooled connections per route of HttpClient when neither the connector nor the builder
+	 * sets it.
+	 */
+	private static final int HTTP_CLIENT_MAX_CONNECTIONS_PER_ROUTE = 5;
+
+	/** The default time-to-live for the cached school information. */
+	public static final Duration DEFAULT_SCHOOL_CACHE_TTL = Duration.ofHours(1);
+
+	/** The default maximum number of cached school information entries. */
+	public static final int DEFAULT_SCHOOL_CACHE_MAX_ENTRIES = 10000;
+
+	/** The default time-to-live for the cached unknown school codes. */
+	public static final Duration DEFAULT_SCHOOL_NEGATIVE_CACHE_TTL = Duration.ofMinutes(5);
+
+	/** The default maximum staleness for the cached school information. */
+	public static final Duration DEFAULT_SCHOOL_CACHE_MAX_STALENESS = Duration.ZERO;
+
+	/** The default maximum number of concurrent background refreshes of the school information. */
+	public static final int DEFAULT_SCHOOL_REFRESH_MAX_CONCURRENCY = 2;
+
+	/** The default maximum size of a response body, in bytes. */
+	public static final int DEFAULT_MAX_RESPONSE_SIZE = 1024 * 1024;
+
+	/** The default interval for writing the school snapshot. */
+	public static final Duration DEFAULT_SCHOOL_SNAPSHOT_INTERVAL = Duration.ofMinutes(15);
+
+	/** The default time-to-live for the cached user data, zero disables the cache. */
+	public static final Duration DEFAULT_USER_CACHE_TTL = Duration.ZERO;
+
+	/** The default maximum number of cached user data entries. */
+	public static final int DEFAULT_USER_CACHE_MAX_ENTRIES = 10000;
+
+	/** The default time-to-live for the cached resolved attributes, zero disables the cache. */
+	public static final Duration DEFAULT_RESOLVED_ATTRIBUTE_CACHE_TTL = Duration.ZERO;
+
+	/** The default maximum number of cached resolved attribute entries. */
+	public static final int DEFAULT_RESOLVED_ATTRIBUTE_CACHE_MAX_ENTRIES = 10000;
+
+	/** The default maximum number of concurrent blocking school lookups, shared by all resolutions. */
+	public static final int DEFAULT_SCHOOL_LOOKUP_MAX_CONCURRENCY = 16;
+
+	/** The default overall deadline for a resolution: zero, the resolutions are only limited by the HTTP timeouts. */
+	public static final Duration DEFAULT_RESOLUTION_TIMEOUT = Duration.ZERO;
+
+	/** The execution mode running the blocking upstream I/O on a bounded pool of platform threads. */
+	public static final String EXECUTION_MODE_PLATFORM = "platform";
+
+	/** The execution mode running the blocking upstream I/O on a new virtual thread per task. */
+	public static final String EXECUTION_MODE_VIRTUAL = "virtual";
+
+	/** The default maximum number of concurrent blocking requests per upstream host in the virtual mode. */
+	public static final int DEFAULT_UPSTREAM_MAX_CONCURRENCY_PER_HOST = 100;
+
+	/**
+	 * The default percentage of failed calls opening the school information API circuit breaker. The breaker is
+	 * disabled by default, as an open breaker emits the raw codes of the schools missing from the cache.
+	 */
+	public static final int DEFAULT_CIRCUIT_BREAKER_FAILURE_RATE_THRESHOLD = 0;
+
+	/**
+	 * The default percentage of failed calls opening the REST API circuit breaker. The breaker is disabled by
+	 * default, as without the last known user data an open breaker fails every resolution.
+	 */
+	public static final int DEFAULT_ENDPOINT_CIRCUIT_BREAKER_FAILURE_RATE_THRESHOLD = 0;
+
+	/** The default number of last calls considered by a circuit breaker. */
+	public static final int DEFAULT_CIRCUIT_BREAKER_WINDOW_SIZE = 20;
+
+	/** The default time a circuit breaker stays open before probing the upstream. */
+	public static final Duration DEFAULT_CIRCUIT_BREAKER_OPEN_DURATION = Duration.ofSeconds(30);
+
+	/** The default number of successful probe calls closing a circuit breaker. */
+	public static final int DEFAULT_CIRCUIT_BREAKER_HALF_OPEN_PROBES = 3;
+
+	/** The default time-to-live for the last known user data, zero disables the cache. */
+	public static final Duration DEFAULT_LAST_KNOWN_USER_CACHE_TTL = Duration.ZERO;
+
+	/** The default maximum number of last known user data entries. */
+	public static final int DEFAULT_LAST_KNOWN_USER_CACHE_MAX_ENTRIES = 10000;
+
+	/** The default percentile of the REST API latencies after which a call is hedged, zero disables hedging. */
+	public static final int DEFAULT_ENDPOINT_HEDGE_PERCENTILE = 0;
+
+	/** The default maximum percentage of the REST API calls that are hedged. */
+	public static final int DEFAULT_ENDPOINT_HEDGE_MAX_PERCENT = 5;
+
+	/** The default minimum delay before a REST API call is hedged. */
+	public static final Duration DEFAULT_ENDPOINT_HEDGE_MIN_DELAY = Duration.ofMillis(20);
+
+	/** The default strategy selecting one of the REST API endpoints for each call. */
+	public static final String DEFAULT_ENDPOINT_SELECTION = EndpointSelector.STRATEGY_LEAST_OUTSTANDING;
+
+	/** The default number of retries on another REST API endpoint after a connection failure, none by default. */
+	public static final int DEFAULT_ENDPOINT_MAX_RETRIES = 0;
+
+	/** The default number of consecutive failures ejecting a REST API endpoint, zero disables the ejection. */
+	public static final int DEFAULT_ENDPOINT_EJECTION_THRESHOLD = 5;
+
+	/** The default time an ejected REST API endpoint is not used. */
+	public static final Duration DEFAULT_ENDPOINT_EJECTION_DURATION = Duration.ofSeconds(30);
+
+	/** The number of last REST API latencies considered for the hedge delay. */
+	private static final int ENDPOINT_HEDGE_WINDOW_SIZE = 1000;
 	
 	private static final String DEFAULT_ATTR_VALUE_SEPARATOR = ";";
 
+	/** The separator of the multi-value attribute values, as a character. */
+	private static final char DEFAULT_ATTR_VALUE_SEPARATOR_CHAR = ';';
+
 	/** Class logging. */
 	private final Logger log = LoggerFactory.getLogger(RestDataConnector.class);
 
-	/** The endpoint URL for the REST server. */
-	private String endpointUrl;
+	/** The endpoint URLs for the replicas of the REST server. */
+	private List<String> endpointUrls;
+
+	/** The selector of the REST API endpoint for each call, built on first use. */
+	private volatile EndpointSelector endpointSelector;
+
+	/** The strategy selecting one of the REST API endpoints for each call. */
+	private String endpointSelection;
+
+	/** The number of retries on another REST API endpoint after a connection failure. */
+	private int endpointMaxRetries;
+
+	/** The number of consecutive failures ejecting a REST API endpoint, zero disables the ejection. */
+	private int endpointEjectionThreshold;
+
+	/** The time an ejected REST API endpoint is not used. */
+	private Duration endpointEjectionDuration;
 
 	/** The attribute used for hooking the user object from the REST server. */
 	private String hookAttribute;
@@ -202,6 +484,9 @@ public class RestDataConnector extends AbstractDataConnector {
 	/** The attribute id prefix for the resulting attributes. */
 	private String resultAttributePrefix;
 
+	/** The compiled names of the resulting attributes, null when not yet compiled. */
+	private volatile AttributeLayout attributeLayout;
+
 	/** The token used for authenticating to the REST server. */
 	private String token;
 
@@ -213,6 +498,177 @@ public class RestDataConnector extends AbstractDataConnector {
 
 	/** The {@link HttpClientBuilder} used for constructing HTTP clients. */
 	private HttpClientBuilder httpClientBuilder;
+
+	/** The maximum number of pooled connections to the REST server, 0 for the value of the builder. */
+	private int endpointMaxConnectionsTotal;
+
+	/** The maximum number of pooled connections per route to the REST server, 0 for the value of the builder. */
+	private int endpointMaxConnectionsPerRoute;
+
+	/** The maximum number of pooled connections to the school information API, 0 for the value of the builder. */
+	private int nameApiMaxConnectionsTotal;
+
+	/**
+	 * The maximum number of pooled connections per route to the school information API, 0 for the value of the
+	 * builder.
+	 */
+	private int nameApiMaxConnectionsPerRoute;
+
+	/** The pooled HTTP client used for the REST server, shared by all resolutions. */
+	private volatile HttpClient endpointHttpClient;
+
+	/** The pooled HTTP client used for the school information API, shared by all resolutions. */
+	private volatile HttpClient nameApiHttpClient;
+
+	/** The connection statistics for the REST server pool. */
+	private final ConnectionPoolStatistics endpointPoolStatistics;
+
+	/** The connection statistics for the school information API pool. */
+	private final ConnectionPoolStatistics nameApiPoolStatistics;
+
+	/** The maximum size of a response body, in bytes. */
+	private int maxResponseSize;
+
+	/** The shared Gson instance for parsing the ECA user data API responses. */
+	private final Gson userGson;
+
+	/** The shared Gson instance for parsing the school information API responses. */
+	private final Gson schoolGson;
+
+	/** The cache for school information, keyed by the request URL. */
+	private BoundedTtlCache<String, School> schoolCache;
+
+	/** The coalesced school information lookups currently in flight, keyed by the request URL. */
+	private final SingleFlight<String, School> schoolLookups;
+
+	/** The circuit breakers for the school information API, keyed by its base URL. */
+	private final Map<String, CircuitBreaker> nameApiCircuitBreakers;
+
+	/** The percentage of failed calls opening a name API circuit breaker, zero disables the breakers. */
+	private int nameApiCircuitBreakerFailureRateThreshold;
+
+	/** The number of last calls considered by a name API circuit breaker. */
+	private int nameApiCircuitBreakerWindowSize;
+
+	/** The time a name API circuit breaker stays open before probing the API. */
+	private Duration nameApiCircuitBreakerOpenDuration;
+
+	/** The number of successful probe calls closing a name API circuit breaker. */
+	private int nameApiCircuitBreakerHalfOpenProbes;
+
+	/** The time-to-live for the cached unknown school codes. */
+	private Duration schoolNegativeCacheTtl;
+
+	/** The maximum time an expired school information entry is served while it is refreshed. */
+	private Duration schoolCacheMaxStaleness;
+
+	/** The maximum number of concurrent background refreshes of the school information. */
+	private int schoolRefreshMaxConcurrency;
+
+	/** The executor for the background refreshes of the school information. */
+	private volatile ExecutorService schoolRefreshExecutor;
+
+	/** The maximum number of concurrent blocking school lookups, zero looks the schools up one at a time. */
+	private int schoolLookupMaxConcurrency;
+
+	/** The executor for the concurrent blocking school lookups. */
+	private volatile ExecutorService schoolLookupExecutor;
+
+	/** The execution mode for the blocking upstream I/O, platform or virtual. */
+	private String upstreamExecutionMode;
+
+	/** The maximum number of concurrent blocking requests per upstream host in the virtual mode. */
+	private int upstreamMaxConcurrencyPerHost;
+
+	/** The limiter for the blocking requests per upstream host, null unless in the virtual mode. */
+	private volatile HostConcurrencyLimiter hostConcurrencyLimiter;
+
+	/** The keys of the school information entries currently being refreshed. */
+	private final Set<String> schoolRefreshes;
+
+	/** The URL for the full school code set to be preloaded at initialization. */
+	private String schoolPreloadUrl;
+
+	/** The local JSON file containing the full school code set to be preloaded at initialization. */
+	private String schoolPreloadFile;
+
+	/** The preloaded school directory. */
+	private volatile SchoolDirectory schoolDirectory;
+
+	/** The base URL of the school information API the directory was preloaded for, null if not preloaded. */
+	private volatile String schoolDirectoryBaseUrl;
+
+	/** The file where the resolved schools are periodically written and read from at initialization. */
+	private String schoolSnapshotFile;
+
+	/** The interval for writing the school snapshot. */
+	private Duration schoolSnapshotInterval;
+
+	/** The scheduler for writing the school snapshot. */
+	private ScheduledExecutorService schoolSnapshotWriter;
+
+	/** The cache for the user data, keyed by the IdP id and the hashed authn id. */
+	private BoundedTtlCache<String, UserDTO> userCache;
+
+	/** The last known user data, served while REST API is not available. */
+	private BoundedTtlCache<String, UserDTO> lastKnownUserCache;
+
+	/** The circuit breaker for REST API, built on first use. */
+	private volatile CircuitBreaker endpointCircuitBreaker;
+
+	/** The percentage of failed calls opening the REST API circuit breaker, zero disables the breaker. */
+	private int endpointCircuitBreakerFailureRateThreshold;
+
+	/** The number of last calls considered by the REST API circuit breaker. */
+	private int endpointCircuitBreakerWindowSize;
+
+	/** The time the REST API circuit breaker stays open before probing the API. */
+	private Duration endpointCircuitBreakerOpenDuration;
+
+	/** The number of successful probe calls closing the REST API circuit breaker. */
+	private int endpointCircuitBreakerHalfOpenProbes;
+
+	/** The hedging policy for REST API, built on first use, or null if hedging is disabled. */
+	private volatile HedgingPolicy endpointHedgingPolicy;
+
+	/** The percentile of the REST API latencies after which a call is hedged, zero disables hedging. */
+	private int endpointHedgePercentile;
+
+	/** The maximum percentage of the REST API calls that are hedged. */
+	private int endpointHedgeMaxPercent;
+
+	/** The minimum delay before a REST API call is hedged. */
+	private Duration endpointHedgeMinDelay;
+
+	/** The IdP ids whose user data and resolved attributes are never cached. */
+	private Set<String> userCacheExcludedIdps;
+
+	/** The cache for the resolved attributes, keyed by the IdP id, the hashed inputs and the configuration. */
+	private BoundedTtlCache<String, Map<String, IdPAttribute>> resolvedAttributeCache;
+
+	/** The fingerprint of the settings affecting the resolved attributes, null when not yet computed. */
+	private volatile String configurationFingerprint;
+
+	/** Whether the resolutions call the upstreams with the asynchronous HTTP client. */
+	private boolean asyncEnabled;
+
+	/** The overall deadline for a resolution, zero if not limited. */
+	private Duration resolutionTimeout;
+
+	/** The asynchronous HTTP client used for the REST server, shared by all resolutions. */
+	private volatile CloseableHttpAsyncClient endpointAsyncHttpClient;
+
+	/** The asynchronous HTTP client used for the school information API, shared by all resolutions. */
+	private volatile CloseableHttpAsyncClient nameApiAsyncHttpClient;
+
+	/** The asynchronous school information lookups currently in flight, keyed by the request URL. */
+	private final Map<String, CompletableFuture<School>> asyncSchoolLookups;
+
+	/** The school information looked up ahead for the resolution running in the current thread. */
+	private final ThreadLocal<PrefetchedSchools> prefetchedSchools;
+
+	/** The deadline of the resolution running in the current thread. */
+	private final ThreadLocal<ResolutionDeadline> resolutionDeadline;
 	
 	/**
 	 * The map used for mapping school roles to the roles used in MPASSid.
@@ -235,6 +691,9 @@ public class RestDataConnector extends AbstractDataConnector {
 	 */
 	private Set<String> studentRoles;
 
+	/** The compiled school role settings, null when not yet compiled. */
+	private volatile RoleTable roleTable;
+
 	/**
 	 * The organisation types which are offices.
 	 */
@@ -276,6 +735,130 @@ public class RestDataConnector extends AbstractDataConnector {
 		allowedSchoolRoles = Collections.emptySet();
 		studentRoles = Collections.emptySet();
 		officeTypes = Collections.emptySet();
+		endpointMaxConnectionsTotal = DEFAULT_MAX_CONNECTIONS;
+		endpointMaxConnectionsPerRoute = DEFAULT_MAX_CONNECTIONS;
+		nameApiMaxConnectionsTotal = DEFAULT_MAX_CONNECTIONS;
+		nameApiMaxConnectionsPerRoute = DEFAULT_MAX_CONNECTIONS;
+		endpointPoolStatistics = new ConnectionPoolStatistics("endpoint");
+		nameApiPoolStatistics = new ConnectionPoolStatistics("nameApi");
+		maxResponseSize = DEFAULT_MAX_RESPONSE_SIZE;
+		userGson = buildUserGson();
+		schoolGson = buildSchoolGson();
+		schoolCache = new BoundedTtlCache<>(DEFAULT_SCHOOL_CACHE_MAX_ENTRIES, DEFAULT_SCHOOL_CACHE_TTL);
+		schoolLookups = new SingleFlight<>();
+		nameApiCircuitBreakers = new ConcurrentHashMap<>();
+		nameApiCircuitBreakerFailureRateThreshold = DEFAULT_CIRCUIT_BREAKER_FAILURE_RATE_THRESHOLD;
+		nameApiCircuitBreakerWindowSize = DEFAULT_CIRCUIT_BREAKER_WINDOW_SIZE;
+		nameApiCircuitBreakerOpenDuration = DEFAULT_CIRCUIT_BREAKER_OPEN_DURATION;
+		nameApiCircuitBreakerHalfOpenProbes = DEFAULT_CIRCUIT_BREAKER_HALF_OPEN_PROBES;
+		schoolNegativeCacheTtl = DEFAULT_SCHOOL_NEGATIVE_CACHE_TTL;
+		schoolCacheMaxStaleness = DEFAULT_SCHOOL_CACHE_MAX_STALENESS;
+		schoolRefreshMaxConcurrency = DEFAULT_SCHOOL_REFRESH_MAX_CONCURRENCY;
+		schoolLookupMaxConcurrency = DEFAULT_SCHOOL_LOOKUP_MAX_CONCURRENCY;
+		upstreamExecutionMode = EXECUTION_MODE_PLATFORM;
+		upstreamMaxConcurrencyPerHost = DEFAULT_UPSTREAM_MAX_CONCURRENCY_PER_HOST;
+		schoolRefreshes = ConcurrentHashMap.newKeySet();
+		schoolDirectory = SchoolDirectory.EMPTY;
+		schoolSnapshotInterval = DEFAULT_SCHOOL_SNAPSHOT_INTERVAL;
+		userCache = new BoundedTtlCache<>(DEFAULT_USER_CACHE_MAX_ENTRIES, DEFAULT_USER_CACHE_TTL);
+		lastKnownUserCache = new BoundedTtlCache<>(DEFAULT_LAST_KNOWN_USER_CACHE_MAX_ENTRIES,
+				DEFAULT_LAST_KNOWN_USER_CACHE_TTL);
+		endpointCircuitBreakerFailureRateThreshold = DEFAULT_ENDPOINT_CIRCUIT_BREAKER_FAILURE_RATE_THRESHOLD;
+		endpointCircuitBreakerWindowSize = DEFAULT_CIRCUIT_BREAKER_WINDOW_SIZE;
+		endpointCircuitBreakerOpenDuration = DEFAULT_CIRCUIT_BREAKER_OPEN_DURATION;
+		endpointCircuitBreakerHalfOpenProbes = DEFAULT_CIRCUIT_BREAKER_HALF_OPEN_PROBES;
+		endpointUrls = Collections.emptyList();
+		endpointSelection = DEFAULT_ENDPOINT_SELECTION;
+		endpointMaxRetries = DEFAULT_ENDPOINT_MAX_RETRIES;
+		endpointEjectionThreshold = DEFAULT_ENDPOINT_EJECTION_THRESHOLD;
+		endpointEjectionDuration = DEFAULT_ENDPOINT_EJECTION_DURATION;
+		endpointHedgePercentile = DEFAULT_ENDPOINT_HEDGE_PERCENTILE;
+		endpointHedgeMaxPercent = DEFAULT_ENDPOINT_HEDGE_MAX_PERCENT;
+		endpointHedgeMinDelay = DEFAULT_ENDPOINT_HEDGE_MIN_DELAY;
+		userCacheExcludedIdps = Collections.emptySet();
+		resolvedAttributeCache = new BoundedTtlCache<>(DEFAULT_RESOLVED_ATTRIBUTE_CACHE_MAX_ENTRIES,
+				DEFAULT_RESOLVED_ATTRIBUTE_CACHE_TTL);
+		resolutionTimeout = DEFAULT_RESOLUTION_TIMEOUT;
+		asyncSchoolLookups = new ConcurrentHashMap<>();
+		prefetchedSchools = new ThreadLocal<>();
+		resolutionDeadline = new ThreadLocal<>();
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	protected void doInitialize() throws ComponentInitializationException {
+		super.doInitialize();
+		getAttributeLayout();
+		getRoleTable();
+		try {
+			getEndpointHttpClient();
+			getNameApiHttpClient();
+			if (asyncEnabled) {
+				getEndpointAsyncHttpClient();
+				getNameApiAsyncHttpClient();
+			}
+		} catch (Exception e) {
+			throw new ComponentInitializationException("Could not build the HTTP clients", e);
+		}
+		if (endpointHedgePercentile > 0 && !asyncEnabled) {
+			log.warn("The REST API calls are hedged only with the asynchronous HTTP client, ignoring hedging");
+		}
+		if (schoolSnapshotFile != null) {
+			readSchoolSnapshot();
+		}
+		if (schoolPreloadFile != null || schoolPreloadUrl != null) {
+			final SchoolDirectory directory = loadSchoolDirectory();
+			if (directory != null) {
+				schoolDirectoryBaseUrl = nameApiBaseUrl;
+				schoolDirectory = directory;
+				log.info("Preloaded {} schools", directory.size());
+			} else {
+				log.warn("Could not preload the schools, resolving them on demand");
+			}
+		}
+		if (schoolSnapshotFile != null && !schoolSnapshotInterval.isZero()) {
+			schoolSnapshotWriter = Executors.newSingleThreadScheduledExecutor(runnable -> {
+				final Thread thread = new Thread(runnable, "school-snapshot-" + getId());
+				thread.setDaemon(true);
+				return thread;
+			});
+			final long interval = schoolSnapshotInterval.toMillis();
+			schoolSnapshotWriter.scheduleWithFixedDelay(this::writeSchoolSnapshot, interval, interval,
+					TimeUnit.MILLISECONDS);
+		}
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	protected void doDestroy() {
+		if (schoolSnapshotWriter != null) {
+			schoolSnapshotWriter.shutdownNow();
+			schoolSnapshotWriter = null;
+		}
+		writeSchoolSnapshot();
+		synchronized (this) {
+			if (schoolRefreshExecutor != null) {
+				schoolRefreshExecutor.shutdownNow();
+				schoolRefreshExecutor = null;
+			}
+			if (schoolLookupExecutor != null) {
+				schoolLookupExecutor.shutdownNow();
+				schoolLookupExecutor = null;
+			}
+		}
+		closeQuietly(endpointHttpClient);
+		endpointHttpClient = null;
+		closeQuietly(nameApiHttpClient);
+		nameApiHttpClient = null;
+		if (endpointAsyncHttpClient != null) {
+			endpointAsyncHttpClient.close(CloseMode.GRACEFUL);
+			endpointAsyncHttpClient = null;
+		}
+		if (nameApiAsyncHttpClient != null) {
+			nameApiAsyncHttpClient.close(CloseMode.GRACEFUL);
+			nameApiAsyncHttpClient = null;
+		}
+		super.doDestroy();
 	}
 
 	/**
@@ -287,6 +870,7 @@ public class RestDataConnector extends AbstractDataConnector {
 	 */
 	public void setPrincipalMappings(final Map<String, Map<String, String>> mappings) {
 		principalMappings = Constraint.isNotNull(mappings, "The map for attributes to principals cannot be null");
+		configurationFingerprint = null;
 	}
 
 	/**
@@ -296,6 +880,7 @@ public class RestDataConnector extends AbstractDataConnector {
 	 */
 	public void setStaticValues(final Map<String, Map<String, String>> values) {
 		staticValues = Constraint.isNotNull(values, "The map for static values cannot be null");
+		configurationFingerprint = null;
 	}
 	
 	/**
@@ -305,6 +890,8 @@ public class RestDataConnector extends AbstractDataConnector {
 	 */
 	public void setSchoolRoleMappings(final Map<String,String> mappings) {
 		schoolRoleMappings = Constraint.isNotNull(mappings, "The map for school roles cannot be null");
+		roleTable = null;
+		configurationFingerprint = null;
 	}
 	
 	public Map<String,String> getSchoolRoleMappings() {
@@ -318,6 +905,8 @@ public class RestDataConnector extends AbstractDataConnector {
 	 */
 	public void setSchoolRoleCodeMappings(final Map<String,String> mappings) {
 		schoolRoleCodeMappings = Constraint.isNotNull(mappings, "The map for Mpass roles cannot be null");
+		roleTable = null;
+		configurationFingerprint = null;
 	}
 	
 	public Map<String,String> getSchoolRoleCodeMappings() {
@@ -336,6 +925,8 @@ public class RestDataConnector extends AbstractDataConnector {
 	 */
 	public void setAllowedSchoolRoles(final Set<String> roles) {
 		allowedSchoolRoles = roles;
+		roleTable = null;
+		configurationFingerprint = null;
 	}
 	
 	/**
@@ -350,6 +941,8 @@ public class RestDataConnector extends AbstractDataConnector {
 	 */
 	public void setStudentRoles(final Set<String> roles) {
 		studentRoles = roles;
+		roleTable = null;
+		configurationFingerprint = null;
 	}
 
 	/** {@inheritDoc} */
@@ -367,50 +960,210 @@ public class RestDataConnector extends AbstractDataConnector {
 			throw new ResolutionException("Could not resolve idpId value");
 		}
 
-		final UserDTO ecaUser;
-		if (principalMappings.keySet().contains(idpIdValue)) {
-			log.debug("The direct attribute mapping settings found for IdP {}", idpIdValue);
-			ecaUser = getUserDetailsFromIdpAttributes(idpIdValue, attributeResolutionContext);
-		} else {
-			log.debug("The direct attribute mapping settings were not found for IdP {}", idpIdValue);
-			ecaUser = getUserDetailsViaRest(idpIdValue, attributeResolverWorkContext);
-		}
-
-		if (ecaUser != null ) {
-			if (ecaUser.getAttributes() != null && (ecaUser.getRoles() == null || ecaUser.getRoles().length == 0)) {
-				final String schoolIds = ecaUser.getAttribute(ATTR_ID_SCHOOL_CODES) != null
-						? ecaUser.getAttribute(ATTR_ID_SCHOOL_CODES).getValue()
-						: null;
-				final String groups = ecaUser.getAttribute(ATTR_ID_CLASSES) != null
-						? ecaUser.getAttribute(ATTR_ID_CLASSES).getValue()
-						: null;
-				final String schoolRoles = ecaUser.getAttribute(ATTR_ID_SCHOOL_ROLES) != null
-						? ecaUser.getAttribute(ATTR_ID_SCHOOL_ROLES).getValue()
-						: null;
-				final String groupLevel = ecaUser.getAttribute(ATTR_ID_GRADE) != null
-						? ecaUser.getAttribute(ATTR_ID_GRADE).getValue()
-						: null;
-				final String municipality = ecaUser.getAttribute(ATTR_ID_MUNICIPALITIES) != null
-						? ecaUser.getAttribute(ATTR_ID_MUNICIPALITIES).getValue()
-						: null;
-				final String learningMaterialsCharge = ecaUser.getAttribute(ATTR_ID_LEARNINGMATERIALSCHARGES) != null
-						? ecaUser.getAttribute(ATTR_ID_LEARNINGMATERIALSCHARGES).getValue()
-						: null;
-
-				if (schoolIds != null && schoolRoles != null) {
-					log.debug("Trying to set RoleDTOs");
-					log.debug("Values: learningMaterialsCharge {}", learningMaterialsCharge);
-					ecaUser.setRoles(populateRolesDTOs(schoolIds, groups, schoolRoles, learningMaterialsCharge, groupLevel, municipality));
-				} else {
-					log.debug("Could not set RolesDTO. Didn't find any schools or roles.");
+		final String resolvedAttributeCacheKey = getResolvedAttributeCacheKey(idpIdValue, attributeResolutionContext,
+				attributeResolverWorkContext);
+		if (resolvedAttributeCacheKey != null) {
+			final Map<String, IdPAttribute> cachedAttributes = resolvedAttributeCache.get(resolvedAttributeCacheKey);
+			if (cachedAttributes != null) {
+				log.debug("Using the cached attributes for idpId {}", idpIdValue);
+				return copyAttributes(cachedAttributes);
+			}
+		}
+
+		final ResolutionDeadline deadline = new ResolutionDeadline(resolutionTimeout.isZero() ? null : resolutionTimeout);
+		resolutionDeadline.set(deadline);
+		try {
+			final UserDTO ecaUser;
+			PrefetchedSchools schools = null;
+			if (principalMappings.keySet().contains(idpIdValue)) {
+				log.debug("The direct attribute mapping settings found for IdP {}", idpIdValue);
+				ecaUser = getUserDetailsFromIdpAttributes(idpIdValue, attributeResolutionContext);
+			} else if (asyncEnabled) {
+				log.debug("The direct attribute mapping settings were not found for IdP {}", idpIdValue);
+				schools = new PrefetchedSchools();
+				ecaUser = resolveUserAsync(idpIdValue, attributeResolverWorkContext, schools);
+			} else {
+				log.debug("The direct attribute mapping settings were not found for IdP {}", idpIdValue);
+				ecaUser = getUserDetailsViaRest(idpIdValue, attributeResolverWorkContext);
+			}
+
+			if (ecaUser != null ) {
+				populateRolesFromAttributes(ecaUser);
+				if (schools == null && schoolLookupMaxConcurrency > 0) {
+					schools = lookupSchoolsConcurrently(ecaUser);
+				}
+				if (schools != null) {
+					prefetchedSchools.set(schools);
+				}
+				try {
+					populateAttributes(attributes, ecaUser);
+				} finally {
+					prefetchedSchools.remove();
+				}
+				if (resolvedAttributeCacheKey != null && deadline.isDegraded()) {
+					log.debug("Not caching the incomplete attributes for idpId {}", idpIdValue);
+				} else if (resolvedAttributeCacheKey != null) {
+					resolvedAttributeCache.put(resolvedAttributeCacheKey, copyAttributes(attributes));
 				}
 			}
-			populateAttributes(attributes, ecaUser);
+		} finally {
+			resolutionDeadline.remove();
 		}
-		
 		return attributes;
 	}
 
+	/**
+	 * Populates the roles of the given user from its school codes, school roles and groups attributes, if the user
+	 * has attributes but no roles.
+	 * 
+	 * @param ecaUser The user object.
+	 */
+	protected void populateRolesFromAttributes(@Nonnull final UserDTO ecaUser) {
+		if (ecaUser.getAttributes() != null && (ecaUser.getRoles() == null || ecaUser.getRoles().length == 0)) {
+			final String schoolIds = ecaUser.getAttribute(ATTR_ID_SCHOOL_CODES) != null
+					? ecaUser.getAttribute(ATTR_ID_SCHOOL_CODES).getValue()
+					: null;
+			final String groups = ecaUser.getAttribute(ATTR_ID_CLASSES) != null
+					? ecaUser.getAttribute(ATTR_ID_CLASSES).getValue()
+					: null;
+			final String schoolRoles = ecaUser.getAttribute(ATTR_ID_SCHOOL_ROLES) != null
+					? ecaUser.getAttribute(ATTR_ID_SCHOOL_ROLES).getValue()
+					: null;
+			final String groupLevel = ecaUser.getAttribute(ATTR_ID_GRADE) != null
+					? ecaUser.getAttribute(ATTR_ID_GRADE).getValue()
+					: null;
+			final String municipality = ecaUser.getAttribute(ATTR_ID_MUNICIPALITIES) != null
+					? ecaUser.getAttribute(ATTR_ID_MUNICIPALITIES).getValue()
+					: null;
+			final String learningMaterialsCharge = ecaUser.getAttribute(ATTR_ID_LEARNINGMATERIALSCHARGES) != null
+					? ecaUser.getAttribute(ATTR_ID_LEARNINGMATERIALSCHARGES).getValue()
+					: null;
+
+			if (schoolIds != null && schoolRoles != null) {
+				log.debug("Trying to set RoleDTOs");
+				log.debug("Values: learningMaterialsCharge {}", learningMaterialsCharge);
+				ecaUser.setRoles(populateRolesDTOs(schoolIds, groups, schoolRoles, learningMaterialsCharge, groupLevel, municipality));
+			} else {
+				log.debug("Could not set RolesDTO. Didn't find any schools or roles.");
+			}
+		}
+	}
+
+	/**
+	 * Builds the key for the resolved attribute cache from the inputs of the resolution: the IdP id, the hook
+	 * attribute value or the mapped principal values, and the fingerprint of the settings affecting the result.
+	 * The inputs are hashed, so that the cache does not keep the identifiers of the users in memory.
+	 * 
+	 * @param idpIdValue The IdP id.
+	 * @param attributeResolutionContext The attribute resolution context.
+	 * @param attributeResolverWorkContext The attribute resolver work context.
+	 * @return The cache key, or null if the resolved attributes are not cached.
+	 */
+	protected String getResolvedAttributeCacheKey(final String idpIdValue,
+			@Nonnull final AttributeResolutionContext attributeResolutionContext,
+			@Nonnull final AttributeResolverWorkContext attributeResolverWorkContext) {
+		if (!resolvedAttributeCache.isEnabled() || userCacheExcludedIdps.contains(idpIdValue)) {
+			return null;
+		}
+		final StringBuilder inputs = new StringBuilder(getConfigurationFingerprint());
+		if (principalMappings.containsKey(idpIdValue)) {
+			final Set<IdPAttributePrincipal> principals = getIdPAttributePrincipals(attributeResolutionContext);
+			if (principals == null) {
+				return null;
+			}
+			for (final String principalName : new TreeSet<>(principalMappings.get(idpIdValue).values())) {
+				inputs.append('\n').append(principalName).append('=');
+				for (final IdPAttributePrincipal principal : principals) {
+					if (principalName.equals(principal.getName()) && principal.getAttribute() != null
+							&& principal.getAttribute().getValues().size() > 0) {
+						inputs.append(principal.getAttribute().getValues().get(0).getNativeValue());
+						break;
+					}
+				}
+			}
+		} else {
+			final String authnIdValue = collectSingleAttributeValue(
+					attributeResolverWorkContext.getResolvedIdPAttributeDefinitions(), hookAttribute);
+			if (authnIdValue == null) {
+				return null;
+			}
+			inputs.append('\n').append(authnIdValue);
+		}
+		return idpIdValue + "|" + DigestUtils.sha256Hex(inputs.toString());
+	}
+
+	/**
+	 * Gets the {@link IdPAttributePrincipal}s of the authenticated subject.
+	 * 
+	 * @param attributeResolutionContext The attribute resolution context.
+	 * @return The principals, or null if there is no authentication result.
+	 */
+	private Set<IdPAttributePrincipal> getIdPAttributePrincipals(
+			@Nonnull final AttributeResolutionContext attributeResolutionContext) {
+		final AuthenticationContext authnContext = attributeResolutionContext.getParent() != null
+				? attributeResolutionContext.getParent().getSubcontext(AuthenticationContext.class)
+				: null;
+		if (authnContext == null || authnContext.getAuthenticationResult() == null) {
+			return null;
+		}
+		return authnContext.getAuthenticationResult().getSubject().getPrincipals(IdPAttributePrincipal.class);
+	}
+
+	/**
+	 * Gets the fingerprint of the settings affecting the resolved attributes. The fingerprint is computed once and
+	 * reset by the setters of those settings.
+	 * 
+	 * @return The fingerprint.
+	 */
+	protected String getConfigurationFingerprint() {
+		String fingerprint = configurationFingerprint;
+		if (fingerprint == null) {
+			final StringBuilder settings = new StringBuilder();
+			settings.append(endpointUrls).append('\n').append(resultAttributePrefix).append('\n')
+					.append(nameApiBaseUrl).append('\n').append(sorted(schoolRoleMappings)).append('\n')
+					.append(sorted(schoolRoleCodeMappings)).append('\n')
+					.append(allowedSchoolRoles == null ? null : new TreeSet<>(allowedSchoolRoles)).append('\n')
+					.append(studentRoles == null ? null : new TreeSet<>(studentRoles)).append('\n')
+					.append(officeTypes == null ? null : new TreeSet<>(officeTypes));
+			for (final Map<String, Map<String, String>> nested : Arrays.asList(principalMappings, staticValues)) {
+				settings.append('\n');
+				for (final Entry<String, Map<String, String>> entry : new TreeMap<>(nested).entrySet()) {
+					settings.append(entry.getKey()).append('=').append(sorted(entry.getValue())).append(';');
+				}
+			}
+			fingerprint = DigestUtils.sha256Hex(settings.toString());
+			configurationFingerprint = fingerprint;
+		}
+		return fingerprint;
+	}
+
+	/**
+	 * Gets the given map sorted by its keys.
+	 * 
+	 * @param map The map to sort, may be null.
+	 * @return The sorted copy, or null.
+	 */
+	private static Map<String, String> sorted(final Map<String, String> map) {
+		return map == null ? null : new TreeMap<>(map);
+	}
+
+	/**
+	 * Copies the given attribute map. The attributes are copied too, but the values are shared, as they are
+	 * immutable.
+	 * 
+	 * @param attributes The attributes to copy.
+	 * @return The copy.
+	 */
+	protected Map<String, IdPAttribute> copyAttributes(@Nonnull final Map<String, IdPAttribute> attributes) {
+		final Map<String, IdPAttribute> copy = new HashMap<>(attributes.size() * 2);
+		for (final Entry<String, IdPAttribute> entry : attributes.entrySet()) {
+			final IdPAttribute attribute = new IdPAttribute(entry.getValue().getId());
+			attribute.setValues(entry.getValue().getValues());
+			copy.put(entry.getKey(), attribute);
+		}
+		return copy;
+	}
+
 	protected UserDTO getUserDetailsFromIdpAttributes(final String idpIdValue,
 			@Nonnull final AttributeResolutionContext attributeResolutionContext) {
 		
@@ -529,35 +1282,11 @@ public class RestDataConnector extends AbstractDataConnector {
 	 * Helper method to split multi-value attribute values with default separator.
 	 * 
 	 * @param stringToSplit
-	 * @return
+	 * @return	The string array of attribute values, null for the empty ones, or null if the value is empty.
 	 */
 	private String[] splitMultivalueAttribute(@Nonnull final String stringToSplit) {
 		
-		return splitMultivalueAttribute(stringToSplit, DEFAULT_ATTR_VALUE_SEPARATOR);
-	}
-	
-	/**
-	 * Helper method to split multi-value attribute values.
-	 * 
-	 * @param stringToSplit
-	 * @param separator
-	 * @return	The string array of attribute values.
-	 */
-	private String[] splitMultivalueAttribute(@Nonnull final String stringToSplit, @Nonnull final String separator) {
-
-		String[] arrStr = null;
-		
-		if (StringSupport.trimOrNull(stringToSplit) != null)
-		{
-			arrStr = stringToSplit.split(separator, -1);
-
-			for (int i = 0; i < arrStr.length; i++) {
-
-				arrStr[i] = StringSupport.trimOrNull(arrStr[i].replace("\\", ""));
-			}	
-		}
-		
-		return arrStr;
+		return MultiValueTokenizer.split(stringToSplit, DEFAULT_ATTR_VALUE_SEPARATOR_CHAR);
 	}
 	
 	
@@ -650,9 +1379,10 @@ public class RestDataConnector extends AbstractDataConnector {
 					}
 					
 					// Learning Materials Charge attribute
-					String roleInSchool = schoolRoleMappings.containsKey(rolesDTO.getRole().toLowerCase()) ? schoolRoleMappings.get(rolesDTO.getRole().toLowerCase()) : rolesDTO.getRole();
+					final RoleTable.Role schoolRole = getRoleTable().get(rolesDTO.getRole());
+					final String roleInSchool = schoolRole.getName();
 					
-					if (studentRoles.stream().anyMatch(roleInSchool::equalsIgnoreCase)
+					if (schoolRole.isStudent()
 							&& arrLearningMaterialsCharge != null) {
 						log.trace("Trying to set learningMaterialCharge to RolesDTO. User role {}", roleInSchool);
 						int index = -1;
@@ -716,72 +1446,505 @@ public class RestDataConnector extends AbstractDataConnector {
 	protected UserDTO getUserDetailsViaRest(final String idpIdValue,
 			@Nonnull final AttributeResolverWorkContext attributeResolverWorkContext) throws ResolutionException {
 
-		log.debug("Calling {} for resolving attributes", endpointUrl);
+		log.debug("Calling {} for resolving attributes", endpointUrls);
 
-		String authnIdValue = collectSingleAttributeValue(
-				attributeResolverWorkContext.getResolvedIdPAttributeDefinitions(), hookAttribute);
-		log.debug("AuthnID before URL encoding = {}", authnIdValue);
-		if (authnIdValue == null) {
-			log.error("Could not resolve hookAttribute value");
-			throw new ResolutionException("Could not resolve hookAttribute value");
+		final String authnIdValue = collectHookAttributeValue(attributeResolverWorkContext);
+		final String userCacheKey = getUserCacheKey(idpIdValue, authnIdValue);
+		if (userCacheKey != null) {
+			final UserDTO cachedUser = userCache.get(userCacheKey);
+			if (cachedUser != null) {
+				log.debug("Using the cached user data for idpId {}", idpIdValue);
+				return new UserDTO(cachedUser);
+			}
+		}
+		final String userQuery = getUserDetailsQuery(idpIdValue, authnIdValue);
+		final String lastKnownUserKey = getLastKnownUserKey(idpIdValue, authnIdValue);
+		final CircuitBreaker breaker = getEndpointCircuitBreaker();
+		if (!breaker.tryAcquire()) {
+			log.warn("The circuit breaker for REST API is open, skipping the call for idpId {}", idpIdValue);
+			markDegraded(resolutionDeadline.get());
+			return getLastKnownUser(lastKnownUserKey, idpIdValue);
 		}
+		final UserDTO user;
 		try {
-			authnIdValue = URLEncoder.encode(collectSingleAttributeValue(
-					attributeResolverWorkContext.getResolvedIdPAttributeDefinitions(), hookAttribute), "UTF-8");
-		} catch (UnsupportedEncodingException e) {
-			log.error("Could not use UTF-8 for encoding authnID");
-			throw new ResolutionException("Could not use UTF-8 for encoding authnID", e);
+			user = fetchUserDetailsFromEndpoints(idpIdValue, userQuery);
+		} catch (BudgetExhaustedException e) {
+			breaker.onCancel();
+			log.warn("Could not get the user data for idpId {} within the resolution deadline: {}", idpIdValue,
+					e.getMessage());
+			markDegraded(resolutionDeadline.get());
+			return getLastKnownUser(lastKnownUserKey, idpIdValue);
+		} catch (IOException | RuntimeException e) {
+			breaker.onFailure();
+			log.error("Could not get the user data from REST API, skipping attribute resolution", e);
+			markDegraded(resolutionDeadline.get());
+			return getLastKnownUser(lastKnownUserKey, idpIdValue);
+		}
+		breaker.onSuccess();
+		if (user != null) {
+			if (userCacheKey != null) {
+				userCache.put(userCacheKey, new UserDTO(user));
+			}
+			if (lastKnownUserKey != null) {
+				lastKnownUserCache.put(lastKnownUserKey, new UserDTO(user));
+			}
+		}
+		return user;
+	}
+
+	/**
+	 * Fetches the user data from one of the REST API endpoints with the blocking HTTP client. After a connection
+	 * failure, the call is retried on another endpoint at most the configured number of times.
+	 * 
+	 * @param idpIdValue The IdP id.
+	 * @param userQuery The query string for the user data.
+	 * @return The user object, or null if the REST server does not know the user.
+	 * @throws IOException If the REST server could not be called, it failed or its response could not be parsed.
+	 */
+	private UserDTO fetchUserDetailsFromEndpoints(final String idpIdValue, final String userQuery)
+			throws IOException {
+		final EndpointSelector selector = getEndpointSelector();
+		final Set<EndpointSelector.Endpoint> tried = new HashSet<>();
+		EndpointSelector.Endpoint endpoint = selector.select(tried);
+		for (int retries = endpointMaxRetries;; retries--) {
+			tried.add(endpoint);
+			selector.onStart(endpoint);
+			final long started = System.nanoTime();
+			try {
+				final UserDTO user = fetchUserDetails(idpIdValue, endpoint.getUrl() + userQuery);
+				selector.onSuccess(endpoint, System.nanoTime() - started);
+				return user;
+			} catch (BudgetExhaustedException e) {
+				selector.onCancel(endpoint);
+				throw e;
+			} catch (EndpointConnectionException e) {
+				selector.onFailure(endpoint);
+				final EndpointSelector.Endpoint next = retries > 0 && !isResolutionDeadlineExpired()
+						? selector.select(tried) : null;
+				if (next == null) {
+					throw e;
+				}
+				log.warn("Could not connect to {}, retrying on {}", endpoint.getUrl(), next.getUrl(), e);
+				endpoint = next;
+			} catch (IOException | RuntimeException e) {
+				selector.onFailure(endpoint);
+				throw e;
+			}
 		}
-		log.debug("AuthnID after URL encoding = {}", authnIdValue);
-		final String attributeCallUrl = endpointUrl + "?" + idpIdValue + "=" + authnIdValue;
+	}
 
+	/**
+	 * Fetches the user data from the REST server with the blocking HTTP client.
+	 * 
+	 * @param idpIdValue The IdP id.
+	 * @param attributeCallUrl The URL for the user data.
+	 * @return The user object, or null if the REST server does not know the user.
+	 * @throws BudgetExhaustedException If the resolution deadline passed before the REST server answered.
+	 * @throws IOException If the REST server could not be called, it failed or its response could not be parsed.
+	 */
+	private UserDTO fetchUserDetails(final String idpIdValue, final String attributeCallUrl) throws IOException {
 		final HttpClient httpClient;
 		try {
-			httpClient = buildClient();
+			httpClient = getEndpointHttpClient();
 		} catch (Exception e) {
-			log.error("Could not build HTTP client, skipping attribute resolution", e);
-			return null;
+			throw new IOException("Could not build HTTP client", e);
 		}
 		log.debug("Calling URL {}", attributeCallUrl);
-		final HttpContext context = HttpClientContext.create();
+		final HttpClientContext context = HttpClientContext.create();
+		if (!applyResolutionDeadline(context)) {
+			throw new BudgetExhaustedException("The resolution deadline has passed before calling REST API");
+		}
 		final ClassicHttpRequest getMethod = ClassicRequestBuilder.get().setUri(attributeCallUrl)
 				.setHeader("Authorization", "Token " + token).build();
-		final ClassicHttpResponse restResponse;
-		final long timestamp = System.currentTimeMillis();
+		final Semaphore hostPermit = acquireHostPermit(attributeCallUrl);
 		try {
-			restResponse = httpClient.executeOpen(null,getMethod, context);
-		} catch (Exception e) {
-			log.error("Could not open connection to REST API, skipping attribute resolution", e);
+			final ClassicHttpResponse restResponse;
+			final long timestamp = System.currentTimeMillis();
+			endpointPoolStatistics.requestStarted();
+			try {
+				restResponse = httpClient.executeOpen(null,getMethod, context);
+			} catch (Exception e) {
+				endpointPoolStatistics.requestFailed();
+				if (isResolutionDeadlineExpired()) {
+					throw new BudgetExhaustedException("The resolution deadline passed while calling REST API", e);
+				}
+				if (isConnectionFailure(e)) {
+					throw new EndpointConnectionException("Could not open connection to REST API", e);
+				}
+				throw new IOException("Could not get a response from REST API", e);
+			}
+			endpointPoolStatistics.connectionLeased();
+
+			final int status = restResponse.getCode();
+			log.info("API call took {} ms, response code {}", System.currentTimeMillis() - timestamp, status);
+
+			if (log.isTraceEnabled()) {
+				if (restResponse.getHeaders() != null) {
+					for (Header header : restResponse.getHeaders()) {
+						log.trace("Header {}: {}", header.getName(), header.getValue());
+					}
+				}
+			}
+
+			boolean reusable = false;
+			try {
+				if (status == HttpStatus.SC_OK) {
+					final UserDTO user = parseResponse(restResponse.getEntity(), userGson, UserDTO.class);
+					reusable = true;
+					log.trace("Response {}", user);
+					return user;
+				} else if (status >= HttpStatus.SC_SERVER_ERROR) {
+					throw new IOException("REST API failed with http status " + status);
+				} else {
+					reusable = true;
+					log.warn("No attributes found for session with idpId {}, http status {}", idpIdValue, status);
+				}
+			} catch (IOException | RuntimeException e) {
+				throw new IOException("Error in connection to Data API", e);
+			} finally {
+				releaseResponse(restResponse, reusable);
+				endpointPoolStatistics.connectionReleased();
+			}
 			return null;
+		} finally {
+			releaseHostPermit(hostPermit);
 		}
+	}
 
-		final int status = restResponse.getCode();
-		log.info("API call took {} ms, response code {}", System.currentTimeMillis() - timestamp, status);
+	/**
+	 * Checks whether the given error means that no connection to the REST API endpoint could be opened, or that the
+	 * endpoint closed the connection without a response, so that the call never reached the endpoint and may be
+	 * retried on another one. Timeouts waiting for the response are not retried.
+	 * 
+	 * @param error The error.
+	 * @return true if the error is a connection failure, false otherwise.
+	 */
+	private static boolean isConnectionFailure(final Throwable error) {
+		final Throwable cause = error instanceof CompletionException && error.getCause() != null ? error.getCause()
+				: error;
+		return cause instanceof ConnectException || cause instanceof ConnectTimeoutException
+				|| cause instanceof UnknownHostException || cause instanceof NoHttpResponseException;
+	}
 
-		if (log.isTraceEnabled()) {
-			if (restResponse.getHeaders() != null) {
-				for (Header header : restResponse.getHeaders()) {
-					log.trace("Header {}: {}", header.getName(), header.getValue());
-				}
+	/**
+	 * Gets the last known user data, served while REST API is not available.
+	 * 
+	 * @param lastKnownUserKey The key for the last known user data, may be null.
+	 * @param idpIdValue The IdP id.
+	 * @return A copy of the last known user data, or null if none is cached.
+	 */
+	private UserDTO getLastKnownUser(final String lastKnownUserKey, final String idpIdValue) {
+		final UserDTO lastKnownUser = lastKnownUserKey == null ? null : lastKnownUserCache.get(lastKnownUserKey);
+		if (lastKnownUser == null) {
+			return null;
+		}
+		log.warn("Using the last known user data for idpId {} while REST API is not available", idpIdValue);
+		return new UserDTO(lastKnownUser);
+	}
+
+	/**
+	 * Builds the key for the last known user data cache, in the same way as for the user data cache.
+	 * 
+	 * @param idpIdValue The IdP id.
+	 * @param authnIdValue The authn id.
+	 * @return The cache key, or null if the last known user data for the IdP is not cached.
+	 */
+	protected String getLastKnownUserKey(final String idpIdValue, final String authnIdValue) {
+		if (!lastKnownUserCache.isEnabled() || userCacheExcludedIdps.contains(idpIdValue)) {
+			return null;
+		}
+		return idpIdValue + "|" + DigestUtils.sha256Hex(authnIdValue);
+	}
+
+	/**
+	 * Builds the key for the user data cache. The authn id is hashed, so that the cache does not keep the
+	 * identifiers of the users in memory.
+	 * 
+	 * @param idpIdValue The IdP id.
+	 * @param authnIdValue The authn id.
+	 * @return The cache key, or null if the user data for the IdP is not cached.
+	 */
+	protected String getUserCacheKey(final String idpIdValue, final String authnIdValue) {
+		if (!userCache.isEnabled() || userCacheExcludedIdps.contains(idpIdValue)) {
+			return null;
+		}
+		return idpIdValue + "|" + DigestUtils.sha256Hex(authnIdValue);
+	}
+
+	/**
+	 * Collects the authn id from the hook attribute.
+	 * 
+	 * @param attributeResolverWorkContext The attribute resolver work context.
+	 * @return The authn id.
+	 * @throws ResolutionException If the hook attribute has no value.
+	 */
+	private String collectHookAttributeValue(@Nonnull final AttributeResolverWorkContext attributeResolverWorkContext)
+			throws ResolutionException {
+		final String authnIdValue = collectSingleAttributeValue(
+				attributeResolverWorkContext.getResolvedIdPAttributeDefinitions(), hookAttribute);
+		log.debug("AuthnID before URL encoding = {}", authnIdValue);
+		if (authnIdValue == null) {
+			log.error("Could not resolve hookAttribute value");
+			throw new ResolutionException("Could not resolve hookAttribute value");
+		}
+		return authnIdValue;
+	}
+
+	/**
+	 * Builds the query string for fetching the user data from the REST server, to be appended to the endpoint URL.
+	 * 
+	 * @param idpIdValue The IdP id.
+	 * @param authnIdValue The authn id, not yet URL encoded.
+	 * @return The query string.
+	 * @throws ResolutionException If the authn id cannot be encoded.
+	 */
+	private String getUserDetailsQuery(final String idpIdValue, final String authnIdValue)
+			throws ResolutionException {
+		final String encodedAuthnId;
+		try {
+			encodedAuthnId = URLEncoder.encode(authnIdValue, "UTF-8");
+		} catch (UnsupportedEncodingException e) {
+			log.error("Could not use UTF-8 for encoding authnID");
+			throw new ResolutionException("Could not use UTF-8 for encoding authnID", e);
+		}
+		log.debug("AuthnID after URL encoding = {}", encodedAuthnId);
+		return "?" + idpIdValue + "=" + encodedAuthnId;
+	}
+
+	/**
+	 * Resolves the user data and looks up the schools of its roles with the asynchronous HTTP client. The user data
+	 * and the school lookups are chained without blocking, and the calling thread only waits once for the whole
+	 * chain, at most for the resolution timeout. If the deadline passes after the user data has been fetched, the
+	 * user is returned with the schools looked up by then, and the missing ones are left unresolved.
+	 * 
+	 * @param idpIdValue The IdP id.
+	 * @param attributeResolverWorkContext The attribute resolver work context.
+	 * @param schools The container for the looked up schools.
+	 * @return The user object, or null if it could not be resolved.
+	 * @throws ResolutionException If the hook attribute has no value or the thread is interrupted.
+	 */
+	protected UserDTO resolveUserAsync(final String idpIdValue,
+			@Nonnull final AttributeResolverWorkContext attributeResolverWorkContext,
+			@Nonnull final PrefetchedSchools schools) throws ResolutionException {
+		final String authnIdValue = collectHookAttributeValue(attributeResolverWorkContext);
+		final ResolutionDeadline deadline = resolutionDeadline.get();
+		final CompletableFuture<UserDTO> user = getUserDetailsAsync(idpIdValue, authnIdValue);
+		final CompletableFuture<UserDTO> resolution = user.thenCompose(ecaUser -> {
+			if (ecaUser == null) {
+				return CompletableFuture.completedFuture(null);
+			}
+			// the roles are populated to a copy, the resolving thread may already be using the original
+			final UserDTO prepared = new UserDTO(ecaUser);
+			populateRolesFromAttributes(prepared);
+			return callWithin(deadline, () -> prefetchSchools(prepared, schools)).thenApply(done -> ecaUser);
+		});
+		try {
+			final Duration remaining = getRemainingBudget();
+			return remaining == null ? resolution.get() : resolution.get(remaining.toNanos(), TimeUnit.NANOSECONDS);
+		} catch (TimeoutException e) {
+			schools.setDeadlineExceeded();
+			markDegraded(deadline);
+			final UserDTO ecaUser = user.getNow(null);
+			log.warn("The resolution for idpId {} did not complete in {}, {}", idpIdValue, resolutionTimeout,
+					ecaUser == null ? "skipping attribute resolution" : "leaving the missing schools unresolved");
+			return ecaUser;
+		} catch (ExecutionException e) {
+			log.error("Could not resolve the user data for idpId {}", idpIdValue, e.getCause());
+			return null;
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new ResolutionException("Interrupted while resolving the user data", e);
+		}
+	}
+
+	/**
+	 * Fetches the user data from the REST server with the asynchronous HTTP client.
+	 * 
+	 * @param idpIdValue The IdP id.
+	 * @param authnIdValue The authn id.
+	 * @return The future user object, completed with null if the user could not be fetched.
+	 * @throws ResolutionException If the authn id cannot be encoded.
+	 */
+	protected CompletableFuture<UserDTO> getUserDetailsAsync(final String idpIdValue, final String authnIdValue)
+			throws ResolutionException {
+		final String userCacheKey = getUserCacheKey(idpIdValue, authnIdValue);
+		if (userCacheKey != null) {
+			final UserDTO cachedUser = userCache.get(userCacheKey);
+			if (cachedUser != null) {
+				log.debug("Using the cached user data for idpId {}", idpIdValue);
+				return CompletableFuture.completedFuture(new UserDTO(cachedUser));
 			}
 		}
+		final String userQuery = getUserDetailsQuery(idpIdValue, authnIdValue);
+		final String lastKnownUserKey = getLastKnownUserKey(idpIdValue, authnIdValue);
+		final ResolutionDeadline deadline = resolutionDeadline.get();
+		final CircuitBreaker breaker = getEndpointCircuitBreaker();
+		if (!breaker.tryAcquire()) {
+			log.warn("The circuit breaker for REST API is open, skipping the call for idpId {}", idpIdValue);
+			markDegraded(deadline);
+			return CompletableFuture.completedFuture(getLastKnownUser(lastKnownUserKey, idpIdValue));
+		}
+		log.debug("Calling REST API asynchronously with {}", userQuery);
+		final long timestamp = System.currentTimeMillis();
+		return executeHedged(userQuery).handle((response, error) -> {
+			if (error != null) {
+				breaker.onFailure();
+				log.error("Could not get a response from REST API, skipping attribute resolution",
+						error instanceof CompletionException ? error.getCause() : error);
+				markDegraded(deadline);
+				return getLastKnownUser(lastKnownUserKey, idpIdValue);
+			}
+			final int status = response.getCode();
+			log.info("API call took {} ms, response code {}", System.currentTimeMillis() - timestamp, status);
+			if (status >= HttpStatus.SC_SERVER_ERROR) {
+				breaker.onFailure();
+				log.error("REST API failed with http status {}, skipping attribute resolution", status);
+				markDegraded(deadline);
+				return getLastKnownUser(lastKnownUserKey, idpIdValue);
+			}
+			if (status != HttpStatus.SC_OK) {
+				breaker.onSuccess();
+				log.warn("No attributes found for session with idpId {}, http status {}", idpIdValue, status);
+				return null;
+			}
+			final UserDTO user;
+			try {
+				user = parseResponse(response.getBodyBytes(), userGson, UserDTO.class);
+			} catch (IOException e) {
+				breaker.onFailure();
+				log.error("Error in connection to Data API", e);
+				markDegraded(deadline);
+				return getLastKnownUser(lastKnownUserKey, idpIdValue);
+			}
+			breaker.onSuccess();
+			log.trace("Response {}", user);
+			if (user != null) {
+				if (userCacheKey != null) {
+					userCache.put(userCacheKey, new UserDTO(user));
+				}
+				if (lastKnownUserKey != null) {
+					lastKnownUserCache.put(lastKnownUserKey, new UserDTO(user));
+				}
+			}
+			return user;
+		});
+	}
 
+	/**
+	 * Looks up the schools of the allowed roles of the given user concurrently with the asynchronous HTTP client,
+	 * followed by the parent organizations of the offices among them. The looked up schools are stored in the given
+	 * container.
+	 * 
+	 * @param ecaUser The user object.
+	 * @param schools The container for the looked up schools.
+	 * @return The future completed when all the lookups have completed.
+	 */
+	protected CompletableFuture<Void> prefetchSchools(@Nonnull final UserDTO ecaUser,
+			@Nonnull final PrefetchedSchools schools) {
+		final String baseUrl = nameApiBaseUrl;
+		final ResolutionDeadline deadline = resolutionDeadline.get();
+		return prefetchSchools(collectSchoolIds(ecaUser), baseUrl, schools,
+				id -> callWithin(deadline, () -> findSchoolAsync(id, baseUrl)));
+	}
+
+	/**
+	 * Looks up the schools of the allowed roles of the given user concurrently with the blocking HTTP client,
+	 * followed by the parent organizations of the offices among them, and waits for the lookups to complete, at most
+	 * for the remaining resolution budget. The lookups run in the school lookup executor, or in the calling thread
+	 * when all of its threads are busy. Nothing is looked up ahead if the user has less than two distinct schools, as
+	 * there would be nothing to overlap.
+	 * 
+	 * @param ecaUser The user object.
+	 * @return The looked up schools, or null if nothing was looked up ahead.
+	 * @throws ResolutionException If the thread is interrupted while waiting for the lookups.
+	 */
+	protected PrefetchedSchools lookupSchoolsConcurrently(@Nonnull final UserDTO ecaUser)
+			throws ResolutionException {
+		final Set<String> schoolIds = collectSchoolIds(ecaUser);
+		if (schoolIds.size() < 2) {
+			return null;
+		}
+		final String baseUrl = nameApiBaseUrl;
+		final ExecutorService executor = getSchoolLookupExecutor();
+		final ResolutionDeadline deadline = resolutionDeadline.get();
+		final PrefetchedSchools schools = new PrefetchedSchools();
 		try {
-			final String restResponseStr = EntityUtils.toString(restResponse.getEntity(), "UTF-8");
-			log.trace("Response {}", restResponseStr);
-			if (status == HttpStatus.SC_OK) {
-				final Gson gson = new GsonBuilder().registerTypeAdapter(RolesDTO.class, new RolesTypeAdapter())
-						.create();
-				return gson.fromJson(restResponseStr, UserDTO.class);
+			final CompletableFuture<Void> lookups = prefetchSchools(schoolIds, baseUrl, schools,
+					id -> CompletableFuture.supplyAsync(() -> callWithin(deadline, () -> findSchool(id, baseUrl)),
+							executor));
+			final Duration remaining = getRemainingBudget();
+			if (remaining == null) {
+				lookups.get();
 			} else {
-				log.warn("No attributes found for session with idpId {}, http status {}", idpIdValue, status);
+				lookups.get(remaining.toNanos(), TimeUnit.NANOSECONDS);
 			}
-		} catch (Exception e) {
-			log.error("Error in connection to Data API", e);
-		} finally {
-			EntityUtils.consumeQuietly(restResponse.getEntity());
+		} catch (TimeoutException e) {
+			schools.setDeadlineExceeded();
+			markDegraded(deadline);
+			log.warn("The school lookups did not complete within the resolution deadline, "
+					+ "leaving the missing schools unresolved");
+		} catch (ExecutionException e) {
+			log.warn("Could not look up all the schools concurrently, looking up the rest one at a time",
+					e.getCause());
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new ResolutionException("Interrupted while looking up the schools", e);
 		}
-		return null;
+		return schools;
+	}
+
+	/**
+	 * Collects the distinct valid school ids of the allowed roles of the given user, in role order.
+	 * 
+	 * @param ecaUser The user object.
+	 * @return The school ids.
+	 */
+	private Set<String> collectSchoolIds(@Nonnull final UserDTO ecaUser) {
+		final Set<String> schoolIds = new LinkedHashSet<>();
+		if (ecaUser.getRoles() == null) {
+			return schoolIds;
+		}
+		for (final RolesDTO role : ecaUser.getRoles()) {
+			if (role == null || role.getRole() == null || !isAllowedSchoolRole(role.getRole())) {
+				continue;
+			}
+			final String schoolId = getValidSchoolId(role.getSchool());
+			if (schoolId != null) {
+				schoolIds.add(schoolId);
+			}
+		}
+		return schoolIds;
+	}
+
+	/**
+	 * Looks up the given schools concurrently with the given lookup function. As soon as a school turns out to be
+	 * an office, the lookup of its parent organization is started as the second wave. The looked up schools are
+	 * stored in the given container.
+	 * 
+	 * @param schoolIds The school ids.
+	 * @param baseUrl The base URL for the school information API.
+	 * @param schools The container for the looked up schools.
+	 * @param lookup The function starting the lookup of a school id.
+	 * @return The future completed when all the lookups have completed.
+	 */
+	private CompletableFuture<Void> prefetchSchools(@Nonnull final Set<String> schoolIds, final String baseUrl,
+			@Nonnull final PrefetchedSchools schools,
+			@Nonnull final Function<String, CompletableFuture<School>> lookup) {
+		final List<CompletableFuture<Void>> lookups = new ArrayList<>(schoolIds.size());
+		for (final String schoolId : schoolIds) {
+			lookups.add(lookup.apply(schoolId).thenCompose(organization -> {
+				schools.put(baseUrl + schoolId, organization);
+				final String parentOid = organization != null
+						&& officeTypes.contains(organization.getOrganizationType())
+								? getValidSchoolId(organization.getParentOid())
+								: null;
+				if (parentOid == null) {
+					return CompletableFuture.completedFuture(null);
+				}
+				return lookup.apply(parentOid).thenAccept(parent -> schools.put(baseUrl + parentOid, parent));
+			}));
+		}
+		return CompletableFuture.allOf(lookups.toArray(new CompletableFuture<?>[0]));
 	}
 
 	/**
@@ -791,10 +1954,22 @@ public class RestDataConnector extends AbstractDataConnector {
 	 * @param ecaUser    The source user object.
 	 */
 	protected void populateAttributes(final Map<String, IdPAttribute> attributes, UserDTO ecaUser) {
-		populateAttribute(attributes, ATTR_ID_USERNAME, ecaUser.getUsername());
-		populateAttribute(attributes, ATTR_ID_FIRSTNAME, ecaUser.getFirstName());
-		populateAttribute(attributes, ATTR_ID_SURNAME, ecaUser.getLastName());
-		populateAttribute(attributes, ATTR_ID_NICKNAME, ecaUser.getNickName());
+		final AttributeAccumulator accumulator = new AttributeAccumulator(getAttributeLayout());
+		populateAttributes(accumulator, ecaUser);
+		accumulator.addTo(attributes);
+	}
+
+	/**
+	 * Collects the attribute values from the given user object to the given accumulator.
+	 * 
+	 * @param accumulator The accumulator of the attribute values.
+	 * @param ecaUser     The source user object.
+	 */
+	protected void populateAttributes(final AttributeAccumulator accumulator, UserDTO ecaUser) {
+		accumulator.add(SLOT_USERNAME, ecaUser.getUsername());
+		accumulator.add(SLOT_FIRSTNAME, ecaUser.getFirstName());
+		accumulator.add(SLOT_SURNAME, ecaUser.getLastName());
+		accumulator.add(SLOT_NICKNAME, ecaUser.getNickName());
 		if (ecaUser.getRoles() != null) {
 			log.debug("Roles found: {}", ecaUser.getRoles().length);
 			
@@ -805,28 +1980,25 @@ public class RestDataConnector extends AbstractDataConnector {
 					continue;
 				}
 					
-				String roleInSchool = schoolRoleMappings.containsKey(ecaUser.getRoles()[i].getRole().toLowerCase()) ? 
-						schoolRoleMappings.get(ecaUser.getRoles()[i].getRole().toLowerCase()) : ecaUser.getRoles()[i].getRole();
-				
-				if (!allowedSchoolRoles.isEmpty() &&
-						!allowedSchoolRoles.stream().anyMatch(roleInSchool::equalsIgnoreCase) ) {
-					
+				final RoleTable.Role schoolRole = getRoleTable().get(ecaUser.getRoles()[i].getRole());
+				if (!schoolRole.isAllowed()) {
 					log.debug("Provided role {} is not allowed. Moving to next roleDTO.", ecaUser.getRoles()[i].getRole());
 					continue;
 				}
 			
 				
 				final String rawSchool = ecaUser.getRoles()[i].getSchool();
+				final SchoolIdType schoolIdType = SchoolIdType.of(rawSchool);
 				final School organization = findSchool(rawSchool, nameApiBaseUrl);
 				
 				if (organization == null) {
 					log.debug("Didn't find any organization.");
-					if (isNumeric(rawSchool)) {
-						populateAttribute(attributes, ATTR_ID_SCHOOL_IDS, rawSchool);
-						populateStructuredRole(attributes, "", rawSchool, ecaUser.getRoles()[i]);
+					if (schoolIdType.isNumeric()) {
+						accumulator.add(SLOT_SCHOOL_IDS, rawSchool);
+						populateStructuredRole(accumulator, "", rawSchool, ecaUser.getRoles()[i], schoolRole);
 					} else {
-						populateAttribute(attributes, ATTR_ID_SCHOOLS, rawSchool);
-						populateStructuredRole(attributes, rawSchool, "", ecaUser.getRoles()[i]);
+						accumulator.add(SLOT_SCHOOLS, rawSchool);
+						populateStructuredRole(accumulator, rawSchool, "", ecaUser.getRoles()[i], schoolRole);
 					}
 				} else {
 					final School school;
@@ -834,16 +2006,16 @@ public class RestDataConnector extends AbstractDataConnector {
 						school = findSchool(organization.getParentOid(), nameApiBaseUrl);
 						if (school == null) {
 							log.debug("Didn't find any school.");
-							if (isNumeric(rawSchool)) {
-								populateAttribute(attributes, ATTR_ID_SCHOOL_IDS, rawSchool);
-								populateStructuredRole(attributes, "", rawSchool, ecaUser.getRoles()[i]);
+							if (schoolIdType.isNumeric()) {
+								accumulator.add(SLOT_SCHOOL_IDS, rawSchool);
+								populateStructuredRole(accumulator, "", rawSchool, ecaUser.getRoles()[i], schoolRole);
 							} else {
-								populateAttribute(attributes, ATTR_ID_SCHOOLS, rawSchool);
-								populateStructuredRole(attributes, rawSchool, "", ecaUser.getRoles()[i]);
+								accumulator.add(SLOT_SCHOOLS, rawSchool);
+								populateStructuredRole(accumulator, rawSchool, "", ecaUser.getRoles()[i], schoolRole);
 							}
 						} else {
 							if(organization.getOid()!=null) {
-								populateAttribute(attributes, ATTR_ID_SCHOOL_INFOS, organization.getOid() + ";" + organization.getName());
+								accumulator.add(SLOT_SCHOOL_INFOS, organization.getOid() + ";" + organization.getName());
 							}
 							school.setOfficeName(organization.getName());
 							school.setOfficeOid(organization.getOid());
@@ -854,43 +2026,43 @@ public class RestDataConnector extends AbstractDataConnector {
 					if(school!=null) {
 						log.debug("Found {}",school);
 						if(school.getId()!=null){
-							populateAttribute(attributes, ATTR_ID_SCHOOL_IDS, school.getId());
-							populateAttribute(attributes, ATTR_ID_SCHOOL_INFOS, school.getId() + ";" + school.getName());
+							accumulator.add(SLOT_SCHOOL_IDS, school.getId());
+							accumulator.add(SLOT_SCHOOL_INFOS, school.getId() + ";" + school.getName());
 						}
 						if(school.getOid()!=null){
-							populateAttribute(attributes, ATTR_ID_SCHOOL_OIDS, school.getOid());
-							populateAttribute(attributes, ATTR_ID_SCHOOL_INFOS, school.getOid() + ";" + school.getName());
+							accumulator.add(SLOT_SCHOOL_OIDS, school.getOid());
+							accumulator.add(SLOT_SCHOOL_INFOS, school.getOid() + ";" + school.getName());
 						}
-						populateAttribute(attributes, ATTR_ID_SCHOOLS, school.getName());
+						accumulator.add(SLOT_SCHOOLS, school.getName());
 						if(school.getParentOid()!=null){
-							populateAttribute(attributes, ATTR_ID_EDUCATION_PROVIDER_OID, school.getParentOid());
-							populateAttribute(attributes, ATTR_ID_EDUCATION_PROVIDER_NAME, school.getParentName());
-							populateAttribute(attributes, ATTR_ID_EDUCATION_PROVIDER_INFOS,
+							accumulator.add(SLOT_EDUCATION_PROVIDER_OID, school.getParentOid());
+							accumulator.add(SLOT_EDUCATION_PROVIDER_NAME, school.getParentName());
+							accumulator.add(SLOT_EDUCATION_PROVIDER_INFOS,
 								school.getParentOid() + ";" + school.getParentName());
 						}
-						populateStructuredRole(attributes, school.getName(), rawSchool, ecaUser.getRoles()[i]);
-						populateStructuredRole(attributes, school, ecaUser.getRoles()[i]);
+						populateStructuredRole(accumulator, school.getName(), rawSchool, ecaUser.getRoles()[i], schoolRole);
+						populateStructuredRole(accumulator, school, ecaUser.getRoles()[i], schoolRole);
 						
 						if (ecaUser.getRoles()[i].getLearningMaterialsCharge() != null) {
 							if(school.getId()!=null) {
-								populateAttribute(attributes, ATTR_ID_LEARNINGMATERIALSCHARGES, ecaUser.getRoles()[i].getLearningMaterialsCharge().toString() + ";" + school.getId());
+								accumulator.add(SLOT_LEARNINGMATERIALSCHARGES, ecaUser.getRoles()[i].getLearningMaterialsCharge().toString() + ";" + school.getId());
 							}
 							if(school.getOid()!=null) {
-								populateAttribute(attributes, ATTR_ID_LEARNINGMATERIALSCHARGES, ecaUser.getRoles()[i].getLearningMaterialsCharge().toString() + ";" + school.getOid());
+								accumulator.add(SLOT_LEARNINGMATERIALSCHARGES, ecaUser.getRoles()[i].getLearningMaterialsCharge().toString() + ";" + school.getOid());
 							}
 						}
 					}
 					
 				}
 				
-				populateAttribute(attributes, ATTR_ID_ROLES, ecaUser.getRoles()[i].getRole());
-				populateAttribute(attributes, ATTR_ID_MUNICIPALITIES, ecaUser.getRoles()[i].getMunicipality());
+				accumulator.add(SLOT_ROLES, ecaUser.getRoles()[i].getRole());
+				accumulator.add(SLOT_MUNICIPALITIES, ecaUser.getRoles()[i].getMunicipality());
 				
 				// If multiple group levels or classes are provided only the first ones are populated as attributes
 				if (i == 0) {
-					populateAttribute(attributes, ATTR_ID_GROUPS, ecaUser.getRoles()[0].getGroup());
+					accumulator.add(SLOT_GROUPS, ecaUser.getRoles()[0].getGroup());
 					if (ecaUser.getRoles()[0].getGroupLevel() != null) {
-						populateAttribute(attributes, ATTR_ID_GROUP_LEVELS,
+						accumulator.add(SLOT_GROUP_LEVELS,
 								ecaUser.getRoles()[0].getGroupLevel().toString());
 					}
 				}
@@ -899,11 +2071,22 @@ public class RestDataConnector extends AbstractDataConnector {
 		if (ecaUser.getAttributes() != null) {
 			for (int i = 0; i < ecaUser.getAttributes().length; i++) {
 				final AttributesDTO attribute = ecaUser.getAttributes()[i];
-				populateAttribute(attributes, ATTR_PREFIX + attribute.getName(), attribute.getValue());
+				accumulator.addDynamic(attribute.getName(), attribute.getValue());
 			}
 		}
 	}
 
+	/**
+	 * Checks whether the given role, once mapped with the school role mappings, is one of the allowed school roles.
+	 * If the allowed school roles are not provided then every role is accepted.
+	 * 
+	 * @param role The role received from the upstream.
+	 * @return true if the role is allowed, false otherwise.
+	 */
+	private boolean isAllowedSchoolRole(@Nonnull final String role) {
+		return getRoleTable().get(role).isAllowed();
+	}
+
 	/**
 	 * Populates an attribute containing a structured role information from the
 	 * given object. The value is populated to the given map, or appended to its
@@ -916,29 +2099,42 @@ public class RestDataConnector extends AbstractDataConnector {
 	 */
 	protected void populateStructuredRole(final Map<String, IdPAttribute> attributes, final String schoolName,
 			final String schoolId, final UserDTO.RolesDTO role) {
+		final AttributeAccumulator accumulator = new AttributeAccumulator(getAttributeLayout());
+		populateStructuredRole(accumulator, schoolName, schoolId, role, getSchoolRole(role));
+		accumulator.addTo(attributes);
+	}
+
+	/**
+	 * Collects an attribute value containing a structured role information from the given object to the given
+	 * accumulator.
+	 * 
+	 * @param accumulator The accumulator of the attribute values.
+	 * @param schoolName  The human-readable name of the school.
+	 * @param schoolId    The id for the school.
+	 * @param role        The role object whose values are added (except school).
+	 * @param schoolRole  The resolved role of the role object, null if it has no role.
+	 */
+	protected void populateStructuredRole(final AttributeAccumulator accumulator, final String schoolName,
+			final String schoolId, final UserDTO.RolesDTO role, final RoleTable.Role schoolRole) {
 		
 		final String school = schoolName != null ? schoolName : "";
 		final String group = role.getGroup() != null ? role.getGroup() : "";
 		final String municipality = role.getMunicipality() != null ? role.getMunicipality() : "";
-		String aRole;
-		
-		if (role.getRole() != null) {
-			aRole = schoolRoleMappings.containsKey(role.getRole().toLowerCase()) ? schoolRoleMappings.get(role.getRole().toLowerCase()) : role.getRole();
-			aRole = aRole.substring(0, 1).toUpperCase() + aRole.substring(1);
-		} else {
-			aRole = "";
-		}
+		final String aRole = schoolRole != null ? schoolRole.getDisplayName() : "";
 		
 		final String structuredRole = municipality + ";" + school + ";" + group + ";" + aRole;
 		log.debug("Populating structuredRole: {}", structuredRole);
-		populateAttribute(attributes, ATTR_ID_STRUCTURED_ROLES, structuredRole);
-
-		final String structuredRoleWid = municipality + ";" + schoolId + ";" + group + ";" + aRole;
-		log.debug("Populating structuredRoleWid: {}", structuredRoleWid);
-		if (structuredRoleWid.split(DEFAULT_ATTR_VALUE_SEPARATOR, -1).length == 4) {
-			populateAttribute(attributes, ATTR_ID_STRUCTURED_ROLES_WID, structuredRoleWid);
+		accumulator.add(SLOT_STRUCTURED_ROLES, structuredRole);
+
+		// joined only if none of the four components contains the separator
+		final String structuredRoleWid = MultiValueTokenizer.join(DEFAULT_ATTR_VALUE_SEPARATOR_CHAR, municipality,
+				schoolId, group, aRole);
+		if (structuredRoleWid != null) {
+			log.debug("Populating structuredRoleWid: {}", structuredRoleWid);
+			accumulator.add(SLOT_STRUCTURED_ROLES_WID, structuredRoleWid);
 		} else {
-			log.debug("StructuredRoleWid has too many components. Value {}", structuredRoleWid);
+			log.debug("StructuredRoleWid has too many components. Value {}",
+					municipality + ";" + schoolId + ";" + group + ";" + aRole);
 		}
 	}
 
@@ -953,36 +2149,43 @@ public class RestDataConnector extends AbstractDataConnector {
 	 */
 	protected void populateStructuredRole(@Nonnull final Map<String, IdPAttribute> attributes,
 			@Nonnull final School school, @Nonnull final UserDTO.RolesDTO role) {
+		final AttributeAccumulator accumulator = new AttributeAccumulator(getAttributeLayout());
+		populateStructuredRole(accumulator, school, role, getSchoolRole(role));
+		accumulator.addTo(attributes);
+	}
+
+	/**
+	 * Collects an attribute value containing a structured role information from the given object to the given
+	 * accumulator.
+	 * 
+	 * @param accumulator The accumulator of the attribute values.
+	 * @param school      The school object which information is added to role.
+	 * @param role        The role object whose values are added (except school).
+	 * @param schoolRole  The resolved role of the role object, null if it has no role.
+	 */
+	protected void populateStructuredRole(@Nonnull final AttributeAccumulator accumulator,
+			@Nonnull final School school, @Nonnull final UserDTO.RolesDTO role,
+			@Nullable final RoleTable.Role schoolRole) {
 		if ((school.getId() != null || school.getOid() != null ) && school.getParentOid() != null) {
 			final String group = role.getGroup() != null ? role.getGroup() : "";
 			final String schoolId = school.getId() != null ? school.getId() : "";
 			final String schoolOid = school.getOid() != null ? school.getOid() : "";
 			final String officeOid = school.getOfficeOid() != null ? school.getOfficeOid() : "";
 
-			String roleInSchool;
+			final String roleInSchool = schoolRole != null ? schoolRole.getDisplayName() : "";
+			final String codeInSchool = schoolRole != null ? schoolRole.getCode() : "";
 			
-			if (role.getRole() != null) {
-				roleInSchool = schoolRoleMappings.containsKey(role.getRole().toLowerCase()) ? schoolRoleMappings.get(role.getRole().toLowerCase()) : role.getRole();
-				roleInSchool = roleInSchool.substring(0, 1).toUpperCase() + roleInSchool.substring(1);
-			} else {
-				roleInSchool = "";
-			}
-
-			String codeInSchool;
-			if (roleInSchool != "") {
-				codeInSchool = schoolRoleCodeMappings.containsKey(roleInSchool) ? schoolRoleCodeMappings.get(roleInSchool) : "-1";
-			} else {
-				codeInSchool = "";
-			}
-			
-			final String structuredRoleWithParentOid = school.getParentOid() + ";" + schoolId + ";" + group + ";"
-					+ roleInSchool+ ";" + codeInSchool + ";" + schoolOid + ";"+ officeOid;
-			log.debug("Populating structuredRoleWithParentOid: {}", structuredRoleWithParentOid);
+			// joined only if none of the seven components contains the separator
+			final String structuredRoleWithParentOid = MultiValueTokenizer.join(DEFAULT_ATTR_VALUE_SEPARATOR_CHAR,
+					school.getParentOid(), schoolId, group, roleInSchool, codeInSchool, schoolOid, officeOid);
 			
-			if (structuredRoleWithParentOid.split(DEFAULT_ATTR_VALUE_SEPARATOR, -1).length == 7) {
-				populateAttribute(attributes, ATTR_ID_STRUCTURED_ROLES_WITH_PARENT_OID, structuredRoleWithParentOid);
+			if (structuredRoleWithParentOid != null) {
+				log.debug("Populating structuredRoleWithParentOid: {}", structuredRoleWithParentOid);
+				accumulator.add(SLOT_STRUCTURED_ROLES_WITH_PARENT_OID, structuredRoleWithParentOid);
 			} else {
-				log.debug("structuredRoleWithParentOid has too many components. Value {}", structuredRoleWithParentOid);
+				log.debug("structuredRoleWithParentOid has too many components. Value {}", school.getParentOid()
+						+ ";" + schoolId + ";" + group + ";" + roleInSchool + ";" + codeInSchool + ";" + schoolOid
+						+ ";" + officeOid);
 			}
 		} else {
 			log.debug("Could not populate role with education provider oid");
@@ -1001,70 +2204,57 @@ public class RestDataConnector extends AbstractDataConnector {
 	protected void populateAttribute(final Map<String, IdPAttribute> attributes, final String attributeId,
 			final String attributeValue) {
 
-		String trimmedValue = StringSupport.trimOrNull(attributeValue);
-
-		if (StringSupport.trimOrNull(attributeId) == null || trimmedValue == null) {
+		final AttributeAccumulator accumulator = new AttributeAccumulator(getAttributeLayout());
+		if (!accumulator.add(attributeId, attributeValue)) {
 			log.debug("Ignoring attirbute {}, null value", attributeId);
 			return;
 		}
+		accumulator.addTo(attributes);
+	}
 
-		if (attributes.get(resultAttributePrefix + attributeId) != null) {
-			log.trace("Adding a new value to existing attribute {}", resultAttributePrefix + attributeId);
-			final IdPAttribute idpAttribute = attributes.get(resultAttributePrefix + attributeId);
-			
-			final StringAttributeValue attrValue = new StringAttributeValue(trimmedValue);
-			if (!idpAttribute.getValues().contains(attrValue)) {				
-				log.trace("Existing values {}", idpAttribute.getValues());
-				final List<IdPAttributeValue> values = copyExistingValues(idpAttribute.getValues());
-				values.add(attrValue);
-				idpAttribute.setValues(values);
-				log.debug("Added value {} to attribute {}", trimmedValue, resultAttributePrefix + attributeId);
-			} else {
-				log.debug("Value {} already exists in attribute {}", attrValue, resultAttributePrefix + attributeId);
-			}
-			
-		} else {
-			final IdPAttribute idpAttribute = new IdPAttribute(resultAttributePrefix + attributeId);
-			final List<IdPAttributeValue> values = new ArrayList<>();
-			values.add(new StringAttributeValue(trimmedValue));
-			idpAttribute.setValues(values);
-			attributes.put(resultAttributePrefix + attributeId, idpAttribute);
-			log.debug("Populated {} with value {}", resultAttributePrefix + attributeId, trimmedValue);
-		}
+	/**
+	 * Sets the endpoint URL for the REST server.
+	 * 
+	 * @param url The endpointUrl.
+	 */
+	public void setEndpointUrl(String url) {
+		setEndpointUrls(Collections.singletonList(Constraint.isNotEmpty(url, "The endpoint URL cannot be empty!")));
 	}
 
 	/**
-	 * Copies the String values from the source list to a new writable list.
+	 * Gets the endpoint URL for the REST server, the first one if there are several replicas.
 	 * 
-	 * @param sourceValues The existing values, expected to be Strings.
-	 * @return A writable list containing existing values.
+	 * @return The endpointUrl.
 	 */
-	@SuppressWarnings("unchecked")
-	protected List<IdPAttributeValue> copyExistingValues(final List<IdPAttributeValue> sourceValues) {
-		final List<IdPAttributeValue> values = new ArrayList<>();
-		final Iterator<IdPAttributeValue> iterator = sourceValues.iterator();
-		while (iterator.hasNext()) {
-			values.add((IdPAttributeValue) iterator.next());
-		}
-		return values;
+	public String getEndpointUrl() {
+		return endpointUrls.isEmpty() ? null : endpointUrls.get(0);
 	}
 
 	/**
-	 * Sets the endpoint URL for the REST server.
+	 * Sets the endpoint URLs for the replicas of the REST server.
 	 * 
-	 * @param url The endpointUrl.
+	 * @param urls The endpoint URLs.
 	 */
-	public void setEndpointUrl(String url) {
-		this.endpointUrl = Constraint.isNotEmpty(url, "The endpoint URL cannot be empty!");
+	public synchronized void setEndpointUrls(final List<String> urls) {
+		final List<String> trimmed = new ArrayList<>();
+		for (final String url : Constraint.isNotNull(urls, "The endpoint URLs cannot be null")) {
+			if (url != null && !url.trim().isEmpty()) {
+				trimmed.add(url.trim());
+			}
+		}
+		Constraint.isFalse(trimmed.isEmpty(), "The endpoint URL cannot be empty!");
+		endpointUrls = Collections.unmodifiableList(trimmed);
+		endpointSelector = null;
+		configurationFingerprint = null;
 	}
 
 	/**
-	 * Gets the endpoint URL for the REST server.
+	 * Gets the endpoint URLs for the replicas of the REST server.
 	 * 
-	 * @return The endpointUrl.
+	 * @return The endpoint URLs.
 	 */
-	public String getEndpointUrl() {
-		return this.endpointUrl;
+	public List<String> getEndpointUrls() {
+		return endpointUrls;
 	}
 
 	/**
@@ -1110,6 +2300,8 @@ public class RestDataConnector extends AbstractDataConnector {
 	 */
 	public void setResultAttributePrefix(String attributePrefix) {
 		this.resultAttributePrefix = attributePrefix;
+		attributeLayout = null;
+		configurationFingerprint = null;
 	}
 
 	/**
@@ -1121,6 +2313,46 @@ public class RestDataConnector extends AbstractDataConnector {
 		return this.resultAttributePrefix;
 	}
 
+	/**
+	 * Gets the compiled names of the resulting attributes. The names are compiled once and reset by the setter of
+	 * the attribute id prefix.
+	 * 
+	 * @return The attribute layout.
+	 */
+	protected AttributeLayout getAttributeLayout() {
+		AttributeLayout layout = attributeLayout;
+		if (layout == null) {
+			layout = new AttributeLayout(resultAttributePrefix, ATTR_PREFIX, LAYOUT_ATTRIBUTE_IDS);
+			attributeLayout = layout;
+		}
+		return layout;
+	}
+
+	/**
+	 * Gets the compiled school role settings. The settings are compiled once and reset by the setters of the school
+	 * role mappings, the role codes and the allowed and student roles.
+	 * 
+	 * @return The role table.
+	 */
+	protected RoleTable getRoleTable() {
+		RoleTable table = roleTable;
+		if (table == null) {
+			table = new RoleTable(schoolRoleMappings, schoolRoleCodeMappings, allowedSchoolRoles, studentRoles);
+			roleTable = table;
+		}
+		return table;
+	}
+
+	/**
+	 * Gets the resolved role of the given role object.
+	 * 
+	 * @param role The role object.
+	 * @return The resolved role, or null if the role object has no role.
+	 */
+	private RoleTable.Role getSchoolRole(@Nonnull final UserDTO.RolesDTO role) {
+		return role.getRole() == null ? null : getRoleTable().get(role.getRole());
+	}
+
 	/**
 	 * Sets the token used for authenticating to the REST server.
 	 * 
@@ -1171,6 +2403,7 @@ public class RestDataConnector extends AbstractDataConnector {
 		} else {
 			nameApiBaseUrl = baseUrl;
 		}
+		configurationFingerprint = null;
 	}
 
 	/**
@@ -1248,101 +2481,2281 @@ public class RestDataConnector extends AbstractDataConnector {
 	}
 
 	/**
-	 * Fetch school information from external API.
+	 * Builds a pooled {@link HttpClient} using current {@link HttpClientBuilder} and the given pool sizes. A pool
+	 * size of 0 keeps the one set on the builder. The builder may be a bean shared with other components, and it
+	 * cannot be copied, so its own pool sizes are restored once the client has been built.
 	 * 
-	 * @param clientBuilder The HTTP client builder.
-	 * @param schoolId      The school id whose information is fetched.
-	 * @param baseUrl       The base URL for the external API. It is appended with
-	 *                      the ID of the school.
-	 * @return The school object.
+	 * @param maxConnectionsTotal    The maximum number of connections in the pool, or 0.
+	 * @param maxConnectionsPerRoute The maximum number of connections per route in the pool, or 0.
+	 * @return The built client.
+	 * @throws Exception If the building fails.
 	 */
-	public School findSchool(final String schoolId, final String baseUrl) {
-		final Logger log = LoggerFactory.getLogger(RestDataConnector.class);
-
-		String trimmedSchoolId = StringSupport.trimOrNull(schoolId);
-		log.debug("TrimmedSchool: {}", trimmedSchoolId);
-		
-		if (trimmedSchoolId == null || 
-				(isNumeric(trimmedSchoolId) && trimmedSchoolId.length() > 6) ||
-				(!isNumeric(trimmedSchoolId) && !trimmedSchoolId.contains("."))) {
-			return null;
-		}
-		final HttpContext context = HttpClientContext.create();
-		final ClassicHttpResponse response;
-		try {
-			final ClassicHttpRequest get = ClassicRequestBuilder.get().setUri(baseUrl + trimmedSchoolId).build();
-
-			if (nameApiCallerId != null) {
-				get.setHeader(HEADER_NAME_CALLER_ID, nameApiCallerId);
+	protected HttpClient buildClient(final int maxConnectionsTotal, final int maxConnectionsPerRoute)
+			throws Exception {
+		final HttpClientBuilder builder = getHttpClientBuilder();
+		synchronized (builder) {
+			final int previousTotal = builder.getMaxConnectionsTotal();
+			final int previousPerRoute = builder.getMaxConnectionsPerRoute();
+			if (maxConnectionsTotal > 0) {
+				builder.setMaxConnectionsTotal(maxConnectionsTotal);
 			}
-
-			response = buildClient().executeOpen(null,get,context);
-		} catch (Exception e) {
-			log.error("Could not get school information with id {}", schoolId, e);
-			return null;
-		}
-		if (response == null) {
-			log.error("Could not get school information with id {}", schoolId);
-			return null;
-		}
-		final String output;
-		try {
-			output = EntityUtils.toString(response.getEntity(), "UTF-8");
-		} catch (ParseException | IOException e) {
-			log.error("Could not parse school information response with id {}", schoolId, e);
-			return null;
-		} finally {
-			EntityUtils.consumeQuietly(response.getEntity());
-		}
-		log.trace("Fetched the following response body: {}", output);
-		final Gson gson = new Gson();
-		try {
-			final OpintopolkuOppilaitosDTO[] oResponse = gson.fromJson(output, OpintopolkuOppilaitosDTO[].class);
-			if (oResponse.length == 1 && oResponse[0].getMetadata() != null && oResponse[0].getMetadata().length > 0) {
-				log.debug("Successfully fetched information for id {}", trimmedSchoolId);
-				log.debug("Fetched data {}",oResponse[0]);
-				School school = new School();
-				school.setId(oResponse[0].getCodeValue());
-				school.setOid(oResponse[0].getOid());
-				for (OpintopolkuOppilaitosMetadataDTO metadata : oResponse[0].getMetadata()) {
-					if ("FI".equals(metadata.getLanguage())) {
-						school.setName(metadata.getName());
-					}
+			if (maxConnectionsPerRoute > 0) {
+				builder.setMaxConnectionsPerRoute(maxConnectionsPerRoute);
+			}
+			try {
+				return builder.buildClient();
+			} finally {
+				if (maxConnectionsTotal > 0) {
+					builder.setMaxConnectionsTotal(previousTotal);
 				}
-
-				if (null == school.getName()) {
-					school.setName(oResponse[0].getMetadata()[0].getName());
+				if (maxConnectionsPerRoute > 0) {
+					builder.setMaxConnectionsPerRoute(previousPerRoute);
 				}
-
-				school.setParentOid(oResponse[0].getParentOid());
-				school.setParentName(oResponse[0].getParentName());
-				school.setOrganizationType(oResponse[0].getOrganizationType());
-
-				return school;
 			}
-		} catch (JsonSyntaxException | IllegalStateException e) {
-			log.warn("Could not parse the response", e);
-			log.debug("The unparseable response was {}", output);
 		}
-		log.warn("Could not find name for id {}", schoolId);
-		return null;
 	}
 
-	public static String getAttrIdUsername() {
-		return ATTR_ID_USERNAME;
+	/**
+	 * Returns the given pool size, or the one set on the {@link HttpClientBuilder} if it is not configured, or the
+	 * default of HttpClient if neither is.
+	 * 
+	 * @param configured The configured pool size, 0 if not configured.
+	 * @param perRoute Whether the pool size is the one per route.
+	 * @return The pool size in use.
+	 */
+	private int effectiveMaxConnections(final int configured, final boolean perRoute) {
+		if (configured > 0) {
+			return configured;
+		}
+		final int fromBuilder = perRoute ? getHttpClientBuilder().getMaxConnectionsPerRoute()
+				: getHttpClientBuilder().getMaxConnectionsTotal();
+		if (fromBuilder > 0) {
+			return fromBuilder;
+		}
+		return perRoute ? HTTP_CLIENT_MAX_CONNECTIONS_PER_ROUTE : HTTP_CLIENT_MAX_CONNECTIONS_TOTAL;
 	}
 
-	public static String getAttrIdFirstname() {
-		return ATTR_ID_FIRSTNAME;
+	/**
+	 * Returns the pooled {@link HttpClient} used for the REST server. The client is built on the first call,
+	 * normally during the component initialization.
+	 * 
+	 * @return The client for the REST server.
+	 * @throws Exception If the building fails.
+	 */
+	protected HttpClient getEndpointHttpClient() throws Exception {
+		if (endpointHttpClient == null) {
+			synchronized (this) {
+				if (endpointHttpClient == null) {
+					endpointHttpClient = buildClient(endpointMaxConnectionsTotal, endpointMaxConnectionsPerRoute);
+					endpointPoolStatistics.setMaxConnections(effectiveMaxConnections(endpointMaxConnectionsTotal, false));
+				}
+			}
+		}
+		return endpointHttpClient;
 	}
 
-	public static String getAttrIdNickname() {
-		return ATTR_ID_NICKNAME;
+	/**
+	 * Returns the pooled {@link HttpClient} used for the school information API. The client is built on the
+	 * first call, normally during the component initialization.
+	 * 
+	 * @return The client for the school information API.
+	 * @throws Exception If the building fails.
+	 */
+	protected HttpClient getNameApiHttpClient() throws Exception {
+		if (nameApiHttpClient == null) {
+			synchronized (this) {
+				if (nameApiHttpClient == null) {
+					nameApiHttpClient = buildClient(nameApiMaxConnectionsTotal, nameApiMaxConnectionsPerRoute);
+					nameApiPoolStatistics.setMaxConnections(effectiveMaxConnections(nameApiMaxConnectionsTotal, false));
+				}
+			}
+		}
+		return nameApiHttpClient;
 	}
 
-	public static String getAttrIdSurname() {
-		return ATTR_ID_SURNAME;
-	}
+	/**
+	 * Builds and starts an asynchronous HTTP client with its own connection pool, sized with the given pool sizes
+	 * or, when they are 0, with the ones of the current {@link HttpClientBuilder}. The settings of the builder are
+	 * mirrored: the proxy and its credentials, the user agent, disregarding the TLS certificate, the connect,
+	 * connection request and socket timeouts and following the redirects. A TLS socket factory or a local address
+	 * set on the builder cannot be mirrored, so the client is not built at all with them.
+	 * 
+	 * @param maxConnectionsTotal    The maximum number of connections in the pool, or 0.
+	 * @param maxConnectionsPerRoute The maximum number of connections per route in the pool, or 0.
+	 * @return The started client.
+	 * @throws Exception If the building fails or the settings of the builder cannot be mirrored.
+	 */
+	protected CloseableHttpAsyncClient buildAsyncClient(final int maxConnectionsTotal,
+			final int maxConnectionsPerRoute) throws Exception {
+		final HttpClientBuilder builder = getHttpClientBuilder();
+		if (builder.getTLSSocketFactory() != null || builder.getLocalAddress() != null) {
+			throw new ComponentInitializationException("The TLS socket factory or the local address of the "
+					+ "HttpClientBuilder cannot be used with the asynchronous HTTP client, disable asyncEnabled");
+		}
+		final ConnectionConfig.Builder connectionConfig = ConnectionConfig.custom();
+		final RequestConfig.Builder requestConfig = RequestConfig.custom()
+				.setRedirectsEnabled(builder.isHttpFollowRedirects());
+		if (isTimeoutSet(builder.getConnectionTimeout())) {
+			connectionConfig.setConnectTimeout(Timeout.of(builder.getConnectionTimeout()));
+		}
+		if (isTimeoutSet(builder.getSocketTimeout())) {
+			connectionConfig.setSocketTimeout(Timeout.of(builder.getSocketTimeout()));
+			requestConfig.setResponseTimeout(Timeout.of(builder.getSocketTimeout()));
+		}
+		if (isTimeoutSet(builder.getConnectionRequestTimeout())) {
+			requestConfig.setConnectionRequestTimeout(Timeout.of(builder.getConnectionRequestTimeout()));
+		}
+		final PoolingAsyncClientConnectionManagerBuilder connectionManager =
+				PoolingAsyncClientConnectionManagerBuilder.create()
+				.setMaxConnTotal(effectiveMaxConnections(maxConnectionsTotal, false))
+				.setMaxConnPerRoute(effectiveMaxConnections(maxConnectionsPerRoute, true))
+				.setDefaultConnectionConfig(connectionConfig.build());
+		if (isDisregardTLSCertificate()) {
+			connectionManager.setTlsStrategy(ClientTlsStrategyBuilder.create()
+					.setSslContext(SSLContextBuilder.create().loadTrustMaterial(TrustAllStrategy.INSTANCE).build())
+					.setHostnameVerifier(NoopHostnameVerifier.INSTANCE).build());
+		}
+		final HttpAsyncClientBuilder clientBuilder = HttpAsyncClients.custom()
+				.setConnectionManager(connectionManager.build())
+				.setDefaultRequestConfig(requestConfig.build());
+		if (builder.getConnectionProxyHost() != null) {
+			clientBuilder.setProxy(new HttpHost(builder.getConnectionProxyHost(), builder.getConnectionProxyPort()));
+			if (builder.getConnectionProxyUsername() != null && builder.getConnectionProxyPassword() != null) {
+				final BasicCredentialsProvider credentials = new BasicCredentialsProvider();
+				credentials.setCredentials(
+						new AuthScope(builder.getConnectionProxyHost(), builder.getConnectionProxyPort()),
+						new UsernamePasswordCredentials(builder.getConnectionProxyUsername(),
+								builder.getConnectionProxyPassword().toCharArray()));
+				clientBuilder.setDefaultCredentialsProvider(credentials);
+			}
+		}
+		if (builder.getUserAgent() != null) {
+			clientBuilder.setUserAgent(builder.getUserAgent());
+		}
+		final CloseableHttpAsyncClient client = clientBuilder.build();
+		client.start();
+		return client;
+	}
+
+	/**
+	 * Checks whether the given timeout of the {@link HttpClientBuilder} has been set.
+	 * 
+	 * @param timeout The timeout, may be null.
+	 * @return true if the timeout is set, false if the default of HttpClient applies.
+	 */
+	private static boolean isTimeoutSet(final Duration timeout) {
+		return timeout != null && !timeout.isNegative();
+	}
+
+	/**
+	 * Returns the asynchronous HTTP client used for the REST server, building and starting it on the first call.
+	 * 
+	 * @return The asynchronous client for the REST server.
+	 * @throws Exception If the building fails.
+	 */
+	protected CloseableHttpAsyncClient getEndpointAsyncHttpClient() throws Exception {
+		CloseableHttpAsyncClient client = endpointAsyncHttpClient;
+		if (client == null) {
+			synchronized (this) {
+				client = endpointAsyncHttpClient;
+				if (client == null) {
+					client = buildAsyncClient(endpointMaxConnectionsTotal, endpointMaxConnectionsPerRoute);
+					endpointAsyncHttpClient = client;
+				}
+			}
+		}
+		return client;
+	}
+
+	/**
+	 * Returns the asynchronous HTTP client used for the school information API, building and starting it on the
+	 * first call.
+	 * 
+	 * @return The asynchronous client for the school information API.
+	 * @throws Exception If the building fails.
+	 */
+	protected CloseableHttpAsyncClient getNameApiAsyncHttpClient() throws Exception {
+		CloseableHttpAsyncClient client = nameApiAsyncHttpClient;
+		if (client == null) {
+			synchronized (this) {
+				client = nameApiAsyncHttpClient;
+				if (client == null) {
+					client = buildAsyncClient(nameApiMaxConnectionsTotal, nameApiMaxConnectionsPerRoute);
+					nameApiAsyncHttpClient = client;
+				}
+			}
+		}
+		return client;
+	}
+
+	/**
+	 * Parses a JSON response entity directly from its content stream, without buffering the whole body. A body
+	 * larger than the maximum response size is aborted as soon as the limit is exceeded.
+	 * 
+	 * @param <T> The type of the parsed object.
+	 * @param entity The response entity.
+	 * @param gson The Gson instance used for parsing.
+	 * @param type The type of the parsed object.
+	 * @return The parsed object, or null if the body is empty.
+	 * @throws IOException If the body cannot be read or parsed, or it exceeds the maximum response size.
+	 */
+	protected <T> T parseResponse(final HttpEntity entity, final Gson gson, final Class<T> type)
+			throws IOException {
+		if (entity == null) {
+			throw new IOException("The response has no entity");
+		}
+		if (entity.getContentLength() > maxResponseSize) {
+			throw new IOException("The response size " + entity.getContentLength()
+					+ " exceeds the maximum size of " + maxResponseSize + " bytes");
+		}
+		final InputStream content = entity.getContent();
+		if (content == null) {
+			throw new IOException("The response has no content");
+		}
+		return parseJson(new InputStreamReader(new SizeLimitedInputStream(content, maxResponseSize),
+				StandardCharsets.UTF_8), gson, type);
+	}
+
+	/**
+	 * Parses a JSON response body buffered by the asynchronous HTTP client.
+	 * 
+	 * @param <T> The type of the parsed object.
+	 * @param body The response body.
+	 * @param gson The Gson instance used for parsing.
+	 * @param type The type of the parsed object.
+	 * @return The parsed object, or null if the body is empty.
+	 * @throws IOException If the body is missing or cannot be parsed, or it exceeds the maximum response size.
+	 */
+	protected <T> T parseResponse(final byte[] body, final Gson gson, final Class<T> type) throws IOException {
+		if (body == null) {
+			throw new IOException("The response has no content");
+		}
+		if (body.length > maxResponseSize) {
+			throw new IOException("The response size " + body.length + " exceeds the maximum size of "
+					+ maxResponseSize + " bytes");
+		}
+		return parseJson(new InputStreamReader(new ByteArrayInputStream(body), StandardCharsets.UTF_8), gson, type);
+	}
+
+	/**
+	 * Parses a JSON document from the given reader.
+	 * 
+	 * @param <T> The type of the parsed object.
+	 * @param content The reader for the document.
+	 * @param gson The Gson instance used for parsing.
+	 * @param type The type of the parsed object.
+	 * @return The parsed object, or null if the document is empty.
+	 * @throws IOException If the document cannot be read or parsed.
+	 */
+	private <T> T parseJson(final Reader content, final Gson gson, final Class<T> type) throws IOException {
+		final JsonReader reader = new JsonReader(content);
+		try {
+			return gson.fromJson(reader, type);
+		} catch (JsonParseException e) {
+			if (e.getCause() instanceof IOException) {
+				throw (IOException) e.getCause();
+			}
+			throw new IOException("Could not parse the response", e);
+		}
+	}
+
+	/**
+	 * Executes the given request with the asynchronous HTTP client of the upstream. The response body is buffered,
+	 * and a body larger than the maximum response size fails the request and closes its connection. As with the
+	 * blocking client, the request is counted as pending until its response headers arrive, and as leased until
+	 * its response body has been consumed.
+	 * 
+	 * @param request The request.
+	 * @param statistics The connection statistics of the upstream, also telling which upstream is called.
+	 * @return The future response, completed exceptionally if the request fails.
+	 */
+	protected CompletableFuture<SimpleHttpResponse> executeAsync(final SimpleHttpRequest request,
+			final ConnectionPoolStatistics statistics) {
+		final CompletableFuture<SimpleHttpResponse> result = new CompletableFuture<>();
+		final CloseableHttpAsyncClient client;
+		try {
+			client = statistics == nameApiPoolStatistics ? getNameApiAsyncHttpClient()
+					: getEndpointAsyncHttpClient();
+		} catch (Exception e) {
+			result.completeExceptionally(e);
+			return result;
+		}
+		final AtomicBoolean leased = new AtomicBoolean();
+		final SizeLimitedResponseConsumer consumer = new SizeLimitedResponseConsumer(maxResponseSize) {
+
+			@Override
+			protected void start(@Nonnull final HttpResponse httpResponse, final ContentType type)
+					throws HttpException, IOException {
+				if (leased.compareAndSet(false, true)) {
+					statistics.connectionLeased();
+				}
+				super.start(httpResponse, type);
+			}
+		};
+		statistics.requestStarted();
+		final Future<SimpleHttpResponse> exchange = client.execute(SimpleRequestProducer.create(request),
+				consumer, new FutureCallback<SimpleHttpResponse>() {
+
+					@Override
+					public void completed(final SimpleHttpResponse response) {
+						exchangeEnded(statistics, leased);
+						result.complete(response);
+					}
+
+					@Override
+					public void failed(final Exception e) {
+						exchangeEnded(statistics, leased);
+						result.completeExceptionally(e);
+					}
+
+					@Override
+					public void cancelled() {
+						exchangeEnded(statistics, leased);
+						result.cancel(false);
+					}
+				});
+		if (exchange != null) {
+			result.whenComplete((response, error) -> {
+				if (result.isCancelled()) {
+					exchange.cancel(true);
+				}
+			});
+		}
+		return result;
+	}
+
+	/**
+	 * Records the end of an asynchronous exchange in the connection statistics of its upstream.
+	 * 
+	 * @param statistics The connection statistics of the upstream.
+	 * @param leased Whether the exchange received its response headers.
+	 */
+	private void exchangeEnded(final ConnectionPoolStatistics statistics, final AtomicBoolean leased) {
+		if (leased.get()) {
+			statistics.connectionReleased();
+		} else {
+			statistics.requestFailed();
+		}
+	}
+
+	/**
+	 * Executes the given request to REST API with the asynchronous HTTP client, hedging it if hedging is enabled.
+	 * If the request has not answered after the hedge delay and the hedge budget allows, an identical request is
+	 * sent, to another endpoint if there is one. The first successful response is used and the other request is
+	 * cancelled. A failure is used only when no other request is pending.
+	 * 
+	 * @param userQuery The query string for the user data.
+	 * @return The future response, completed exceptionally if the request fails.
+	 */
+	protected CompletableFuture<SimpleHttpResponse> executeHedged(final String userQuery) {
+		final Set<EndpointSelector.Endpoint> tried = ConcurrentHashMap.newKeySet();
+		final HedgingPolicy policy = getEndpointHedgingPolicy();
+		if (policy == null) {
+			return executeOnEndpoints(userQuery, tried);
+		}
+		policy.onRequest();
+		final CompletableFuture<SimpleHttpResponse> result = new CompletableFuture<>();
+		final List<CompletableFuture<SimpleHttpResponse>> attempts = new CopyOnWriteArrayList<>();
+		final AtomicInteger pending = new AtomicInteger(1);
+		final CompletableFuture<SimpleHttpResponse> primary = sendHedgeAttempt(userQuery, tried, policy, result,
+				pending, false);
+		attempts.add(primary);
+		final Duration delay = policy.getHedgeDelay();
+		if (delay != null) {
+			CompletableFuture.delayedExecutor(delay.toNanos(), TimeUnit.NANOSECONDS).execute(() -> {
+				if (result.isDone() || !policy.tryHedge()) {
+					return;
+				}
+				log.debug("REST API did not answer in {} ms, hedging the request", delay.toMillis());
+				pending.incrementAndGet();
+				attempts.add(sendHedgeAttempt(userQuery, tried, policy, result, pending, true));
+				if (result.isDone()) {
+					attempts.forEach(attempt -> attempt.cancel(false));
+				}
+			});
+		}
+		result.whenComplete((response, error) -> attempts.forEach(attempt -> attempt.cancel(false)));
+		return result;
+	}
+
+	/**
+	 * Sends one attempt of a hedged request, completing the result with its outcome.
+	 * 
+	 * @param userQuery The query string for the user data.
+	 * @param tried The endpoints already tried for the request.
+	 * @param policy The hedging policy.
+	 * @param result The result of the hedged request.
+	 * @param pending The number of attempts not yet answered.
+	 * @param hedge Whether the attempt is a hedge.
+	 * @return The future response of the attempt.
+	 */
+	private CompletableFuture<SimpleHttpResponse> sendHedgeAttempt(final String userQuery,
+			final Set<EndpointSelector.Endpoint> tried, final HedgingPolicy policy,
+			final CompletableFuture<SimpleHttpResponse> result, final AtomicInteger pending, final boolean hedge) {
+		final long started = System.nanoTime();
+		final CompletableFuture<SimpleHttpResponse> attempt = executeOnEndpoints(userQuery, tried);
+		attempt.whenComplete((response, error) -> {
+			final boolean last = pending.decrementAndGet() == 0;
+			if (error == null) {
+				policy.recordLatency(System.nanoTime() - started);
+				if (result.complete(response) && hedge) {
+					policy.onHedgeWon();
+				}
+			} else if (last) {
+				result.completeExceptionally(error);
+			}
+		});
+		return attempt;
+	}
+
+	/**
+	 * Executes the given request on one of the REST API endpoints with the asynchronous HTTP client, preferring
+	 * the endpoints not yet tried for the request.
+	 * 
+	 * @param userQuery The query string for the user data.
+	 * @param tried The endpoints already tried for the request, updated with the selected ones.
+	 * @return The future response, completed exceptionally if the request fails on every endpoint tried.
+	 */
+	private CompletableFuture<SimpleHttpResponse> executeOnEndpoints(final String userQuery,
+			final Set<EndpointSelector.Endpoint> tried) {
+		final EndpointSelector selector = getEndpointSelector();
+		EndpointSelector.Endpoint endpoint = selector.select(tried);
+		if (endpoint == null) {
+			endpoint = selector.select(Collections.emptySet());
+		}
+		return executeOnEndpoint(selector, endpoint, userQuery, tried, endpointMaxRetries);
+	}
+
+	/**
+	 * Executes the given request on the given REST API endpoint with the asynchronous HTTP client. After a
+	 * connection failure, the request is retried on another endpoint not yet tried, as long as retries are left.
+	 * Other errors, such as a response timeout, and 5xx responses are failures of the endpoint, but they are not
+	 * retried.
+	 * 
+	 * @param selector The endpoint selector.
+	 * @param endpoint The endpoint.
+	 * @param userQuery The query string for the user data.
+	 * @param tried The endpoints already tried for the request, updated with the given one.
+	 * @param retries The number of retries left.
+	 * @return The future response, cancelling it cancels the request.
+	 */
+	private CompletableFuture<SimpleHttpResponse> executeOnEndpoint(final EndpointSelector selector,
+			final EndpointSelector.Endpoint endpoint, final String userQuery,
+			final Set<EndpointSelector.Endpoint> tried, final int retries) {
+		tried.add(endpoint);
+		selector.onStart(endpoint);
+		final long started = System.nanoTime();
+		final SimpleHttpRequest request = SimpleRequestBuilder.get(endpoint.getUrl() + userQuery)
+				.setHeader("Authorization", "Token " + token).build();
+		final CompletableFuture<SimpleHttpResponse> attempt = executeAsync(request, endpointPoolStatistics);
+		final CompletableFuture<SimpleHttpResponse> result = new CompletableFuture<>();
+		attempt.whenComplete((response, error) -> {
+			if (attempt.isCancelled()) {
+				selector.onCancel(endpoint);
+				result.cancel(false);
+				return;
+			}
+			if (error == null) {
+				if (response.getCode() >= HttpStatus.SC_SERVER_ERROR) {
+					selector.onFailure(endpoint);
+				} else {
+					selector.onSuccess(endpoint, System.nanoTime() - started);
+				}
+				result.complete(response);
+				return;
+			}
+			selector.onFailure(endpoint);
+			final EndpointSelector.Endpoint next = retries > 0 && !result.isDone() && isConnectionFailure(error)
+					? selector.select(tried) : null;
+			if (next == null) {
+				result.completeExceptionally(error);
+				return;
+			}
+			log.warn("Could not connect to {}, retrying on {}", endpoint.getUrl(), next.getUrl(),
+					error instanceof CompletionException ? error.getCause() : error);
+			final CompletableFuture<SimpleHttpResponse> retry = executeOnEndpoint(selector, next, userQuery, tried,
+					retries - 1);
+			retry.whenComplete((retried, retryError) -> {
+				if (retryError == null) {
+					result.complete(retried);
+				} else {
+					result.completeExceptionally(retryError);
+				}
+			});
+			result.whenComplete((ignored, resultError) -> retry.cancel(false));
+		});
+		result.whenComplete((ignored, resultError) -> attempt.cancel(false));
+		return result;
+	}
+
+	/**
+	 * Releases the response. A fully read response is consumed so that its connection can be reused, whereas
+	 * the connection of a partially read response is closed instead of reading the rest of the body.
+	 * 
+	 * @param response The response.
+	 * @param reusable Whether the response has been read and its connection can be reused.
+	 */
+	private void releaseResponse(final ClassicHttpResponse response, final boolean reusable) {
+		if (reusable) {
+			EntityUtils.consumeQuietly(response.getEntity());
+			return;
+		}
+		try {
+			response.close();
+		} catch (IOException e) {
+			log.debug("Could not close the response", e);
+		}
+	}
+
+	/**
+	 * Closes the given client if it is closeable, logging but otherwise ignoring errors.
+	 * 
+	 * @param client The client to close, may be null.
+	 */
+	private void closeQuietly(final HttpClient client) {
+		if (client instanceof Closeable) {
+			try {
+				((Closeable) client).close();
+			} catch (IOException e) {
+				log.warn("Could not close the HTTP client", e);
+			}
+		}
+	}
+
+	/**
+	 * Sets the maximum size of a response body from the REST API or the school information API, in bytes.
+	 * 
+	 * @param max What to set.
+	 */
+	public void setMaxResponseSize(final int max) {
+		Constraint.isGreaterThan(0, max, "The maximum response size must be greater than 0");
+		maxResponseSize = max;
+	}
+
+	/**
+	 * Gets the maximum size of a response body, in bytes.
+	 * 
+	 * @return The maximum size of a response body.
+	 */
+	public int getMaxResponseSize() {
+		return maxResponseSize;
+	}
+
+	/**
+	 * Gets the connection statistics for the REST server pool.
+	 * 
+	 * @return The connection statistics for the REST server pool.
+	 */
+	public ConnectionPoolStatistics getEndpointPoolStatistics() {
+		return endpointPoolStatistics;
+	}
+
+	/**
+	 * Gets the connection statistics for the school information API pool.
+	 * 
+	 * @return The connection statistics for the school information API pool.
+	 */
+	public ConnectionPoolStatistics getNameApiPoolStatistics() {
+		return nameApiPoolStatistics;
+	}
+
+	/**
+	 * Sets the maximum number of pooled connections to the REST server.
+	 * 
+	 * @param max What to set.
+	 */
+	public void setEndpointMaxConnectionsTotal(final int max) {
+		Constraint.isGreaterThan(0, max, "The maximum number of connections must be positive");
+		endpointMaxConnectionsTotal = max;
+	}
+
+	/**
+	 * Gets the maximum number of pooled connections to the REST server.
+	 * 
+	 * @return The maximum number of pooled connections to the REST server, 0 if the value of the builder is used.
+	 */
+	public int getEndpointMaxConnectionsTotal() {
+		return endpointMaxConnectionsTotal;
+	}
+
+	/**
+	 * Sets the maximum number of pooled connections per route to the REST server.
+	 * 
+	 * @param max What to set.
+	 */
+	public void setEndpointMaxConnectionsPerRoute(final int max) {
+		Constraint.isGreaterThan(0, max, "The maximum number of connections must be positive");
+		endpointMaxConnectionsPerRoute = max;
+	}
+
+	/**
+	 * Gets the maximum number of pooled connections per route to the REST server.
+	 * 
+	 * @return The maximum number of pooled connections per route to the REST server, 0 if the value of the builder is used.
+	 */
+	public int getEndpointMaxConnectionsPerRoute() {
+		return endpointMaxConnectionsPerRoute;
+	}
+
+	/**
+	 * Sets the maximum number of pooled connections to the school information API.
+	 * 
+	 * @param max What to set.
+	 */
+	public void setNameApiMaxConnectionsTotal(final int max) {
+		Constraint.isGreaterThan(0, max, "The maximum number of connections must be positive");
+		nameApiMaxConnectionsTotal = max;
+	}
+
+	/**
+	 * Gets the maximum number of pooled connections to the school information API.
+	 * 
+	 * @return The maximum number of pooled connections to the school information API, 0 if the value of the builder is used.
+	 */
+	public int getNameApiMaxConnectionsTotal() {
+		return nameApiMaxConnectionsTotal;
+	}
+
+	/**
+	 * Sets the maximum number of pooled connections per route to the school information API.
+	 * 
+	 * @param max What to set.
+	 */
+	public void setNameApiMaxConnectionsPerRoute(final int max) {
+		Constraint.isGreaterThan(0, max, "The maximum number of connections must be positive");
+		nameApiMaxConnectionsPerRoute = max;
+	}
+
+	/**
+	 * Gets the maximum number of pooled connections per route to the school information API.
+	 * 
+	 * @return The maximum number of pooled connections per route to the school information API, 0 if the value of the builder is used.
+	 */
+	public int getNameApiMaxConnectionsPerRoute() {
+		return nameApiMaxConnectionsPerRoute;
+	}
+
+	/**
+	 * Find school information from the cache or from external API.
+	 * 
+	 * @param schoolId      The school id whose information is fetched.
+	 * @param baseUrl       The base URL for the external API. It is appended with
+	 *                      the ID of the school.
+	 * @return The school object.
+	 */
+	public School findSchool(final String schoolId, final String baseUrl) {
+		final String trimmedSchoolId = getValidSchoolId(schoolId);
+		if (trimmedSchoolId == null) {
+			return null;
+		}
+		final School preloaded = getPreloadedSchool(trimmedSchoolId, baseUrl);
+		if (preloaded != null) {
+			return new School(preloaded);
+		}
+		final String cacheKey = baseUrl + trimmedSchoolId;
+		final PrefetchedSchools prefetched = prefetchedSchools.get();
+		if (prefetched != null && prefetched.contains(cacheKey)) {
+			log.debug("Using the information looked up ahead for id {}", trimmedSchoolId);
+			return prefetched.get(cacheKey);
+		}
+		final BoundedTtlCache.Entry<School> cached = schoolCache.getLive(cacheKey);
+		if (cached != null) {
+			if (cached.getValue() == null) {
+				log.debug("Id {} is cached as unknown", trimmedSchoolId);
+				return null;
+			}
+			log.debug("Found cached information for id {}", trimmedSchoolId);
+			return new School(cached.getValue());
+		}
+		if (!schoolCacheMaxStaleness.isZero()) {
+			final School stale = schoolCache.getStale(cacheKey, schoolCacheMaxStaleness);
+			if (stale != null) {
+				log.debug("Serving stale information for id {} while it is refreshed", trimmedSchoolId);
+				refreshSchool(trimmedSchoolId, baseUrl, cacheKey);
+				return new School(stale);
+			}
+		}
+		if ((prefetched != null && prefetched.isDeadlineExceeded()) || isResolutionDeadlineExpired()) {
+			log.debug("The resolution deadline has passed, not looking up id {}", trimmedSchoolId);
+			markDegraded(resolutionDeadline.get());
+			return null;
+		}
+		// concurrent lookups for the same school share a single upstream request and its outcome
+		School school = null;
+		for (boolean loaded = false; !loaded;) {
+			try {
+				school = schoolLookups.execute(cacheKey, () -> loadSchool(trimmedSchoolId, baseUrl, cacheKey));
+				loaded = true;
+			} catch (UncheckedIOException e) {
+				if (e.getCause() instanceof BudgetExhaustedException && resolutionDeadline.get() != null
+						&& !isResolutionDeadlineExpired()) {
+					// the shared lookup ran out of the budget of another caller, this one still has time
+					log.debug("The shared lookup of id {} was abandoned, looking it up again", trimmedSchoolId);
+					continue;
+				}
+				if (e.getCause() instanceof BudgetExhaustedException) {
+					log.warn("Could not get school information with id {}: {}", trimmedSchoolId,
+							e.getCause().getMessage());
+				} else {
+					log.error("Could not get school information with id {}", trimmedSchoolId, e.getCause());
+				}
+				markDegraded(resolutionDeadline.get());
+				// an expired entry, such as one read from the snapshot, is better than nothing
+				school = getExpiredSchool(cacheKey);
+				loaded = true;
+			}
+		}
+		return school == null ? null : new School(school);
+	}
+
+	/**
+	 * Gets the given school from the preloaded directory, if the directory was preloaded for the given base URL.
+	 * 
+	 * @param schoolId The trimmed school id.
+	 * @param baseUrl  The base URL of the school information API.
+	 * @return The preloaded school, or null if it is not preloaded for the base URL.
+	 */
+	private School getPreloadedSchool(final String schoolId, final String baseUrl) {
+		return baseUrl != null && baseUrl.equals(schoolDirectoryBaseUrl) ? schoolDirectory.get(schoolId) : null;
+	}
+
+	/**
+	 * Trims the given school id and checks that it looks like a school code or an organization oid.
+	 * 
+	 * @param schoolId The school id.
+	 * @return The trimmed school id, or null if it is not a valid school code or organization oid.
+	 */
+	private String getValidSchoolId(final String schoolId) {
+		final String trimmedSchoolId = StringSupport.trimOrNull(schoolId);
+		log.debug("TrimmedSchool: {}", trimmedSchoolId);
+		if (trimmedSchoolId == null || !SchoolIdType.of(trimmedSchoolId).isValid()) {
+			return null;
+		}
+		return trimmedSchoolId;
+	}
+
+	/**
+	 * Find school information from the cache or, without blocking, from external API with the asynchronous HTTP
+	 * client. Uses the same cache as {@link #findSchool(String, String)}, and concurrent asynchronous lookups for
+	 * the same school share a single request.
+	 * 
+	 * @param schoolId The school id whose information is fetched.
+	 * @param baseUrl The base URL for the external API. It is appended with the ID of the school.
+	 * @return The future school object, completed with null if the school is unknown or could not be fetched.
+	 */
+	protected CompletableFuture<School> findSchoolAsync(final String schoolId, final String baseUrl) {
+		final String trimmedSchoolId = getValidSchoolId(schoolId);
+		if (trimmedSchoolId == null) {
+			return CompletableFuture.completedFuture(null);
+		}
+		final School preloaded = getPreloadedSchool(trimmedSchoolId, baseUrl);
+		if (preloaded != null) {
+			return CompletableFuture.completedFuture(new School(preloaded));
+		}
+		final String cacheKey = baseUrl + trimmedSchoolId;
+		final BoundedTtlCache.Entry<School> cached = schoolCache.getLive(cacheKey);
+		if (cached != null) {
+			return CompletableFuture.completedFuture(cached.getValue() == null ? null : new School(cached.getValue()));
+		}
+		if (!schoolCacheMaxStaleness.isZero()) {
+			final School stale = schoolCache.getStale(cacheKey, schoolCacheMaxStaleness);
+			if (stale != null) {
+				refreshSchool(trimmedSchoolId, baseUrl, cacheKey);
+				return CompletableFuture.completedFuture(new School(stale));
+			}
+		}
+		final ResolutionDeadline deadline = resolutionDeadline.get();
+		final CompletableFuture<School> lookup = new CompletableFuture<>();
+		final CompletableFuture<School> inFlight = asyncSchoolLookups.putIfAbsent(cacheKey, lookup);
+		final CircuitBreaker breaker = getNameApiCircuitBreaker(baseUrl);
+		if (inFlight == null && !breaker.tryAcquire()) {
+			log.debug("The circuit breaker for {} is open, not looking up id {}", baseUrl, trimmedSchoolId);
+			markDegraded(deadline);
+			asyncSchoolLookups.remove(cacheKey, lookup);
+			lookup.complete(getExpiredSchool(cacheKey));
+		} else if (inFlight == null) {
+			fetchSchoolAsync(trimmedSchoolId, baseUrl).whenComplete((fetched, error) -> {
+				if (error != null) {
+					breaker.onFailure();
+					log.error("Could not get school information with id {}", trimmedSchoolId,
+							error instanceof CompletionException ? error.getCause() : error);
+				} else {
+					breaker.onSuccess();
+					if (fetched == null) {
+						schoolCache.put(cacheKey, null, schoolNegativeCacheTtl);
+					} else {
+						schoolCache.put(cacheKey, new School(fetched));
+					}
+				}
+				asyncSchoolLookups.remove(cacheKey, lookup);
+				if (error == null) {
+					lookup.complete(fetched);
+				} else {
+					lookup.completeExceptionally(error);
+				}
+			});
+		}
+		// a failed lookup completes with the expired entry or null, but degrades the resolutions sharing it
+		return (inFlight == null ? lookup : inFlight).handle((found, error) -> {
+			School school = found;
+			if (error != null) {
+				markDegraded(deadline);
+				school = getExpiredSchool(cacheKey);
+			}
+			return school == null ? null : new School(school);
+		});
+	}
+
+	/**
+	 * Fetches the school information and stores it in the cache. A school unknown to the API is cached as null
+	 * with its own time-to-live, whereas a failed request is not cached at all. While the circuit breaker of the
+	 * API is open, the API is not called and an expired cache entry is returned instead, if one exists.
+	 * 
+	 * @param schoolId The school code or the organization oid.
+	 * @param baseUrl The base URL for the school information API.
+	 * @param cacheKey The key for the cache.
+	 * @return The school, or null if it is unknown.
+	 * @throws UncheckedIOException If the school information could not be fetched.
+	 */
+	private School loadSchool(final String schoolId, final String baseUrl, final String cacheKey) {
+		final CircuitBreaker breaker = getNameApiCircuitBreaker(baseUrl);
+		if (!breaker.tryAcquire()) {
+			log.debug("The circuit breaker for {} is open, not looking up id {}", baseUrl, schoolId);
+			markDegraded(resolutionDeadline.get());
+			return getExpiredSchool(cacheKey);
+		}
+		final School fetched;
+		try {
+			fetched = fetchSchool(schoolId, baseUrl);
+		} catch (BudgetExhaustedException e) {
+			// running out of the caller's budget says nothing about the health of the API
+			breaker.onCancel();
+			throw new UncheckedIOException(e);
+		} catch (IOException e) {
+			breaker.onFailure();
+			throw new UncheckedIOException(e);
+		} catch (RuntimeException e) {
+			breaker.onFailure();
+			throw e;
+		}
+		breaker.onSuccess();
+		if (fetched == null) {
+			schoolCache.put(cacheKey, null, schoolNegativeCacheTtl);
+		} else {
+			schoolCache.put(cacheKey, new School(fetched));
+		}
+		return fetched;
+	}
+
+	/**
+	 * Gets the school information from the cache even if it has expired, as a fallback while the school
+	 * information API is not available.
+	 * 
+	 * @param cacheKey The key for the cache.
+	 * @return The cached school, or null if none is cached.
+	 */
+	private School getExpiredSchool(final String cacheKey) {
+		final BoundedTtlCache.Entry<School> entry = schoolCache.getEntry(cacheKey);
+		return entry == null ? null : entry.getValue();
+	}
+
+	/**
+	 * Gets the circuit breaker for the school information API with the given base URL, building it if needed.
+	 * 
+	 * @param baseUrl The base URL for the school information API.
+	 * @return The circuit breaker.
+	 */
+	public CircuitBreaker getNameApiCircuitBreaker(final String baseUrl) {
+		return nameApiCircuitBreakers.computeIfAbsent(baseUrl,
+				url -> new CircuitBreaker(url, nameApiCircuitBreakerFailureRateThreshold,
+						nameApiCircuitBreakerWindowSize, nameApiCircuitBreakerOpenDuration,
+						nameApiCircuitBreakerHalfOpenProbes));
+	}
+
+	/**
+	 * Refreshes the school information in the background, unless it is already being refreshed or the maximum
+	 * number of concurrent refreshes has been reached. A failed refresh leaves the stale entry in the cache.
+	 * 
+	 * @param schoolId The school code or the organization oid.
+	 * @param baseUrl The base URL for the school information API.
+	 * @param cacheKey The key for the cache.
+	 */
+	protected void refreshSchool(final String schoolId, final String baseUrl, final String cacheKey) {
+		if (!schoolRefreshes.add(cacheKey)) {
+			return;
+		}
+		try {
+			getSchoolRefreshExecutor().execute(() -> {
+				try {
+					schoolLookups.execute(cacheKey, () -> loadSchool(schoolId, baseUrl, cacheKey));
+				} catch (RuntimeException e) {
+					log.warn("Could not refresh school information with id {}", schoolId, e);
+				} finally {
+					schoolRefreshes.remove(cacheKey);
+				}
+			});
+		} catch (RejectedExecutionException e) {
+			log.debug("Maximum number of school information refreshes reached, not refreshing id {}", schoolId);
+			schoolRefreshes.remove(cacheKey);
+		}
+	}
+
+	/**
+	 * Gets the executor for the background refreshes of the school information, building it if needed.
+	 * 
+	 * @return The executor for the background refreshes.
+	 */
+	protected ExecutorService getSchoolRefreshExecutor() {
+		final ExecutorService refreshExecutor = schoolRefreshExecutor;
+		return refreshExecutor != null ? refreshExecutor : buildSchoolRefreshExecutor();
+	}
+
+	/**
+	 * Builds the executor for the background refreshes of the school information, unless another thread has already
+	 * built it.
+	 * 
+	 * @return The executor for the background refreshes.
+	 */
+	private synchronized ExecutorService buildSchoolRefreshExecutor() {
+		if (schoolRefreshExecutor == null) {
+			final ThreadPoolExecutor executor = new ThreadPoolExecutor(schoolRefreshMaxConcurrency,
+					schoolRefreshMaxConcurrency, 60, TimeUnit.SECONDS, new SynchronousQueue<>(), runnable -> {
+						final Thread thread = new Thread(runnable, "school-refresh-" + getId());
+						thread.setDaemon(true);
+						return thread;
+					});
+			executor.allowCoreThreadTimeOut(true);
+			schoolRefreshExecutor = executor;
+		}
+		return schoolRefreshExecutor;
+	}
+
+	/**
+	 * Gets the executor for the concurrent blocking school lookups, building it if needed. In the virtual execution
+	 * mode, every lookup runs in a new virtual thread, if the Java runtime supports them. Otherwise the executor does
+	 * not queue the lookups: when all of its threads are busy or it has been shut down, the lookup runs in the
+	 * calling thread instead.
+	 * 
+	 * @return The executor for the concurrent school lookups.
+	 */
+	protected ExecutorService getSchoolLookupExecutor() {
+		final ExecutorService lookupExecutor = schoolLookupExecutor;
+		return lookupExecutor != null ? lookupExecutor : buildSchoolLookupExecutor();
+	}
+
+	/**
+	 * Builds the executor for the concurrent blocking school lookups, unless another thread has already built it.
+	 * 
+	 * @return The executor for the concurrent school lookups.
+	 */
+	private synchronized ExecutorService buildSchoolLookupExecutor() {
+		if (schoolLookupExecutor == null && EXECUTION_MODE_VIRTUAL.equals(upstreamExecutionMode)) {
+			schoolLookupExecutor = newVirtualThreadPerTaskExecutor();
+			if (schoolLookupExecutor == null) {
+				log.warn("Virtual threads are not available in this Java runtime, using platform threads instead");
+			}
+		}
+		if (schoolLookupExecutor == null) {
+			final ThreadPoolExecutor executor = new ThreadPoolExecutor(schoolLookupMaxConcurrency,
+					schoolLookupMaxConcurrency, 60, TimeUnit.SECONDS, new SynchronousQueue<>(), runnable -> {
+						final Thread thread = new Thread(runnable, "school-lookup-" + getId());
+						thread.setDaemon(true);
+						return thread;
+					}, (task, pool) -> task.run());
+			executor.allowCoreThreadTimeOut(true);
+			schoolLookupExecutor = executor;
+		}
+		return schoolLookupExecutor;
+	}
+
+	/**
+	 * Builds an executor starting a new virtual thread for each task. The executor is looked up reflectively, as
+	 * virtual threads are only available from Java 21 onwards.
+	 * 
+	 * @return The executor, or null if the Java runtime does not support virtual threads.
+	 */
+	protected static ExecutorService newVirtualThreadPerTaskExecutor() {
+		try {
+			return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+		} catch (ReflectiveOperationException | RuntimeException e) {
+			return null;
+		}
+	}
+
+	/**
+	 * Builds the Gson instance for parsing the ECA user data API responses. The whole {@link UserDTO} tree is
+	 * converted with the streaming {@link UserTypeAdapter}, without reflection. Gson instances are thread-safe and
+	 * cache their type adapters, so the same instance should be shared by all the resolutions.
+	 * 
+	 * @return The Gson instance.
+	 */
+	public static Gson buildUserGson() {
+		final Gson gson = new GsonBuilder()
+				.registerTypeAdapter(UserDTO.class, new UserTypeAdapter())
+				.registerTypeAdapter(RolesDTO.class, new RolesTypeAdapter())
+				.registerTypeAdapter(AttributesDTO.class, new AttributesTypeAdapter())
+				.create();
+		gson.getAdapter(UserDTO.class);
+		return gson;
+	}
+
+	/**
+	 * Builds the Gson instance for parsing the school information API responses. The
+	 * {@link OpintopolkuOppilaitosDTO} tree is converted with the streaming {@link OpintopolkuOppilaitosTypeAdapter},
+	 * without reflection.
+	 * 
+	 * @return The Gson instance.
+	 */
+	public static Gson buildSchoolGson() {
+		final Gson gson = new GsonBuilder()
+				.registerTypeAdapter(OpintopolkuOppilaitosDTO.class, new OpintopolkuOppilaitosTypeAdapter())
+				.registerTypeAdapter(OpintopolkuOppilaitosMetadataDTO.class,
+						new OpintopolkuOppilaitosMetadataTypeAdapter())
+				.create();
+		gson.getAdapter(OpintopolkuOppilaitosDTO[].class);
+		return gson;
+	}
+
+	/**
+	 * Fetch school information from external API.
+	 * 
+	 * @param schoolId      The trimmed school id whose information is fetched.
+	 * @param baseUrl       The base URL for the external API. It is appended with
+	 *                      the ID of the school.
+	 * @return The school object, or null if the API does not know exactly one school with the id.
+	 * @throws BudgetExhaustedException If the resolution budget ran out before the API answered.
+	 * @throws IOException If the school information could not be fetched or parsed.
+	 */
+	protected School fetchSchool(final String schoolId, final String baseUrl) throws IOException {
+		final Semaphore hostPermit = acquireHostPermit(baseUrl + schoolId);
+		try {
+			final HttpClientContext context = HttpClientContext.create();
+			if (!applyResolutionDeadline(context)) {
+				throw new BudgetExhaustedException("The resolution deadline has passed before looking up id "
+						+ schoolId);
+			}
+			final ClassicHttpResponse response;
+			nameApiPoolStatistics.requestStarted();
+			try {
+				final ClassicHttpRequest get = ClassicRequestBuilder.get().setUri(baseUrl + schoolId).build();
+
+				if (nameApiCallerId != null) {
+					get.setHeader(HEADER_NAME_CALLER_ID, nameApiCallerId);
+				}
+
+				response = getNameApiHttpClient().executeOpen(null,get,context);
+			} catch (IOException e) {
+				nameApiPoolStatistics.requestFailed();
+				if (isResolutionDeadlineExpired()) {
+					throw new BudgetExhaustedException("The resolution deadline passed while looking up id "
+							+ schoolId, e);
+				}
+				throw e;
+			} catch (Exception e) {
+				nameApiPoolStatistics.requestFailed();
+				throw new IOException("Could not get school information with id " + schoolId, e);
+			}
+			if (response == null) {
+				nameApiPoolStatistics.requestFailed();
+				throw new IOException("No response for school information with id " + schoolId);
+			}
+			nameApiPoolStatistics.connectionLeased();
+			final OpintopolkuOppilaitosDTO[] oResponse;
+			boolean reusable = false;
+			try {
+				if (response.getCode() == HttpStatus.SC_NOT_FOUND) {
+					reusable = true;
+					log.warn("Could not find name for id {}, http status {}", schoolId, response.getCode());
+					return null;
+				}
+				oResponse = parseResponse(response.getEntity(), schoolGson, OpintopolkuOppilaitosDTO[].class);
+				reusable = true;
+			} catch (IOException e) {
+				throw new IOException("Could not parse the school information response with id " + schoolId, e);
+			} finally {
+				releaseResponse(response, reusable);
+				nameApiPoolStatistics.connectionReleased();
+			}
+			return toSchool(schoolId, oResponse);
+		} finally {
+			releaseHostPermit(hostPermit);
+		}
+	}
+
+	/**
+	 * Acquires a permit for a blocking request to the host of the given URL, waiting at most for the remaining
+	 * resolution budget. Permits are only needed in the virtual execution mode, where the number of threads does not limit
+	 * the concurrent requests.
+	 * 
+	 * @param url The URL of the request.
+	 * @return The semaphore to be released after the request, or null if the requests are not limited.
+	 * @throws BudgetExhaustedException If no permit was available in time.
+	 * @throws IOException If the thread was interrupted while waiting.
+	 */
+	private Semaphore acquireHostPermit(final String url) throws IOException {
+		final HostConcurrencyLimiter limiter = hostConcurrencyLimiter;
+		if (limiter == null) {
+			return null;
+		}
+		try {
+			final Duration remaining = getRemainingBudget();
+			return limiter.acquire(url, remaining == null ? getPermitWait() : remaining);
+		} catch (InterruptedIOException e) {
+			throw e;
+		} catch (IOException e) {
+			throw new BudgetExhaustedException(e.getMessage(), e);
+		}
+	}
+
+	/**
+	 * Passes the remaining budget of the resolution running in the current thread to the given request context. The
+	 * request config starts from the settings of the HTTP client builder, as in the default request config of the
+	 * clients it builds, and each of its connection request, connect and response timeouts is capped to the
+	 * remaining budget. Nothing is changed outside a resolution.
+	 * 
+	 * @param context The context of the request.
+	 * @return false if the budget has already run out, true otherwise.
+	 */
+	@SuppressWarnings("deprecation")
+	private boolean applyResolutionDeadline(final HttpClientContext context) {
+		final ResolutionDeadline deadline = resolutionDeadline.get();
+		if (deadline == null || !deadline.isLimited()) {
+			return true;
+		}
+		final Duration remaining = deadline.getRemaining();
+		if (remaining.isZero()) {
+			return false;
+		}
+		final HttpClientBuilder builder = getHttpClientBuilder();
+		context.setRequestConfig(RequestConfig.custom()
+				.setConnectionRequestTimeout(capTimeout(builder.getConnectionRequestTimeout(), remaining))
+				.setConnectTimeout(capTimeout(builder.getConnectionTimeout(), remaining))
+				.setResponseTimeout(capTimeout(builder.getSocketTimeout(), remaining))
+				.setRedirectsEnabled(builder.isHttpFollowRedirects())
+				.setContentCompressionEnabled(builder.isHttpContentCompression()).build());
+		return true;
+	}
+
+	/**
+	 * Caps the given configured timeout to the remaining budget.
+	 * 
+	 * @param configured The configured timeout, null or not positive if the timeout is not limited.
+	 * @param remaining The remaining budget.
+	 * @return The shorter of the two.
+	 */
+	private static Timeout capTimeout(final Duration configured, final Duration remaining) {
+		if (configured == null || configured.isZero() || configured.isNegative()
+				|| configured.compareTo(remaining) > 0) {
+			return Timeout.of(remaining);
+		}
+		return Timeout.of(configured);
+	}
+
+	/**
+	 * Gets the remaining budget of the resolution running in the current thread.
+	 * 
+	 * @return The remaining budget, or null outside a resolution or if the budget is not limited.
+	 */
+	private Duration getRemainingBudget() {
+		final ResolutionDeadline deadline = resolutionDeadline.get();
+		return deadline == null ? null : deadline.getRemaining();
+	}
+
+	/**
+	 * Gets the maximum time to wait for a host permit when the wait is not limited by a resolution budget: the
+	 * connection request timeout of the HTTP client builder, as for a pooled connection, if it is set.
+	 * 
+	 * @return The maximum time to wait for a host permit.
+	 */
+	private Duration getPermitWait() {
+		final Duration timeout = getHttpClientBuilder().getConnectionRequestTimeout();
+		return timeout == null || timeout.isZero() || timeout.isNegative() ? Duration.ofNanos(Long.MAX_VALUE)
+				: timeout;
+	}
+
+	/**
+	 * Checks whether the budget of the resolution running in the current thread has run out.
+	 * 
+	 * @return true if the budget has run out, false otherwise or outside a resolution.
+	 */
+	private boolean isResolutionDeadlineExpired() {
+		final ResolutionDeadline deadline = resolutionDeadline.get();
+		return deadline != null && deadline.isExpired();
+	}
+
+	/**
+	 * Marks the given resolution as degraded, so that its incomplete attributes are not cached.
+	 * 
+	 * @param deadline The resolution deadline, may be null outside a resolution.
+	 */
+	private void markDegraded(final ResolutionDeadline deadline) {
+		if (deadline != null) {
+			deadline.markDegraded();
+		}
+	}
+
+	/**
+	 * Calls the given function within the given resolution deadline. Used for the lookups running in another
+	 * thread than the resolution, or in the resolving thread itself when the lookup executor is busy.
+	 * 
+	 * @param <T> The type of the result.
+	 * @param deadline The resolution deadline, may be null.
+	 * @param call The function to call.
+	 * @return The result of the function.
+	 */
+	private <T> T callWithin(final ResolutionDeadline deadline, final Supplier<T> call) {
+		final ResolutionDeadline previous = resolutionDeadline.get();
+		resolutionDeadline.set(deadline);
+		try {
+			return call.get();
+		} finally {
+			if (previous == null) {
+				resolutionDeadline.remove();
+			} else {
+				resolutionDeadline.set(previous);
+			}
+		}
+	}
+
+	/**
+	 * Releases a permit acquired with {@link #acquireHostPermit(String)}.
+	 * 
+	 * @param hostPermit The semaphore the permit was acquired from, may be null.
+	 */
+	private void releaseHostPermit(final Semaphore hostPermit) {
+		if (hostPermit != null) {
+			hostPermit.release();
+		}
+	}
+
+	/**
+	 * Fetch school information from external API with the asynchronous HTTP client.
+	 * 
+	 * @param schoolId The trimmed school id whose information is fetched.
+	 * @param baseUrl The base URL for the external API. It is appended with the ID of the school.
+	 * @return The future school object, completed with null if the API does not know exactly one school with the
+	 *         id, or completed exceptionally if the school information could not be fetched or parsed.
+	 */
+	protected CompletableFuture<School> fetchSchoolAsync(final String schoolId, final String baseUrl) {
+		final SimpleRequestBuilder builder = SimpleRequestBuilder.get(baseUrl + schoolId);
+		if (nameApiCallerId != null) {
+			builder.setHeader(HEADER_NAME_CALLER_ID, nameApiCallerId);
+		}
+		return executeAsync(builder.build(), nameApiPoolStatistics).thenApply(response -> {
+			if (response.getCode() == HttpStatus.SC_NOT_FOUND) {
+				log.warn("Could not find name for id {}, http status {}", schoolId, response.getCode());
+				return null;
+			}
+			try {
+				return toSchool(schoolId,
+						parseResponse(response.getBodyBytes(), schoolGson, OpintopolkuOppilaitosDTO[].class));
+			} catch (IOException e) {
+				throw new CompletionException(
+						new IOException("Could not parse the school information response with id " + schoolId, e));
+			}
+		});
+	}
+
+	/**
+	 * Converts the school information API response to a school.
+	 * 
+	 * @param schoolId The school id whose information was fetched.
+	 * @param oResponse The parsed response.
+	 * @return The school object, or null if the response does not contain exactly one school with metadata.
+	 */
+	private School toSchool(final String schoolId, final OpintopolkuOppilaitosDTO[] oResponse) {
+		log.trace("Fetched the following response: {}", (Object) oResponse);
+		if (oResponse != null && oResponse.length == 1 && oResponse[0].getMetadata() != null
+				&& oResponse[0].getMetadata().length > 0) {
+			log.debug("Successfully fetched information for id {}", schoolId);
+			log.debug("Fetched data {}",oResponse[0]);
+			return SchoolDirectory.toSchool(oResponse[0]);
+		}
+		log.warn("Could not find name for id {}", schoolId);
+		return null;
+	}
+
+	/**
+	 * Sets the time-to-live for the cached school information. Zero disables the cache.
+	 * 
+	 * @param ttl What to set.
+	 */
+	public void setSchoolCacheTtl(final Duration ttl) {
+		schoolCache = new BoundedTtlCache<>(schoolCache.getMaxEntries(),
+				Constraint.isNotNull(ttl, "The school cache time-to-live cannot be null"));
+	}
+
+	/**
+	 * Gets the time-to-live for the cached school information.
+	 * 
+	 * @return The time-to-live for the cached school information.
+	 */
+	public Duration getSchoolCacheTtl() {
+		return schoolCache.getTimeToLive();
+	}
+
+	/**
+	 * Sets the maximum number of cached school information entries. Zero disables the cache.
+	 * 
+	 * @param max What to set.
+	 */
+	public void setSchoolCacheMaxEntries(final int max) {
+		schoolCache = new BoundedTtlCache<>(max, schoolCache.getTimeToLive());
+	}
+
+	/**
+	 * Gets the maximum number of cached school information entries.
+	 * 
+	 * @return The maximum number of cached school information entries.
+	 */
+	public int getSchoolCacheMaxEntries() {
+		return schoolCache.getMaxEntries();
+	}
+
+	/**
+	 * Sets the time-to-live for the cached unknown school codes. Zero disables the negative caching.
+	 * 
+	 * @param ttl What to set.
+	 */
+	public void setSchoolNegativeCacheTtl(final Duration ttl) {
+		Constraint.isNotNull(ttl, "The school negative cache time-to-live cannot be null");
+		Constraint.isFalse(ttl.isNegative(), "The school negative cache time-to-live cannot be negative");
+		schoolNegativeCacheTtl = ttl;
+	}
+
+	/**
+	 * Gets the time-to-live for the cached unknown school codes.
+	 * 
+	 * @return The time-to-live for the cached unknown school codes.
+	 */
+	public Duration getSchoolNegativeCacheTtl() {
+		return schoolNegativeCacheTtl;
+	}
+
+	/**
+	 * Sets the maximum time an expired school information entry is served while it is refreshed in the
+	 * background. Zero disables the background refresh.
+	 * 
+	 * @param maxStaleness What to set.
+	 */
+	public void setSchoolCacheMaxStaleness(final Duration maxStaleness) {
+		Constraint.isNotNull(maxStaleness, "The school cache maximum staleness cannot be null");
+		Constraint.isFalse(maxStaleness.isNegative(), "The school cache maximum staleness cannot be negative");
+		schoolCacheMaxStaleness = maxStaleness;
+	}
+
+	/**
+	 * Gets the maximum time an expired school information entry is served while it is refreshed.
+	 * 
+	 * @return The maximum staleness for the cached school information.
+	 */
+	public Duration getSchoolCacheMaxStaleness() {
+		return schoolCacheMaxStaleness;
+	}
+
+	/**
+	 * Sets the maximum number of concurrent background refreshes of the school information.
+	 * 
+	 * @param max What to set.
+	 */
+	public void setSchoolRefreshMaxConcurrency(final int max) {
+		Constraint.isGreaterThan(0, max, "The maximum number of school refreshes must be greater than 0");
+		schoolRefreshMaxConcurrency = max;
+	}
+
+	/**
+	 * Gets the maximum number of concurrent background refreshes of the school information.
+	 * 
+	 * @return The maximum number of concurrent background refreshes.
+	 */
+	public int getSchoolRefreshMaxConcurrency() {
+		return schoolRefreshMaxConcurrency;
+	}
+
+	/**
+	 * Sets the maximum number of concurrent blocking school lookups, shared by all resolutions. Zero looks the
+	 * schools of a user up one at a time.
+	 * 
+	 * @param max What to set.
+	 */
+	public void setSchoolLookupMaxConcurrency(final int max) {
+		Constraint.isGreaterThanOrEqual(0, max, "The maximum number of school lookups cannot be negative");
+		schoolLookupMaxConcurrency = max;
+	}
+
+	/**
+	 * Gets the maximum number of concurrent blocking school lookups.
+	 * 
+	 * @return The maximum number of concurrent blocking school lookups.
+	 */
+	public int getSchoolLookupMaxConcurrency() {
+		return schoolLookupMaxConcurrency;
+	}
+
+	/**
+	 * Gets the cache for school information, keyed by the request URL.
+	 * 
+	 * @return The cache for school information.
+	 */
+	public BoundedTtlCache<String, School> getSchoolCache() {
+		return schoolCache;
+	}
+
+	/**
+	 * Sets the time-to-live for the cached user data. Zero disables the cache.
+	 * 
+	 * @param ttl What to set.
+	 */
+	public void setUserCacheTtl(final Duration ttl) {
+		userCache = new BoundedTtlCache<>(userCache.getMaxEntries(),
+				Constraint.isNotNull(ttl, "The user cache time-to-live cannot be null"));
+	}
+
+	/**
+	 * Gets the time-to-live for the cached user data.
+	 * 
+	 * @return The time-to-live for the cached user data.
+	 */
+	public Duration getUserCacheTtl() {
+		return userCache.getTimeToLive();
+	}
+
+	/**
+	 * Sets the maximum number of cached user data entries. Zero disables the cache.
+	 * 
+	 * @param max What to set.
+	 */
+	public void setUserCacheMaxEntries(final int max) {
+		userCache = new BoundedTtlCache<>(max, userCache.getTimeToLive());
+	}
+
+	/**
+	 * Gets the maximum number of cached user data entries.
+	 * 
+	 * @return The maximum number of cached user data entries.
+	 */
+	public int getUserCacheMaxEntries() {
+		return userCache.getMaxEntries();
+	}
+
+	/**
+	 * Sets the time-to-live for the last known user data, served while REST API is not available. Zero disables
+	 * the cache.
+	 * 
+	 * @param ttl What to set.
+	 */
+	public void setLastKnownUserCacheTtl(final Duration ttl) {
+		lastKnownUserCache = new BoundedTtlCache<>(lastKnownUserCache.getMaxEntries(),
+				Constraint.isNotNull(ttl, "The last known user cache time-to-live cannot be null"));
+	}
+
+	/**
+	 * Gets the time-to-live for the last known user data.
+	 * 
+	 * @return The time-to-live for the last known user data.
+	 */
+	public Duration getLastKnownUserCacheTtl() {
+		return lastKnownUserCache.getTimeToLive();
+	}
+
+	/**
+	 * Sets the maximum number of last known user data entries. Zero disables the cache.
+	 * 
+	 * @param max What to set.
+	 */
+	public void setLastKnownUserCacheMaxEntries(final int max) {
+		lastKnownUserCache = new BoundedTtlCache<>(max, lastKnownUserCache.getTimeToLive());
+	}
+
+	/**
+	 * Gets the maximum number of last known user data entries.
+	 * 
+	 * @return The maximum number of last known user data entries.
+	 */
+	public int getLastKnownUserCacheMaxEntries() {
+		return lastKnownUserCache.getMaxEntries();
+	}
+
+	/**
+	 * Gets the cache for the last known user data, keyed by the IdP id and the hashed authn id.
+	 * 
+	 * @return The cache for the last known user data.
+	 */
+	public BoundedTtlCache<String, UserDTO> getLastKnownUserCache() {
+		return lastKnownUserCache;
+	}
+
+	/**
+	 * Sets the IdP ids whose user data and resolved attributes are never cached.
+	 * 
+	 * @param idps What to set.
+	 */
+	public void setUserCacheExcludedIdps(final Set<String> idps) {
+		userCacheExcludedIdps = Constraint.isNotNull(idps, "The excluded IdPs cannot be null");
+	}
+
+	/**
+	 * Gets the IdP ids whose user data and resolved attributes are never cached.
+	 * 
+	 * @return The IdP ids whose user data and resolved attributes are never cached.
+	 */
+	public Set<String> getUserCacheExcludedIdps() {
+		return userCacheExcludedIdps;
+	}
+
+	/**
+	 * Sets the time-to-live for the cached resolved attributes. Zero disables the cache.
+	 * 
+	 * @param ttl What to set.
+	 */
+	public void setResolvedAttributeCacheTtl(final Duration ttl) {
+		resolvedAttributeCache = new BoundedTtlCache<>(resolvedAttributeCache.getMaxEntries(),
+				Constraint.isNotNull(ttl, "The resolved attribute cache time-to-live cannot be null"));
+	}
+
+	/**
+	 * Gets the time-to-live for the cached resolved attributes.
+	 * 
+	 * @return The time-to-live for the cached resolved attributes.
+	 */
+	public Duration getResolvedAttributeCacheTtl() {
+		return resolvedAttributeCache.getTimeToLive();
+	}
+
+	/**
+	 * Sets the maximum number of cached resolved attribute entries. Zero disables the cache.
+	 * 
+	 * @param max What to set.
+	 */
+	public void setResolvedAttributeCacheMaxEntries(final int max) {
+		resolvedAttributeCache = new BoundedTtlCache<>(max, resolvedAttributeCache.getTimeToLive());
+	}
+
+	/**
+	 * Gets the maximum number of cached resolved attribute entries.
+	 * 
+	 * @return The maximum number of cached resolved attribute entries.
+	 */
+	public int getResolvedAttributeCacheMaxEntries() {
+		return resolvedAttributeCache.getMaxEntries();
+	}
+
+	/**
+	 * Gets the cache for the resolved attributes, keyed by the IdP id, the hashed inputs and the configuration.
+	 * 
+	 * @return The cache for the resolved attributes.
+	 */
+	public BoundedTtlCache<String, Map<String, IdPAttribute>> getResolvedAttributeCache() {
+		return resolvedAttributeCache;
+	}
+
+	/**
+	 * Sets whether the resolutions call the REST server and the school information API with the asynchronous
+	 * HTTP client.
+	 * 
+	 * @param enabled What to set.
+	 */
+	public void setAsyncEnabled(final boolean enabled) {
+		asyncEnabled = enabled;
+	}
+
+	/**
+	 * Gets whether the resolutions call the upstreams with the asynchronous HTTP client.
+	 * 
+	 * @return true if the asynchronous HTTP client is used, false otherwise.
+	 */
+	public boolean isAsyncEnabled() {
+		return asyncEnabled;
+	}
+
+	/**
+	 * Sets the overall deadline for a resolution. Zero does not limit the resolutions.
+	 * 
+	 * @param timeout What to set.
+	 */
+	public void setResolutionTimeout(final Duration timeout) {
+		Constraint.isNotNull(timeout, "The resolution timeout cannot be null");
+		Constraint.isFalse(timeout.isNegative(), "The resolution timeout cannot be negative");
+		resolutionTimeout = timeout;
+	}
+
+	/**
+	 * Gets the overall deadline for a resolution.
+	 * 
+	 * @return The overall deadline for a resolution, zero if not limited.
+	 */
+	public Duration getResolutionTimeout() {
+		return resolutionTimeout;
+	}
+
+	/**
+	 * Sets the execution mode for the blocking upstream I/O, {@link #EXECUTION_MODE_PLATFORM} or
+	 * {@link #EXECUTION_MODE_VIRTUAL}.
+	 * 
+	 * @param mode What to set.
+	 */
+	public synchronized void setUpstreamExecutionMode(final String mode) {
+		final String trimmed = StringSupport.trimOrNull(mode);
+		Constraint.isNotNull(trimmed, "The upstream execution mode cannot be empty");
+		final String lowerCase = trimmed.toLowerCase(Locale.ROOT);
+		Constraint.isTrue(EXECUTION_MODE_PLATFORM.equals(lowerCase) || EXECUTION_MODE_VIRTUAL.equals(lowerCase),
+				"The upstream execution mode must be either platform or virtual");
+		upstreamExecutionMode = lowerCase;
+		updateHostConcurrencyLimiter();
+	}
+
+	/**
+	 * Gets the execution mode for the blocking upstream I/O.
+	 * 
+	 * @return The execution mode for the blocking upstream I/O.
+	 */
+	public String getUpstreamExecutionMode() {
+		return upstreamExecutionMode;
+	}
+
+	/**
+	 * Sets the maximum number of concurrent blocking requests per upstream host in the virtual execution mode.
+	 * 
+	 * @param max What to set.
+	 */
+	public synchronized void setUpstreamMaxConcurrencyPerHost(final int max) {
+		Constraint.isGreaterThan(0, max, "The maximum number of concurrent requests per host must be positive");
+		upstreamMaxConcurrencyPerHost = max;
+		updateHostConcurrencyLimiter();
+	}
+
+	/**
+	 * Gets the maximum number of concurrent blocking requests per upstream host in the virtual execution mode.
+	 * 
+	 * @return The maximum number of concurrent blocking requests per upstream host.
+	 */
+	public int getUpstreamMaxConcurrencyPerHost() {
+		return upstreamMaxConcurrencyPerHost;
+	}
+
+	/**
+	 * Gets the limiter for the blocking requests per upstream host.
+	 * 
+	 * @return The limiter, or null unless in the virtual execution mode.
+	 */
+	public HostConcurrencyLimiter getHostConcurrencyLimiter() {
+		return hostConcurrencyLimiter;
+	}
+
+	/**
+	 * Rebuilds the limiter for the blocking requests per upstream host after its settings have changed.
+	 */
+	private void updateHostConcurrencyLimiter() {
+		hostConcurrencyLimiter = EXECUTION_MODE_VIRTUAL.equals(upstreamExecutionMode)
+				? new HostConcurrencyLimiter(upstreamMaxConcurrencyPerHost) : null;
+	}
+
+	/**
+	 * Sets the percentage of failed calls in the window opening a name API circuit breaker. Zero disables the
+	 * breakers.
+	 * 
+	 * @param threshold What to set.
+	 */
+	public void setNameApiCircuitBreakerFailureRateThreshold(final int threshold) {
+		Constraint.isGreaterThanOrEqual(0, threshold, "The failure rate threshold cannot be negative");
+		Constraint.isTrue(threshold <= 100, "The failure rate threshold cannot exceed 100");
+		nameApiCircuitBreakerFailureRateThreshold = threshold;
+		nameApiCircuitBreakers.clear();
+	}
+
+	/**
+	 * Gets the percentage of failed calls in the window opening a name API circuit breaker.
+	 * 
+	 * @return The failure rate threshold.
+	 */
+	public int getNameApiCircuitBreakerFailureRateThreshold() {
+		return nameApiCircuitBreakerFailureRateThreshold;
+	}
+
+	/**
+	 * Sets the number of last calls considered by a name API circuit breaker.
+	 * 
+	 * @param size What to set.
+	 */
+	public void setNameApiCircuitBreakerWindowSize(final int size) {
+		Constraint.isGreaterThan(0, size, "The circuit breaker window size must be positive");
+		nameApiCircuitBreakerWindowSize = size;
+		nameApiCircuitBreakers.clear();
+	}
+
+	/**
+	 * Gets the number of last calls considered by a name API circuit breaker.
+	 * 
+	 * @return The window size.
+	 */
+	public int getNameApiCircuitBreakerWindowSize() {
+		return nameApiCircuitBreakerWindowSize;
+	}
+
+	/**
+	 * Sets the time a name API circuit breaker stays open before probing the API.
+	 * 
+	 * @param duration What to set.
+	 */
+	public void setNameApiCircuitBreakerOpenDuration(final Duration duration) {
+		Constraint.isNotNull(duration, "The circuit breaker open duration cannot be null");
+		Constraint.isFalse(duration.isNegative(), "The circuit breaker open duration cannot be negative");
+		nameApiCircuitBreakerOpenDuration = duration;
+		nameApiCircuitBreakers.clear();
+	}
+
+	/**
+	 * Gets the time a name API circuit breaker stays open before probing the API.
+	 * 
+	 * @return The open duration.
+	 */
+	public Duration getNameApiCircuitBreakerOpenDuration() {
+		return nameApiCircuitBreakerOpenDuration;
+	}
+
+	/**
+	 * Sets the number of successful probe calls closing a name API circuit breaker.
+	 * 
+	 * @param probes What to set.
+	 */
+	public void setNameApiCircuitBreakerHalfOpenProbes(final int probes) {
+		Constraint.isGreaterThan(0, probes, "The number of probe calls must be positive");
+		nameApiCircuitBreakerHalfOpenProbes = probes;
+		nameApiCircuitBreakers.clear();
+	}
+
+	/**
+	 * Gets the number of successful probe calls closing a name API circuit breaker.
+	 * 
+	 * @return The number of probe calls.
+	 */
+	public int getNameApiCircuitBreakerHalfOpenProbes() {
+		return nameApiCircuitBreakerHalfOpenProbes;
+	}
+
+	/**
+	 * Gets the circuit breaker for REST API, building it if needed.
+	 * 
+	 * @return The circuit breaker.
+	 */
+	public CircuitBreaker getEndpointCircuitBreaker() {
+		CircuitBreaker breaker = endpointCircuitBreaker;
+		if (breaker == null) {
+			synchronized (this) {
+				breaker = endpointCircuitBreaker;
+				if (breaker == null) {
+					breaker = new CircuitBreaker("REST API", endpointCircuitBreakerFailureRateThreshold,
+							endpointCircuitBreakerWindowSize, endpointCircuitBreakerOpenDuration,
+							endpointCircuitBreakerHalfOpenProbes);
+					endpointCircuitBreaker = breaker;
+				}
+			}
+		}
+		return breaker;
+	}
+
+	/**
+	 * Sets the percentage of failed calls in the window opening the REST API circuit breaker. Zero disables the
+	 * breaker.
+	 * 
+	 * @param threshold What to set.
+	 */
+	public synchronized void setEndpointCircuitBreakerFailureRateThreshold(final int threshold) {
+		Constraint.isGreaterThanOrEqual(0, threshold, "The failure rate threshold cannot be negative");
+		Constraint.isTrue(threshold <= 100, "The failure rate threshold cannot exceed 100");
+		endpointCircuitBreakerFailureRateThreshold = threshold;
+		endpointCircuitBreaker = null;
+	}
+
+	/**
+	 * Gets the percentage of failed calls in the window opening the REST API circuit breaker.
+	 * 
+	 * @return The failure rate threshold.
+	 */
+	public int getEndpointCircuitBreakerFailureRateThreshold() {
+		return endpointCircuitBreakerFailureRateThreshold;
+	}
+
+	/**
+	 * Sets the number of last calls considered by the REST API circuit breaker.
+	 * 
+	 * @param size What to set.
+	 */
+	public synchronized void setEndpointCircuitBreakerWindowSize(final int size) {
+		Constraint.isGreaterThan(0, size, "The circuit breaker window size must be positive");
+		endpointCircuitBreakerWindowSize = size;
+		endpointCircuitBreaker = null;
+	}
+
+	/**
+	 * Gets the number of last calls considered by the REST API circuit breaker.
+	 * 
+	 * @return The window size.
+	 */
+	public int getEndpointCircuitBreakerWindowSize() {
+		return endpointCircuitBreakerWindowSize;
+	}
+
+	/**
+	 * Sets the time the REST API circuit breaker stays open before probing the API.
+	 * 
+	 * @param duration What to set.
+	 */
+	public synchronized void setEndpointCircuitBreakerOpenDuration(final Duration duration) {
+		Constraint.isNotNull(duration, "The circuit breaker open duration cannot be null");
+		Constraint.isFalse(duration.isNegative(), "The circuit breaker open duration cannot be negative");
+		endpointCircuitBreakerOpenDuration = duration;
+		endpointCircuitBreaker = null;
+	}
+
+	/**
+	 * Gets the time the REST API circuit breaker stays open before probing the API.
+	 * 
+	 * @return The open duration.
+	 */
+	public Duration getEndpointCircuitBreakerOpenDuration() {
+		return endpointCircuitBreakerOpenDuration;
+	}
+
+	/**
+	 * Sets the number of successful probe calls closing the REST API circuit breaker.
+	 * 
+	 * @param probes What to set.
+	 */
+	public synchronized void setEndpointCircuitBreakerHalfOpenProbes(final int probes) {
+		Constraint.isGreaterThan(0, probes, "The number of probe calls must be positive");
+		endpointCircuitBreakerHalfOpenProbes = probes;
+		endpointCircuitBreaker = null;
+	}
+
+	/**
+	 * Gets the number of successful probe calls closing the REST API circuit breaker.
+	 * 
+	 * @return The number of probe calls.
+	 */
+	public int getEndpointCircuitBreakerHalfOpenProbes() {
+		return endpointCircuitBreakerHalfOpenProbes;
+	}
+
+	/**
+	 * Gets the hedging policy for REST API, building it if needed.
+	 * 
+	 * @return The hedging policy, or null if hedging is disabled.
+	 */
+	public HedgingPolicy getEndpointHedgingPolicy() {
+		HedgingPolicy policy = endpointHedgingPolicy;
+		if (policy == null && endpointHedgePercentile > 0) {
+			synchronized (this) {
+				policy = endpointHedgingPolicy;
+				if (policy == null && endpointHedgePercentile > 0) {
+					policy = new HedgingPolicy(endpointHedgePercentile, endpointHedgeMaxPercent,
+							endpointHedgeMinDelay, ENDPOINT_HEDGE_WINDOW_SIZE);
+					endpointHedgingPolicy = policy;
+				}
+			}
+		}
+		return policy;
+	}
+
+	/**
+	 * Sets the percentile of the REST API latencies after which a call is hedged. Zero disables hedging.
+	 * 
+	 * @param percentile What to set.
+	 */
+	public synchronized void setEndpointHedgePercentile(final int percentile) {
+		Constraint.isGreaterThanOrEqual(0, percentile, "The hedge percentile cannot be negative");
+		Constraint.isTrue(percentile < 100, "The hedge percentile must be below 100");
+		endpointHedgePercentile = percentile;
+		endpointHedgingPolicy = null;
+	}
+
+	/**
+	 * Gets the percentile of the REST API latencies after which a call is hedged.
+	 * 
+	 * @return The hedge percentile.
+	 */
+	public int getEndpointHedgePercentile() {
+		return endpointHedgePercentile;
+	}
+
+	/**
+	 * Sets the maximum percentage of the REST API calls that are hedged.
+	 * 
+	 * @param percent What to set.
+	 */
+	public synchronized void setEndpointHedgeMaxPercent(final int percent) {
+		Constraint.isGreaterThanOrEqual(0, percent, "The hedge percentage cannot be negative");
+		Constraint.isTrue(percent <= 100, "The hedge percentage cannot exceed 100");
+		endpointHedgeMaxPercent = percent;
+		endpointHedgingPolicy = null;
+	}
+
+	/**
+	 * Gets the maximum percentage of the REST API calls that are hedged.
+	 * 
+	 * @return The maximum hedge percentage.
+	 */
+	public int getEndpointHedgeMaxPercent() {
+		return endpointHedgeMaxPercent;
+	}
+
+	/**
+	 * Sets the minimum delay before a REST API call is hedged.
+	 * 
+	 * @param delay What to set.
+	 */
+	public synchronized void setEndpointHedgeMinDelay(final Duration delay) {
+		Constraint.isNotNull(delay, "The minimum hedge delay cannot be null");
+		Constraint.isFalse(delay.isNegative(), "The minimum hedge delay cannot be negative");
+		endpointHedgeMinDelay = delay;
+		endpointHedgingPolicy = null;
+	}
+
+	/**
+	 * Gets the minimum delay before a REST API call is hedged.
+	 * 
+	 * @return The minimum hedge delay.
+	 */
+	public Duration getEndpointHedgeMinDelay() {
+		return endpointHedgeMinDelay;
+	}
+
+	/**
+	 * Gets the selector of the REST API endpoint for each call, building it if needed.
+	 * 
+	 * @return The endpoint selector.
+	 */
+	public EndpointSelector getEndpointSelector() {
+		EndpointSelector selector = endpointSelector;
+		if (selector == null) {
+			synchronized (this) {
+				selector = endpointSelector;
+				if (selector == null) {
+					selector = new EndpointSelector(endpointUrls, endpointSelection, endpointEjectionThreshold,
+							endpointEjectionDuration);
+					endpointSelector = selector;
+				}
+			}
+		}
+		return selector;
+	}
+
+	/**
+	 * Sets the strategy selecting one of the REST API endpoints for each call,
+	 * {@link EndpointSelector#STRATEGY_LEAST_OUTSTANDING} or {@link EndpointSelector#STRATEGY_EWMA}.
+	 * 
+	 * @param selection What to set.
+	 */
+	public synchronized void setEndpointSelection(final String selection) {
+		final String lowerCase = Constraint.isNotEmpty(selection, "The endpoint selection cannot be empty")
+				.trim().toLowerCase(Locale.ROOT);
+		Constraint.isTrue(EndpointSelector.STRATEGY_LEAST_OUTSTANDING.equals(lowerCase)
+				|| EndpointSelector.STRATEGY_EWMA.equals(lowerCase), "Unknown endpoint selection " + selection);
+		endpointSelection = lowerCase;
+		endpointSelector = null;
+	}
+
+	/**
+	 * Gets the strategy selecting one of the REST API endpoints for each call.
+	 * 
+	 * @return The endpoint selection.
+	 */
+	public String getEndpointSelection() {
+		return endpointSelection;
+	}
+
+	/**
+	 * Sets the number of retries on another REST API endpoint after a connection failure.
+	 * 
+	 * @param retries What to set.
+	 */
+	public void setEndpointMaxRetries(final int retries) {
+		Constraint.isGreaterThanOrEqual(0, retries, "The number of retries cannot be negative");
+		endpointMaxRetries = retries;
+	}
+
+	/**
+	 * Gets the number of retries on another REST API endpoint after a connection failure.
+	 * 
+	 * @return The number of retries.
+	 */
+	public int getEndpointMaxRetries() {
+		return endpointMaxRetries;
+	}
+
+	/**
+	 * Sets the number of consecutive failures ejecting a REST API endpoint. Zero disables the ejection.
+	 * 
+	 * @param threshold What to set.
+	 */
+	public synchronized void setEndpointEjectionThreshold(final int threshold) {
+		Constraint.isGreaterThanOrEqual(0, threshold, "The ejection threshold cannot be negative");
+		endpointEjectionThreshold = threshold;
+		endpointSelector = null;
+	}
+
+	/**
+	 * Gets the number of consecutive failures ejecting a REST API endpoint.
+	 * 
+	 * @return The ejection threshold.
+	 */
+	public int getEndpointEjectionThreshold() {
+		return endpointEjectionThreshold;
+	}
+
+	/**
+	 * Sets the time an ejected REST API endpoint is not used.
+	 * 
+	 * @param duration What to set.
+	 */
+	public synchronized void setEndpointEjectionDuration(final Duration duration) {
+		Constraint.isNotNull(duration, "The ejection duration cannot be null");
+		Constraint.isFalse(duration.isNegative(), "The ejection duration cannot be negative");
+		endpointEjectionDuration = duration;
+		endpointSelector = null;
+	}
+
+	/**
+	 * Gets the time an ejected REST API endpoint is not used.
+	 * 
+	 * @return The ejection duration.
+	 */
+	public Duration getEndpointEjectionDuration() {
+		return endpointEjectionDuration;
+	}
+
+	/**
+	 * Gets the cache for the user data, keyed by the IdP id and the hashed authn id.
+	 * 
+	 * @return The cache for the user data.
+	 */
+	public BoundedTtlCache<String, UserDTO> getUserCache() {
+		return userCache;
+	}
+
+	/**
+	 * Gets the coalesced school information lookups, including the counters for executed and coalesced calls.
+	 * 
+	 * @return The coalesced school information lookups.
+	 */
+	public SingleFlight<String, School> getSchoolLookups() {
+		return schoolLookups;
+	}
+
+	/**
+	 * Loads the full school code set from the configured local file or, if no file is configured, from the
+	 * configured URL.
+	 * 
+	 * @return The school directory, or null if it could not be loaded.
+	 */
+	protected SchoolDirectory loadSchoolDirectory() {
+		if (schoolPreloadFile != null) {
+			try (Reader reader = Files.newBufferedReader(Paths.get(schoolPreloadFile), StandardCharsets.UTF_8)) {
+				return SchoolDirectory.parse(schoolGson, reader);
+			} catch (IOException | JsonParseException e) {
+				log.error("Could not read the school code set from {}", schoolPreloadFile, e);
+				return null;
+			}
+		}
+		final ClassicHttpResponse response;
+		try {
+			final ClassicHttpRequest get = ClassicRequestBuilder.get().setUri(schoolPreloadUrl).build();
+			if (nameApiCallerId != null) {
+				get.setHeader(HEADER_NAME_CALLER_ID, nameApiCallerId);
+			}
+			response = getNameApiHttpClient().executeOpen(null, get, HttpClientContext.create());
+		} catch (Exception e) {
+			log.error("Could not fetch the school code set from {}", schoolPreloadUrl, e);
+			return null;
+		}
+		try {
+			if (response.getCode() != HttpStatus.SC_OK || response.getEntity() == null) {
+				log.error("Could not fetch the school code set from {}, http status {}", schoolPreloadUrl,
+						response.getCode());
+				return null;
+			}
+			try (Reader reader = new InputStreamReader(response.getEntity().getContent(), StandardCharsets.UTF_8)) {
+				return SchoolDirectory.parse(schoolGson, reader);
+			}
+		} catch (IOException | JsonParseException e) {
+			log.error("Could not parse the school code set from {}", schoolPreloadUrl, e);
+			return null;
+		} finally {
+			EntityUtils.consumeQuietly(response.getEntity());
+		}
+	}
+
+	/**
+	 * Reads the school snapshot, if it exists, into the school cache. The entries age from the time they were
+	 * loaded from the school information API, and the ones older than the school cache time-to-live are stored as
+	 * expired, to be served only while the API is unavailable. A snapshot written for another base URL than the
+	 * current one is ignored.
+	 */
+	protected void readSchoolSnapshot() {
+		final Path file = Paths.get(schoolSnapshotFile);
+		if (!Files.exists(file)) {
+			log.debug("No school snapshot found from {}", file);
+			return;
+		}
+		final SchoolSnapshot snapshot;
+		try {
+			snapshot = SchoolSnapshot.read(file);
+		} catch (IOException e) {
+			log.warn("Could not read the school snapshot from {}", file, e);
+			return;
+		}
+		if (!Objects.equals(snapshot.getBaseUrl(), nameApiBaseUrl)) {
+			log.info("Ignoring the school snapshot {}, it was written for {}", file, snapshot.getBaseUrl());
+			return;
+		}
+		final List<SchoolSnapshot.Record> records = snapshot.getRecords();
+		for (final SchoolSnapshot.Record record : records) {
+			final School school = record.getSchool();
+			if (school.getId() != null) {
+				schoolCache.restore(nameApiBaseUrl + school.getId(), school, record.getLoadedAt());
+			}
+			if (school.getOid() != null) {
+				schoolCache.restore(nameApiBaseUrl + school.getOid(), school, record.getLoadedAt());
+			}
+		}
+		log.info("Read {} schools from the snapshot {}", records.size(), file);
+	}
+
+	/**
+	 * Writes the schools cached for the current base URL of the school information API to the school snapshot, if
+	 * it has been configured. The expired entries are written too, with their original load time. The preloaded
+	 * schools are not written, as they are preloaded again at initialization.
+	 */
+	public void writeSchoolSnapshot() {
+		if (schoolSnapshotFile == null) {
+			return;
+		}
+		final Map<String, SchoolSnapshot.Record> schools = new LinkedHashMap<>();
+		for (final Map.Entry<String, BoundedTtlCache.Entry<School>> entry : schoolCache.getEntries().entrySet()) {
+			final School school = entry.getValue().getValue();
+			final String key = entry.getKey();
+			if (school == null || nameApiBaseUrl == null || !key.startsWith(nameApiBaseUrl)
+					|| !SchoolIdType.of(key.substring(nameApiBaseUrl.length())).isValid()) {
+				continue;
+			}
+			final String id = school.getId() + ";" + school.getOid();
+			final SchoolSnapshot.Record previous = schools.get(id);
+			if (previous == null || previous.getLoadedAt() < entry.getValue().getLoadedAt()) {
+				schools.put(id, new SchoolSnapshot.Record(school, entry.getValue().getLoadedAt()));
+			}
+		}
+		if (schools.isEmpty()) {
+			log.debug("No schools to be written to the snapshot");
+			return;
+		}
+		try {
+			SchoolSnapshot.write(Paths.get(schoolSnapshotFile), nameApiBaseUrl, schools.values());
+			log.debug("Wrote {} schools to the snapshot {}", schools.size(), schoolSnapshotFile);
+		} catch (IOException e) {
+			log.warn("Could not write the school snapshot to {}", schoolSnapshotFile, e);
+		}
+	}
+
+	/**
+	 * Sets the file where the resolved schools are periodically written and read from at initialization.
+	 * 
+	 * @param file What to set.
+	 */
+	public void setSchoolSnapshotFile(final String file) {
+		schoolSnapshotFile = StringSupport.trimOrNull(file);
+	}
+
+	/**
+	 * Gets the file where the resolved schools are periodically written and read from at initialization.
+	 * 
+	 * @return The school snapshot file.
+	 */
+	public String getSchoolSnapshotFile() {
+		return schoolSnapshotFile;
+	}
+
+	/**
+	 * Sets the interval for writing the school snapshot. Zero writes the snapshot only when the connector is
+	 * destroyed.
+	 * 
+	 * @param interval What to set.
+	 */
+	public void setSchoolSnapshotInterval(final Duration interval) {
+		Constraint.isNotNull(interval, "The school snapshot interval cannot be null");
+		Constraint.isFalse(interval.isNegative(), "The school snapshot interval cannot be negative");
+		schoolSnapshotInterval = interval;
+	}
+
+	/**
+	 * Gets the interval for writing the school snapshot.
+	 * 
+	 * @return The interval for writing the school snapshot.
+	 */
+	public Duration getSchoolSnapshotInterval() {
+		return schoolSnapshotInterval;
+	}
+
+	/**
+	 * Sets the URL for the full school code set to be preloaded at initialization.
+	 * 
+	 * @param url What to set.
+	 */
+	public void setSchoolPreloadUrl(final String url) {
+		schoolPreloadUrl = StringSupport.trimOrNull(url);
+	}
+
+	/**
+	 * Gets the URL for the full school code set to be preloaded at initialization.
+	 * 
+	 * @return The URL for the full school code set.
+	 */
+	public String getSchoolPreloadUrl() {
+		return schoolPreloadUrl;
+	}
+
+	/**
+	 * Sets the local JSON file containing the full school code set to be preloaded at initialization. The file
+	 * takes precedence over {@link #setSchoolPreloadUrl(String)}.
+	 * 
+	 * @param file What to set.
+	 */
+	public void setSchoolPreloadFile(final String file) {
+		schoolPreloadFile = StringSupport.trimOrNull(file);
+	}
+
+	/**
+	 * Gets the local JSON file containing the full school code set to be preloaded at initialization.
+	 * 
+	 * @return The local JSON file containing the full school code set.
+	 */
+	public String getSchoolPreloadFile() {
+		return schoolPreloadFile;
+	}
+
+	/**
+	 * Gets the preloaded school directory.
+	 * 
+	 * @return The preloaded school directory, empty if nothing has been preloaded.
+	 */
+	public SchoolDirectory getSchoolDirectory() {
+		return schoolDirectory;
+	}
+
+	public static String getAttrIdUsername() {
+		return ATTR_ID_USERNAME;
+	}
+
+	public static String getAttrIdFirstname() {
+		return ATTR_ID_FIRSTNAME;
+	}
+
+	public static String getAttrIdNickname() {
+		return ATTR_ID_NICKNAME;
+	}
+
+	public static String getAttrIdSurname() {
+		return ATTR_ID_SURNAME;
+	}
 
 	public static String getAttrIdRoles() {
 		return ATTR_ID_ROLES;
@@ -1462,6 +4875,7 @@ public class RestDataConnector extends AbstractDataConnector {
 
 	public void setOfficeTypes(Set<String> officeTypes) {
 		this.officeTypes = officeTypes;
+		configurationFingerprint = null;
 	}
 
 	public Map<String, Map<String, String>> getPrincipalMappings() {
@@ -1472,12 +4886,50 @@ public class RestDataConnector extends AbstractDataConnector {
 		return staticValues;
 	}
 
-	private boolean isNumeric(String value) {		
-		try {
-			Integer.parseInt(value);
-			return true;
-		} catch (Exception e) {
-			return false;
-		}		
+	/**
+	 * Signals that a call to an upstream was abandoned because the time budget of its caller ran out. It says
+	 * nothing about the health of the upstream, so it is not recorded as a failure of the upstream.
+	 */
+	static final class BudgetExhaustedException extends IOException {
+
+		private static final long serialVersionUID = 1L;
+
+		/**
+		 * Constructor.
+		 * 
+		 * @param message The detail message.
+		 */
+		BudgetExhaustedException(final String message) {
+			super(message);
+		}
+
+		/**
+		 * Constructor.
+		 * 
+		 * @param message The detail message.
+		 * @param cause The cause.
+		 */
+		BudgetExhaustedException(final String message, final Throwable cause) {
+			super(message, cause);
+		}
+	}
+
+	/**
+	 * Signals that a connection to a REST API endpoint could not be opened, so the call may be retried on another
+	 * endpoint.
+	 */
+	private static final class EndpointConnectionException extends IOException {
+
+		private static final long serialVersionUID = 1L;
+
+		/**
+		 * Constructor.
+		 * 
+		 * @param message The detail message.
+		 * @param cause The cause.
+		 */
+		EndpointConnectionException(final String message, final Throwable cause) {
+			super(message, cause);
+		}
 	}
 }
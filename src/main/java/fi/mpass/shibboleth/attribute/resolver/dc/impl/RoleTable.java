@@ -0,0 +1,244 @@
+/*
+ * The MIT License
+ * Copyright (c) 2015 CSC - IT Center for Science, http://www.csc.fi
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+
+package fi.mpass.shibboleth.attribute.resolver.dc.impl;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+import net.shibboleth.shared.logic.Constraint;
+
+/**
+ * The compiled school role settings. A role received from the upstream is resolved with a single lookup into its
+ * {@link Role}: the role it is mapped to, its display form and code, and whether it is a student role and an
+ * allowed role.
+ *
+ * The received role is mapped with the school role mappings by its lower-case form, and the mapped role is compared
+ * to the student and allowed roles ignoring the case. The resolved roles are cached by the received role, up to
+ * {@link #MAX_CACHED_ROLES}, starting with the configured ones.
+ */
+public class RoleTable {
+
+    /** The maximum number of cached roles. */
+    public static final int MAX_CACHED_ROLES = 256;
+
+    /** The code of the roles without a configured code. */
+    public static final String UNKNOWN_ROLE_CODE = "-1";
+
+    /** The roles mapped to, by the lower-case received role. */
+    private final Map<String, String> mappings;
+
+    /** The role codes by the display form of the role. */
+    private final Map<String, String> codes;
+
+    /** The lower-case allowed roles, empty if every role is allowed. */
+    private final Set<String> allowedRoles;
+
+    /** The lower-case student roles. */
+    private final Set<String> studentRoles;
+
+    /** The resolved roles by the received role. */
+    private final Map<String, Role> roles;
+
+    /**
+     * Constructor.
+     *
+     * @param roleMappings The roles mapped to, by the lower-case received role.
+     * @param roleCodes The role codes by the display form of the role.
+     * @param allowed The allowed roles, null or empty if every role is allowed.
+     * @param students The student roles, may be null.
+     */
+    public RoleTable(@Nonnull final Map<String, String> roleMappings, @Nonnull final Map<String, String> roleCodes,
+            @Nullable final Collection<String> allowed, @Nullable final Collection<String> students) {
+        mappings = new HashMap<>(Constraint.isNotNull(roleMappings, "The role mappings cannot be null"));
+        codes = new HashMap<>(Constraint.isNotNull(roleCodes, "The role codes cannot be null"));
+        allowedRoles = toLowerCase(allowed);
+        studentRoles = toLowerCase(students);
+        roles = new ConcurrentHashMap<>();
+        for (final Map.Entry<String, String> mapping : mappings.entrySet()) {
+            get(mapping.getKey());
+            get(mapping.getValue());
+        }
+        if (allowed != null) {
+            allowed.forEach(this::get);
+        }
+        if (students != null) {
+            students.forEach(this::get);
+        }
+    }
+
+    /**
+     * Gets the resolved form of the given received role.
+     *
+     * @param receivedRole The role received from the upstream.
+     * @return The resolved role.
+     */
+    @Nonnull public Role get(@Nonnull final String receivedRole) {
+        final Role cached = roles.get(receivedRole);
+        if (cached != null) {
+            return cached;
+        }
+        final Role role = compile(receivedRole);
+        if (roles.size() < MAX_CACHED_ROLES) {
+            roles.putIfAbsent(receivedRole, role);
+        }
+        return role;
+    }
+
+    /**
+     * Get the number of cached roles.
+     *
+     * @return The number of cached roles.
+     */
+    public int size() {
+        return roles.size();
+    }
+
+    /**
+     * Resolves the given received role.
+     *
+     * @param receivedRole The role received from the upstream.
+     * @return The resolved role.
+     */
+    @Nonnull private Role compile(@Nonnull final String receivedRole) {
+        final String mapped = mappings.get(receivedRole.toLowerCase(Locale.ROOT));
+        final String role = mapped != null ? mapped : receivedRole;
+        final String displayName = role.isEmpty() ? role : role.substring(0, 1).toUpperCase(Locale.ROOT)
+                + role.substring(1);
+        final String code = codes.getOrDefault(displayName, UNKNOWN_ROLE_CODE);
+        final String lowerCase = role.toLowerCase(Locale.ROOT);
+        return new Role(role, displayName, code, studentRoles.contains(lowerCase),
+                allowedRoles.isEmpty() || allowedRoles.contains(lowerCase));
+    }
+
+    /**
+     * Gets the lower-case forms of the given roles.
+     *
+     * @param source The roles, may be null.
+     * @return The lower-case roles.
+     */
+    @Nonnull private static Set<String> toLowerCase(@Nullable final Collection<String> source) {
+        final Set<String> lowerCase = new HashSet<>();
+        if (source != null) {
+            for (final String role : source) {
+                if (role != null) {
+                    lowerCase.add(role.toLowerCase(Locale.ROOT));
+                }
+            }
+        }
+        return lowerCase;
+    }
+
+    /**
+     * One received role resolved with the school role settings.
+     */
+    public static final class Role {
+
+        /** The role the received role is mapped to, or the received role if it is not mapped. */
+        private final String name;
+
+        /** The mapped role with its first letter capitalized. */
+        private final String displayName;
+
+        /** The code of the display form of the role. */
+        private final String code;
+
+        /** Whether the role is a student role. */
+        private final boolean student;
+
+        /** Whether the role is allowed. */
+        private final boolean allowed;
+
+        /**
+         * Constructor.
+         *
+         * @param roleName The role the received role is mapped to.
+         * @param roleDisplayName The mapped role with its first letter capitalized.
+         * @param roleCode The code of the display form of the role.
+         * @param studentRole Whether the role is a student role.
+         * @param allowedRole Whether the role is allowed.
+         */
+        Role(@Nonnull final String roleName, @Nonnull final String roleDisplayName, @Nonnull final String roleCode,
+                final boolean studentRole, final boolean allowedRole) {
+            name = roleName;
+            displayName = roleDisplayName;
+            code = roleCode;
+            student = studentRole;
+            allowed = allowedRole;
+        }
+
+        /**
+         * Get the role the received role is mapped to, or the received role if it is not mapped.
+         *
+         * @return The mapped role.
+         */
+        @Nonnull public String getName() {
+            return name;
+        }
+
+        /**
+         * Get the mapped role with its first letter capitalized.
+         *
+         * @return The display form of the role.
+         */
+        @Nonnull public String getDisplayName() {
+            return displayName;
+        }
+
+        /**
+         * Get the code of the display form of the role, or {@link RoleTable#UNKNOWN_ROLE_CODE} if it has none.
+         *
+         * @return The role code.
+         */
+        @Nonnull public String getCode() {
+            return code;
+        }
+
+        /**
+         * Checks whether the role is a student role.
+         *
+         * @return true if the role is a student role, false otherwise.
+         */
+        public boolean isStudent() {
+            return student;
+        }
+
+        /**
+         * Checks whether the role is allowed.
+         *
+         * @return true if the role is allowed, false otherwise.
+         */
+        public boolean isAllowed() {
+            return allowed;
+        }
+    }
+}
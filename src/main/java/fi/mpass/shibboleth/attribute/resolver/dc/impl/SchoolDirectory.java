@@ -0,0 +1,185 @@
+/*
+ * The MIT License
+ * Copyright (c) 2015 CSC - IT Center for Science, http://www.csc.fi
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package fi.mpass.shibboleth.attribute.resolver.dc.impl;
+
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonParseException;
+
+import fi.mpass.shibboleth.attribute.resolver.data.OpintopolkuOppilaitosDTO;
+import fi.mpass.shibboleth.attribute.resolver.data.OpintopolkuOppilaitosMetadataDTO;
+import fi.mpass.shibboleth.attribute.resolver.data.School;
+import net.shibboleth.shared.logic.Constraint;
+
+/**
+ * An immutable in-memory index of {@link School}s, keyed by both the school code and the organization oid. The
+ * index is built once from the full code set, so that the lookups of schools and their parent organizations
+ * need no network access.
+ *
+ * The indexed {@link School} objects are shared and must not be modified by the callers.
+ */
+public class SchoolDirectory {
+
+    /** The empty directory. */
+    public static final SchoolDirectory EMPTY = new SchoolDirectory(Collections.emptyList());
+
+    /** The schools in the order they were given. */
+    private final List<School> schools;
+
+    /** The schools keyed by both the school code and the organization oid. */
+    private final Map<String, School> index;
+
+    /**
+     * Constructor. The missing parent names are resolved from the parent organizations in the same directory.
+     *
+     * @param directorySchools The schools to be indexed.
+     */
+    public SchoolDirectory(@Nonnull final Collection<School> directorySchools) {
+        Constraint.isNotNull(directorySchools, "The schools cannot be null");
+        final Map<String, School> byKey = new HashMap<>();
+        final List<School> copies = new ArrayList<>(directorySchools.size());
+        for (final School school : directorySchools) {
+            if (school == null) {
+                continue;
+            }
+            final School copy = new School(school);
+            copies.add(copy);
+            if (copy.getId() != null) {
+                byKey.put(copy.getId(), copy);
+            }
+            if (copy.getOid() != null) {
+                byKey.put(copy.getOid(), copy);
+            }
+        }
+        for (final School school : copies) {
+            if (school.getParentName() == null && school.getParentOid() != null) {
+                final School parent = byKey.get(school.getParentOid());
+                if (parent != null) {
+                    school.setParentName(parent.getName());
+                }
+            }
+        }
+        schools = Collections.unmodifiableList(copies);
+        index = Map.copyOf(byKey);
+    }
+
+    /**
+     * Builds a directory from the Opintopolku code set.
+     *
+     * @param codeSet The code set elements.
+     * @return The directory.
+     */
+    @Nonnull public static SchoolDirectory fromCodeSet(@Nonnull final OpintopolkuOppilaitosDTO[] codeSet) {
+        final List<School> schools = new ArrayList<>(codeSet.length);
+        for (final OpintopolkuOppilaitosDTO element : codeSet) {
+            final School school = toSchool(element);
+            if (school != null) {
+                schools.add(school);
+            }
+        }
+        return new SchoolDirectory(schools);
+    }
+
+    /**
+     * Parses a directory from the Opintopolku code set in JSON, in the {@link OpintopolkuOppilaitosDTO} array shape.
+     *
+     * @param gson The Gson instance used for parsing.
+     * @param reader The reader for the code set.
+     * @return The directory.
+     * @throws JsonParseException If the code set cannot be parsed.
+     */
+    @Nonnull public static SchoolDirectory parse(@Nonnull final Gson gson, @Nonnull final Reader reader) {
+        final OpintopolkuOppilaitosDTO[] codeSet = gson.fromJson(reader, OpintopolkuOppilaitosDTO[].class);
+        if (codeSet == null) {
+            throw new JsonParseException("The code set is empty");
+        }
+        return fromCodeSet(codeSet);
+    }
+
+    /**
+     * Converts one Opintopolku code set element into a {@link School}. The Finnish name is preferred, otherwise
+     * the first name in the metadata is used.
+     *
+     * @param element The code set element.
+     * @return The school, or null if the element has no metadata.
+     */
+    @Nullable public static School toSchool(@Nullable final OpintopolkuOppilaitosDTO element) {
+        if (element == null || element.getMetadata() == null || element.getMetadata().length == 0) {
+            return null;
+        }
+        final School school = new School();
+        school.setId(element.getCodeValue());
+        school.setOid(element.getOid());
+        for (final OpintopolkuOppilaitosMetadataDTO metadata : element.getMetadata()) {
+            if ("FI".equals(metadata.getLanguage())) {
+                school.setName(metadata.getName());
+            }
+        }
+        if (school.getName() == null) {
+            school.setName(element.getMetadata()[0].getName());
+        }
+        school.setParentOid(element.getParentOid());
+        school.setParentName(element.getParentName());
+        school.setOrganizationType(element.getOrganizationType());
+        return school;
+    }
+
+    /**
+     * Gets the school with the given school code or organization oid.
+     *
+     * @param idOrOid The school code or the organization oid.
+     * @return The shared school, or null if it is not in the directory.
+     */
+    @Nullable public School get(@Nullable final String idOrOid) {
+        return idOrOid == null ? null : index.get(idOrOid);
+    }
+
+    /**
+     * Gets all the schools in the directory.
+     *
+     * @return The shared schools.
+     */
+    @Nonnull public List<School> getSchools() {
+        return schools;
+    }
+
+    /**
+     * Gets the number of schools in the directory.
+     *
+     * @return The number of schools.
+     */
+    public int size() {
+        return schools.size();
+    }
+}
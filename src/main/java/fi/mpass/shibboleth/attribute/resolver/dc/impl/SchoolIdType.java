@@ -0,0 +1,97 @@
+/*
+ * The MIT License
+ * Copyright (c) 2015 CSC - IT Center for Science, http://www.csc.fi
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+
+package fi.mpass.shibboleth.attribute.resolver.dc.impl;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+/**
+ * The kinds of the school identifiers received from the upstreams. A value is classified in a single pass without
+ * parsing it, and it is numeric exactly when {@link Integer#parseInt(String)} would accept it.
+ */
+public enum SchoolIdType {
+
+    /** A numeric school code of at most six characters. */
+    CODE,
+
+    /** A numeric value longer than a school code. */
+    NUMBER,
+
+    /** A non-numeric value with a dot, such as an organization oid. */
+    OID,
+
+    /** Any other value, such as a school name. */
+    OTHER;
+
+    /** The maximum length of a school code. */
+    public static final int MAX_CODE_LENGTH = 6;
+
+    /**
+     * Checks whether the value is numeric.
+     *
+     * @return true for {@link #CODE} and {@link #NUMBER}, false otherwise.
+     */
+    public boolean isNumeric() {
+        return this == CODE || this == NUMBER;
+    }
+
+    /**
+     * Checks whether the value can be looked up from the school information API.
+     *
+     * @return true for {@link #CODE} and {@link #OID}, false otherwise.
+     */
+    public boolean isValid() {
+        return this == CODE || this == OID;
+    }
+
+    /**
+     * Classifies the given value as is, without trimming it.
+     *
+     * @param value The value to classify.
+     * @return The kind of the value.
+     */
+    @Nonnull public static SchoolIdType of(@Nullable final String value) {
+        if (value == null || value.isEmpty()) {
+            return OTHER;
+        }
+        final int length = value.length();
+        final char first = value.charAt(0);
+        final boolean signed = first == '-' || first == '+';
+        final long limit = first == '-' ? -(long) Integer.MIN_VALUE : Integer.MAX_VALUE;
+        long magnitude = 0;
+        for (int i = signed ? 1 : 0; i < length; i++) {
+            final int digit = Character.digit(value.charAt(i), 10);
+            magnitude = magnitude * 10 + digit;
+            if (digit < 0 || magnitude > limit) {
+                // not numeric, the rest of the value only needs to be checked for a dot
+                return value.indexOf('.', i) < 0 ? OTHER : OID;
+            }
+        }
+        if (signed && length == 1) {
+            return OTHER;
+        }
+        return length > MAX_CODE_LENGTH ? NUMBER : CODE;
+    }
+}
@@ -0,0 +1,279 @@
+/*
+ * The MIT License
+ * Copyright (c) 2015 CSC - IT Center for Science, http://www.csc.fi
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package fi.mpass.shibboleth.attribute.resolver.dc.impl;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+import fi.mpass.shibboleth.attribute.resolver.data.School;
+
+/**
+ * Reads and writes the resolved {@link School} records in a compact binary file, so that a restarted node can
+ * serve school information without network access.
+ *
+ * The file starts with a magic number, a format version, the write time, the base URL of the school information
+ * API the records came from and the number of records. Each record contains the time it was loaded from the API,
+ * followed by the id, oid, name, parent oid, parent name and organization type, each as a presence flag followed
+ * by a modified UTF-8 string when present.
+ */
+public final class SchoolSnapshot {
+
+    /** The magic number at the beginning of the snapshot file. */
+    public static final int MAGIC = 0x4D504153;
+
+    /** The version of the snapshot file format. */
+    public static final int VERSION = 2;
+
+    /** The time when the snapshot was written, in milliseconds. */
+    private final long writeTime;
+
+    /** The base URL of the school information API the records came from. */
+    private final String baseUrl;
+
+    /** The records in the order they were written. */
+    private final List<Record> records;
+
+    /**
+     * Constructor.
+     *
+     * @param writtenAt The time when the snapshot was written, in milliseconds.
+     * @param snapshotBaseUrl The base URL of the school information API the records came from.
+     * @param snapshotRecords The records in the order they were written.
+     */
+    private SchoolSnapshot(final long writtenAt, @Nullable final String snapshotBaseUrl,
+            @Nonnull final List<Record> snapshotRecords) {
+        writeTime = writtenAt;
+        baseUrl = snapshotBaseUrl;
+        records = snapshotRecords;
+    }
+
+    /**
+     * Get the time when the snapshot was written.
+     *
+     * @return The write time, in milliseconds.
+     */
+    public long getWriteTime() {
+        return writeTime;
+    }
+
+    /**
+     * Get the base URL of the school information API the records came from.
+     *
+     * @return The base URL.
+     */
+    @Nullable public String getBaseUrl() {
+        return baseUrl;
+    }
+
+    /**
+     * Get the records in the order they were written.
+     *
+     * @return The records.
+     */
+    @Nonnull public List<Record> getRecords() {
+        return records;
+    }
+
+    /**
+     * Get the schools in the order they were written.
+     *
+     * @return The schools.
+     */
+    @Nonnull public List<School> getSchools() {
+        final List<School> schools = new ArrayList<>(records.size());
+        for (final Record record : records) {
+            schools.add(record.getSchool());
+        }
+        return schools;
+    }
+
+    /**
+     * Writes the records to the given file with the current time as the write time.
+     *
+     * @param file The snapshot file.
+     * @param baseUrl The base URL of the school information API the records came from.
+     * @param records The records to be written.
+     * @throws IOException If the snapshot cannot be written.
+     */
+    public static void write(@Nonnull final Path file, @Nullable final String baseUrl,
+            @Nonnull final Collection<Record> records) throws IOException {
+        write(file, baseUrl, records, System.currentTimeMillis());
+    }
+
+    /**
+     * Writes the records to the given file. The file is first written to a temporary file in the same directory
+     * and then moved in place, so that the readers never see a partially written snapshot.
+     *
+     * @param file The snapshot file.
+     * @param baseUrl The base URL of the school information API the records came from.
+     * @param records The records to be written.
+     * @param writtenAt The write time, in milliseconds.
+     * @throws IOException If the snapshot cannot be written.
+     */
+    public static void write(@Nonnull final Path file, @Nullable final String baseUrl,
+            @Nonnull final Collection<Record> records, final long writtenAt) throws IOException {
+        final Path directory = file.toAbsolutePath().getParent();
+        Files.createDirectories(directory);
+        final Path temp = Files.createTempFile(directory, file.getFileName().toString(), ".tmp");
+        try {
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temp)))) {
+                out.writeInt(MAGIC);
+                out.writeInt(VERSION);
+                out.writeLong(writtenAt);
+                writeString(out, baseUrl);
+                out.writeInt(records.size());
+                for (final Record record : records) {
+                    final School school = record.getSchool();
+                    out.writeLong(record.getLoadedAt());
+                    writeString(out, school.getId());
+                    writeString(out, school.getOid());
+                    writeString(out, school.getName());
+                    writeString(out, school.getParentOid());
+                    writeString(out, school.getParentName());
+                    writeString(out, school.getOrganizationType());
+                }
+            }
+            Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    /**
+     * Reads the records, their base URL and their write time from the given file.
+     *
+     * @param file The snapshot file.
+     * @return The snapshot.
+     * @throws IOException If the snapshot cannot be read or is not a supported snapshot file.
+     */
+    @Nonnull public static SchoolSnapshot read(@Nonnull final Path file) throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+            if (in.readInt() != MAGIC) {
+                throw new IOException("Not a school snapshot file: " + file);
+            }
+            final int version = in.readInt();
+            if (version != VERSION) {
+                throw new IOException("Unsupported school snapshot version " + version + " in " + file);
+            }
+            final long writtenAt = in.readLong();
+            final String baseUrl = readString(in);
+            final int count = in.readInt();
+            if (count < 0) {
+                throw new IOException("Invalid number of schools in " + file);
+            }
+            final List<Record> read = new ArrayList<>(Math.min(count, 65536));
+            for (int i = 0; i < count; i++) {
+                final long loadedAt = in.readLong();
+                final School school = new School();
+                school.setId(readString(in));
+                school.setOid(readString(in));
+                school.setName(readString(in));
+                school.setParentOid(readString(in));
+                school.setParentName(readString(in));
+                school.setOrganizationType(readString(in));
+                read.add(new Record(school, loadedAt));
+            }
+            return new SchoolSnapshot(writtenAt, baseUrl, read);
+        }
+    }
+
+    /**
+     * Writes a nullable string.
+     *
+     * @param out The output.
+     * @param value The string, may be null.
+     * @throws IOException If the string cannot be written.
+     */
+    private static void writeString(@Nonnull final DataOutputStream out, @Nullable final String value)
+            throws IOException {
+        out.writeBoolean(value != null);
+        if (value != null) {
+            out.writeUTF(value);
+        }
+    }
+
+    /**
+     * Reads a nullable string.
+     *
+     * @param in The input.
+     * @return The string, may be null.
+     * @throws IOException If the string cannot be read.
+     */
+    @Nullable private static String readString(@Nonnull final DataInputStream in) throws IOException {
+        return in.readBoolean() ? in.readUTF() : null;
+    }
+
+    /**
+     * One school in the snapshot with the time it was loaded from the school information API.
+     */
+    public static final class Record {
+
+        /** The school. */
+        private final School school;
+
+        /** The time when the school was loaded, in milliseconds. */
+        private final long loadedAt;
+
+        /**
+         * Constructor.
+         *
+         * @param recordSchool The school.
+         * @param loadTime The time when the school was loaded, in milliseconds.
+         */
+        public Record(@Nonnull final School recordSchool, final long loadTime) {
+            school = recordSchool;
+            loadedAt = loadTime;
+        }
+
+        /**
+         * Get the school.
+         *
+         * @return The school.
+         */
+        @Nonnull public School getSchool() {
+            return school;
+        }
+
+        /**
+         * Get the time when the school was loaded.
+         *
+         * @return The load time, in milliseconds.
+         */
+        public long getLoadedAt() {
+            return loadedAt;
+        }
+    }
+}
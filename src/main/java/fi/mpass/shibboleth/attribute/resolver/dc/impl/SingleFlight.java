@@ -0,0 +1,138 @@
+/*
+ * The MIT License
+ * Copyright (c) 2015 CSC - IT Center for Science, http://www.csc.fi
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package fi.mpass.shibboleth.attribute.resolver.dc.impl;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+/**
+ * Coalesces concurrent loads for the same key: the first caller runs the loader and the callers arriving while
+ * it is still running wait for and share its outcome, whether it is a value, null or an exception. Nothing is
+ * remembered once the load has completed.
+ *
+ * @param <K> The type of the keys.
+ * @param <V> The type of the loaded values.
+ */
+public class SingleFlight<K, V> {
+
+    /** The loads currently in flight. */
+    private final ConcurrentMap<K, CompletableFuture<V>> inFlight;
+
+    /** The number of loads actually executed. */
+    private final AtomicLong executedCount;
+
+    /** The number of calls that shared the outcome of a load executed by another caller. */
+    private final AtomicLong coalescedCount;
+
+    /**
+     * Constructor.
+     */
+    public SingleFlight() {
+        inFlight = new ConcurrentHashMap<>();
+        executedCount = new AtomicLong();
+        coalescedCount = new AtomicLong();
+    }
+
+    /**
+     * Runs the loader for the given key, or waits for the loader already running for it.
+     *
+     * @param key The key of the value.
+     * @param loader The loader for the value.
+     * @return The loaded value, may be null.
+     * @throws RuntimeException If the loader threw one, also rethrown to the coalesced callers.
+     */
+    @Nullable public V execute(@Nonnull final K key, @Nonnull final Supplier<V> loader) {
+        final CompletableFuture<V> flight = new CompletableFuture<>();
+        final CompletableFuture<V> existing = inFlight.putIfAbsent(key, flight);
+        if (existing != null) {
+            coalescedCount.incrementAndGet();
+            return join(existing);
+        }
+        executedCount.incrementAndGet();
+        try {
+            final V value = loader.get();
+            flight.complete(value);
+            return value;
+        } catch (final RuntimeException | Error e) {
+            flight.completeExceptionally(e);
+            throw e;
+        } finally {
+            inFlight.remove(key, flight);
+        }
+    }
+
+    /**
+     * Waits for the outcome of a load executed by another caller.
+     *
+     * @param flight The load in flight.
+     * @return The loaded value, may be null.
+     */
+    @Nullable private V join(@Nonnull final CompletableFuture<V> flight) {
+        try {
+            return flight.join();
+        } catch (final CompletionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            if (e.getCause() instanceof Error) {
+                throw (Error) e.getCause();
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * Get the number of loads currently in flight.
+     *
+     * @return The number of loads in flight.
+     */
+    public int getInFlightCount() {
+        return inFlight.size();
+    }
+
+    /**
+     * Get the number of loads actually executed.
+     *
+     * @return The number of executed loads.
+     */
+    public long getExecutedCount() {
+        return executedCount.get();
+    }
+
+    /**
+     * Get the number of calls that shared the outcome of a load executed by another caller.
+     *
+     * @return The number of coalesced calls.
+     */
+    public long getCoalescedCount() {
+        return coalescedCount.get();
+    }
+}
@@ -0,0 +1,116 @@
+/*
+ * The MIT License
+ * Copyright (c) 2015 CSC - IT Center for Science, http://www.csc.fi
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package fi.mpass.shibboleth.attribute.resolver.dc.impl;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+import javax.annotation.Nonnull;
+
+/**
+ * An input stream that fails as soon as more than the given number of bytes have been read from it, so that an
+ * oversized response body is aborted instead of being parsed to the end.
+ */
+public class SizeLimitedInputStream extends FilterInputStream {
+
+    /** The maximum number of bytes that may be read. */
+    private final long maxBytes;
+
+    /** The number of bytes read so far. */
+    private long count;
+
+    /** Whether the limit has been exceeded. */
+    private boolean limitExceeded;
+
+    /**
+     * Constructor.
+     *
+     * @param in The underlying input stream.
+     * @param max The maximum number of bytes that may be read.
+     */
+    public SizeLimitedInputStream(@Nonnull final InputStream in, final long max) {
+        super(in);
+        maxBytes = max;
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public int read() throws IOException {
+        final int b = super.read();
+        if (b != -1) {
+            count(1);
+        }
+        return b;
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public int read(final byte[] b, final int off, final int len) throws IOException {
+        final int read = super.read(b, off, len);
+        if (read > 0) {
+            count(read);
+        }
+        return read;
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public long skip(final long n) throws IOException {
+        final long skipped = super.skip(n);
+        if (skipped > 0) {
+            count(skipped);
+        }
+        return skipped;
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public boolean markSupported() {
+        return false;
+    }
+
+    /**
+     * Checks whether the limit has been exceeded.
+     *
+     * @return true if more than the maximum number of bytes were available, false otherwise.
+     */
+    public boolean isLimitExceeded() {
+        return limitExceeded;
+    }
+
+    /**
+     * Adds the given number of bytes to the count and fails if the limit is exceeded.
+     *
+     * @param bytes The number of bytes read.
+     * @throws IOException If the limit is exceeded.
+     */
+    private void count(final long bytes) throws IOException {
+        count += bytes;
+        if (count > maxBytes) {
+            limitExceeded = true;
+            throw new IOException("The response exceeds the maximum size of " + maxBytes + " bytes");
+        }
+    }
+}
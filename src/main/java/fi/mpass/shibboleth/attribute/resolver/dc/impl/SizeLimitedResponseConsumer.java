@@ -0,0 +1,125 @@
+/*
+ * The MIT License
+ * Copyright (c) 2015 CSC - IT Center for Science, http://www.csc.fi
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package fi.mpass.shibboleth.attribute.resolver.dc.impl;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+import javax.annotation.Nonnull;
+
+import org.apache.hc.client5.http.async.methods.AbstractBinResponseConsumer;
+import org.apache.hc.client5.http.async.methods.SimpleHttpResponse;
+import org.apache.hc.core5.http.ContentType;
+import org.apache.hc.core5.http.Header;
+import org.apache.hc.core5.http.HttpException;
+import org.apache.hc.core5.http.HttpHeaders;
+import org.apache.hc.core5.http.HttpResponse;
+
+/**
+ * An asynchronous response consumer that buffers the response body into a {@link SimpleHttpResponse}, failing the
+ * exchange as soon as the body exceeds the given number of bytes. A declared content length over the limit fails
+ * the exchange before any of the body is read.
+ */
+public class SizeLimitedResponseConsumer extends AbstractBinResponseConsumer<SimpleHttpResponse> {
+
+    /** The maximum number of bytes in the body. */
+    private final int maxBytes;
+
+    /** The response being consumed, without its body. */
+    private SimpleHttpResponse response;
+
+    /** The content type of the body. */
+    private ContentType contentType;
+
+    /** The body read so far. */
+    private ByteArrayOutputStream body;
+
+    /**
+     * Constructor.
+     *
+     * @param max The maximum number of bytes in the body.
+     */
+    public SizeLimitedResponseConsumer(final int max) {
+        maxBytes = max;
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    protected void start(@Nonnull final HttpResponse httpResponse, final ContentType type)
+            throws HttpException, IOException {
+        final Header contentLength = httpResponse.getFirstHeader(HttpHeaders.CONTENT_LENGTH);
+        if (contentLength != null) {
+            try {
+                if (Long.parseLong(contentLength.getValue().trim()) > maxBytes) {
+                    throw new IOException("The response size " + contentLength.getValue()
+                            + " exceeds the maximum size of " + maxBytes + " bytes");
+                }
+            } catch (NumberFormatException e) {
+                throw new HttpException("Invalid content length " + contentLength.getValue());
+            }
+        }
+        response = SimpleHttpResponse.copy(httpResponse);
+        contentType = type;
+        body = new ByteArrayOutputStream();
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    protected int capacityIncrement() {
+        return Integer.MAX_VALUE;
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    protected void data(@Nonnull final ByteBuffer data, final boolean endOfStream) throws IOException {
+        final int length = data.remaining();
+        if (body.size() + (long) length > maxBytes) {
+            throw new IOException("The response exceeds the maximum size of " + maxBytes + " bytes");
+        }
+        if (data.hasArray()) {
+            body.write(data.array(), data.arrayOffset() + data.position(), length);
+            data.position(data.limit());
+        } else {
+            final byte[] chunk = new byte[length];
+            data.get(chunk);
+            body.write(chunk, 0, length);
+        }
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    protected SimpleHttpResponse buildResult() {
+        if (body != null && body.size() > 0) {
+            response.setBody(body.toByteArray(), contentType);
+        }
+        return response;
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public void releaseResources() {
+        body = null;
+    }
+}
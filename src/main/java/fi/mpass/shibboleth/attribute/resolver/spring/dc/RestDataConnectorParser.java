@@ -23,6 +23,7 @@
 
 package fi.mpass.shibboleth.attribute.resolver.spring.dc;
 
+import java.time.Duration;
 import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
@@ -86,7 +87,7 @@ public class RestDataConnectorParser extends AbstractDataConnectorParser {
 
         String endpointUrl = element.getAttributeNS(null, "endpointUrl");
         
-        builder.addPropertyValue("endpointUrl", endpointUrl);
+        builder.addPropertyValue("endpointUrls", Arrays.asList(endpointUrl.split(",")));
         String hookAttribute = element.getAttributeNS(null, "hookAttribute");
         builder.addPropertyValue("hookAttribute", hookAttribute);
         String idpId = element.getAttributeNS(null, "idpId");
@@ -119,6 +120,50 @@ public class RestDataConnectorParser extends AbstractDataConnectorParser {
         if (StringSupport.trimOrNull(officeTypes) != null) {
             builder.addPropertyValue("officeTypes", Arrays.asList(officeTypes.split(",")));
         }
+        addOptionalPropertyValue(element, builder, "endpointMaxConnectionsTotal");
+        addOptionalPropertyValue(element, builder, "endpointMaxConnectionsPerRoute");
+        addOptionalPropertyValue(element, builder, "nameApiMaxConnectionsTotal");
+        addOptionalPropertyValue(element, builder, "nameApiMaxConnectionsPerRoute");
+        addOptionalPropertyValue(element, builder, "maxResponseSize");
+        addOptionalDurationValue(element, builder, "schoolCacheTtl");
+        addOptionalPropertyValue(element, builder, "schoolCacheMaxEntries");
+        addOptionalDurationValue(element, builder, "schoolNegativeCacheTtl");
+        addOptionalDurationValue(element, builder, "schoolCacheMaxStaleness");
+        addOptionalPropertyValue(element, builder, "schoolRefreshMaxConcurrency");
+        addOptionalPropertyValue(element, builder, "schoolLookupMaxConcurrency");
+        addOptionalPropertyValue(element, builder, "schoolPreloadUrl");
+        addOptionalPropertyValue(element, builder, "schoolPreloadFile");
+        addOptionalPropertyValue(element, builder, "schoolSnapshotFile");
+        addOptionalDurationValue(element, builder, "schoolSnapshotInterval");
+        addOptionalDurationValue(element, builder, "userCacheTtl");
+        addOptionalPropertyValue(element, builder, "userCacheMaxEntries");
+        String userCacheExcludedIdps = element.getAttributeNS(null, "userCacheExcludedIdps");
+        if (StringSupport.trimOrNull(userCacheExcludedIdps) != null) {
+            builder.addPropertyValue("userCacheExcludedIdps", Arrays.asList(userCacheExcludedIdps.split(",")));
+        }
+        addOptionalDurationValue(element, builder, "resolvedAttributeCacheTtl");
+        addOptionalPropertyValue(element, builder, "resolvedAttributeCacheMaxEntries");
+        addOptionalPropertyValue(element, builder, "asyncEnabled");
+        addOptionalDurationValue(element, builder, "resolutionTimeout");
+        addOptionalPropertyValue(element, builder, "upstreamExecutionMode");
+        addOptionalPropertyValue(element, builder, "upstreamMaxConcurrencyPerHost");
+        addOptionalPropertyValue(element, builder, "nameApiCircuitBreakerFailureRateThreshold");
+        addOptionalPropertyValue(element, builder, "nameApiCircuitBreakerWindowSize");
+        addOptionalDurationValue(element, builder, "nameApiCircuitBreakerOpenDuration");
+        addOptionalPropertyValue(element, builder, "nameApiCircuitBreakerHalfOpenProbes");
+        addOptionalPropertyValue(element, builder, "endpointCircuitBreakerFailureRateThreshold");
+        addOptionalPropertyValue(element, builder, "endpointCircuitBreakerWindowSize");
+        addOptionalDurationValue(element, builder, "endpointCircuitBreakerOpenDuration");
+        addOptionalPropertyValue(element, builder, "endpointCircuitBreakerHalfOpenProbes");
+        addOptionalDurationValue(element, builder, "lastKnownUserCacheTtl");
+        addOptionalPropertyValue(element, builder, "lastKnownUserCacheMaxEntries");
+        addOptionalPropertyValue(element, builder, "endpointHedgePercentile");
+        addOptionalPropertyValue(element, builder, "endpointHedgeMaxPercent");
+        addOptionalDurationValue(element, builder, "endpointHedgeMinDelay");
+        addOptionalPropertyValue(element, builder, "endpointSelection");
+        addOptionalPropertyValue(element, builder, "endpointMaxRetries");
+        addOptionalPropertyValue(element, builder, "endpointEjectionThreshold");
+        addOptionalDurationValue(element, builder, "endpointEjectionDuration");
         final List<Element> directIdpAttributes = ElementSupport.getChildElements(element, DIRECT_IDP_ATTRIBUTES_NAME);
         if (directIdpAttributes != null) {
             final Map<String, Map<String, String>> principalMappings = new HashMap<>();
@@ -183,4 +228,35 @@ public class RestDataConnectorParser extends AbstractDataConnectorParser {
             builder.addPropertyValue("schoolRoleMappings", roleMap);
         }
     }
+
+    /**
+     * Adds the value of the given attribute as a property with the same name, if the attribute is set.
+     *
+     * @param element The configuration element.
+     * @param builder The bean definition builder.
+     * @param name The name of the attribute and the property.
+     */
+    protected void addOptionalPropertyValue(@Nonnull final Element element,
+            @Nonnull final BeanDefinitionBuilder builder, @Nonnull final String name) {
+        final String value = StringSupport.trimOrNull(element.getAttributeNS(null, name));
+        if (value != null) {
+            builder.addPropertyValue(name, value);
+        }
+    }
+
+    /**
+     * Adds the value of the given attribute as a {@link Duration} property with the same name, if the attribute
+     * is set. The value is expected in ISO-8601 format, for instance PT1H.
+     *
+     * @param element The configuration element.
+     * @param builder The bean definition builder.
+     * @param name The name of the attribute and the property.
+     */
+    protected void addOptionalDurationValue(@Nonnull final Element element,
+            @Nonnull final BeanDefinitionBuilder builder, @Nonnull final String name) {
+        final String value = StringSupport.trimOrNull(element.getAttributeNS(null, name));
+        if (value != null) {
+            builder.addPropertyValue(name, Duration.parse(value));
+        }
+    }
 }
\ No newline at end of file
@@ -0,0 +1,167 @@
+/*
+ * The MIT License
+ * Copyright (c) 2015 CSC - IT Center for Science, http://www.csc.fi
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package fi.mpass.shibboleth.attribute.resolver.data;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+
+import fi.mpass.shibboleth.attribute.resolver.data.UserDTO.AttributesDTO;
+import fi.mpass.shibboleth.attribute.resolver.data.UserDTO.RolesDTO;
+
+/**
+ * Unit tests for {@link UserTypeAdapter}, {@link AttributesTypeAdapter}, {@link RolesTypeAdapter},
+ * {@link OpintopolkuOppilaitosTypeAdapter} and {@link OpintopolkuOppilaitosMetadataTypeAdapter}.
+ */
+public class TypeAdaptersTest {
+
+    /** The directory containing the JSON fixtures. */
+    public static final String FIXTURE_DIRECTORY = "src/test/resources/fi/mpass/shibboleth/attribute/resolver/data";
+
+    /** The Gson using the streaming adapters for the user data. */
+    private final Gson userGson = new GsonBuilder()
+            .registerTypeAdapter(UserDTO.class, new UserTypeAdapter())
+            .registerTypeAdapter(RolesDTO.class, new RolesTypeAdapter())
+            .registerTypeAdapter(AttributesDTO.class, new AttributesTypeAdapter()).create();
+
+    /** The Gson using the streaming adapters for the school data. */
+    private final Gson schoolGson = new GsonBuilder()
+            .registerTypeAdapter(OpintopolkuOppilaitosDTO.class, new OpintopolkuOppilaitosTypeAdapter())
+            .registerTypeAdapter(OpintopolkuOppilaitosMetadataDTO.class,
+                    new OpintopolkuOppilaitosMetadataTypeAdapter()).create();
+
+    /** The Gson using the reflective adapters, except for the roles. */
+    private final Gson reflectiveGson = new GsonBuilder()
+            .registerTypeAdapter(RolesDTO.class, new RolesTypeAdapter()).create();
+
+    /**
+     * Tests that all the user fixtures are parsed like with the reflective adapters.
+     * 
+     * @throws IOException If the fixtures cannot be read.
+     */
+    @Test
+    public void testUserFixturesMatchReflective() throws IOException {
+        int count = 0;
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(Paths.get(FIXTURE_DIRECTORY), "*.json")) {
+            for (final Path file : files) {
+                if ("schools.json".equals(file.getFileName().toString())) {
+                    continue;
+                }
+                final String json = new String(Files.readAllBytes(file), StandardCharsets.UTF_8);
+                Assert.assertEquals(reflectiveGson.toJson(userGson.fromJson(json, UserDTO.class)),
+                        reflectiveGson.toJson(reflectiveGson.fromJson(json, UserDTO.class)), file.toString());
+                count++;
+            }
+        }
+        Assert.assertTrue(count > 0);
+    }
+
+    /**
+     * Tests that the school fixture is parsed like with the reflective adapters.
+     * 
+     * @throws IOException If the fixture cannot be read.
+     */
+    @Test
+    public void testSchoolFixtureMatchesReflective() throws IOException {
+        final String json = new String(Files.readAllBytes(Paths.get(FIXTURE_DIRECTORY, "schools.json")),
+                StandardCharsets.UTF_8);
+        final OpintopolkuOppilaitosDTO[] schools = schoolGson.fromJson(json, OpintopolkuOppilaitosDTO[].class);
+        Assert.assertEquals(schools.length, 3);
+        Assert.assertEquals(schools[0].getVersion(), "1");
+        Assert.assertEquals(schools[0].getMetadata()[1].getName(), "Mock School Name");
+        Assert.assertEquals(reflectiveGson.toJson(schools),
+                reflectiveGson.toJson(reflectiveGson.fromJson(json, OpintopolkuOppilaitosDTO[].class)));
+    }
+
+    /**
+     * Tests that bad ints, non-string values and unknown fields are tolerated.
+     */
+    @Test
+    public void testLenientUser() {
+        final UserDTO user = userGson.fromJson("{ \"username\": 123, \"unknown\": { \"nested\": [1, 2] }, "
+                + "\"roles\": [ { \"school\": 12345, \"groupLevel\": \"seven\", \"learningMaterialsCharge\": true, "
+                + "\"extra\": { \"a\": \"b\" } }, null, { \"groupLevel\": \"7\" } ], "
+                + "\"attributes\": [ { \"name\": \"flag\", \"value\": false, \"other\": [] } ] }", UserDTO.class);
+        Assert.assertEquals(user.getUsername(), "123");
+        Assert.assertEquals(user.getRoles().length, 2);
+        Assert.assertEquals(user.getRoles()[0].getSchool(), "12345");
+        Assert.assertNull(user.getRoles()[0].getGroupLevel());
+        Assert.assertNull(user.getRoles()[0].getLearningMaterialsCharge());
+        Assert.assertEquals(user.getRoles()[1].getGroupLevel(), Integer.valueOf(7));
+        Assert.assertEquals(user.getAttributes().length, 1);
+        Assert.assertEquals(user.getAttribute("flag").getValue(), "false");
+    }
+
+    /**
+     * Tests that the written JSON is read back to equal objects.
+     */
+    @Test
+    public void testRoundTrip() {
+        final UserDTO user = new UserDTO();
+        user.setUsername("OID1");
+        user.setFirstName("Jane");
+        final RolesDTO role = user.new RolesDTO();
+        role.setSchool("12345");
+        role.setGroupLevel(7);
+        final AttributesDTO attribute = user.new AttributesDTO();
+        attribute.setName("learnerId");
+        attribute.setValue("1.2.3");
+        user.setRoles(new RolesDTO[] { role });
+        user.setAttributes(new AttributesDTO[] { attribute });
+        final String json = userGson.toJson(user);
+        Assert.assertEquals(reflectiveGson.toJson(userGson.fromJson(json, UserDTO.class)), reflectiveGson.toJson(user));
+
+        final OpintopolkuOppilaitosMetadataDTO metadata = new OpintopolkuOppilaitosMetadataDTO();
+        metadata.setName("Mock School Name");
+        metadata.setLanguage("FI");
+        final OpintopolkuOppilaitosDTO school = new OpintopolkuOppilaitosDTO();
+        school.setCodeValue("12345");
+        school.setVersion("1");
+        school.setMetadata(new OpintopolkuOppilaitosMetadataDTO[] { metadata });
+        final String schoolJson = schoolGson.toJson(school);
+        Assert.assertEquals(reflectiveGson.toJson(schoolGson.fromJson(schoolJson, OpintopolkuOppilaitosDTO.class)),
+                reflectiveGson.toJson(school));
+    }
+
+    /**
+     * Tests that null values are read as nulls.
+     */
+    @Test
+    public void testNull() {
+        Assert.assertNull(userGson.fromJson("null", UserDTO.class));
+        Assert.assertNull(schoolGson.fromJson("null", OpintopolkuOppilaitosDTO.class));
+        final UserDTO user = userGson.fromJson("{ \"username\": null, \"roles\": null }", UserDTO.class);
+        Assert.assertNull(user.getUsername());
+        Assert.assertNull(user.getRoles());
+    }
+}
@@ -279,4 +279,23 @@ public class UserDTOTest {
         Reader reader = new InputStreamReader(this.getClass().getResourceAsStream(classResource));
         return gson.fromJson(reader, UserDTO.class);
     }
-}
\ No newline at end of file
+
+    /**
+     * Tests that the copy constructor copies the roles and attributes too.
+     */
+    @Test
+    public void testCopy() {
+        final UserDTO user = getUser("student-2role-2attr.json");
+        final UserDTO copy = new UserDTO(user);
+        Assert.assertEquals(copy.getUsername(), user.getUsername());
+        Assert.assertEquals(copy.getRoles().length, user.getRoles().length);
+        Assert.assertNotSame(copy.getRoles()[0], user.getRoles()[0]);
+        assertRole(copy.getRoles()[0], user.getRoles()[0].getGroup(), user.getRoles()[0].getGroupLevel(),
+                user.getRoles()[0].getMunicipality(), user.getRoles()[0].getRole(), user.getRoles()[0].getSchool());
+        Assert.assertNotSame(copy.getAttributes()[0], user.getAttributes()[0]);
+        assertAttribute(copy.getAttributes()[0], user.getAttributes()[0].getName(),
+                user.getAttributes()[0].getValue());
+        copy.getRoles()[0].setSchool("changed");
+        Assert.assertNotEquals(user.getRoles()[0].getSchool(), "changed");
+    }
+}
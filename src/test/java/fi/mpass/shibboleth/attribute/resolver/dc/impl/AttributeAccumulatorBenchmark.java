@@ -0,0 +1,125 @@
+/*
+ * The MIT License
+ * Copyright (c) 2015 CSC - IT Center for Science, http://www.csc.fi
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+
+package fi.mpass.shibboleth.attribute.resolver.dc.impl;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import net.shibboleth.idp.attribute.IdPAttribute;
+import net.shibboleth.idp.attribute.IdPAttributeValue;
+import net.shibboleth.idp.attribute.StringAttributeValue;
+
+/**
+ * JMH comparison of appending each resolved value to an existing {@link IdPAttribute}, which copies its values every
+ * time, and collecting the values in an {@link AttributeAccumulator}, for a user with the given number of roles.
+ *
+ * Run with <code>java -cp target/test-classes:target/classes:&lt;test classpath&gt; org.openjdk.jmh.Main
+ * AttributeAccumulatorBenchmark -prof gc</code> from the project directory to also see the allocation rates.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class AttributeAccumulatorBenchmark {
+
+    /** The prefix for the attribute ids. */
+    private static final String PREFIX = "attr_";
+
+    /** The ids of the attributes populated for every role. */
+    private static final String[] ATTRIBUTE_IDS = { "schoolIds", "groups", "roles", "municipalities", "groupLevels",
+        "structuredRoles", "structuredRolesWid", "learningMaterialsCharges" };
+
+    /** The number of roles of the user. */
+    @Param({ "1", "10", "100" })
+    private int roleCount;
+
+    /** The attribute ids and values in the order they are populated. */
+    private String[][] values;
+
+    /**
+     * Builds the values, every third of which repeats an earlier value of the same attribute.
+     */
+    @Setup
+    public void setUp() {
+        values = new String[roleCount * ATTRIBUTE_IDS.length][];
+        int index = 0;
+        for (int role = 0; role < roleCount; role++) {
+            for (final String attributeId : ATTRIBUTE_IDS) {
+                final int valueIndex = role % 3 == 2 ? role - 1 : role;
+                values[index++] = new String[] { attributeId, attributeId + "-value-" + valueIndex };
+            }
+        }
+    }
+
+    @Benchmark
+    public Map<String, IdPAttribute> copyOnAppend() {
+        final Map<String, IdPAttribute> attributes = new HashMap<>();
+        for (final String[] value : values) {
+            final String id = PREFIX + value[0];
+            final StringAttributeValue attributeValue = new StringAttributeValue(value[1].trim());
+            final IdPAttribute existing = attributes.get(id);
+            if (existing == null) {
+                final List<IdPAttributeValue> attributeValues = new ArrayList<>();
+                attributeValues.add(attributeValue);
+                final IdPAttribute attribute = new IdPAttribute(id);
+                attribute.setValues(attributeValues);
+                attributes.put(id, attribute);
+            } else if (!existing.getValues().contains(attributeValue)) {
+                final List<IdPAttributeValue> attributeValues = new ArrayList<>(existing.getValues());
+                attributeValues.add(attributeValue);
+                existing.setValues(attributeValues);
+            }
+        }
+        return attributes;
+    }
+
+    @Benchmark
+    public Map<String, IdPAttribute> accumulator() {
+        final Map<String, IdPAttribute> attributes = new HashMap<>();
+        final AttributeAccumulator accumulator = new AttributeAccumulator(PREFIX);
+        for (final String[] value : values) {
+            accumulator.add(value[0], value[1]);
+        }
+        accumulator.addTo(attributes);
+        return attributes;
+    }
+}
@@ -0,0 +1,109 @@
+/*
+ * The MIT License
+ * Copyright (c) 2015 CSC - IT Center for Science, http://www.csc.fi
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package fi.mpass.shibboleth.attribute.resolver.dc.impl;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import net.shibboleth.idp.attribute.IdPAttribute;
+import net.shibboleth.idp.attribute.IdPAttributeValue;
+import net.shibboleth.idp.attribute.StringAttributeValue;
+
+/**
+ * Unit tests for {@link AttributeAccumulator}.
+ */
+public class AttributeAccumulatorTest {
+
+    @Test
+    public void testAdd_whenEmptyValues_shouldIgnoreThem() {
+        final AttributeAccumulator accumulator = new AttributeAccumulator("");
+        Assert.assertFalse(accumulator.add(null, "value"));
+        Assert.assertFalse(accumulator.add(" ", "value"));
+        Assert.assertFalse(accumulator.add("id", null));
+        Assert.assertFalse(accumulator.add("id", " "));
+        Assert.assertTrue(accumulator.isEmpty());
+    }
+
+    @Test
+    public void testAddTo_shouldKeepFirstAddedOrderWithoutDuplicates() {
+        final AttributeAccumulator accumulator = new AttributeAccumulator("prefix_");
+        Assert.assertTrue(accumulator.add("id", "b"));
+        Assert.assertTrue(accumulator.add("id", " a"));
+        Assert.assertFalse(accumulator.add("id", "b "));
+        Assert.assertTrue(accumulator.add("id", "B"));
+        Assert.assertTrue(accumulator.add("other", "a"));
+        final Map<String, IdPAttribute> attributes = new HashMap<>();
+        accumulator.addTo(attributes);
+        Assert.assertEquals(attributes.size(), 2);
+        Assert.assertEquals(nativeValues(attributes.get("prefix_id")), Arrays.asList("b", "a", "B"));
+        Assert.assertEquals(nativeValues(attributes.get("prefix_other")), Arrays.asList("a"));
+    }
+
+    @Test
+    public void testAddTo_whenAttributeExists_shouldAppendNewValues() {
+        final IdPAttribute existing = new IdPAttribute("id");
+        existing.setValues(Arrays.asList(new StringAttributeValue("x"), new StringAttributeValue("y")));
+        final Map<String, IdPAttribute> attributes = new HashMap<>();
+        attributes.put("id", existing);
+        final AttributeAccumulator accumulator = new AttributeAccumulator("");
+        accumulator.add("id", "y");
+        accumulator.add("id", "z");
+        accumulator.addTo(attributes);
+        Assert.assertSame(attributes.get("id"), existing);
+        Assert.assertEquals(nativeValues(existing), Arrays.asList("x", "y", "z"));
+    }
+
+    @Test
+    public void testAddTo_whenLayout_shouldUseSlotAndDynamicNames() {
+        final AttributeLayout layout = new AttributeLayout("prefix_", "attr_", "fixed", "other");
+        final AttributeAccumulator accumulator = new AttributeAccumulator(layout);
+        Assert.assertTrue(accumulator.add(1, "a"));
+        Assert.assertFalse(accumulator.add("other", " a "));
+        Assert.assertTrue(accumulator.add("free", "b"));
+        Assert.assertTrue(accumulator.addDynamic("extra", "c"));
+        Assert.assertFalse(accumulator.add(0, " "));
+        final Map<String, IdPAttribute> attributes = new HashMap<>();
+        accumulator.addTo(attributes);
+        Assert.assertEquals(attributes.size(), 3);
+        Assert.assertEquals(nativeValues(attributes.get("prefix_other")), Arrays.asList("a"));
+        Assert.assertEquals(nativeValues(attributes.get("prefix_free")), Arrays.asList("b"));
+        Assert.assertEquals(nativeValues(attributes.get("prefix_attr_extra")), Arrays.asList("c"));
+    }
+
+    /**
+     * Gets the native values of the given attribute.
+     *
+     * @param attribute The attribute.
+     * @return The native values.
+     */
+    private List<Object> nativeValues(final IdPAttribute attribute) {
+        return attribute.getValues().stream().map(IdPAttributeValue::getNativeValue).collect(Collectors.toList());
+    }
+}
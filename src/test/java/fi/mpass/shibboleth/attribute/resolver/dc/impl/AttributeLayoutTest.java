@@ -0,0 +1,66 @@
+/*
+ * The MIT License
+ * Copyright (c) 2015 CSC - IT Center for Science, http://www.csc.fi
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+
+package fi.mpass.shibboleth.attribute.resolver.dc.impl;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import net.shibboleth.shared.logic.ConstraintViolationException;
+
+/**
+ * Unit tests for {@link AttributeLayout}.
+ */
+public class AttributeLayoutTest {
+
+    @Test
+    public void testGetName_shouldPrefixFixedAndOtherIds() {
+        final AttributeLayout layout = new AttributeLayout("prefix_", "attr_", "first", "second");
+        Assert.assertEquals(layout.size(), 2);
+        Assert.assertEquals(layout.getSlot("second"), 1);
+        Assert.assertEquals(layout.getSlot("third"), -1);
+        Assert.assertEquals(layout.getSlot(null), -1);
+        Assert.assertEquals(layout.getName(0), "prefix_first");
+        Assert.assertSame(layout.getName("second"), layout.getName(1));
+        Assert.assertEquals(layout.getName("third"), "prefix_third");
+    }
+
+    @Test(expectedExceptions = ConstraintViolationException.class)
+    public void testConstructor_whenDuplicateIds_shouldFail() {
+        new AttributeLayout("prefix_", "attr_", "first", "first");
+    }
+
+    @Test
+    public void testGetDynamicName_shouldCacheUpToTheLimit() {
+        final AttributeLayout layout = new AttributeLayout("prefix_", "attr_");
+        final String name = layout.getDynamicName("name");
+        Assert.assertEquals(name, "prefix_attr_name");
+        Assert.assertSame(layout.getDynamicName("name"), name);
+        for (int i = 0; i < AttributeLayout.MAX_DYNAMIC_NAMES * 2; i++) {
+            Assert.assertEquals(layout.getDynamicName("name" + i), "prefix_attr_name" + i);
+        }
+        Assert.assertEquals(layout.getDynamicNameCount(), AttributeLayout.MAX_DYNAMIC_NAMES);
+        Assert.assertEquals(layout.getDynamicName(null), "prefix_attr_null");
+    }
+}
@@ -0,0 +1,145 @@
+/*
+ * The MIT License
+ * Copyright (c) 2015 CSC - IT Center for Science, http://www.csc.fi
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package fi.mpass.shibboleth.attribute.resolver.dc.impl;
+
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.testng.Assert;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+/**
+ * Unit tests for {@link BoundedTtlCache}.
+ */
+public class BoundedTtlCacheTest {
+
+    /** The simulated current time. */
+    private AtomicLong now;
+
+    /**
+     * Initialize unit tests.
+     */
+    @BeforeMethod
+    public void init() {
+        now = new AtomicLong(1000);
+    }
+
+    @Test
+    public void testGet_whenLive_shouldReturnValue() {
+        final BoundedTtlCache<String, String> cache = new BoundedTtlCache<>(10, Duration.ofSeconds(10), now::get);
+        cache.put("key", "value");
+        Assert.assertEquals(cache.get("key"), "value");
+        Assert.assertEquals(cache.getHitCount(), 1);
+        Assert.assertNull(cache.get("other"));
+        Assert.assertEquals(cache.getMissCount(), 1);
+    }
+
+    @Test
+    public void testGet_whenExpired_shouldReturnNull() {
+        final BoundedTtlCache<String, String> cache = new BoundedTtlCache<>(10, Duration.ofSeconds(10), now::get);
+        cache.put("key", "value");
+        now.addAndGet(10000);
+        Assert.assertNull(cache.get("key"));
+        Assert.assertNotNull(cache.getEntry("key"));
+        Assert.assertTrue(cache.getEntry("key").isExpired(now.get()));
+    }
+
+    @Test
+    public void testGetLive_whenNullValue_shouldCountNegativeHit() {
+        final BoundedTtlCache<String, String> cache = new BoundedTtlCache<>(10, Duration.ofSeconds(10), now::get);
+        cache.put("key", null, Duration.ofSeconds(1));
+        Assert.assertNotNull(cache.getLive("key"));
+        Assert.assertNull(cache.getLive("key").getValue());
+        Assert.assertEquals(cache.getNegativeHitCount(), 2);
+        Assert.assertEquals(cache.getHitCount(), 0);
+        now.addAndGet(1000);
+        Assert.assertNull(cache.getLive("key"));
+        Assert.assertEquals(cache.getMissCount(), 1);
+    }
+
+    @Test
+    public void testGetStale_shouldReturnOnlyWithinStaleness() {
+        final BoundedTtlCache<String, String> cache = new BoundedTtlCache<>(10, Duration.ofSeconds(10), now::get);
+        cache.put("key", "value");
+        Assert.assertNull(cache.getStale("key", Duration.ofSeconds(5)));
+        now.addAndGet(12000);
+        Assert.assertNull(cache.get("key"));
+        Assert.assertEquals(cache.getStale("key", Duration.ofSeconds(5)), "value");
+        Assert.assertEquals(cache.getStaleHitCount(), 1);
+        now.addAndGet(3000);
+        Assert.assertNull(cache.getStale("key", Duration.ofSeconds(5)));
+        Assert.assertNull(cache.getStale("other", Duration.ofSeconds(5)));
+    }
+
+    @Test
+    public void testPut_withOwnTtl_shouldExpireIndependently() {
+        final BoundedTtlCache<String, String> cache = new BoundedTtlCache<>(10, Duration.ofSeconds(10), now::get);
+        cache.put("short", "value", Duration.ofSeconds(1));
+        cache.put("long", "value");
+        now.addAndGet(2000);
+        Assert.assertNull(cache.get("short"));
+        Assert.assertEquals(cache.get("long"), "value");
+    }
+
+    @Test
+    public void testPut_whenFull_shouldEvictLeastRecentlyUsed() {
+        final BoundedTtlCache<String, String> cache = new BoundedTtlCache<>(2, Duration.ofSeconds(10), now::get);
+        cache.put("first", "1");
+        cache.put("second", "2");
+        Assert.assertEquals(cache.get("first"), "1");
+        cache.put("third", "3");
+        Assert.assertEquals(cache.size(), 2);
+        Assert.assertEquals(cache.getEvictionCount(), 1);
+        Assert.assertEquals(cache.get("first"), "1");
+        Assert.assertNull(cache.get("second"));
+        Assert.assertEquals(cache.get("third"), "3");
+    }
+
+    @Test
+    public void testPut_whenDisabled_shouldStoreNothing() {
+        final BoundedTtlCache<String, String> noEntries = new BoundedTtlCache<>(0, Duration.ofSeconds(10), now::get);
+        noEntries.put("key", "value");
+        Assert.assertFalse(noEntries.isEnabled());
+        Assert.assertNull(noEntries.get("key"));
+        final BoundedTtlCache<String, String> noTtl = new BoundedTtlCache<>(10, Duration.ZERO, now::get);
+        noTtl.put("key", "value");
+        Assert.assertFalse(noTtl.isEnabled());
+        Assert.assertNull(noTtl.get("key"));
+    }
+
+    @Test
+    public void testRestore_whenLoadedBeforeTtl_shouldKeepExpiredEntry() {
+        final BoundedTtlCache<String, String> cache = new BoundedTtlCache<>(10, Duration.ofSeconds(10), now::get);
+        now.set(100000);
+        cache.restore("old", "value", 50000);
+        cache.restore("recent", "value", 95000);
+        Assert.assertNull(cache.get("old"));
+        Assert.assertEquals(cache.getEntry("old").getValue(), "value");
+        Assert.assertEquals(cache.getEntry("old").getLoadedAt(), 50000);
+        Assert.assertEquals(cache.get("recent"), "value");
+        Assert.assertEquals(cache.getEntry("recent").getExpiresAt(), 105000);
+        Assert.assertEquals(cache.getEntries().size(), 2);
+    }
+}
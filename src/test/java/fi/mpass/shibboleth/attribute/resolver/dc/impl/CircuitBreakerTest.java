@@ -0,0 +1,135 @@
+/*
+ * The MIT License
+ * Copyright (c) 2015 CSC - IT Center for Science, http://www.csc.fi
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package fi.mpass.shibboleth.attribute.resolver.dc.impl;
+
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import fi.mpass.shibboleth.attribute.resolver.dc.impl.CircuitBreaker.State;
+
+/**
+ * Unit tests for {@link CircuitBreaker}.
+ */
+public class CircuitBreakerTest {
+
+    @Test
+    public void testOnFailure_whenWindowNotFull_shouldStayClosed() {
+        final CircuitBreaker breaker = new CircuitBreaker("test", 50, 4, Duration.ofSeconds(10), 2);
+        breaker.onFailure();
+        breaker.onFailure();
+        breaker.onFailure();
+        Assert.assertEquals(breaker.getState(), State.CLOSED);
+        Assert.assertTrue(breaker.tryAcquire());
+        breaker.onFailure();
+        Assert.assertEquals(breaker.getState(), State.OPEN);
+        Assert.assertEquals(breaker.getOpenedCount(), 1);
+    }
+
+    @Test
+    public void testOnFailure_whenOldFailuresSlideOut_shouldStayClosed() {
+        final CircuitBreaker breaker = new CircuitBreaker("test", 50, 4, Duration.ofSeconds(10), 2);
+        breaker.onFailure();
+        breaker.onSuccess();
+        breaker.onSuccess();
+        breaker.onSuccess();
+        breaker.onSuccess();
+        breaker.onFailure();
+        Assert.assertEquals(breaker.getState(), State.CLOSED);
+        breaker.onFailure();
+        Assert.assertEquals(breaker.getState(), State.OPEN);
+    }
+
+    @Test
+    public void testTryAcquire_whenOpen_shouldRejectUntilProbing() {
+        final AtomicLong clock = new AtomicLong(1000L);
+        final CircuitBreaker breaker = new CircuitBreaker("test", 50, 2, Duration.ofSeconds(10), 2, clock::get);
+        breaker.onSuccess();
+        breaker.onFailure();
+        Assert.assertEquals(breaker.getState(), State.OPEN);
+        Assert.assertFalse(breaker.tryAcquire());
+        clock.addAndGet(9999L);
+        Assert.assertFalse(breaker.tryAcquire());
+        Assert.assertEquals(breaker.getRejectedCount(), 2);
+        clock.addAndGet(1L);
+        Assert.assertTrue(breaker.tryAcquire());
+        Assert.assertEquals(breaker.getState(), State.HALF_OPEN);
+        Assert.assertTrue(breaker.tryAcquire());
+        Assert.assertFalse(breaker.tryAcquire());
+        breaker.onSuccess();
+        Assert.assertEquals(breaker.getState(), State.HALF_OPEN);
+        breaker.onSuccess();
+        Assert.assertEquals(breaker.getState(), State.CLOSED);
+        Assert.assertEquals(breaker.getHalfOpenedCount(), 1);
+        Assert.assertEquals(breaker.getClosedCount(), 1);
+        // the window starts empty after closing
+        breaker.onFailure();
+        Assert.assertEquals(breaker.getState(), State.CLOSED);
+    }
+
+    @Test
+    public void testOnFailure_whenProbeFails_shouldOpenAgain() {
+        final AtomicLong clock = new AtomicLong(1000L);
+        final CircuitBreaker breaker = new CircuitBreaker("test", 100, 1, Duration.ofSeconds(10), 3, clock::get);
+        breaker.onFailure();
+        clock.addAndGet(10000L);
+        Assert.assertTrue(breaker.tryAcquire());
+        breaker.onSuccess();
+        Assert.assertTrue(breaker.tryAcquire());
+        breaker.onFailure();
+        Assert.assertEquals(breaker.getState(), State.OPEN);
+        Assert.assertEquals(breaker.getOpenedCount(), 2);
+        Assert.assertFalse(breaker.tryAcquire());
+    }
+
+    @Test
+    public void testOnCancel_whenProbing_shouldGiveProbeBack() {
+        final AtomicLong clock = new AtomicLong(1000L);
+        final CircuitBreaker breaker = new CircuitBreaker("test", 100, 1, Duration.ofSeconds(10), 1, clock::get);
+        breaker.onFailure();
+        clock.addAndGet(10000L);
+        Assert.assertTrue(breaker.tryAcquire());
+        Assert.assertFalse(breaker.tryAcquire());
+        breaker.onCancel();
+        Assert.assertEquals(breaker.getState(), State.HALF_OPEN);
+        Assert.assertTrue(breaker.tryAcquire());
+        breaker.onSuccess();
+        Assert.assertEquals(breaker.getState(), State.CLOSED);
+        breaker.onCancel();
+        Assert.assertEquals(breaker.getState(), State.CLOSED);
+    }
+
+    @Test
+    public void testOnFailure_whenThresholdZero_shouldNeverOpen() {
+        final CircuitBreaker breaker = new CircuitBreaker("test", 0, 2, Duration.ofSeconds(10), 1);
+        for (int i = 0; i < 10; i++) {
+            Assert.assertTrue(breaker.tryAcquire());
+            breaker.onFailure();
+        }
+        Assert.assertEquals(breaker.getState(), State.CLOSED);
+        Assert.assertEquals(breaker.getOpenedCount(), 0);
+    }
+}
@@ -0,0 +1,136 @@
+/*
+ * The MIT License
+ * Copyright (c) 2015 CSC - IT Center for Science, http://www.csc.fi
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package fi.mpass.shibboleth.attribute.resolver.dc.impl;
+
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import fi.mpass.shibboleth.attribute.resolver.dc.impl.EndpointSelector.Endpoint;
+
+/**
+ * Unit tests for {@link EndpointSelector}.
+ */
+public class EndpointSelectorTest {
+
+    @Test
+    public void testSelect_whenLeastOutstanding_shouldPickLeastBusy() {
+        final EndpointSelector selector = new EndpointSelector(Arrays.asList("http://a/", "http://b/"),
+                EndpointSelector.STRATEGY_LEAST_OUTSTANDING, 0, Duration.ZERO);
+        final Endpoint a = selector.getEndpoints().get(0);
+        final Endpoint b = selector.getEndpoints().get(1);
+        selector.onStart(a);
+        for (int i = 0; i < 4; i++) {
+            Assert.assertSame(selector.select(Collections.emptySet()), b);
+        }
+        selector.onStart(b);
+        selector.onStart(b);
+        Assert.assertSame(selector.select(Collections.emptySet()), a);
+        selector.onSuccess(b, 1L);
+        selector.onCancel(b);
+        Assert.assertEquals(b.getOutstanding(), 0);
+        Assert.assertSame(selector.select(Collections.emptySet()), b);
+    }
+
+    @Test
+    public void testSelect_whenEwma_shouldPickFastest() {
+        final EndpointSelector selector = new EndpointSelector(Arrays.asList("http://a/", "http://b/"),
+                EndpointSelector.STRATEGY_EWMA, 0, Duration.ZERO);
+        final Endpoint a = selector.getEndpoints().get(0);
+        final Endpoint b = selector.getEndpoints().get(1);
+        selector.onStart(a);
+        selector.onSuccess(a, 100_000_000L);
+        selector.onStart(b);
+        selector.onSuccess(b, 10_000_000L);
+        for (int i = 0; i < 4; i++) {
+            Assert.assertSame(selector.select(Collections.emptySet()), b);
+        }
+        Assert.assertEquals(b.getEwmaLatency(), Duration.ofMillis(10));
+        // the latency is weighted by the outstanding requests
+        for (int i = 0; i < 10; i++) {
+            selector.onStart(b);
+        }
+        Assert.assertSame(selector.select(Collections.emptySet()), a);
+    }
+
+    @Test
+    public void testSelect_whenExcluded_shouldPickOthers() {
+        final EndpointSelector selector = new EndpointSelector(Arrays.asList("http://a/", "http://b/"),
+                EndpointSelector.STRATEGY_LEAST_OUTSTANDING, 0, Duration.ZERO);
+        final Endpoint a = selector.getEndpoints().get(0);
+        final Endpoint b = selector.getEndpoints().get(1);
+        for (int i = 0; i < 4; i++) {
+            Assert.assertSame(selector.select(Collections.singleton(a)), b);
+        }
+        Assert.assertNull(selector.select(Arrays.asList(a, b)));
+    }
+
+    @Test
+    public void testOnFailure_whenConsecutive_shouldEjectUntilDurationPasses() {
+        final AtomicLong clock = new AtomicLong(1000L);
+        final EndpointSelector selector = new EndpointSelector(Arrays.asList("http://a/", "http://b/"),
+                EndpointSelector.STRATEGY_LEAST_OUTSTANDING, 2, Duration.ofNanos(100), clock::get);
+        final Endpoint a = selector.getEndpoints().get(0);
+        final Endpoint b = selector.getEndpoints().get(1);
+        selector.onStart(a);
+        selector.onFailure(a);
+        selector.onStart(a);
+        selector.onSuccess(a, 1L);
+        selector.onStart(a);
+        selector.onFailure(a);
+        Assert.assertFalse(selector.isEjected(a));
+        selector.onStart(a);
+        selector.onFailure(a);
+        Assert.assertTrue(selector.isEjected(a));
+        Assert.assertEquals(a.getEjectedCount(), 1);
+        Assert.assertEquals(a.getFailureCount(), 3);
+        for (int i = 0; i < 4; i++) {
+            Assert.assertSame(selector.select(Collections.emptySet()), b);
+        }
+        clock.addAndGet(100L);
+        Assert.assertFalse(selector.isEjected(a));
+        Assert.assertSame(selector.select(Collections.singleton(b)), a);
+    }
+
+    @Test
+    public void testSelect_whenAllEjected_shouldPickFirstToReturn() {
+        final AtomicLong clock = new AtomicLong(1000L);
+        final EndpointSelector selector = new EndpointSelector(Arrays.asList("http://a/", "http://b/"),
+                EndpointSelector.STRATEGY_LEAST_OUTSTANDING, 1, Duration.ofNanos(100), clock::get);
+        final Endpoint a = selector.getEndpoints().get(0);
+        final Endpoint b = selector.getEndpoints().get(1);
+        selector.onStart(b);
+        selector.onFailure(b);
+        clock.addAndGet(10L);
+        selector.onStart(a);
+        selector.onFailure(a);
+        for (int i = 0; i < 4; i++) {
+            Assert.assertSame(selector.select(Collections.emptySet()), b);
+        }
+    }
+}
@@ -0,0 +1,141 @@
+/*
+ * The MIT License
+ * Copyright (c) 2015 CSC - IT Center for Science, http://www.csc.fi
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package fi.mpass.shibboleth.attribute.resolver.dc.impl;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import com.google.gson.Gson;
+
+import fi.mpass.shibboleth.attribute.resolver.data.OpintopolkuOppilaitosDTO;
+import fi.mpass.shibboleth.attribute.resolver.data.UserDTO;
+
+/**
+ * JMH comparison of building a Gson instance for every response and sharing the pre-built instances of
+ * {@link RestDataConnector}, using the JSON fixtures of the unit tests.
+ *
+ * Run with <code>java -cp target/test-classes:target/classes:&lt;test classpath&gt; org.openjdk.jmh.Main
+ * GsonBenchmark</code> from the project directory.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class GsonBenchmark {
+
+    /** The directory of the JSON fixtures. */
+    public static final String FIXTURE_DIRECTORY = "src/test/resources/fi/mpass/shibboleth/attribute/resolver/data";
+
+    /** The school code set fixture. */
+    public static final String SCHOOL_FIXTURE = "schools.json";
+
+    /** The ECA user data API response fixtures. */
+    private String[] userResponses;
+
+    /** The school information API response fixture. */
+    private String schoolResponse;
+
+    /** The shared Gson instance for the user responses. */
+    private Gson userGson;
+
+    /** The shared Gson instance for the school responses. */
+    private Gson schoolGson;
+
+    /**
+     * Reads the fixtures and builds the shared Gson instances.
+     *
+     * @throws IOException If the fixtures cannot be read.
+     */
+    @Setup
+    public void setUp() throws IOException {
+        userResponses = readUserFixtures();
+        schoolResponse = new String(Files.readAllBytes(Paths.get(FIXTURE_DIRECTORY, SCHOOL_FIXTURE)),
+                StandardCharsets.UTF_8);
+        userGson = RestDataConnector.buildUserGson();
+        schoolGson = RestDataConnector.buildSchoolGson();
+    }
+
+    /**
+     * Reads the ECA user data API response fixtures.
+     *
+     * @return The contents of the fixtures.
+     * @throws IOException If the fixtures cannot be read.
+     */
+    public static String[] readUserFixtures() throws IOException {
+        final List<String> responses = new ArrayList<>();
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(Paths.get(FIXTURE_DIRECTORY), "*.json")) {
+            for (final Path file : files) {
+                if (!SCHOOL_FIXTURE.equals(file.getFileName().toString())) {
+                    responses.add(new String(Files.readAllBytes(file), StandardCharsets.UTF_8));
+                }
+            }
+        }
+        return responses.toArray(new String[0]);
+    }
+
+    @Benchmark
+    public void userPerCall(final Blackhole blackhole) {
+        for (final String response : userResponses) {
+            blackhole.consume(RestDataConnector.buildUserGson().fromJson(response, UserDTO.class));
+        }
+    }
+
+    @Benchmark
+    public void userShared(final Blackhole blackhole) {
+        for (final String response : userResponses) {
+            blackhole.consume(userGson.fromJson(response, UserDTO.class));
+        }
+    }
+
+    @Benchmark
+    public Object schoolPerCall() {
+        return RestDataConnector.buildSchoolGson().fromJson(schoolResponse, OpintopolkuOppilaitosDTO[].class);
+    }
+
+    @Benchmark
+    public Object schoolShared() {
+        return schoolGson.fromJson(schoolResponse, OpintopolkuOppilaitosDTO[].class);
+    }
+}
@@ -0,0 +1,107 @@
+/*
+ * The MIT License
+ * Copyright (c) 2015 CSC - IT Center for Science, http://www.csc.fi
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package fi.mpass.shibboleth.attribute.resolver.dc.impl;
+
+import java.time.Duration;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+/**
+ * Unit tests for {@link HedgingPolicy}.
+ */
+public class HedgingPolicyTest {
+
+    @Test
+    public void testGetHedgeDelay_whenTooFewSamples_shouldReturnNull() {
+        final HedgingPolicy policy = new HedgingPolicy(90, 10, Duration.ZERO, 100);
+        for (int i = 1; i < HedgingPolicy.MIN_SAMPLES; i++) {
+            policy.recordLatency(Duration.ofMillis(i).toNanos());
+        }
+        Assert.assertNull(policy.getHedgeDelay());
+    }
+
+    @Test
+    public void testGetHedgeDelay_shouldReturnPercentileOfLatencies() {
+        final HedgingPolicy policy = new HedgingPolicy(90, 10, Duration.ZERO, 100);
+        for (int i = HedgingPolicy.MIN_SAMPLES; i > 0; i--) {
+            policy.recordLatency(Duration.ofMillis(i).toNanos());
+        }
+        Assert.assertEquals(policy.getHedgeDelay(), Duration.ofMillis(18));
+    }
+
+    @Test
+    public void testGetHedgeDelay_whenLatenciesBelowMinDelay_shouldReturnMinDelay() {
+        final HedgingPolicy policy = new HedgingPolicy(50, 10, Duration.ofMillis(50), 100);
+        for (int i = 0; i < HedgingPolicy.MIN_SAMPLES; i++) {
+            policy.recordLatency(Duration.ofMillis(1).toNanos());
+        }
+        Assert.assertEquals(policy.getHedgeDelay(), Duration.ofMillis(50));
+    }
+
+    @Test
+    public void testGetHedgeDelay_whenOldLatenciesSlideOut_shouldFollowNewOnes() {
+        final HedgingPolicy policy = new HedgingPolicy(50, 10, Duration.ZERO, HedgingPolicy.MIN_SAMPLES);
+        for (int i = 0; i < 64; i++) {
+            policy.recordLatency(Duration.ofMillis(i < 32 ? 100 : 10).toNanos());
+        }
+        Assert.assertEquals(policy.getHedgeDelay(), Duration.ofMillis(10));
+    }
+
+    @Test
+    public void testTryHedge_shouldBeLimitedToMaxPercent() {
+        final HedgingPolicy policy = new HedgingPolicy(90, 10, Duration.ZERO, 100);
+        for (int i = 0; i < 9; i++) {
+            policy.onRequest();
+        }
+        Assert.assertFalse(policy.tryHedge());
+        policy.onRequest();
+        Assert.assertTrue(policy.tryHedge());
+        Assert.assertFalse(policy.tryHedge());
+        Assert.assertEquals(policy.getHedgedCount(), 1);
+        Assert.assertEquals(policy.getThrottledCount(), 2);
+    }
+
+    @Test
+    public void testTryHedge_whenBudgetUnused_shouldCapIt() {
+        final HedgingPolicy policy = new HedgingPolicy(90, 50, Duration.ZERO, 100);
+        for (int i = 0; i < 1000; i++) {
+            policy.onRequest();
+        }
+        int hedges = 0;
+        while (policy.tryHedge()) {
+            hedges++;
+        }
+        Assert.assertEquals(hedges, 10);
+    }
+
+    @Test
+    public void testTryHedge_whenMaxPercentZero_shouldNeverHedge() {
+        final HedgingPolicy policy = new HedgingPolicy(90, 0, Duration.ZERO, 100);
+        for (int i = 0; i < 1000; i++) {
+            policy.onRequest();
+        }
+        Assert.assertFalse(policy.tryHedge());
+    }
+}
@@ -0,0 +1,78 @@
+/*
+ * The MIT License
+ * Copyright (c) 2015 CSC - IT Center for Science, http://www.csc.fi
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package fi.mpass.shibboleth.attribute.resolver.dc.impl;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.concurrent.Semaphore;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+/**
+ * Unit tests for {@link HostConcurrencyLimiter}.
+ */
+public class HostConcurrencyLimiterTest {
+
+    @Test
+    public void testAcquire_whenHostBusy_shouldFailAfterMaxWait() throws Exception {
+        final HostConcurrencyLimiter limiter = new HostConcurrencyLimiter(2);
+        final Semaphore first = limiter.acquire("http://localhost/a", Duration.ZERO);
+        final Semaphore second = limiter.acquire("http://localhost/b", Duration.ZERO);
+        Assert.assertSame(first, second);
+        Assert.assertEquals(limiter.getActiveCount("http://localhost/c"), 2);
+        try {
+            limiter.acquire("http://localhost/c", Duration.ofMillis(10));
+            Assert.fail("Expected the host to be busy");
+        } catch (IOException e) {
+            Assert.assertEquals(limiter.getRejectedCount(), 1);
+        }
+        first.release();
+        limiter.acquire("http://localhost/c", Duration.ZERO).release();
+        second.release();
+        Assert.assertEquals(limiter.getActiveCount("http://localhost/"), 0);
+    }
+
+    @Test
+    public void testAcquire_whenOtherHost_shouldNotWait() throws Exception {
+        final HostConcurrencyLimiter limiter = new HostConcurrencyLimiter(1);
+        final Semaphore busy = limiter.acquire("https://eca.example.org/api", Duration.ZERO);
+        final Semaphore other = limiter.acquire("https://names.example.org/school/1", Duration.ZERO);
+        Assert.assertNotSame(busy, other);
+        Assert.assertEquals(limiter.getActiveCount("https://eca.example.org/"), 1);
+        Assert.assertEquals(limiter.getActiveCount("https://unknown.example.org/"), 0);
+        Assert.assertEquals(limiter.getRejectedCount(), 0);
+    }
+
+    @Test
+    public void testGetHostKey_shouldNormalizeSchemeHostAndPort() {
+        Assert.assertEquals(HostConcurrencyLimiter.getHostKey("HTTPS://Eca.Example.org/api?x=1"),
+                "https://eca.example.org:443");
+        Assert.assertEquals(HostConcurrencyLimiter.getHostKey("http://localhost:8997/school/1"),
+                "http://localhost:8997");
+        Assert.assertEquals(HostConcurrencyLimiter.getHostKey("http://localhost/user"),
+                HostConcurrencyLimiter.getHostKey("http://localhost:80/school/"));
+        Assert.assertEquals(HostConcurrencyLimiter.getHostKey("not a url"), "not a url");
+    }
+}
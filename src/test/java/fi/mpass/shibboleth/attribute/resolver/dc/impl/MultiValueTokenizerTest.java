@@ -0,0 +1,71 @@
+/*
+ * The MIT License
+ * Copyright (c) 2015 CSC - IT Center for Science, http://www.csc.fi
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+
+package fi.mpass.shibboleth.attribute.resolver.dc.impl;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+/**
+ * Unit tests for {@link MultiValueTokenizer}.
+ */
+public class MultiValueTokenizerTest {
+
+    @Test
+    public void testSplit_shouldMatchRegexSplitWithTrimming() {
+        final String[] values = { "a;b;c", " a ; b ;", ";;", "a", " \\a\\ ;b\\c; \\ ", "a \\ b", "\\;\\","\t;x\n" };
+        for (final String value : values) {
+            Assert.assertEquals(MultiValueTokenizer.split(value, ';'), regexSplit(value), value);
+        }
+    }
+
+    @Test
+    public void testSplit_whenEmpty_shouldReturnNull() {
+        Assert.assertNull(MultiValueTokenizer.split(null, ';'));
+        Assert.assertNull(MultiValueTokenizer.split("", ';'));
+        Assert.assertNull(MultiValueTokenizer.split(" \t", ';'));
+    }
+
+    @Test
+    public void testJoin_shouldRejectFieldsWithSeparator() {
+        Assert.assertEquals(MultiValueTokenizer.join(';', "a", "", null, "d"), "a;;null;d");
+        Assert.assertNull(MultiValueTokenizer.join(';', "a", "b;c"));
+        Assert.assertEquals(MultiValueTokenizer.join(';'), "");
+    }
+
+    /**
+     * Splits the given value as the multi-value attribute values were split before.
+     *
+     * @param value The value.
+     * @return The values.
+     */
+    private String[] regexSplit(final String value) {
+        final String[] values = value.split(";", -1);
+        for (int i = 0; i < values.length; i++) {
+            final String trimmed = values[i].replace("\\", "").trim();
+            values[i] = trimmed.isEmpty() ? null : trimmed;
+        }
+        return values;
+    }
+}
@@ -0,0 +1,79 @@
+/*
+ * The MIT License
+ * Copyright (c) 2015 CSC - IT Center for Science, http://www.csc.fi
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package fi.mpass.shibboleth.attribute.resolver.dc.impl;
+
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+/**
+ * Unit tests for {@link ResolutionDeadline}.
+ */
+public class ResolutionDeadlineTest {
+
+    @Test
+    public void testGetRemaining_shouldDecreaseUntilExpired() {
+        final AtomicLong clock = new AtomicLong(1000L);
+        final ResolutionDeadline deadline = new ResolutionDeadline(Duration.ofMillis(100), clock::get);
+        Assert.assertEquals(deadline.getRemaining(), Duration.ofMillis(100));
+        Assert.assertFalse(deadline.isExpired());
+        clock.addAndGet(Duration.ofMillis(60).toNanos());
+        Assert.assertEquals(deadline.getRemaining(), Duration.ofMillis(40));
+        Assert.assertFalse(deadline.isExpired());
+        clock.addAndGet(Duration.ofMillis(40).toNanos());
+        Assert.assertEquals(deadline.getRemaining(), Duration.ZERO);
+        Assert.assertTrue(deadline.isExpired());
+        clock.addAndGet(Duration.ofMillis(40).toNanos());
+        Assert.assertEquals(deadline.getRemaining(), Duration.ZERO);
+    }
+
+    @Test
+    public void testGetRemaining_whenClockOverflows_shouldStillCountDown() {
+        final AtomicLong clock = new AtomicLong(Long.MAX_VALUE - 10);
+        final ResolutionDeadline deadline = new ResolutionDeadline(Duration.ofNanos(20), clock::get);
+        Assert.assertEquals(deadline.getRemaining(), Duration.ofNanos(20));
+        clock.addAndGet(15);
+        Assert.assertEquals(deadline.getRemaining(), Duration.ofNanos(5));
+        clock.addAndGet(5);
+        Assert.assertTrue(deadline.isExpired());
+    }
+
+    @Test
+    public void testIsExpired_whenZeroBudget_shouldBeExpired() {
+        Assert.assertTrue(new ResolutionDeadline(Duration.ZERO).isExpired());
+        Assert.assertEquals(new ResolutionDeadline(Duration.ZERO).getRemaining(), Duration.ZERO);
+    }
+
+    @Test
+    public void testIsExpired_whenUnlimited_shouldNeverExpire() {
+        final AtomicLong clock = new AtomicLong(1000L);
+        final ResolutionDeadline deadline = new ResolutionDeadline(null, clock::get);
+        clock.addAndGet(Duration.ofDays(1).toNanos());
+        Assert.assertFalse(deadline.isLimited());
+        Assert.assertFalse(deadline.isExpired());
+        Assert.assertNull(deadline.getRemaining());
+    }
+}
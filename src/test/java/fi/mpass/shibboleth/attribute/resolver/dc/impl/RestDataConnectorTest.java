@@ -27,27 +27,55 @@ import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.ArgumentMatchers.anyString;
 import static org.mockito.ArgumentMatchers.eq;
 
+import java.io.ByteArrayInputStream;
 import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.StringReader;
+import java.net.ConnectException;
+import java.net.SocketTimeoutException;
 import java.net.InetSocketAddress;
 import java.net.SocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.security.Principal;
+import java.time.Duration;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.IdentityHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
 
 import javax.security.auth.Subject;
 
 import org.apache.commons.io.IOUtils;
+import org.apache.hc.client5.http.async.methods.SimpleHttpRequest;
+import org.apache.hc.client5.http.async.methods.SimpleHttpResponse;
 import org.apache.hc.client5.http.classic.HttpClient;
+import org.apache.hc.client5.http.config.RequestConfig;
 import org.apache.hc.client5.http.impl.classic.CloseableHttpResponse;
+import org.apache.hc.client5.http.protocol.HttpClientContext;
+import org.apache.hc.client5.http.socket.LayeredConnectionSocketFactory;
 import org.apache.hc.core5.http.ClassicHttpRequest;
 import org.apache.hc.core5.http.ClassicHttpResponse;
+import org.apache.hc.core5.http.ContentType;
 import org.apache.hc.core5.http.HttpEntity;
 import org.apache.hc.core5.http.message.StatusLine;
 import org.apache.hc.core5.http.protocol.HttpContext;
@@ -84,6 +112,7 @@ import net.shibboleth.idp.saml.impl.testing.TestSources;
 import net.shibboleth.shared.collection.Pair;
 import net.shibboleth.shared.component.ComponentInitializationException;
 import net.shibboleth.shared.httpclient.HttpClientBuilder;
+import net.shibboleth.shared.logic.ConstraintViolationException;
 
 /**
  * Unit tests for {@link RestDataConnector}.
@@ -1341,6 +1370,7 @@ public class RestDataConnectorTest {
 		recordWorkContextAttribute(expectedIdpId, "idpIdValue", workContext);
 		RestDataConnector mockConnector = Mockito.spy(dataConnector);
 		Mockito.doReturn(mockBuilder).when(mockConnector).getHttpClientBuilder();
+		Mockito.doReturn(mockBuilder.buildClient()).when(mockConnector).getEndpointHttpClient();
 
 		//School mockSchool = new School(expectedSchoolId, expectedSchoolName, expectedParentOid, expectedParentName);
 		for (final School mockSchool : mockSchools) {
@@ -1480,6 +1510,1350 @@ public class RestDataConnectorTest {
 		Assert.assertNull(school);
 	}
 
+	@Test
+	public void testPooledClients_whenInitialized_shouldBuildOneClientPerUpstream() throws Exception {
+		HttpClientBuilder clientBuilder = Mockito.mock(HttpClientBuilder.class);
+		HttpClient mockClient = Mockito.mock(HttpClient.class);
+		Mockito.doThrow(new IOException("mock")).when(mockClient).executeOpen(Mockito.any(),Mockito.any(),Mockito.any());
+		Mockito.when(clientBuilder.buildClient()).thenReturn(mockClient);
+		final RestDataConnector connector = new RestDataConnector(clientBuilder);
+		connector.setId(expectedId);
+		connector.setNameApiMaxConnectionsTotal(5);
+		connector.initialize();
+		Assert.assertNull(connector.findSchool("123456", "http://localhost/"));
+		Assert.assertNull(connector.findSchool("123457", "http://localhost/"));
+		Mockito.verify(clientBuilder, Mockito.times(2)).buildClient();
+		Mockito.verify(clientBuilder).setMaxConnectionsTotal(5);
+		Assert.assertEquals(connector.getNameApiPoolStatistics().getMaxConnections(), 5);
+		Assert.assertEquals(connector.getNameApiPoolStatistics().getLeased(), 0);
+		Assert.assertEquals(connector.getNameApiPoolStatistics().getPending(), 0);
+		Assert.assertEquals(connector.getNameApiPoolStatistics().getAvailable(), 5);
+		connector.destroy();
+	}
+
+	@Test
+	public void testPooledClients_whenSharedBuilder_shouldRestoreItsPoolSizes() throws Exception {
+		HttpClientBuilder clientBuilder = Mockito.mock(HttpClientBuilder.class);
+		Mockito.when(clientBuilder.getMaxConnectionsTotal()).thenReturn(77);
+		Mockito.when(clientBuilder.getMaxConnectionsPerRoute()).thenReturn(33);
+		Mockito.when(clientBuilder.buildClient()).thenReturn(Mockito.mock(HttpClient.class));
+		final RestDataConnector connector = new RestDataConnector(clientBuilder);
+		connector.setId(expectedId);
+		connector.setNameApiMaxConnectionsTotal(5);
+		connector.initialize();
+		Mockito.verify(clientBuilder, Mockito.times(2)).buildClient();
+		Mockito.verify(clientBuilder).setMaxConnectionsTotal(5);
+		Mockito.verify(clientBuilder).setMaxConnectionsTotal(77);
+		Mockito.verify(clientBuilder, Mockito.never()).setMaxConnectionsPerRoute(Mockito.anyInt());
+		connector.destroy();
+	}
+
+	@Test
+	public void testPooledClients_whenPoolSizesNotConfigured_shouldKeepBuilderPoolSizes() throws Exception {
+		HttpClientBuilder clientBuilder = Mockito.mock(HttpClientBuilder.class);
+		Mockito.when(clientBuilder.getMaxConnectionsTotal()).thenReturn(77);
+		Mockito.when(clientBuilder.getMaxConnectionsPerRoute()).thenReturn(33);
+		Mockito.when(clientBuilder.buildClient()).thenReturn(Mockito.mock(HttpClient.class));
+		final RestDataConnector connector = new RestDataConnector(clientBuilder);
+		connector.setId(expectedId);
+		connector.initialize();
+		Mockito.verify(clientBuilder, Mockito.times(2)).buildClient();
+		Mockito.verify(clientBuilder, Mockito.never()).setMaxConnectionsTotal(Mockito.anyInt());
+		Mockito.verify(clientBuilder, Mockito.never()).setMaxConnectionsPerRoute(Mockito.anyInt());
+		Assert.assertEquals(connector.getEndpointPoolStatistics().getMaxConnections(), 77);
+		Assert.assertEquals(connector.getNameApiPoolStatistics().getMaxConnections(), 77);
+		connector.destroy();
+	}
+
+	@Test
+	public void testFindSchool_whenCached_shouldCallApiOnce() throws Exception {
+		final HttpClient mockClient = initializeMockSchoolClient(
+				schoolJson(expectedSchoolId, expectedSchoolOid, expectedParentOid, expectedOrganizationType));
+		final RestDataConnector connector = new RestDataConnector(initializeMockBuilder(mockClient));
+		final School first = connector.findSchool(expectedSchoolId, "http://localhost/");
+		final School second = connector.findSchool(" " + expectedSchoolId, "http://localhost/");
+		Assert.assertNotNull(first);
+		Assert.assertNotNull(second);
+		Assert.assertNotSame(first, second);
+		Assert.assertEquals(second.getName(), expectedSchoolName);
+		Assert.assertEquals(second.getParentOid(), expectedParentOid);
+		Assert.assertEquals(connector.getSchoolCache().getHitCount(), 1);
+		Mockito.verify(mockClient, Mockito.times(1)).executeOpen(Mockito.any(), Mockito.any(), Mockito.any());
+	}
+
+	@Test
+	public void testFindSchool_whenCacheDisabled_shouldCallApiEachTime() throws Exception {
+		final HttpClient mockClient = initializeMockSchoolClient(
+				schoolJson(expectedSchoolId, expectedSchoolOid, expectedParentOid, expectedOrganizationType));
+		final RestDataConnector connector = new RestDataConnector(initializeMockBuilder(mockClient));
+		connector.setSchoolCacheTtl(Duration.ZERO);
+		Assert.assertNotNull(connector.findSchool(expectedSchoolId, "http://localhost/"));
+		Assert.assertNotNull(connector.findSchool(expectedSchoolId, "http://localhost/"));
+		Mockito.verify(mockClient, Mockito.times(2)).executeOpen(Mockito.any(), Mockito.any(), Mockito.any());
+	}
+
+	@Test
+	public void testFindSchool_whenCachedSchoolModified_shouldNotChangeCache() throws Exception {
+		final HttpClient mockClient = initializeMockSchoolClient(
+				schoolJson(expectedSchoolId, expectedSchoolOid, expectedParentOid, expectedOrganizationType));
+		final RestDataConnector connector = new RestDataConnector(initializeMockBuilder(mockClient));
+		connector.findSchool(expectedSchoolId, "http://localhost/").setOfficeOid(expectedOfficeOid);
+		Assert.assertNull(connector.findSchool(expectedSchoolId, "http://localhost/").getOfficeOid());
+	}
+
+	@Test
+	public void testFindSchool_whenConcurrent_shouldCoalesceApiCalls() throws Exception {
+		final String responseContent = schoolJson(expectedSchoolId, expectedSchoolOid, expectedParentOid,
+				expectedOrganizationType);
+		final CountDownLatch release = new CountDownLatch(1);
+		final HttpClient mockClient = Mockito.mock(HttpClient.class);
+		Mockito.when(mockClient.executeOpen(Mockito.any(), Mockito.any(), Mockito.any())).thenAnswer(invocation -> {
+			release.await(5, TimeUnit.SECONDS);
+			final ClassicHttpResponse mockResponse = Mockito.mock(ClassicHttpResponse.class);
+			final HttpEntity mockEntity = Mockito.mock(HttpEntity.class);
+			Mockito.when(mockResponse.getCode()).thenReturn(200);
+			Mockito.when(mockResponse.getEntity()).thenReturn(mockEntity);
+			Mockito.when(mockEntity.getContent())
+					.thenReturn(new ByteArrayInputStream(responseContent.getBytes(StandardCharsets.UTF_8)));
+			return mockResponse;
+		});
+		final RestDataConnector connector = new RestDataConnector(initializeMockBuilder(mockClient));
+		final ExecutorService executor = Executors.newFixedThreadPool(4);
+		try {
+			final List<Future<School>> results = new ArrayList<>();
+			for (int i = 0; i < 4; i++) {
+				results.add(executor.submit(() -> connector.findSchool(expectedSchoolId, "http://localhost/")));
+			}
+			for (int i = 0; i < 500 && connector.getSchoolLookups().getCoalescedCount() < 3; i++) {
+				Thread.sleep(10);
+			}
+			release.countDown();
+			final Set<School> schools = Collections.newSetFromMap(new IdentityHashMap<>());
+			for (final Future<School> result : results) {
+				final School school = result.get(5, TimeUnit.SECONDS);
+				Assert.assertEquals(school.getName(), expectedSchoolName);
+				schools.add(school);
+			}
+			Assert.assertEquals(schools.size(), 4);
+		} finally {
+			executor.shutdownNow();
+		}
+		Assert.assertEquals(connector.getSchoolLookups().getExecutedCount(), 1);
+		Assert.assertEquals(connector.getSchoolLookups().getCoalescedCount(), 3);
+		Mockito.verify(mockClient, Mockito.times(1)).executeOpen(Mockito.any(), Mockito.any(), Mockito.any());
+	}
+
+	@Test
+	public void testFindSchool_whenPreloaded_shouldNotCallApi() throws Exception {
+		final HttpClient mockClient = Mockito.mock(HttpClient.class);
+		Mockito.doThrow(new IOException("mock")).when(mockClient).executeOpen(Mockito.any(),Mockito.any(),Mockito.any());
+		final RestDataConnector connector = new RestDataConnector(initializeMockBuilder(mockClient));
+		connector.setId(expectedId);
+		connector.setNameApiBaseUrl("http://localhost/");
+		connector.setSchoolPreloadFile(SchoolDirectoryTest.CODE_SET_FILE);
+		connector.initialize();
+		Assert.assertEquals(connector.getSchoolDirectory().size(), 2);
+		final School office = connector.findSchool("99901", "http://localhost/");
+		Assert.assertEquals(office.getName(), expectedOfficeName);
+		final School school = connector.findSchool(office.getParentOid(), "http://localhost/");
+		Assert.assertEquals(school.getId(), expectedSchoolId);
+		Assert.assertEquals(school.getName(), expectedSchoolName);
+		school.setOfficeOid(office.getOid());
+		Assert.assertNull(connector.findSchool(expectedSchoolId, "http://localhost/").getOfficeOid());
+		Assert.assertNull(connector.findSchool("99903", "http://localhost/"));
+		Mockito.verify(mockClient, Mockito.times(1)).executeOpen(Mockito.any(), Mockito.any(), Mockito.any());
+		connector.destroy();
+	}
+
+	@Test
+	public void testFindSchool_whenPreloadedForOtherBaseUrl_shouldCallApi() throws Exception {
+		final HttpClient mockClient = initializeMockSchoolClient(
+				schoolJson(expectedSchoolId, expectedSchoolOid, expectedParentOid, expectedOrganizationType));
+		final RestDataConnector connector = new RestDataConnector(initializeMockBuilder(mockClient));
+		connector.setId(expectedId);
+		connector.setNameApiBaseUrl("http://preloaded/");
+		connector.setSchoolPreloadFile(SchoolDirectoryTest.CODE_SET_FILE);
+		connector.initialize();
+		Assert.assertEquals(connector.getSchoolDirectory().size(), 2);
+		Assert.assertEquals(connector.findSchool(expectedSchoolId, "http://localhost/").getName(), expectedSchoolName);
+		Mockito.verify(mockClient, Mockito.times(1)).executeOpen(Mockito.any(), Mockito.any(), Mockito.any());
+		connector.destroy();
+	}
+
+	@Test
+	public void testFindSchool_whenPreloadFails_shouldCallApi() throws Exception {
+		final HttpClient mockClient = initializeMockSchoolClient(
+				schoolJson(expectedSchoolId, expectedSchoolOid, expectedParentOid, expectedOrganizationType));
+		final RestDataConnector connector = new RestDataConnector(initializeMockBuilder(mockClient));
+		connector.setId(expectedId);
+		connector.setSchoolPreloadFile("src/test/resources/not-existing.json");
+		connector.initialize();
+		Assert.assertEquals(connector.getSchoolDirectory().size(), 0);
+		Assert.assertEquals(connector.findSchool(expectedSchoolId, "http://localhost/").getName(), expectedSchoolName);
+		Mockito.verify(mockClient, Mockito.times(1)).executeOpen(Mockito.any(), Mockito.any(), Mockito.any());
+		connector.destroy();
+	}
+
+	@Test
+	public void testSchoolSnapshot_whenOlderThanTtl_shouldCallApi() throws Exception {
+		final Path snapshotFile = Files.createTempDirectory("snapshot").resolve("schools.bin");
+		SchoolSnapshot.write(snapshotFile, "http://localhost/", Arrays.asList(new SchoolSnapshot.Record(
+				new School(expectedSchoolId, "Old name", null, null),
+				System.currentTimeMillis() - RestDataConnector.DEFAULT_SCHOOL_CACHE_TTL.toMillis() - 1000)));
+		final HttpClient mockClient = initializeMockSchoolClient(
+				schoolJson(expectedSchoolId, expectedSchoolOid, expectedParentOid, expectedOrganizationType));
+		final RestDataConnector connector = new RestDataConnector(initializeMockBuilder(mockClient));
+		connector.setId(expectedId);
+		connector.setNameApiBaseUrl("http://localhost/");
+		connector.setSchoolSnapshotFile(snapshotFile.toString());
+		connector.setSchoolSnapshotInterval(Duration.ZERO);
+		connector.initialize();
+		Assert.assertEquals(connector.findSchool(expectedSchoolId, "http://localhost/").getName(), expectedSchoolName);
+		Mockito.verify(mockClient, Mockito.times(1)).executeOpen(Mockito.any(), Mockito.any(), Mockito.any());
+		connector.destroy();
+	}
+
+	@Test
+	public void testSchoolSnapshot_whenOlderThanTtlAndApiUnreachable_shouldServeExpired() throws Exception {
+		final Path snapshotFile = Files.createTempDirectory("snapshot").resolve("schools.bin");
+		SchoolSnapshot.write(snapshotFile, "http://localhost/", Arrays.asList(new SchoolSnapshot.Record(
+				new School(expectedSchoolId, "Old name", null, null), System.currentTimeMillis() - 86400000L)));
+		final HttpClient failingClient = Mockito.mock(HttpClient.class);
+		Mockito.doThrow(new IOException("mock")).when(failingClient).executeOpen(Mockito.any(),Mockito.any(),Mockito.any());
+		final RestDataConnector connector = new RestDataConnector(initializeMockBuilder(failingClient));
+		connector.setId(expectedId);
+		connector.setNameApiBaseUrl("http://localhost/");
+		connector.setSchoolSnapshotFile(snapshotFile.toString());
+		connector.setSchoolSnapshotInterval(Duration.ZERO);
+		connector.initialize();
+		Assert.assertEquals(connector.findSchool(expectedSchoolId, "http://localhost/").getName(), "Old name");
+		Mockito.verify(failingClient, Mockito.times(1)).executeOpen(Mockito.any(), Mockito.any(), Mockito.any());
+		connector.destroy();
+	}
+
+	@Test
+	public void testSchoolSnapshot_whenWrittenForOtherBaseUrl_shouldIgnore() throws Exception {
+		final Path snapshotFile = Files.createTempDirectory("snapshot").resolve("schools.bin");
+		SchoolSnapshot.write(snapshotFile, "http://test/", Arrays.asList(new SchoolSnapshot.Record(
+				new School(expectedSchoolId, "Test name", null, null), System.currentTimeMillis())));
+		final HttpClient failingClient = Mockito.mock(HttpClient.class);
+		Mockito.doThrow(new IOException("mock")).when(failingClient).executeOpen(Mockito.any(),Mockito.any(),Mockito.any());
+		final RestDataConnector connector = new RestDataConnector(initializeMockBuilder(failingClient));
+		connector.setId(expectedId);
+		connector.setNameApiBaseUrl("http://localhost/");
+		connector.setSchoolSnapshotFile(snapshotFile.toString());
+		connector.setSchoolSnapshotInterval(Duration.ZERO);
+		connector.initialize();
+		Assert.assertNull(connector.findSchool(expectedSchoolId, "http://localhost/"));
+		connector.destroy();
+		Assert.assertEquals(SchoolSnapshot.read(snapshotFile).getSchools().get(0).getName(), "Test name");
+	}
+
+	@Test
+	public void testSchoolSnapshot_whenRestarted_shouldServeWithoutApi() throws Exception {
+		final String snapshotFile = Files.createTempDirectory("snapshot").resolve("schools.bin").toString();
+		final HttpClient mockClient = initializeMockSchoolClient(
+				schoolJson(expectedSchoolId, expectedSchoolOid, expectedParentOid, expectedOrganizationType));
+		final RestDataConnector connector = new RestDataConnector(initializeMockBuilder(mockClient));
+		connector.setId(expectedId);
+		connector.setNameApiBaseUrl("http://localhost/");
+		connector.setSchoolSnapshotFile(snapshotFile);
+		connector.setSchoolSnapshotInterval(Duration.ZERO);
+		connector.initialize();
+		Assert.assertNotNull(connector.findSchool(expectedSchoolId, "http://localhost/"));
+		connector.destroy();
+
+		final HttpClient failingClient = Mockito.mock(HttpClient.class);
+		Mockito.doThrow(new IOException("mock")).when(failingClient).executeOpen(Mockito.any(),Mockito.any(),Mockito.any());
+		final RestDataConnector restarted = new RestDataConnector(initializeMockBuilder(failingClient));
+		restarted.setId(expectedId);
+		restarted.setNameApiBaseUrl("http://localhost/");
+		restarted.setSchoolSnapshotFile(snapshotFile);
+		restarted.initialize();
+		final School school = restarted.findSchool(expectedSchoolId, "http://localhost/");
+		Assert.assertNotNull(school);
+		Assert.assertEquals(school.getName(), expectedSchoolName);
+		Assert.assertEquals(school.getOid(), expectedSchoolOid);
+		Assert.assertEquals(restarted.findSchool(expectedSchoolOid, "http://localhost/").getId(), expectedSchoolId);
+		Mockito.verify(failingClient, Mockito.never()).executeOpen(Mockito.any(), Mockito.any(), Mockito.any());
+		restarted.destroy();
+	}
+
+	@Test
+	public void testFindSchool_whenStale_shouldServeStaleAndRefresh() throws Exception {
+		final AtomicReference<String> content = new AtomicReference<>(
+				schoolJson(expectedSchoolId, expectedSchoolOid, expectedParentOid, expectedOrganizationType));
+		final CountDownLatch release = new CountDownLatch(1);
+		final AtomicInteger calls = new AtomicInteger();
+		final HttpClient mockClient = Mockito.mock(HttpClient.class);
+		Mockito.when(mockClient.executeOpen(Mockito.any(), Mockito.any(), Mockito.any())).thenAnswer(invocation -> {
+			if (calls.incrementAndGet() > 1) {
+				release.await(5, TimeUnit.SECONDS);
+			}
+			final ClassicHttpResponse mockResponse = Mockito.mock(ClassicHttpResponse.class);
+			final HttpEntity mockEntity = Mockito.mock(HttpEntity.class);
+			Mockito.when(mockResponse.getCode()).thenReturn(200);
+			Mockito.when(mockResponse.getEntity()).thenReturn(mockEntity);
+			Mockito.when(mockEntity.getContent())
+					.thenReturn(new ByteArrayInputStream(content.get().getBytes(StandardCharsets.UTF_8)));
+			return mockResponse;
+		});
+		final RestDataConnector connector = new RestDataConnector(initializeMockBuilder(mockClient));
+		connector.setSchoolCacheTtl(Duration.ofMillis(50));
+		connector.setSchoolCacheMaxStaleness(Duration.ofMinutes(1));
+		Assert.assertEquals(connector.findSchool(expectedSchoolId, "http://localhost/").getParentOid(),
+				expectedParentOid);
+		content.set(schoolJson(expectedSchoolId, expectedSchoolOid, expectedParentOid2, expectedOrganizationType));
+		Thread.sleep(100);
+		Assert.assertEquals(connector.findSchool(expectedSchoolId, "http://localhost/").getParentOid(),
+				expectedParentOid);
+		Assert.assertEquals(connector.getSchoolCache().getStaleHitCount(), 1);
+		release.countDown();
+		final String cacheKey = "http://localhost/" + expectedSchoolId;
+		for (int i = 0; i < 500 && expectedParentOid.equals(
+				connector.getSchoolCache().getEntry(cacheKey).getValue().getParentOid()); i++) {
+			Thread.sleep(10);
+		}
+		Assert.assertEquals(connector.getSchoolCache().getEntry(cacheKey).getValue().getParentOid(),
+				expectedParentOid2);
+		Assert.assertEquals(calls.get(), 2);
+		connector.destroy();
+	}
+
+	@Test
+	public void testFindSchool_whenUnknown_shouldCacheNegativeResult() throws Exception {
+		final HttpClient mockClient = initializeMockSchoolClient("[]");
+		final RestDataConnector connector = new RestDataConnector(initializeMockBuilder(mockClient));
+		Assert.assertNull(connector.findSchool("99999", "http://localhost/"));
+		Assert.assertNull(connector.findSchool("99999", "http://localhost/"));
+		Assert.assertEquals(connector.getSchoolCache().getNegativeHitCount(), 1);
+		Assert.assertEquals(connector.getSchoolCache().getHitCount(), 0);
+		Mockito.verify(mockClient, Mockito.times(1)).executeOpen(Mockito.any(), Mockito.any(), Mockito.any());
+	}
+
+	@Test
+	public void testFindSchool_whenNegativeCacheDisabled_shouldCallApiEachTime() throws Exception {
+		final HttpClient mockClient = initializeMockSchoolClient("[]");
+		final RestDataConnector connector = new RestDataConnector(initializeMockBuilder(mockClient));
+		connector.setSchoolNegativeCacheTtl(Duration.ZERO);
+		Assert.assertNull(connector.findSchool("99999", "http://localhost/"));
+		Assert.assertNull(connector.findSchool("99999", "http://localhost/"));
+		Mockito.verify(mockClient, Mockito.times(2)).executeOpen(Mockito.any(), Mockito.any(), Mockito.any());
+	}
+
+	@Test
+	public void testFindSchool_whenRequestFails_shouldNotCacheResult() throws Exception {
+		final HttpClient mockClient = initializeMockSchoolClient("<html>Bad Gateway</html>");
+		final RestDataConnector connector = new RestDataConnector(initializeMockBuilder(mockClient));
+		Assert.assertNull(connector.findSchool("99999", "http://localhost/"));
+		Assert.assertNull(connector.findSchool("99999", "http://localhost/"));
+		Assert.assertEquals(connector.getSchoolCache().getNegativeHitCount(), 0);
+		Mockito.verify(mockClient, Mockito.times(2)).executeOpen(Mockito.any(), Mockito.any(), Mockito.any());
+	}
+
+	@Test
+	public void testParseResponse_whenWithinLimit_shouldParseFromStream() throws Exception {
+		final HttpEntity mockEntity = Mockito.mock(HttpEntity.class);
+		Mockito.when(mockEntity.getContent()).thenReturn(getUserObjectStream("teacher-1role-1attr.json"));
+		final RestDataConnector connector = new RestDataConnector();
+		final UserDTO user = connector.parseResponse(mockEntity, RestDataConnector.buildUserGson(), UserDTO.class);
+		Assert.assertNotNull(user);
+		Assert.assertEquals(user.getRoles().length, 1);
+	}
+
+	@Test(expectedExceptions = IOException.class)
+	public void testParseResponse_whenContentLengthTooLarge_shouldNotRead() throws Exception {
+		final HttpEntity mockEntity = Mockito.mock(HttpEntity.class);
+		Mockito.when(mockEntity.getContentLength()).thenReturn(2048L);
+		final RestDataConnector connector = new RestDataConnector();
+		connector.setMaxResponseSize(1024);
+		try {
+			connector.parseResponse(mockEntity, RestDataConnector.buildUserGson(), UserDTO.class);
+		} finally {
+			Mockito.verify(mockEntity, Mockito.never()).getContent();
+		}
+	}
+
+	@Test(expectedExceptions = IOException.class)
+	public void testParseResponse_whenStreamTooLarge_shouldAbort() throws Exception {
+		final HttpEntity mockEntity = Mockito.mock(HttpEntity.class);
+		Mockito.when(mockEntity.getContentLength()).thenReturn(-1L);
+		Mockito.when(mockEntity.getContent()).thenReturn(getUserObjectStream("teacher-1role-1attr.json"));
+		final RestDataConnector connector = new RestDataConnector();
+		connector.setMaxResponseSize(16);
+		connector.parseResponse(mockEntity, RestDataConnector.buildUserGson(), UserDTO.class);
+	}
+
+	@Test
+	public void testFindSchool_whenResponseTooLarge_shouldNotCacheResult() throws Exception {
+		final HttpClient mockClient = initializeMockSchoolClient(
+				schoolJson(expectedSchoolId, expectedSchoolOid, expectedParentOid, expectedOrganizationType));
+		final RestDataConnector connector = new RestDataConnector(initializeMockBuilder(mockClient));
+		connector.setMaxResponseSize(16);
+		Assert.assertNull(connector.findSchool(expectedSchoolId, "http://localhost/"));
+		Assert.assertNull(connector.findSchool(expectedSchoolId, "http://localhost/"));
+		Assert.assertEquals(connector.getSchoolCache().getNegativeHitCount(), 0);
+		Assert.assertEquals(connector.getNameApiPoolStatistics().getLeased(), 0);
+		Mockito.verify(mockClient, Mockito.times(2)).executeOpen(Mockito.any(), Mockito.any(), Mockito.any());
+	}
+
+	@Test
+	public void testGetUserDetailsViaRest_whenCached_shouldCallApiOnce() throws Exception {
+		final HttpClient mockClient = initializeMockSchoolClient(readUserJson("student-1role-1attr.json"));
+		final RestDataConnector connector = initializeUserCacheConnector(mockClient);
+		final UserDTO first = connector.getUserDetailsViaRest("idpIdValue", initializeWorkContext("authnId1"));
+		first.getRoles()[0].setSchool(expectedSchoolId2);
+		final UserDTO second = connector.getUserDetailsViaRest("idpIdValue", initializeWorkContext("authnId1"));
+		Assert.assertNotSame(first, second);
+		Assert.assertEquals(second.getUsername(), expectedOid);
+		Assert.assertEquals(second.getRoles()[0].getSchool(), expectedSchoolId);
+		Assert.assertEquals(connector.getUserCache().getHitCount(), 1);
+		Assert.assertNotNull(connector.getUserDetailsViaRest("idpIdValue", initializeWorkContext("authnId2")));
+		Assert.assertNotNull(connector.getUserDetailsViaRest("idpIdValue2", initializeWorkContext("authnId1")));
+		Mockito.verify(mockClient, Mockito.times(3)).executeOpen(Mockito.any(), Mockito.any(), Mockito.any());
+	}
+
+	@Test
+	public void testGetUserDetailsViaRest_whenIdpExcluded_shouldCallApiEachTime() throws Exception {
+		final HttpClient mockClient = initializeMockSchoolClient(readUserJson("student-1role-1attr.json"));
+		final RestDataConnector connector = initializeUserCacheConnector(mockClient);
+		connector.setUserCacheExcludedIdps(Collections.singleton("idpIdValue"));
+		Assert.assertNotNull(connector.getUserDetailsViaRest("idpIdValue", initializeWorkContext("authnId1")));
+		Assert.assertNotNull(connector.getUserDetailsViaRest("idpIdValue", initializeWorkContext("authnId1")));
+		Assert.assertEquals(connector.getUserCache().size(), 0);
+		Mockito.verify(mockClient, Mockito.times(2)).executeOpen(Mockito.any(), Mockito.any(), Mockito.any());
+	}
+
+	@Test
+	public void testGetUserDetailsViaRest_whenCacheDisabled_shouldCallApiEachTime() throws Exception {
+		final HttpClient mockClient = initializeMockSchoolClient(readUserJson("student-1role-1attr.json"));
+		final RestDataConnector connector = initializeUserCacheConnector(mockClient);
+		connector.setUserCacheTtl(Duration.ZERO);
+		Assert.assertNotNull(connector.getUserDetailsViaRest("idpIdValue", initializeWorkContext("authnId1")));
+		Assert.assertNotNull(connector.getUserDetailsViaRest("idpIdValue", initializeWorkContext("authnId1")));
+		Mockito.verify(mockClient, Mockito.times(2)).executeOpen(Mockito.any(), Mockito.any(), Mockito.any());
+	}
+
+	@Test
+	public void testGetUserCacheKey_shouldNotContainAuthnId() {
+		final RestDataConnector connector = new RestDataConnector();
+		Assert.assertNull(connector.getUserCacheKey("idpIdValue", "authnId1"));
+		connector.setUserCacheTtl(Duration.ofMinutes(1));
+		final String key = connector.getUserCacheKey("idpIdValue", "authnId1");
+		Assert.assertTrue(key.startsWith("idpIdValue|"));
+		Assert.assertFalse(key.contains("authnId1"));
+		Assert.assertNotEquals(connector.getUserCacheKey("idpIdValue", "authnId2"), key);
+	}
+
+	@Test
+	public void testResolve_whenResolvedAttributesCached_shouldResolveOnce() throws Exception {
+		final HttpClient mockClient = initializeMockSchoolClient(readUserJson("user-0role-0attr.json"));
+		final RestDataConnector connector = initializeUserCacheConnector(mockClient);
+		connector.setUserCacheTtl(Duration.ZERO);
+		connector.setResolvedAttributeCacheTtl(Duration.ofMinutes(1));
+		final AttributeResolutionContext context = initializeResolutionContext("authnId1");
+		final AttributeResolverWorkContext workContext = context.getSubcontext(AttributeResolverWorkContext.class,
+				false);
+		final Map<String, IdPAttribute> first = connector.doDataConnectorResolve(context, workContext);
+		Assert.assertEquals(first.size(), 3);
+		first.remove(expectedResultAttribute);
+		final Map<String, IdPAttribute> second = connector.doDataConnectorResolve(context, workContext);
+		Assert.assertEquals(second.size(), 3);
+		Assert.assertEquals(second.get(expectedResultAttribute).getValues().get(0).getNativeValue(), expectedOid);
+		Assert.assertEquals(connector.getResolvedAttributeCache().getHitCount(), 1);
+		Mockito.verify(mockClient, Mockito.times(1)).executeOpen(Mockito.any(), Mockito.any(), Mockito.any());
+		connector.setResultAttributePrefix("changed");
+		connector.doDataConnectorResolve(context, workContext);
+		Mockito.verify(mockClient, Mockito.times(2)).executeOpen(Mockito.any(), Mockito.any(), Mockito.any());
+	}
+
+	@Test
+	public void testResolve_whenUserNotFound_shouldNotCacheResolvedAttributes() throws Exception {
+		final HttpClient mockClient = Mockito.mock(HttpClient.class);
+		Mockito.doThrow(new IOException("mock")).when(mockClient).executeOpen(Mockito.any(), Mockito.any(),
+				Mockito.any());
+		final RestDataConnector connector = initializeUserCacheConnector(mockClient);
+		connector.setResolvedAttributeCacheTtl(Duration.ofMinutes(1));
+		final AttributeResolutionContext context = initializeResolutionContext("authnId1");
+		final AttributeResolverWorkContext workContext = context.getSubcontext(AttributeResolverWorkContext.class,
+				false);
+		Assert.assertTrue(connector.doDataConnectorResolve(context, workContext).isEmpty());
+		Assert.assertTrue(connector.doDataConnectorResolve(context, workContext).isEmpty());
+		Assert.assertEquals(connector.getResolvedAttributeCache().size(), 0);
+		Mockito.verify(mockClient, Mockito.times(2)).executeOpen(Mockito.any(), Mockito.any(), Mockito.any());
+	}
+
+	@Test
+	public void testResolve_whenNameApiBreakerOpen_shouldNotCacheResolvedAttributes() throws Exception {
+		final HttpClient mockClient = initializeMockSchoolClient(readUserJson("student-1role-1attr.json"));
+		final RestDataConnector connector = initializeUserCacheConnector(mockClient);
+		connector.setUserCacheTtl(Duration.ZERO);
+		connector.setResolvedAttributeCacheTtl(Duration.ofMinutes(1));
+		connector.setNameApiCircuitBreakerWindowSize(1);
+		connector.setNameApiCircuitBreakerFailureRateThreshold(50);
+		connector.getNameApiCircuitBreaker(connector.getNameApiBaseUrl()).onFailure();
+		final AttributeResolutionContext context = initializeResolutionContext("authnId1");
+		final AttributeResolverWorkContext workContext = context.getSubcontext(AttributeResolverWorkContext.class,
+				false);
+		Assert.assertFalse(connector.doDataConnectorResolve(context, workContext).isEmpty());
+		Assert.assertFalse(connector.doDataConnectorResolve(context, workContext).isEmpty());
+		Assert.assertEquals(connector.getResolvedAttributeCache().size(), 0);
+		Mockito.verify(mockClient, Mockito.times(2)).executeOpen(Mockito.any(), Mockito.any(), Mockito.any());
+	}
+
+	@Test
+	public void testGetResolvedAttributeCacheKey_whenPrincipalsDiffer_shouldDiffer() throws Exception {
+		final RestDataConnector connector = RestDataConnectorParserTest.initializeDataConnector("restdc-full.xml");
+		final String key = getResolvedAttributeCacheKey(connector, "uidValue");
+		Assert.assertTrue(key.startsWith("idpIdValue|"));
+		Assert.assertFalse(key.contains("uidValue"));
+		Assert.assertEquals(getResolvedAttributeCacheKey(connector, "uidValue"), key);
+		Assert.assertNotEquals(getResolvedAttributeCacheKey(connector, "uidValue2"), key);
+		connector.setSchoolRoleMappings(Collections.singletonMap("teacher", "Opettaja"));
+		Assert.assertNotEquals(getResolvedAttributeCacheKey(connector, "uidValue"), key);
+	}
+
+	@Test
+	public void testResolve_whenAsync_shouldResolveUserAndSchoolsWithoutBlockingClient() throws Exception {
+		final HttpClient mockClient = Mockito.mock(HttpClient.class);
+		final RestDataConnector connector = initializeAsyncConnector(mockClient);
+		final ConnectionPoolStatistics endpoint = connector.getEndpointPoolStatistics();
+		final ConnectionPoolStatistics nameApi = connector.getNameApiPoolStatistics();
+		Mockito.doReturn(asyncResponse(readUserJson("student-1role-1attr.json"))).when(connector)
+				.executeAsync(Mockito.any(), Mockito.same(endpoint));
+		Mockito.doAnswer(invocation -> asyncResponse(
+				schoolJson(expectedSchoolId, expectedSchoolOid, expectedParentOid, expectedOrganizationType)))
+				.when(connector).executeAsync(Mockito.any(), Mockito.same(nameApi));
+		final AttributeResolutionContext context = initializeResolutionContext("authnId1");
+		final AttributeResolverWorkContext workContext = context.getSubcontext(AttributeResolverWorkContext.class,
+				false);
+		for (int i = 0; i < 2; i++) {
+			final Map<String, IdPAttribute> attributes = connector.doDataConnectorResolve(context, workContext);
+			Assert.assertEquals(attributes.get(expectedResultAttribute).getValues().get(0).getNativeValue(),
+					expectedOid);
+			Assert.assertEquals(attributes.get(RestDataConnector.ATTR_ID_SCHOOLS).getValues().get(0)
+					.getNativeValue(), expectedSchoolName);
+		}
+		Mockito.verify(connector, Mockito.times(2)).executeAsync(Mockito.any(), Mockito.same(endpoint));
+		Mockito.verify(connector, Mockito.times(1)).executeAsync(Mockito.any(), Mockito.same(nameApi));
+		Mockito.verifyNoInteractions(mockClient);
+	}
+
+	@Test
+	public void testResolve_whenAsyncDeadlinePasses_shouldUseRawSchoolCodes() throws Exception {
+		final HttpClient mockClient = Mockito.mock(HttpClient.class);
+		final RestDataConnector connector = initializeAsyncConnector(mockClient);
+		final ConnectionPoolStatistics endpoint = connector.getEndpointPoolStatistics();
+		final ConnectionPoolStatistics nameApi = connector.getNameApiPoolStatistics();
+		connector.setResolutionTimeout(Duration.ofMillis(100));
+		Mockito.doReturn(asyncResponse(readUserJson("student-1role-1attr.json"))).when(connector)
+				.executeAsync(Mockito.any(), Mockito.same(endpoint));
+		Mockito.doReturn(new CompletableFuture<SimpleHttpResponse>()).when(connector)
+				.executeAsync(Mockito.any(), Mockito.same(nameApi));
+		final AttributeResolutionContext context = initializeResolutionContext("authnId1");
+		final Map<String, IdPAttribute> attributes = connector.doDataConnectorResolve(context,
+				context.getSubcontext(AttributeResolverWorkContext.class, false));
+		Assert.assertEquals(attributes.get(expectedResultAttribute).getValues().get(0).getNativeValue(), expectedOid);
+		Assert.assertEquals(attributes.get(RestDataConnector.ATTR_ID_SCHOOL_IDS).getValues().get(0)
+				.getNativeValue(), expectedSchoolId);
+		Assert.assertNull(attributes.get(RestDataConnector.ATTR_ID_SCHOOLS));
+		Mockito.verifyNoInteractions(mockClient);
+	}
+
+	@Test
+	public void testResolve_whenAsyncUserRequestFails_shouldReturnNoAttributes() throws Exception {
+		final HttpClient mockClient = Mockito.mock(HttpClient.class);
+		final RestDataConnector connector = initializeAsyncConnector(mockClient);
+		final ConnectionPoolStatistics nameApi = connector.getNameApiPoolStatistics();
+		final CompletableFuture<SimpleHttpResponse> failed = new CompletableFuture<>();
+		failed.completeExceptionally(new IOException("mock"));
+		Mockito.doReturn(failed).when(connector).executeAsync(Mockito.any(), Mockito.any());
+		final AttributeResolutionContext context = initializeResolutionContext("authnId1");
+		Assert.assertTrue(connector.doDataConnectorResolve(context,
+				context.getSubcontext(AttributeResolverWorkContext.class, false)).isEmpty());
+		Mockito.verify(connector, Mockito.never()).executeAsync(Mockito.any(), Mockito.same(nameApi));
+	}
+
+	@Test
+	public void testFindSchoolAsync_whenConcurrent_shouldShareRequest() throws Exception {
+		final RestDataConnector connector = Mockito.spy(new RestDataConnector());
+		final CompletableFuture<SimpleHttpResponse> response = new CompletableFuture<>();
+		Mockito.doReturn(response).when(connector).executeAsync(Mockito.any(), Mockito.any());
+		final CompletableFuture<School> first = connector.findSchoolAsync(expectedSchoolId, "http://localhost/");
+		final CompletableFuture<School> second = connector.findSchoolAsync(expectedSchoolId, "http://localhost/");
+		Assert.assertFalse(first.isDone());
+		response.complete(SimpleHttpResponse.create(200,
+				schoolJson(expectedSchoolId, expectedSchoolOid, expectedParentOid, expectedOrganizationType),
+				ContentType.APPLICATION_JSON));
+		Assert.assertEquals(first.get().getName(), expectedSchoolName);
+		Assert.assertNotSame(first.get(), second.get());
+		Assert.assertEquals(connector.findSchool(expectedSchoolId, "http://localhost/").getName(),
+				expectedSchoolName);
+		Mockito.verify(connector, Mockito.times(1)).executeAsync(Mockito.any(), Mockito.any());
+		Assert.assertNull(connector.findSchoolAsync("not-a-school", "http://localhost/").get());
+	}
+
+	@Test
+	public void testResolve_whenSeveralSchools_shouldLookThemUpConcurrentlyInRoleOrder() throws Exception {
+		final HttpClient mockClient = initializeMockSchoolClient(readUserJson("teacher-2role-2attr.json"));
+		final RestDataConnector connector = Mockito.spy(initializeUserCacheConnector(mockClient));
+		final CountDownLatch bothStarted = new CountDownLatch(2);
+		final AtomicInteger sequentialLookups = new AtomicInteger();
+		Mockito.doAnswer(invocation -> {
+			final String schoolId = invocation.getArgument(0);
+			bothStarted.countDown();
+			if (!bothStarted.await(1, TimeUnit.SECONDS)) {
+				sequentialLookups.incrementAndGet();
+			}
+			if (expectedSchoolId.equals(schoolId)) {
+				// the first school completes last
+				Thread.sleep(100);
+			}
+			return new School(schoolId, "School " + schoolId, expectedParentOid, expectedParentName);
+		}).when(connector).findSchool(Mockito.anyString(), Mockito.anyString());
+		final AttributeResolutionContext context = initializeResolutionContext("authnId1");
+		final Map<String, IdPAttribute> attributes = connector.doDataConnectorResolve(context,
+				context.getSubcontext(AttributeResolverWorkContext.class, false));
+		Assert.assertEquals(sequentialLookups.get(), 0);
+		final List<IdPAttributeValue> schools = attributes.get(RestDataConnector.ATTR_ID_SCHOOLS).getValues();
+		Assert.assertEquals(schools.size(), 2);
+		Assert.assertEquals(schools.get(0).getNativeValue(), "School " + expectedSchoolId);
+		Assert.assertEquals(schools.get(1).getNativeValue(), "School " + expectedSchoolId2);
+	}
+
+	@Test
+	public void testResolve_whenOfficeAmongSchools_shouldLookUpParentInSecondWave() throws Exception {
+		final HttpClient mockClient = initializeMockSchoolClient(readUserJson("teacher-2role-2attr.json"));
+		final RestDataConnector connector = Mockito.spy(initializeUserCacheConnector(mockClient));
+		connector.setOfficeTypes(Collections.singleton("organisaatiotyyppi_08"));
+		final Set<String> lookupThreads = ConcurrentHashMap.newKeySet();
+		Mockito.doAnswer(invocation -> {
+			final String schoolId = invocation.getArgument(0);
+			if (expectedSchoolOid2.equals(schoolId)) {
+				lookupThreads.add(Thread.currentThread().getName());
+				return new School(expectedSchoolId2, expectedSchoolName2, expectedSchoolOid2, expectedParentOid2,
+						expectedParentName2);
+			}
+			if (expectedSchoolId2.equals(schoolId)) {
+				return new School(expectedOfficeOid, expectedOfficeName, expectedOfficeOid, null, null,
+						expectedSchoolOid2, expectedSchoolName2, "organisaatiotyyppi_08");
+			}
+			return new School(schoolId, expectedSchoolName, expectedParentOid, expectedParentName);
+		}).when(connector).findSchool(Mockito.anyString(), Mockito.anyString());
+		final AttributeResolutionContext context = initializeResolutionContext("authnId1");
+		final Map<String, IdPAttribute> attributes = connector.doDataConnectorResolve(context,
+				context.getSubcontext(AttributeResolverWorkContext.class, false));
+		Assert.assertTrue(lookupThreads.stream().anyMatch(name -> name.startsWith("school-lookup-")));
+		final List<IdPAttributeValue> schools = attributes.get(RestDataConnector.ATTR_ID_SCHOOLS).getValues();
+		Assert.assertEquals(schools.get(0).getNativeValue(), expectedSchoolName);
+		Assert.assertEquals(schools.get(1).getNativeValue(), expectedSchoolName2);
+	}
+
+	@Test
+	public void testResolve_whenSchoolLookupConcurrencyZero_shouldLookUpInResolvingThread() throws Exception {
+		final HttpClient mockClient = initializeMockSchoolClient(readUserJson("teacher-2role-2attr.json"));
+		final RestDataConnector connector = Mockito.spy(initializeUserCacheConnector(mockClient));
+		connector.setSchoolLookupMaxConcurrency(0);
+		final Set<String> lookupThreads = ConcurrentHashMap.newKeySet();
+		Mockito.doAnswer(invocation -> {
+			lookupThreads.add(Thread.currentThread().getName());
+			return null;
+		}).when(connector).findSchool(Mockito.anyString(), Mockito.anyString());
+		final AttributeResolutionContext context = initializeResolutionContext("authnId1");
+		final Map<String, IdPAttribute> attributes = connector.doDataConnectorResolve(context,
+				context.getSubcontext(AttributeResolverWorkContext.class, false));
+		Assert.assertEquals(lookupThreads, Collections.singleton(Thread.currentThread().getName()));
+		Assert.assertEquals(attributes.get(RestDataConnector.ATTR_ID_SCHOOL_IDS).getValues().size(), 2);
+	}
+
+	@Test
+	public void testResolve_whenDeadlinePasses_shouldUseRawSchoolCodes() throws Exception {
+		final HttpClient mockClient = initializeMockSchoolClient(readUserJson("teacher-2role-2attr.json"));
+		final RestDataConnector connector = Mockito.spy(initializeUserCacheConnector(mockClient));
+		connector.setSchoolLookupMaxConcurrency(0);
+		connector.setResolutionTimeout(Duration.ofMillis(200));
+		Mockito.doAnswer(invocation -> {
+			Thread.sleep(300);
+			return new School(expectedSchoolId, expectedSchoolName, expectedParentOid, expectedParentName);
+		}).when(connector).fetchSchool(Mockito.anyString(), Mockito.anyString());
+		final AttributeResolutionContext context = initializeResolutionContext("authnId1");
+		final Map<String, IdPAttribute> attributes = connector.doDataConnectorResolve(context,
+				context.getSubcontext(AttributeResolverWorkContext.class, false));
+		Mockito.verify(connector, Mockito.times(1)).fetchSchool(Mockito.anyString(), Mockito.anyString());
+		final List<IdPAttributeValue> schoolIds = attributes.get(RestDataConnector.ATTR_ID_SCHOOL_IDS).getValues();
+		Assert.assertEquals(schoolIds.size(), 2);
+		Assert.assertEquals(schoolIds.get(1).getNativeValue(), expectedSchoolId2);
+		Assert.assertEquals(attributes.get(RestDataConnector.ATTR_ID_SCHOOLS).getValues().size(), 1);
+		// the school not looked up within the deadline is not cached as unknown
+		Assert.assertNull(connector.getSchoolCache().getEntry(connector.getNameApiBaseUrl() + expectedSchoolId2));
+	}
+
+	@Test
+	public void testResolve_shouldPassRemainingBudgetAsTimeouts() throws Exception {
+		final String userJson = readUserJson("teacher-2role-2attr.json");
+		final List<RequestConfig> configs = new ArrayList<>();
+		final HttpClient mockClient = Mockito.mock(HttpClient.class);
+		Mockito.when(mockClient.executeOpen(Mockito.any(), Mockito.any(), Mockito.any())).thenAnswer(invocation -> {
+			configs.add(((HttpClientContext) invocation.getArgument(2)).getRequestConfig());
+			final ClassicHttpResponse mockResponse = Mockito.mock(ClassicHttpResponse.class);
+			final HttpEntity mockEntity = Mockito.mock(HttpEntity.class);
+			Mockito.when(mockResponse.getCode()).thenReturn(200);
+			Mockito.when(mockResponse.getEntity()).thenReturn(mockEntity);
+			Mockito.when(mockEntity.getContent())
+					.thenReturn(new ByteArrayInputStream(userJson.getBytes(StandardCharsets.UTF_8)));
+			return mockResponse;
+		});
+		final RestDataConnector connector = Mockito.spy(initializeUserCacheConnector(mockClient));
+		connector.setUserCacheTtl(Duration.ZERO);
+		connector.setResolutionTimeout(Duration.ofSeconds(2));
+		Mockito.doReturn(null).when(connector).findSchool(Mockito.anyString(), Mockito.anyString());
+		final AttributeResolutionContext context = initializeResolutionContext("authnId1");
+		connector.doDataConnectorResolve(context, context.getSubcontext(AttributeResolverWorkContext.class, false));
+		Assert.assertEquals(configs.size(), 1);
+		final long responseTimeout = configs.get(0).getResponseTimeout().toMilliseconds();
+		Assert.assertTrue(responseTimeout > 0 && responseTimeout <= 2000);
+		Assert.assertEquals(configs.get(0).getConnectionRequestTimeout().toMilliseconds(), responseTimeout);
+		// outside a resolution the timeouts of the client are used
+		connector.getUserDetailsViaRest(expectedIdpId, initializeWorkContext("authnId1"));
+		Assert.assertEquals(configs.size(), 2);
+		Assert.assertNull(configs.get(1).getResponseTimeout());
+	}
+
+	@Test
+	public void testResolve_whenResolutionTimeoutNotSet_shouldUseClientTimeouts() throws Exception {
+		final String userJson = readUserJson("user-0role-0attr.json");
+		final List<RequestConfig> configs = new ArrayList<>();
+		final HttpClient mockClient = Mockito.mock(HttpClient.class);
+		Mockito.when(mockClient.executeOpen(Mockito.any(), Mockito.any(), Mockito.any())).thenAnswer(invocation -> {
+			configs.add(((HttpClientContext) invocation.getArgument(2)).getRequestConfig());
+			final ClassicHttpResponse mockResponse = Mockito.mock(ClassicHttpResponse.class);
+			final HttpEntity mockEntity = Mockito.mock(HttpEntity.class);
+			Mockito.when(mockResponse.getCode()).thenReturn(200);
+			Mockito.when(mockResponse.getEntity()).thenReturn(mockEntity);
+			Mockito.when(mockEntity.getContent())
+					.thenReturn(new ByteArrayInputStream(userJson.getBytes(StandardCharsets.UTF_8)));
+			return mockResponse;
+		});
+		final RestDataConnector connector = initializeUserCacheConnector(mockClient);
+		connector.setUserCacheTtl(Duration.ZERO);
+		Assert.assertEquals(connector.getResolutionTimeout(), Duration.ZERO);
+		final AttributeResolutionContext context = initializeResolutionContext("authnId1");
+		connector.doDataConnectorResolve(context, context.getSubcontext(AttributeResolverWorkContext.class, false));
+		Assert.assertEquals(configs.size(), 1);
+		Assert.assertNull(configs.get(0).getResponseTimeout());
+	}
+
+	@Test
+	public void testResolve_whenClientTimeoutsShorter_shouldKeepThem() throws Exception {
+		final String userJson = readUserJson("user-0role-0attr.json");
+		final List<RequestConfig> configs = new ArrayList<>();
+		final HttpClient mockClient = Mockito.mock(HttpClient.class);
+		Mockito.when(mockClient.executeOpen(Mockito.any(), Mockito.any(), Mockito.any())).thenAnswer(invocation -> {
+			configs.add(((HttpClientContext) invocation.getArgument(2)).getRequestConfig());
+			final ClassicHttpResponse mockResponse = Mockito.mock(ClassicHttpResponse.class);
+			final HttpEntity mockEntity = Mockito.mock(HttpEntity.class);
+			Mockito.when(mockResponse.getCode()).thenReturn(200);
+			Mockito.when(mockResponse.getEntity()).thenReturn(mockEntity);
+			Mockito.when(mockEntity.getContent())
+					.thenReturn(new ByteArrayInputStream(userJson.getBytes(StandardCharsets.UTF_8)));
+			return mockResponse;
+		});
+		final HttpClientBuilder clientBuilder = initializeMockBuilder(mockClient);
+		Mockito.when(clientBuilder.getSocketTimeout()).thenReturn(Duration.ofMillis(100));
+		Mockito.when(clientBuilder.getConnectionTimeout()).thenReturn(Duration.ofMinutes(1));
+		Mockito.when(clientBuilder.isHttpFollowRedirects()).thenReturn(true);
+		final RestDataConnector connector = initializeUserCacheConnector(mockClient);
+		connector.setHttpClientBuilder(clientBuilder);
+		connector.setUserCacheTtl(Duration.ZERO);
+		connector.setResolutionTimeout(Duration.ofSeconds(2));
+		final AttributeResolutionContext context = initializeResolutionContext("authnId1");
+		connector.doDataConnectorResolve(context, context.getSubcontext(AttributeResolverWorkContext.class, false));
+		Assert.assertEquals(configs.size(), 1);
+		Assert.assertEquals(configs.get(0).getResponseTimeout().toMilliseconds(), 100);
+		final long connectTimeout = configs.get(0).getConnectTimeout().toMilliseconds();
+		Assert.assertTrue(connectTimeout > 0 && connectTimeout <= 2000);
+		Assert.assertTrue(configs.get(0).isRedirectsEnabled());
+	}
+
+	@Test
+	public void testFindSchool_whenNameApiFails_shouldOpenBreakerAndUseExpiredCache() throws Exception {
+		final RestDataConnector connector = Mockito.spy(new RestDataConnector());
+		connector.setNameApiCircuitBreakerWindowSize(2);
+		connector.setNameApiCircuitBreakerFailureRateThreshold(50);
+		Mockito.doThrow(new IOException("mock")).when(connector).fetchSchool(Mockito.anyString(), Mockito.anyString());
+		final String baseUrl = "http://localhost/";
+		connector.getSchoolCache().put(baseUrl + expectedSchoolId,
+				new School(expectedSchoolId, expectedSchoolName, expectedParentOid, expectedParentName),
+				Duration.ofMillis(1));
+		Thread.sleep(5);
+		Assert.assertNull(connector.findSchool("11111", baseUrl));
+		Assert.assertNull(connector.findSchool("22222", baseUrl));
+		final CircuitBreaker breaker = connector.getNameApiCircuitBreaker(baseUrl);
+		Assert.assertEquals(breaker.getState(), CircuitBreaker.State.OPEN);
+		Assert.assertEquals(connector.findSchool(expectedSchoolId, baseUrl).getName(), expectedSchoolName);
+		Assert.assertNull(connector.findSchool("33333", baseUrl));
+		Mockito.verify(connector, Mockito.times(2)).fetchSchool(Mockito.anyString(), Mockito.anyString());
+		Assert.assertEquals(breaker.getRejectedCount(), 2);
+		Assert.assertEquals(connector.getNameApiCircuitBreaker("http://other/").getState(),
+				CircuitBreaker.State.CLOSED);
+	}
+
+	@Test
+	public void testFindSchool_whenBudgetExhausted_shouldNotCountAsFailure() throws Exception {
+		final RestDataConnector connector = Mockito.spy(new RestDataConnector());
+		connector.setNameApiCircuitBreakerWindowSize(1);
+		connector.setNameApiCircuitBreakerFailureRateThreshold(50);
+		Mockito.doThrow(new RestDataConnector.BudgetExhaustedException("mock")).when(connector)
+				.fetchSchool(Mockito.anyString(), Mockito.anyString());
+		final String baseUrl = "http://localhost/";
+		Assert.assertNull(connector.findSchool(expectedSchoolId, baseUrl));
+		Assert.assertEquals(connector.getNameApiCircuitBreaker(baseUrl).getState(), CircuitBreaker.State.CLOSED);
+		Assert.assertNull(connector.getSchoolCache().getEntry(baseUrl + expectedSchoolId));
+	}
+
+	@Test
+	public void testResolve_whenSharedLookupRunsOutOfOtherBudget_shouldLookUpAgain() throws Exception {
+		final HttpClient mockClient = initializeMockSchoolClient(readUserJson("student-1role-1attr.json"));
+		final RestDataConnector connector = Mockito.spy(initializeUserCacheConnector(mockClient));
+		connector.setResolutionTimeout(Duration.ofSeconds(2));
+		connector.setNameApiCircuitBreakerFailureRateThreshold(50);
+		final CountDownLatch started = new CountDownLatch(1);
+		final AtomicInteger calls = new AtomicInteger();
+		Mockito.doAnswer(invocation -> {
+			if (calls.incrementAndGet() == 1) {
+				started.countDown();
+				Thread.sleep(300);
+				throw new RestDataConnector.BudgetExhaustedException("mock");
+			}
+			return new School(expectedSchoolId, expectedSchoolName, expectedParentOid, expectedParentName);
+		}).when(connector).fetchSchool(Mockito.anyString(), Mockito.anyString());
+		final Thread other = new Thread(() -> connector.findSchool(expectedSchoolId, connector.getNameApiBaseUrl()));
+		other.start();
+		Assert.assertTrue(started.await(1, TimeUnit.SECONDS));
+		final AttributeResolutionContext context = initializeResolutionContext("authnId1");
+		final Map<String, IdPAttribute> attributes = connector.doDataConnectorResolve(context,
+				context.getSubcontext(AttributeResolverWorkContext.class, false));
+		other.join();
+		Assert.assertEquals(attributes.get(RestDataConnector.ATTR_ID_SCHOOLS).getValues().size(), 1);
+		Mockito.verify(connector, Mockito.times(2)).fetchSchool(Mockito.anyString(), Mockito.anyString());
+		Assert.assertEquals(connector.getNameApiCircuitBreaker(connector.getNameApiBaseUrl()).getState(),
+				CircuitBreaker.State.CLOSED);
+	}
+
+	@Test
+	public void testFindSchoolAsync_whenBreakerOpen_shouldNotCallNameApi() throws Exception {
+		final RestDataConnector connector = Mockito.spy(new RestDataConnector());
+		connector.setNameApiCircuitBreakerWindowSize(1);
+		connector.setNameApiCircuitBreakerFailureRateThreshold(50);
+		final String baseUrl = "http://localhost/";
+		connector.getNameApiCircuitBreaker(baseUrl).onFailure();
+		Assert.assertNull(connector.findSchoolAsync(expectedSchoolId, baseUrl).get(1, TimeUnit.SECONDS));
+		Mockito.verify(connector, Mockito.never()).executeAsync(Mockito.any(), Mockito.any());
+		Assert.assertNull(connector.getSchoolCache().getEntry(baseUrl + expectedSchoolId));
+	}
+
+	@Test
+	public void testResolve_whenVirtualMode_shouldReleaseHostPermits() throws Exception {
+		final HttpClient mockClient = initializeMockSchoolClient(readUserJson("teacher-2role-2attr.json"));
+		final RestDataConnector connector = Mockito.spy(initializeUserCacheConnector(mockClient));
+		connector.setUpstreamExecutionMode("Virtual");
+		connector.setUpstreamMaxConcurrencyPerHost(1);
+		Mockito.doReturn(null).when(connector).findSchool(Mockito.anyString(), Mockito.anyString());
+		final AttributeResolutionContext context = initializeResolutionContext("authnId1");
+		final Map<String, IdPAttribute> attributes = connector.doDataConnectorResolve(context,
+				context.getSubcontext(AttributeResolverWorkContext.class, false));
+		Assert.assertEquals(attributes.get(RestDataConnector.ATTR_ID_SCHOOL_IDS).getValues().size(), 2);
+		Assert.assertEquals(connector.getUpstreamExecutionMode(), RestDataConnector.EXECUTION_MODE_VIRTUAL);
+		Assert.assertEquals(connector.getHostConcurrencyLimiter().getActiveCount("http://localhost/user"), 0);
+		Assert.assertEquals(connector.getHostConcurrencyLimiter().getRejectedCount(), 0);
+	}
+
+	@Test
+	public void testGetUserDetails_whenVirtualModeAndHostBusy_shouldNotCallRestApi() throws Exception {
+		final HttpClient mockClient = initializeMockSchoolClient(readUserJson("teacher-2role-2attr.json"));
+		final RestDataConnector connector = initializeUserCacheConnector(mockClient);
+		connector.setUserCacheTtl(Duration.ZERO);
+		connector.setUpstreamExecutionMode(RestDataConnector.EXECUTION_MODE_VIRTUAL);
+		connector.setUpstreamMaxConcurrencyPerHost(1);
+		connector.setResolutionTimeout(Duration.ofMillis(50));
+		final HostConcurrencyLimiter limiter = connector.getHostConcurrencyLimiter();
+		final Semaphore busy = limiter.acquire("http://localhost/other", Duration.ZERO);
+		try {
+			Assert.assertNull(connector.getUserDetailsViaRest(expectedIdpId, initializeWorkContext("authnId1")));
+		} finally {
+			busy.release();
+		}
+		Mockito.verifyNoInteractions(mockClient);
+		Assert.assertEquals(limiter.getRejectedCount(), 1);
+		Assert.assertNotNull(connector.getUserDetailsViaRest(expectedIdpId, initializeWorkContext("authnId1")));
+	}
+
+	@Test
+	public void testGetSchoolLookupExecutor_whenVirtualMode_shouldRunLookups() throws Exception {
+		final RestDataConnector connector = initializeUserCacheConnector(Mockito.mock(HttpClient.class));
+		connector.setUpstreamExecutionMode(RestDataConnector.EXECUTION_MODE_VIRTUAL);
+		final ExecutorService executor = connector.getSchoolLookupExecutor();
+		try {
+			Assert.assertEquals(executor.submit(() -> "done").get(5, TimeUnit.SECONDS), "done");
+			if (RestDataConnector.newVirtualThreadPerTaskExecutor() == null) {
+				Assert.assertTrue(executor instanceof ThreadPoolExecutor);
+			}
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+
+	@Test(expectedExceptions = ConstraintViolationException.class)
+	public void testSetUpstreamExecutionMode_whenUnknown_shouldFail() {
+		new RestDataConnector().setUpstreamExecutionMode("carrier-pigeon");
+	}
+
+	@Test
+	public void testGetUserDetailsViaRest_whenRestApiFails_shouldOpenBreakerAndServeLastKnownUser() throws Exception {
+		final String userJson = readUserJson("student-1role-1attr.json");
+		final HttpClient mockClient = Mockito.mock(HttpClient.class);
+		final AtomicInteger calls = new AtomicInteger();
+		Mockito.when(mockClient.executeOpen(Mockito.any(), Mockito.any(), Mockito.any())).thenAnswer(invocation -> {
+			if (calls.incrementAndGet() > 1) {
+				throw new IOException("mock");
+			}
+			final ClassicHttpResponse mockResponse = Mockito.mock(ClassicHttpResponse.class);
+			final HttpEntity mockEntity = Mockito.mock(HttpEntity.class);
+			Mockito.when(mockResponse.getCode()).thenReturn(200);
+			Mockito.when(mockResponse.getEntity()).thenReturn(mockEntity);
+			Mockito.when(mockEntity.getContent())
+					.thenReturn(new ByteArrayInputStream(userJson.getBytes(StandardCharsets.UTF_8)));
+			return mockResponse;
+		});
+		final RestDataConnector connector = initializeUserCacheConnector(mockClient);
+		connector.setUserCacheTtl(Duration.ZERO);
+		connector.setLastKnownUserCacheTtl(Duration.ofHours(1));
+		connector.setEndpointCircuitBreakerFailureRateThreshold(50);
+		connector.setEndpointCircuitBreakerWindowSize(2);
+		final UserDTO fetched = connector.getUserDetailsViaRest("idpIdValue", initializeWorkContext("authnId1"));
+		fetched.getRoles()[0].setSchool(expectedSchoolId2);
+		final UserDTO lastKnown = connector.getUserDetailsViaRest("idpIdValue", initializeWorkContext("authnId1"));
+		Assert.assertEquals(lastKnown.getUsername(), expectedOid);
+		Assert.assertEquals(lastKnown.getRoles()[0].getSchool(), expectedSchoolId);
+		final CircuitBreaker breaker = connector.getEndpointCircuitBreaker();
+		Assert.assertEquals(breaker.getState(), CircuitBreaker.State.OPEN);
+		Assert.assertEquals(connector.getUserDetailsViaRest("idpIdValue", initializeWorkContext("authnId1"))
+				.getUsername(), expectedOid);
+		Assert.assertNull(connector.getUserDetailsViaRest("idpIdValue", initializeWorkContext("authnId2")));
+		Assert.assertEquals(breaker.getRejectedCount(), 2);
+		Mockito.verify(mockClient, Mockito.times(2)).executeOpen(Mockito.any(), Mockito.any(), Mockito.any());
+	}
+
+	@Test
+	public void testResolve_whenDeadlinePassesDuringUserCall_shouldServeLastKnownUserWithoutFailure()
+			throws Exception {
+		final String userJson = readUserJson("user-0role-0attr.json");
+		final HttpClient mockClient = Mockito.mock(HttpClient.class);
+		final AtomicInteger calls = new AtomicInteger();
+		Mockito.when(mockClient.executeOpen(Mockito.any(), Mockito.any(), Mockito.any())).thenAnswer(invocation -> {
+			if (calls.incrementAndGet() > 1) {
+				Thread.sleep(100);
+				throw new IOException("mock timeout");
+			}
+			final ClassicHttpResponse mockResponse = Mockito.mock(ClassicHttpResponse.class);
+			final HttpEntity mockEntity = Mockito.mock(HttpEntity.class);
+			Mockito.when(mockResponse.getCode()).thenReturn(200);
+			Mockito.when(mockResponse.getEntity()).thenReturn(mockEntity);
+			Mockito.when(mockEntity.getContent())
+					.thenReturn(new ByteArrayInputStream(userJson.getBytes(StandardCharsets.UTF_8)));
+			return mockResponse;
+		});
+		final RestDataConnector connector = initializeUserCacheConnector(mockClient);
+		connector.setUserCacheTtl(Duration.ZERO);
+		connector.setLastKnownUserCacheTtl(Duration.ofHours(1));
+		connector.setEndpointCircuitBreakerFailureRateThreshold(50);
+		connector.setEndpointCircuitBreakerWindowSize(1);
+		connector.setResolutionTimeout(Duration.ofMillis(50));
+		Assert.assertNotNull(connector.getUserDetailsViaRest("idpIdValue", initializeWorkContext("authnId1")));
+		final AttributeResolutionContext context = initializeResolutionContext("authnId1");
+		final Map<String, IdPAttribute> attributes = connector.doDataConnectorResolve(context,
+				context.getSubcontext(AttributeResolverWorkContext.class, false));
+		Assert.assertEquals(attributes.get(expectedResultAttribute).getValues().get(0).getNativeValue(), expectedOid);
+		Assert.assertEquals(connector.getEndpointCircuitBreaker().getState(), CircuitBreaker.State.CLOSED);
+		Mockito.verify(mockClient, Mockito.times(2)).executeOpen(Mockito.any(), Mockito.any(), Mockito.any());
+	}
+
+	@Test
+	public void testGetNameApiCircuitBreaker_whenDefault_shouldNeverOpen() {
+		final CircuitBreaker breaker = new RestDataConnector().getNameApiCircuitBreaker("http://localhost/");
+		for (int i = 0; i < RestDataConnector.DEFAULT_CIRCUIT_BREAKER_WINDOW_SIZE * 2; i++) {
+			Assert.assertTrue(breaker.tryAcquire());
+			breaker.onFailure();
+		}
+		Assert.assertEquals(breaker.getState(), CircuitBreaker.State.CLOSED);
+	}
+
+	@Test
+	public void testGetEndpointCircuitBreaker_whenDefault_shouldNeverOpen() {
+		final CircuitBreaker breaker = new RestDataConnector().getEndpointCircuitBreaker();
+		for (int i = 0; i < RestDataConnector.DEFAULT_CIRCUIT_BREAKER_WINDOW_SIZE * 2; i++) {
+			Assert.assertTrue(breaker.tryAcquire());
+			breaker.onFailure();
+		}
+		Assert.assertEquals(breaker.getState(), CircuitBreaker.State.CLOSED);
+	}
+
+	@Test
+	public void testGetUserDetailsViaRest_whenServerError_shouldCountAsFailure() throws Exception {
+		final HttpClient mockClient = Mockito.mock(HttpClient.class);
+		final AtomicInteger status = new AtomicInteger(404);
+		Mockito.when(mockClient.executeOpen(Mockito.any(), Mockito.any(), Mockito.any())).thenAnswer(invocation -> {
+			final ClassicHttpResponse mockResponse = Mockito.mock(ClassicHttpResponse.class);
+			Mockito.when(mockResponse.getCode()).thenReturn(status.get());
+			return mockResponse;
+		});
+		final RestDataConnector connector = initializeUserCacheConnector(mockClient);
+		connector.setEndpointCircuitBreakerFailureRateThreshold(50);
+		connector.setEndpointCircuitBreakerWindowSize(1);
+		Assert.assertNull(connector.getUserDetailsViaRest("idpIdValue", initializeWorkContext("authnId1")));
+		Assert.assertEquals(connector.getEndpointCircuitBreaker().getState(), CircuitBreaker.State.CLOSED);
+		status.set(503);
+		Assert.assertNull(connector.getUserDetailsViaRest("idpIdValue", initializeWorkContext("authnId1")));
+		Assert.assertEquals(connector.getEndpointCircuitBreaker().getState(), CircuitBreaker.State.OPEN);
+		Assert.assertNull(connector.getUserDetailsViaRest("idpIdValue", initializeWorkContext("authnId1")));
+		Mockito.verify(mockClient, Mockito.times(2)).executeOpen(Mockito.any(), Mockito.any(), Mockito.any());
+	}
+
+	@Test
+	public void testResolve_whenAsyncUserRequestFails_shouldServeLastKnownUser() throws Exception {
+		final HttpClient mockClient = Mockito.mock(HttpClient.class);
+		final RestDataConnector connector = initializeAsyncConnector(mockClient);
+		connector.setLastKnownUserCacheTtl(Duration.ofHours(1));
+		connector.setEndpointCircuitBreakerFailureRateThreshold(50);
+		connector.setEndpointCircuitBreakerWindowSize(1);
+		final ConnectionPoolStatistics endpoint = connector.getEndpointPoolStatistics();
+		final ConnectionPoolStatistics nameApi = connector.getNameApiPoolStatistics();
+		final CompletableFuture<SimpleHttpResponse> failed = new CompletableFuture<>();
+		failed.completeExceptionally(new IOException("mock"));
+		Mockito.doReturn(asyncResponse(readUserJson("student-1role-1attr.json")), failed).when(connector)
+				.executeAsync(Mockito.any(), Mockito.same(endpoint));
+		Mockito.doAnswer(invocation -> asyncResponse(
+				schoolJson(expectedSchoolId, expectedSchoolOid, expectedParentOid, expectedOrganizationType)))
+				.when(connector).executeAsync(Mockito.any(), Mockito.same(nameApi));
+		for (int i = 0; i < 3; i++) {
+			final AttributeResolutionContext context = initializeResolutionContext("authnId1");
+			final Map<String, IdPAttribute> attributes = connector.doDataConnectorResolve(context,
+					context.getSubcontext(AttributeResolverWorkContext.class, false));
+			Assert.assertEquals(attributes.get(expectedResultAttribute).getValues().get(0).getNativeValue(),
+					expectedOid);
+		}
+		Assert.assertEquals(connector.getEndpointCircuitBreaker().getState(), CircuitBreaker.State.OPEN);
+		Mockito.verify(connector, Mockito.times(2)).executeAsync(Mockito.any(), Mockito.same(endpoint));
+	}
+
+	@Test
+	public void testGetUserDetailsAsync_whenSlow_shouldHedgeAndCancelOriginal() throws Exception {
+		final RestDataConnector connector = initializeAsyncConnector(Mockito.mock(HttpClient.class));
+		connector.setEndpointHedgePercentile(90);
+		connector.setEndpointHedgeMaxPercent(100);
+		connector.setEndpointHedgeMinDelay(Duration.ZERO);
+		final HedgingPolicy policy = connector.getEndpointHedgingPolicy();
+		for (int i = 0; i < HedgingPolicy.MIN_SAMPLES; i++) {
+			policy.recordLatency(TimeUnit.MILLISECONDS.toNanos(1));
+		}
+		final ConnectionPoolStatistics endpoint = connector.getEndpointPoolStatistics();
+		final CompletableFuture<SimpleHttpResponse> stalled = new CompletableFuture<>();
+		Mockito.doReturn(stalled, asyncResponse(readUserJson("student-1role-1attr.json"))).when(connector)
+				.executeAsync(Mockito.any(), Mockito.same(endpoint));
+		final UserDTO user = connector.getUserDetailsAsync("idpIdValue", "authnId1").get(5, TimeUnit.SECONDS);
+		Assert.assertEquals(user.getUsername(), expectedOid);
+		for (int i = 0; i < 500 && !stalled.isDone(); i++) {
+			Thread.sleep(10);
+		}
+		Assert.assertTrue(stalled.isCancelled());
+		Assert.assertEquals(policy.getHedgedCount(), 1);
+		Assert.assertEquals(policy.getHedgeWonCount(), 1);
+		Mockito.verify(connector, Mockito.times(2)).executeAsync(Mockito.any(), Mockito.same(endpoint));
+	}
+
+	@Test
+	public void testGetUserDetailsAsync_whenHedgeBudgetUsed_shouldNotHedge() throws Exception {
+		final RestDataConnector connector = initializeAsyncConnector(Mockito.mock(HttpClient.class));
+		connector.setEndpointHedgePercentile(90);
+		connector.setEndpointHedgeMaxPercent(10);
+		connector.setEndpointHedgeMinDelay(Duration.ZERO);
+		final HedgingPolicy policy = connector.getEndpointHedgingPolicy();
+		for (int i = 0; i < HedgingPolicy.MIN_SAMPLES; i++) {
+			policy.recordLatency(TimeUnit.MILLISECONDS.toNanos(1));
+		}
+		final ConnectionPoolStatistics endpoint = connector.getEndpointPoolStatistics();
+		final CompletableFuture<SimpleHttpResponse> stalled = new CompletableFuture<>();
+		Mockito.doReturn(stalled).when(connector).executeAsync(Mockito.any(), Mockito.same(endpoint));
+		final CompletableFuture<UserDTO> user = connector.getUserDetailsAsync("idpIdValue", "authnId1");
+		for (int i = 0; i < 500 && policy.getThrottledCount() == 0; i++) {
+			Thread.sleep(10);
+		}
+		Assert.assertEquals(policy.getThrottledCount(), 1);
+		Assert.assertFalse(user.isDone());
+		stalled.complete(SimpleHttpResponse.create(200, readUserJson("student-1role-1attr.json"),
+				ContentType.APPLICATION_JSON));
+		Assert.assertEquals(user.get(5, TimeUnit.SECONDS).getUsername(), expectedOid);
+		Assert.assertEquals(policy.getHedgedCount(), 0);
+		Mockito.verify(connector, Mockito.times(1)).executeAsync(Mockito.any(), Mockito.same(endpoint));
+	}
+
+	@Test
+	public void testGetUserDetailsViaRest_whenEndpointRefusesConnection_shouldRetryOnAnotherAndEject()
+			throws Exception {
+		final String userJson = readUserJson("student-1role-1attr.json");
+		final HttpClient mockClient = Mockito.mock(HttpClient.class);
+		Mockito.when(mockClient.executeOpen(Mockito.any(), Mockito.any(), Mockito.any())).thenAnswer(invocation -> {
+			final ClassicHttpRequest request = invocation.getArgument(1);
+			if (request.getRequestUri().startsWith("/first")) {
+				throw new ConnectException("mock");
+			}
+			final ClassicHttpResponse mockResponse = Mockito.mock(ClassicHttpResponse.class);
+			final HttpEntity mockEntity = Mockito.mock(HttpEntity.class);
+			Mockito.when(mockResponse.getCode()).thenReturn(200);
+			Mockito.when(mockResponse.getEntity()).thenReturn(mockEntity);
+			Mockito.when(mockEntity.getContent())
+					.thenReturn(new ByteArrayInputStream(userJson.getBytes(StandardCharsets.UTF_8)));
+			return mockResponse;
+		});
+		final RestDataConnector connector = initializeUserCacheConnector(mockClient);
+		connector.setUserCacheTtl(Duration.ZERO);
+		connector.setEndpointUrls(Arrays.asList("http://localhost/first", "http://localhost/second"));
+		connector.setEndpointMaxRetries(1);
+		connector.setEndpointEjectionThreshold(1);
+		for (int i = 0; i < 3; i++) {
+			Assert.assertEquals(connector.getUserDetailsViaRest("idpIdValue", initializeWorkContext("authnId1"))
+					.getUsername(), expectedOid);
+		}
+		final EndpointSelector selector = connector.getEndpointSelector();
+		final EndpointSelector.Endpoint first = selector.getEndpoints().get(0);
+		Assert.assertTrue(selector.isEjected(first));
+		Assert.assertEquals(first.getRequestCount(), 1);
+		Assert.assertEquals(selector.getEndpoints().get(1).getRequestCount(), 3);
+		Assert.assertEquals(connector.getEndpointCircuitBreaker().getState(), CircuitBreaker.State.CLOSED);
+		Mockito.verify(mockClient, Mockito.times(4)).executeOpen(Mockito.any(), Mockito.any(), Mockito.any());
+	}
+
+	@Test
+	public void testGetUserDetailsViaRest_whenEndpointFailsWithServerError_shouldNotRetry() throws Exception {
+		final HttpClient mockClient = Mockito.mock(HttpClient.class);
+		Mockito.when(mockClient.executeOpen(Mockito.any(), Mockito.any(), Mockito.any())).thenAnswer(invocation -> {
+			final ClassicHttpResponse mockResponse = Mockito.mock(ClassicHttpResponse.class);
+			Mockito.when(mockResponse.getCode()).thenReturn(503);
+			return mockResponse;
+		});
+		final RestDataConnector connector = initializeUserCacheConnector(mockClient);
+		connector.setEndpointUrls(Arrays.asList("http://localhost/first", "http://localhost/second"));
+		Assert.assertNull(connector.getUserDetailsViaRest("idpIdValue", initializeWorkContext("authnId1")));
+		Assert.assertEquals(connector.getEndpointSelector().getEndpoints().get(0).getFailureCount(), 1);
+		Mockito.verify(mockClient, Mockito.times(1)).executeOpen(Mockito.any(), Mockito.any(), Mockito.any());
+	}
+
+	@Test
+	public void testGetUserDetailsViaRest_whenResponseTimesOut_shouldNotRetry() throws Exception {
+		final HttpClient mockClient = Mockito.mock(HttpClient.class);
+		Mockito.doThrow(new SocketTimeoutException("mock")).when(mockClient).executeOpen(Mockito.any(), Mockito.any(),
+				Mockito.any());
+		final RestDataConnector connector = initializeUserCacheConnector(mockClient);
+		connector.setEndpointUrls(Arrays.asList("http://localhost/first", "http://localhost/second"));
+		connector.setEndpointMaxRetries(1);
+		Assert.assertNull(connector.getUserDetailsViaRest("idpIdValue", initializeWorkContext("authnId1")));
+		Mockito.verify(mockClient, Mockito.times(1)).executeOpen(Mockito.any(), Mockito.any(), Mockito.any());
+	}
+
+	@Test
+	public void testGetUserDetailsAsync_whenEndpointRefusesConnection_shouldRetryOnAnother() throws Exception {
+		final RestDataConnector connector = initializeAsyncConnector(Mockito.mock(HttpClient.class));
+		connector.setEndpointUrls(Arrays.asList("http://localhost/first", "http://localhost/second"));
+		connector.setEndpointMaxRetries(1);
+		final String userJson = readUserJson("student-1role-1attr.json");
+		final ConnectionPoolStatistics endpoint = connector.getEndpointPoolStatistics();
+		Mockito.doAnswer(invocation -> {
+			final SimpleHttpRequest request = invocation.getArgument(0);
+			if (request.getRequestUri().startsWith("/first")) {
+				final CompletableFuture<SimpleHttpResponse> failed = new CompletableFuture<>();
+				failed.completeExceptionally(new ConnectException("mock"));
+				return failed;
+			}
+			return asyncResponse(userJson);
+		}).when(connector).executeAsync(Mockito.any(), Mockito.same(endpoint));
+		for (int i = 0; i < 2; i++) {
+			Assert.assertEquals(connector.getUserDetailsAsync("idpIdValue", "authnId1").get(5, TimeUnit.SECONDS)
+					.getUsername(), expectedOid);
+		}
+		final EndpointSelector selector = connector.getEndpointSelector();
+		Assert.assertEquals(selector.getEndpoints().get(0).getFailureCount(), 1);
+		Assert.assertEquals(selector.getEndpoints().get(0).getOutstanding(), 0);
+		Assert.assertEquals(selector.getEndpoints().get(1).getRequestCount(), 2);
+		Mockito.verify(connector, Mockito.times(3)).executeAsync(Mockito.any(), Mockito.same(endpoint));
+	}
+
+	@Test(expectedExceptions = ComponentInitializationException.class)
+	public void testInitialize_whenAsyncAndBuilderHasTlsSocketFactory_shouldFail() throws Exception {
+		final HttpClientBuilder clientBuilder = initializeMockBuilder(Mockito.mock(HttpClient.class));
+		Mockito.when(clientBuilder.getTLSSocketFactory()).thenReturn(Mockito.mock(LayeredConnectionSocketFactory.class));
+		final RestDataConnector connector = new RestDataConnector(clientBuilder);
+		connector.setId(expectedId);
+		connector.setAsyncEnabled(true);
+		connector.initialize();
+	}
+
+	/**
+	 * Initializes a spied connector resolving the users with the asynchronous HTTP client. The blocking client
+	 * is the given mock, and the asynchronous requests are to be stubbed with {@link RestDataConnector#executeAsync}.
+	 * 
+	 * @param mockClient The blocking client to be used.
+	 * @return The spied connector.
+	 * @throws Exception
+	 */
+	protected RestDataConnector initializeAsyncConnector(final HttpClient mockClient) throws Exception {
+		final RestDataConnector connector = initializeUserCacheConnector(mockClient);
+		connector.setUserCacheTtl(Duration.ZERO);
+		connector.setNameApiBaseUrl("http://localhost/school/");
+		connector.setAsyncEnabled(true);
+		return Mockito.spy(connector);
+	}
+
+	/**
+	 * Builds a completed asynchronous response with the given JSON body.
+	 * 
+	 * @param json The response body.
+	 * @return The completed response.
+	 */
+	protected CompletableFuture<SimpleHttpResponse> asyncResponse(final String json) {
+		return CompletableFuture.completedFuture(SimpleHttpResponse.create(200, json, ContentType.APPLICATION_JSON));
+	}
+
+	/**
+	 * Builds the resolved attribute cache key for a user authenticated with the given uid principal.
+	 * 
+	 * @param connector The connector.
+	 * @param uid The value of the uid principal.
+	 * @return The cache key.
+	 * @throws Exception
+	 */
+	protected String getResolvedAttributeCacheKey(final RestDataConnector connector, final String uid)
+			throws Exception {
+		final AttributeResolutionContext context = initializeResolutionContext("authnId1");
+		final AttributeResolverWorkContext workContext = context.getSubcontext(AttributeResolverWorkContext.class,
+				false);
+		final AuthenticationContext authnContext = context.getParent().getSubcontext(AuthenticationContext.class, true);
+		final Subject subject = new Subject();
+		subject.getPrincipals().add(new IdPAttributePrincipal(populateAttribute("uid", uid)));
+		subject.getPrincipals().add(new IdPAttributePrincipal(populateAttribute("schoolId", expectedSchoolId)));
+		authnContext.setAuthenticationResult(new AuthenticationResult("mockFlow", subject));
+		return connector.getResolvedAttributeCacheKey("idpIdValue", context, workContext);
+	}
+
+	/**
+	 * Initializes a connector calling the ECA user data API with the given client, with the user data cache
+	 * enabled.
+	 * 
+	 * @param mockClient The client to be used.
+	 * @return The connector.
+	 * @throws Exception
+	 */
+	protected RestDataConnector initializeUserCacheConnector(final HttpClient mockClient) throws Exception {
+		final RestDataConnector connector = new RestDataConnector(initializeMockBuilder(mockClient));
+		connector.setEndpointUrl("http://localhost/user");
+		connector.setHookAttribute(expectedHookAttribute);
+		connector.setIdpId(expectedIdpId);
+		connector.setResultAttributePrefix("");
+		connector.setUserCacheTtl(Duration.ofMinutes(1));
+		return connector;
+	}
+
+	/**
+	 * Initializes a work context with the given authn id as the hook attribute value.
+	 * 
+	 * @param authnId The authn id.
+	 * @return The work context.
+	 * @throws Exception
+	 */
+	protected AttributeResolverWorkContext initializeWorkContext(final String authnId) throws Exception {
+		return initializeResolutionContext(authnId).getSubcontext(AttributeResolverWorkContext.class, false);
+	}
+
+	/**
+	 * Initializes a resolution context whose work context has the given authn id as the hook attribute value.
+	 * 
+	 * @param authnId The authn id.
+	 * @return The resolution context.
+	 * @throws Exception
+	 */
+	protected AttributeResolutionContext initializeResolutionContext(final String authnId) throws Exception {
+		final AttributeResolutionContext context = TestSources.createResolutionContext(TestSources.PRINCIPAL_ID,
+				TestSources.IDP_ENTITY_ID, TestSources.SP_ENTITY_ID);
+		final AttributeResolverWorkContext workContext = context.getSubcontext(AttributeResolverWorkContext.class,
+				false);
+		recordWorkContextAttribute(expectedHookAttribute, authnId, workContext);
+		recordWorkContextAttribute(expectedIdpId, "idpIdValue", workContext);
+		return context;
+	}
+
+	/**
+	 * Reads the given user JSON file from the test resources.
+	 * 
+	 * @param userJson The JSON filename, without directory prefix.
+	 * @return The contents of the file.
+	 * @throws Exception
+	 */
+	protected String readUserJson(final String userJson) throws Exception {
+		return new String(Files.readAllBytes(
+				Paths.get("src/test/resources/fi/mpass/shibboleth/attribute/resolver/data/" + userJson)),
+				StandardCharsets.UTF_8);
+	}
+
+	/**
+	 * Initializes a mocked {@link HttpClientBuilder} returning the given client.
+	 * 
+	 * @param mockClient The client to be returned by the builder.
+	 * @return Mocked {@link HttpClientBuilder}.
+	 * @throws Exception
+	 */
+	protected HttpClientBuilder initializeMockBuilder(final HttpClient mockClient) throws Exception {
+		final HttpClientBuilder clientBuilder = Mockito.mock(HttpClientBuilder.class);
+		Mockito.when(clientBuilder.buildClient()).thenReturn(mockClient);
+		return clientBuilder;
+	}
+
+	/**
+	 * Initializes a mocked {@link HttpClient} that responds to every request with the given content.
+	 * 
+	 * @param responseContent The response content.
+	 * @return Mocked {@link HttpClient}.
+	 * @throws Exception
+	 */
+	protected HttpClient initializeMockSchoolClient(final String responseContent) throws Exception {
+		final HttpClient mockClient = Mockito.mock(HttpClient.class);
+		Mockito.when(mockClient.executeOpen(Mockito.any(), Mockito.any(), Mockito.any())).thenAnswer(invocation -> {
+			final ClassicHttpResponse mockResponse = Mockito.mock(ClassicHttpResponse.class);
+			final HttpEntity mockEntity = Mockito.mock(HttpEntity.class);
+			Mockito.when(mockResponse.getCode()).thenReturn(200);
+			Mockito.when(mockResponse.getEntity()).thenReturn(mockEntity);
+			Mockito.when(mockEntity.getContent())
+					.thenReturn(new ByteArrayInputStream(responseContent.getBytes(StandardCharsets.UTF_8)));
+			return mockResponse;
+		});
+		return mockClient;
+	}
+
+	/**
+	 * Builds a school information response with one element.
+	 * 
+	 * @param id               The school id.
+	 * @param oid              The school oid.
+	 * @param parentOid        The oid of the parent organization.
+	 * @param organizationType The organization type.
+	 * @return The school information response.
+	 */
+	protected String schoolJson(final String id, final String oid, final String parentOid,
+			final String organizationType) {
+		return "[{\"koodiUri\":\"oppilaitosnumero_" + id + "\",\"metadata\":[{\"nimi\":\"" + expectedSchoolName
+				+ "\",\"lyhytNimi\":\"Mock Short\",\"kieli\":\"FI\"}],\"versio\":1,\"koodiArvo\":\"" + id
+				+ "\",\"oid\":\"" + oid + "\",\"parentOid\":\"" + parentOid + "\",\"parentName\":\""
+				+ expectedParentName + "\",\"organizationType\":\"" + organizationType + "\"}]";
+	}
+
 	@Test
 	public void testGetSchool_withServer_whenRestReturnsEmptyArray_thenShouldNotReturnSchool() throws Exception {
 		final School school = executeWithServer("[]");
@@ -0,0 +1,83 @@
+/*
+ * The MIT License
+ * Copyright (c) 2015 CSC - IT Center for Science, http://www.csc.fi
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+
+package fi.mpass.shibboleth.attribute.resolver.dc.impl;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+/**
+ * Unit tests for {@link RoleTable}.
+ */
+public class RoleTableTest {
+
+    @Test
+    public void testGet_whenMappedRole_shouldResolveMappedRole() {
+        final Map<String, String> mappings = new HashMap<>();
+        mappings.put("teacher", "opettaja");
+        final RoleTable table = new RoleTable(mappings, Collections.singletonMap("Opettaja", "2"),
+                Arrays.asList("Opettaja"), Arrays.asList("Oppilas"));
+        final RoleTable.Role role = table.get("TEACHER");
+        Assert.assertEquals(role.getName(), "opettaja");
+        Assert.assertEquals(role.getDisplayName(), "Opettaja");
+        Assert.assertEquals(role.getCode(), "2");
+        Assert.assertTrue(role.isAllowed());
+        Assert.assertFalse(role.isStudent());
+        Assert.assertSame(table.get("TEACHER"), role);
+    }
+
+    @Test
+    public void testGet_whenUnmappedRole_shouldKeepReceivedRole() {
+        final RoleTable table = new RoleTable(Collections.emptyMap(), Collections.emptyMap(),
+                Arrays.asList("Opettaja"), Arrays.asList("Oppilas"));
+        final RoleTable.Role student = table.get("oppilas");
+        Assert.assertEquals(student.getName(), "oppilas");
+        Assert.assertEquals(student.getDisplayName(), "Oppilas");
+        Assert.assertEquals(student.getCode(), RoleTable.UNKNOWN_ROLE_CODE);
+        Assert.assertTrue(student.isStudent());
+        Assert.assertFalse(student.isAllowed());
+        Assert.assertEquals(table.get("").getDisplayName(), "");
+    }
+
+    @Test
+    public void testGet_whenNoAllowedRoles_shouldAllowEveryRole() {
+        final RoleTable table = new RoleTable(Collections.emptyMap(), Collections.emptyMap(), null, null);
+        Assert.assertTrue(table.get("Rehtori").isAllowed());
+        Assert.assertFalse(table.get("Rehtori").isStudent());
+    }
+
+    @Test
+    public void testGet_shouldCacheUpToTheLimit() {
+        final RoleTable table = new RoleTable(Collections.emptyMap(), Collections.emptyMap(), null, null);
+        for (int i = 0; i < RoleTable.MAX_CACHED_ROLES * 2; i++) {
+            Assert.assertEquals(table.get("role" + i).getDisplayName(), "Role" + i);
+        }
+        Assert.assertEquals(table.size(), RoleTable.MAX_CACHED_ROLES);
+    }
+}
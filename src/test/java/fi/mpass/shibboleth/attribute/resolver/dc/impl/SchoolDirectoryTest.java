@@ -0,0 +1,89 @@
+/*
+ * The MIT License
+ * Copyright (c) 2015 CSC - IT Center for Science, http://www.csc.fi
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package fi.mpass.shibboleth.attribute.resolver.dc.impl;
+
+import java.io.Reader;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonParseException;
+
+import fi.mpass.shibboleth.attribute.resolver.data.School;
+
+/**
+ * Unit tests for {@link SchoolDirectory}.
+ */
+public class SchoolDirectoryTest {
+
+    /** The code set used in the tests. */
+    public static final String CODE_SET_FILE = "src/test/resources/fi/mpass/shibboleth/attribute/resolver/data/schools.json";
+
+    @Test
+    public void testParse_shouldIndexByIdAndOid() throws Exception {
+        final SchoolDirectory directory = parseCodeSet();
+        Assert.assertEquals(directory.size(), 2);
+        final School school = directory.get("12345");
+        Assert.assertNotNull(school);
+        Assert.assertSame(directory.get("1.2.246.562.10.12345"), school);
+        Assert.assertEquals(school.getName(), "Mock School Name");
+        Assert.assertEquals(school.getOid(), "1.2.246.562.10.12345");
+        Assert.assertEquals(school.getParentOid(), "1.2.246.562.10.10000000001");
+        Assert.assertEquals(school.getParentName(), "Mock Education Provider Name");
+        Assert.assertEquals(school.getOrganizationType(), "organisaatiotyyppi_02");
+        Assert.assertNull(directory.get("99902"));
+        Assert.assertNull(directory.get(null));
+    }
+
+    @Test
+    public void testParse_shouldResolveParentNames() throws Exception {
+        final School office = parseCodeSet().get("1.2.246.562.10.30000000001");
+        Assert.assertNotNull(office);
+        Assert.assertEquals(office.getName(), "Mock Office Name");
+        Assert.assertEquals(office.getParentOid(), "1.2.246.562.10.12345");
+        Assert.assertEquals(office.getParentName(), "Mock School Name");
+    }
+
+    @Test(expectedExceptions = JsonParseException.class)
+    public void testParse_whenEmpty_shouldThrow() {
+        SchoolDirectory.parse(new Gson(), new StringReader(""));
+    }
+
+    @Test
+    public void testEmpty_shouldFindNothing() {
+        Assert.assertEquals(SchoolDirectory.EMPTY.size(), 0);
+        Assert.assertNull(SchoolDirectory.EMPTY.get("12345"));
+    }
+
+    private SchoolDirectory parseCodeSet() throws Exception {
+        try (Reader reader = Files.newBufferedReader(Paths.get(CODE_SET_FILE), StandardCharsets.UTF_8)) {
+            return SchoolDirectory.parse(new Gson(), reader);
+        }
+    }
+}
@@ -0,0 +1,89 @@
+/*
+ * The MIT License
+ * Copyright (c) 2015 CSC - IT Center for Science, http://www.csc.fi
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+
+package fi.mpass.shibboleth.attribute.resolver.dc.impl;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * JMH comparison of classifying the school identifiers by catching the exception of {@link Integer#parseInt(String)}
+ * and with {@link SchoolIdType#of(String)}, for a mix of mostly organization oids.
+ *
+ * Run with <code>java -cp target/test-classes:target/classes:&lt;test classpath&gt; org.openjdk.jmh.Main
+ * SchoolIdTypeBenchmark</code> from the project directory.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SchoolIdTypeBenchmark {
+
+    /** The school identifiers, as received from the upstreams. */
+    private final String[] schoolIds = { "1.2.246.562.10.12345678901", "1.2.246.562.10.23456789012",
+        "1.2.246.562.10.34567890123", "1.2.246.562.99.45678901234", "12345", "00901", "Mansikkalan koulu",
+        "1234567" };
+
+    @Benchmark
+    public void parseInt(final Blackhole blackhole) {
+        for (final String schoolId : schoolIds) {
+            blackhole.consume(!((isNumeric(schoolId) && schoolId.length() > 6)
+                    || (!isNumeric(schoolId) && !schoolId.contains("."))));
+        }
+    }
+
+    @Benchmark
+    public void classifier(final Blackhole blackhole) {
+        for (final String schoolId : schoolIds) {
+            blackhole.consume(SchoolIdType.of(schoolId).isValid());
+        }
+    }
+
+    /**
+     * Checks whether the given value is numeric by parsing it, as the school identifiers were checked before.
+     *
+     * @param value The value.
+     * @return true if the value can be parsed, false otherwise.
+     */
+    private static boolean isNumeric(final String value) {
+        try {
+            Integer.parseInt(value);
+            return true;
+        } catch (Exception e) {
+            return false;
+        }
+    }
+}
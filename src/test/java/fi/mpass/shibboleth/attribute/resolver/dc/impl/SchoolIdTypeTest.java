@@ -0,0 +1,73 @@
+/*
+ * The MIT License
+ * Copyright (c) 2015 CSC - IT Center for Science, http://www.csc.fi
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+
+package fi.mpass.shibboleth.attribute.resolver.dc.impl;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+/**
+ * Unit tests for {@link SchoolIdType}.
+ */
+public class SchoolIdTypeTest {
+
+    @Test
+    public void testOf_shouldClassifyTheKinds() {
+        Assert.assertEquals(SchoolIdType.of("12345"), SchoolIdType.CODE);
+        Assert.assertEquals(SchoolIdType.of("-12345"), SchoolIdType.CODE);
+        Assert.assertEquals(SchoolIdType.of("1234567"), SchoolIdType.NUMBER);
+        Assert.assertEquals(SchoolIdType.of("1.2.246.562.10.12345678901"), SchoolIdType.OID);
+        Assert.assertEquals(SchoolIdType.of("99999999999.1"), SchoolIdType.OID);
+        Assert.assertEquals(SchoolIdType.of("Mansikkalan koulu"), SchoolIdType.OTHER);
+        Assert.assertEquals(SchoolIdType.of("99999999999"), SchoolIdType.OTHER);
+        Assert.assertEquals(SchoolIdType.of(null), SchoolIdType.OTHER);
+        Assert.assertEquals(SchoolIdType.of(""), SchoolIdType.OTHER);
+    }
+
+    @Test
+    public void testOf_shouldBeNumericExactlyWhenParseIntAccepts() {
+        final String[] values = { "0", "+1", "-", "+", "1-", "12a", " 12", "12 ", "2147483647", "2147483648",
+            "-2147483648", "-2147483649", "00000000000000012", "١٢", "1.0", ".", "a.b" };
+        for (final String value : values) {
+            Assert.assertEquals(SchoolIdType.of(value).isNumeric(), parses(value), value);
+            Assert.assertEquals(SchoolIdType.of(value) == SchoolIdType.OID, !parses(value) && value.contains("."),
+                    value);
+        }
+    }
+
+    /**
+     * Checks whether the given value is accepted by {@link Integer#parseInt(String)}.
+     *
+     * @param value The value.
+     * @return true if the value can be parsed, false otherwise.
+     */
+    private boolean parses(final String value) {
+        try {
+            Integer.parseInt(value);
+            return true;
+        } catch (NumberFormatException e) {
+            return false;
+        }
+    }
+}
@@ -0,0 +1,92 @@
+/*
+ * The MIT License
+ * Copyright (c) 2015 CSC - IT Center for Science, http://www.csc.fi
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package fi.mpass.shibboleth.attribute.resolver.dc.impl;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import fi.mpass.shibboleth.attribute.resolver.data.School;
+
+/**
+ * Unit tests for {@link SchoolSnapshot}.
+ */
+public class SchoolSnapshotTest {
+
+    @Test
+    public void testWriteAndRead_shouldKeepAllFields() throws Exception {
+        final Path file = Files.createTempDirectory("snapshot").resolve("schools.bin");
+        final School school = new School("12345", "Testilän koulu", "1.2.246.562.10.12345", null, null,
+                "1.2.246.562.10.1", "Testilän kunta", "organisaatiotyyppi_02");
+        final School office = new School("99901", "Office", "1.2.246.562.10.3", "1.2.246.562.10.12345", null);
+        SchoolSnapshot.write(file, "http://localhost/", Arrays.asList(new SchoolSnapshot.Record(school, 1000L),
+                new SchoolSnapshot.Record(office, 2000L)));
+        final SchoolSnapshot snapshot = SchoolSnapshot.read(file);
+        Assert.assertEquals(snapshot.getBaseUrl(), "http://localhost/");
+        Assert.assertEquals(snapshot.getRecords().get(0).getLoadedAt(), 1000L);
+        Assert.assertEquals(snapshot.getRecords().get(1).getLoadedAt(), 2000L);
+        final List<School> schools = snapshot.getSchools();
+        Assert.assertEquals(schools.size(), 2);
+        Assert.assertEquals(schools.get(0).getId(), "12345");
+        Assert.assertEquals(schools.get(0).getOid(), "1.2.246.562.10.12345");
+        Assert.assertEquals(schools.get(0).getName(), "Testilän koulu");
+        Assert.assertEquals(schools.get(0).getParentOid(), "1.2.246.562.10.1");
+        Assert.assertEquals(schools.get(0).getParentName(), "Testilän kunta");
+        Assert.assertEquals(schools.get(0).getOrganizationType(), "organisaatiotyyppi_02");
+        Assert.assertEquals(schools.get(1).getId(), "99901");
+        Assert.assertNull(schools.get(1).getParentName());
+        Assert.assertNull(schools.get(1).getOrganizationType());
+    }
+
+    @Test
+    public void testWrite_shouldReplaceExisting() throws Exception {
+        final Path file = Files.createTempDirectory("snapshot").resolve("schools.bin");
+        SchoolSnapshot.write(file, null, Arrays.asList(new SchoolSnapshot.Record(new School("1", "One", null, null), 0)));
+        SchoolSnapshot.write(file, null, Arrays.asList(new SchoolSnapshot.Record(new School("2", "Two", null, null), 0)));
+        final List<School> schools = SchoolSnapshot.read(file).getSchools();
+        Assert.assertEquals(schools.size(), 1);
+        Assert.assertEquals(schools.get(0).getName(), "Two");
+        Assert.assertEquals(Files.list(file.getParent()).count(), 1);
+    }
+
+    @Test
+    public void testRead_shouldReturnWriteTime() throws Exception {
+        final Path file = Files.createTempDirectory("snapshot").resolve("schools.bin");
+        SchoolSnapshot.write(file, null, Arrays.asList(new SchoolSnapshot.Record(new School("1", "One", null, null), 0)),
+                1234L);
+        Assert.assertEquals(SchoolSnapshot.read(file).getWriteTime(), 1234L);
+    }
+
+    @Test(expectedExceptions = IOException.class)
+    public void testRead_whenNotSnapshot_shouldThrow() throws Exception {
+        final Path file = Files.createTempFile("snapshot", ".bin");
+        Files.write(file, new byte[] { 1, 2, 3, 4, 5, 6, 7, 8 });
+        SchoolSnapshot.read(file);
+    }
+}
@@ -0,0 +1,134 @@
+/*
+ * The MIT License
+ * Copyright (c) 2015 CSC - IT Center for Science, http://www.csc.fi
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package fi.mpass.shibboleth.attribute.resolver.dc.impl;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+/**
+ * Unit tests for {@link SingleFlight}.
+ */
+public class SingleFlightTest {
+
+    @Test
+    public void testExecute_whenConcurrent_shouldRunLoaderOnce() throws Exception {
+        final SingleFlight<String, String> flights = new SingleFlight<>();
+        final AtomicInteger loads = new AtomicInteger();
+        final CountDownLatch release = new CountDownLatch(1);
+        final ExecutorService executor = Executors.newFixedThreadPool(5);
+        try {
+            final List<Future<String>> results = new ArrayList<>();
+            for (int i = 0; i < 5; i++) {
+                results.add(executor.submit(() -> flights.execute("key", () -> {
+                    loads.incrementAndGet();
+                    await(release);
+                    return "value";
+                })));
+            }
+            waitUntilCoalesced(flights, 4);
+            release.countDown();
+            for (final Future<String> result : results) {
+                Assert.assertEquals(result.get(5, TimeUnit.SECONDS), "value");
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+        Assert.assertEquals(loads.get(), 1);
+        Assert.assertEquals(flights.getExecutedCount(), 1);
+        Assert.assertEquals(flights.getCoalescedCount(), 4);
+        Assert.assertEquals(flights.getInFlightCount(), 0);
+    }
+
+    @Test
+    public void testExecute_whenLoaderFails_shouldShareFailure() throws Exception {
+        final SingleFlight<String, String> flights = new SingleFlight<>();
+        final CountDownLatch release = new CountDownLatch(1);
+        final ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            final Future<String> leader = executor.submit(() -> flights.execute("key", () -> {
+                await(release);
+                throw new IllegalStateException("failed");
+            }));
+            waitUntilInFlight(flights);
+            final Future<String> follower = executor.submit(() -> flights.execute("key", () -> "unused"));
+            waitUntilCoalesced(flights, 1);
+            release.countDown();
+            assertFailure(leader);
+            assertFailure(follower);
+        } finally {
+            executor.shutdownNow();
+        }
+        Assert.assertEquals(flights.getInFlightCount(), 0);
+        Assert.assertEquals(flights.execute("key", () -> "value"), "value");
+    }
+
+    @Test
+    public void testExecute_whenSequential_shouldRunLoaderEachTime() {
+        final SingleFlight<String, String> flights = new SingleFlight<>();
+        Assert.assertNull(flights.execute("key", () -> null));
+        Assert.assertEquals(flights.execute("key", () -> "value"), "value");
+        Assert.assertEquals(flights.getExecutedCount(), 2);
+        Assert.assertEquals(flights.getCoalescedCount(), 0);
+    }
+
+    private static void await(final CountDownLatch latch) {
+        try {
+            latch.await(5, TimeUnit.SECONDS);
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static void waitUntilInFlight(final SingleFlight<?, ?> flights) throws InterruptedException {
+        for (int i = 0; i < 500 && flights.getInFlightCount() == 0; i++) {
+            Thread.sleep(10);
+        }
+    }
+
+    private static void waitUntilCoalesced(final SingleFlight<?, ?> flights, final long count)
+            throws InterruptedException {
+        for (int i = 0; i < 500 && flights.getCoalescedCount() < count; i++) {
+            Thread.sleep(10);
+        }
+    }
+
+    private static void assertFailure(final Future<String> result) throws Exception {
+        try {
+            result.get(5, TimeUnit.SECONDS);
+            Assert.fail("Expected the load to fail");
+        } catch (final ExecutionException e) {
+            Assert.assertTrue(e.getCause() instanceof IllegalStateException);
+        }
+    }
+}
@@ -0,0 +1,57 @@
+/*
+ * The MIT License
+ * Copyright (c) 2015 CSC - IT Center for Science, http://www.csc.fi
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package fi.mpass.shibboleth.attribute.resolver.dc.impl;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+/**
+ * Unit tests for {@link SizeLimitedInputStream}.
+ */
+public class SizeLimitedInputStreamTest {
+
+    @Test
+    public void testRead_whenWithinLimit_shouldReadAll() throws Exception {
+        try (SizeLimitedInputStream in = new SizeLimitedInputStream(new ByteArrayInputStream(new byte[10]), 10)) {
+            Assert.assertEquals(in.read(new byte[20], 0, 20), 10);
+            Assert.assertEquals(in.read(), -1);
+            Assert.assertFalse(in.isLimitExceeded());
+        }
+    }
+
+    @Test
+    public void testRead_whenLimitExceeded_shouldFail() throws Exception {
+        try (SizeLimitedInputStream in = new SizeLimitedInputStream(new ByteArrayInputStream(new byte[11]), 10)) {
+            Assert.assertEquals(in.read(new byte[5], 0, 5), 5);
+            in.read(new byte[5], 0, 5);
+            in.read();
+            Assert.fail("Expected the limit to be exceeded");
+        } catch (final IOException e) {
+            Assert.assertTrue(e.getMessage().contains("10"));
+        }
+    }
+}
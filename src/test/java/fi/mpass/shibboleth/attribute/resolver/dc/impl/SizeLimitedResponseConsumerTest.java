@@ -0,0 +1,87 @@
+/*
+ * The MIT License
+ * Copyright (c) 2015 CSC - IT Center for Science, http://www.csc.fi
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package fi.mpass.shibboleth.attribute.resolver.dc.impl;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+import org.apache.hc.client5.http.async.methods.SimpleHttpResponse;
+import org.apache.hc.core5.http.ContentType;
+import org.apache.hc.core5.http.HttpHeaders;
+import org.apache.hc.core5.http.message.BasicHttpResponse;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+/**
+ * Unit tests for {@link SizeLimitedResponseConsumer}.
+ */
+public class SizeLimitedResponseConsumerTest {
+
+    @Test
+    public void testConsume_whenWithinLimit_shouldBufferBody() throws Exception {
+        final SizeLimitedResponseConsumer consumer = new SizeLimitedResponseConsumer(10);
+        consumer.start(new BasicHttpResponse(200), ContentType.APPLICATION_JSON);
+        consumer.data(ByteBuffer.wrap("[1,".getBytes(StandardCharsets.UTF_8)), false);
+        consumer.data(ByteBuffer.wrap("2]".getBytes(StandardCharsets.UTF_8)), true);
+        final SimpleHttpResponse response = consumer.buildResult();
+        Assert.assertEquals(response.getCode(), 200);
+        Assert.assertEquals(response.getBodyText(), "[1,2]");
+    }
+
+    @Test
+    public void testConsume_whenBodyExceedsLimit_shouldFail() throws Exception {
+        final SizeLimitedResponseConsumer consumer = new SizeLimitedResponseConsumer(4);
+        consumer.start(new BasicHttpResponse(200), ContentType.APPLICATION_JSON);
+        consumer.data(ByteBuffer.wrap(new byte[3]), false);
+        try {
+            consumer.data(ByteBuffer.wrap(new byte[2]), true);
+            Assert.fail("Expected the limit to be exceeded");
+        } catch (final IOException e) {
+            Assert.assertTrue(e.getMessage().contains("4"));
+        }
+    }
+
+    @Test
+    public void testStart_whenContentLengthExceedsLimit_shouldFail() throws Exception {
+        final SizeLimitedResponseConsumer consumer = new SizeLimitedResponseConsumer(4);
+        final BasicHttpResponse httpResponse = new BasicHttpResponse(200);
+        httpResponse.addHeader(HttpHeaders.CONTENT_LENGTH, "5");
+        try {
+            consumer.start(httpResponse, ContentType.APPLICATION_JSON);
+            Assert.fail("Expected the limit to be exceeded");
+        } catch (final IOException e) {
+            Assert.assertTrue(e.getMessage().contains("5"));
+        }
+    }
+
+    @Test
+    public void testConsume_whenNoBody_shouldReturnResponseWithoutBody() throws Exception {
+        final SizeLimitedResponseConsumer consumer = new SizeLimitedResponseConsumer(4);
+        consumer.start(new BasicHttpResponse(404), null);
+        final SimpleHttpResponse response = consumer.buildResult();
+        Assert.assertEquals(response.getCode(), 404);
+        Assert.assertNull(response.getBodyBytes());
+    }
+}
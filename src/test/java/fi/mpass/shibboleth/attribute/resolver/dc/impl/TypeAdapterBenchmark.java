@@ -0,0 +1,124 @@
+/*
+ * The MIT License
+ * Copyright (c) 2015 CSC - IT Center for Science, http://www.csc.fi
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package fi.mpass.shibboleth.attribute.resolver.dc.impl;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+
+import fi.mpass.shibboleth.attribute.resolver.data.OpintopolkuOppilaitosDTO;
+import fi.mpass.shibboleth.attribute.resolver.data.RolesTypeAdapter;
+import fi.mpass.shibboleth.attribute.resolver.data.UserDTO;
+import fi.mpass.shibboleth.attribute.resolver.data.UserDTO.RolesDTO;
+
+/**
+ * JMH comparison of the reflective Gson adapters and the streaming type adapters of the data package, both used
+ * through a shared Gson instance, using the JSON fixtures of the unit tests.
+ *
+ * Run with <code>java -cp target/test-classes:target/classes:&lt;test classpath&gt; org.openjdk.jmh.Main
+ * TypeAdapterBenchmark</code> from the project directory.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class TypeAdapterBenchmark {
+
+    /** The ECA user data API response fixtures. */
+    private String[] userResponses;
+
+    /** The school information API response fixture. */
+    private String schoolResponse;
+
+    /** The Gson instance using the reflective adapters, except for the roles. */
+    private Gson reflectiveUserGson;
+
+    /** The Gson instance using the reflective adapters. */
+    private Gson reflectiveSchoolGson;
+
+    /** The Gson instance using the streaming adapters for the user responses. */
+    private Gson userGson;
+
+    /** The Gson instance using the streaming adapters for the school responses. */
+    private Gson schoolGson;
+
+    /**
+     * Reads the fixtures and builds the Gson instances.
+     *
+     * @throws IOException If the fixtures cannot be read.
+     */
+    @Setup
+    public void setUp() throws IOException {
+        userResponses = GsonBenchmark.readUserFixtures();
+        schoolResponse = new String(Files.readAllBytes(Paths.get(GsonBenchmark.FIXTURE_DIRECTORY,
+                GsonBenchmark.SCHOOL_FIXTURE)), StandardCharsets.UTF_8);
+        reflectiveUserGson = new GsonBuilder().registerTypeAdapter(RolesDTO.class, new RolesTypeAdapter()).create();
+        reflectiveSchoolGson = new Gson();
+        userGson = RestDataConnector.buildUserGson();
+        schoolGson = RestDataConnector.buildSchoolGson();
+    }
+
+    @Benchmark
+    public void userReflective(final Blackhole blackhole) {
+        for (final String response : userResponses) {
+            blackhole.consume(reflectiveUserGson.fromJson(response, UserDTO.class));
+        }
+    }
+
+    @Benchmark
+    public void userStreaming(final Blackhole blackhole) {
+        for (final String response : userResponses) {
+            blackhole.consume(userGson.fromJson(response, UserDTO.class));
+        }
+    }
+
+    @Benchmark
+    public Object schoolReflective() {
+        return reflectiveSchoolGson.fromJson(schoolResponse, OpintopolkuOppilaitosDTO[].class);
+    }
+
+    @Benchmark
+    public Object schoolStreaming() {
+        return schoolGson.fromJson(schoolResponse, OpintopolkuOppilaitosDTO[].class);
+    }
+}
@@ -0,0 +1,170 @@
+/*
+ * The MIT License
+ * Copyright (c) 2015 CSC - IT Center for Science, http://www.csc.fi
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package fi.mpass.shibboleth.attribute.resolver.dc.impl;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.simpleframework.http.Request;
+import org.simpleframework.http.Response;
+import org.simpleframework.http.core.Container;
+import org.simpleframework.http.core.ContainerSocketProcessor;
+import org.simpleframework.transport.connect.Connection;
+import org.simpleframework.transport.connect.SocketConnection;
+
+import fi.mpass.shibboleth.attribute.resolver.data.UserDTO;
+
+/**
+ * JMH comparison of the platform and virtual thread execution modes of {@link RestDataConnector}, looking up the
+ * schools of a user with several roles from a local stub name API that answers after a fixed latency. The school
+ * cache is disabled, so that every lookup calls the stub server.
+ *
+ * Run with <code>java -cp target/test-classes:target/classes:&lt;test classpath&gt; org.openjdk.jmh.Main
+ * UpstreamExecutionBenchmark</code> from the project directory. The virtual mode requires Java 21 or later,
+ * otherwise it measures the platform thread fallback.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+@Threads(32)
+public class UpstreamExecutionBenchmark {
+
+    /** The execution mode of the connector. */
+    @Param({RestDataConnector.EXECUTION_MODE_PLATFORM, RestDataConnector.EXECUTION_MODE_VIRTUAL})
+    public String mode;
+
+    /** The number of distinct schools of the user. */
+    @Param({"8"})
+    public int schoolCount;
+
+    /** The latency of the stub server, in milliseconds. */
+    @Param({"20"})
+    public long latency;
+
+    /** The stub server connection. */
+    private Connection connection;
+
+    /** The connector under test. */
+    private RestDataConnector connector;
+
+    /** The user whose schools are looked up. */
+    private UserDTO user;
+
+    /**
+     * Starts the stub server and builds the connector and the user.
+     *
+     * @throws IOException If the stub server cannot be started.
+     */
+    @Setup
+    public void setUp() throws IOException {
+        connection = new SocketConnection(new ContainerSocketProcessor(new LatencyContainer(latency), 256));
+        final InetSocketAddress address = (InetSocketAddress) connection.connect(new InetSocketAddress(0));
+        connector = new RestDataConnector();
+        connector.setNameApiBaseUrl("http://localhost:" + address.getPort() + "/school/");
+        connector.setSchoolCacheTtl(Duration.ZERO);
+        connector.setUpstreamExecutionMode(mode);
+        final StringBuilder json = new StringBuilder("{\"username\":\"OID1\",\"roles\":[");
+        for (int i = 0; i < schoolCount; i++) {
+            json.append(i == 0 ? "" : ",").append("{\"role\":\"teacher\",\"school\":\"").append(10000 + i)
+                    .append("\",\"group\":\"7C\"}");
+        }
+        json.append("]}");
+        user = RestDataConnector.buildUserGson().fromJson(json.toString(), UserDTO.class);
+    }
+
+    /**
+     * Stops the stub server and the lookup threads.
+     *
+     * @throws IOException If the stub server cannot be stopped.
+     */
+    @TearDown
+    public void tearDown() throws IOException {
+        connector.getSchoolLookupExecutor().shutdownNow();
+        connection.close();
+    }
+
+    @Benchmark
+    public int lookupSchools() throws Exception {
+        return connector.lookupSchoolsConcurrently(user).size();
+    }
+
+    /**
+     * Stub name API answering every school id with a single school after a fixed latency.
+     */
+    static class LatencyContainer implements Container {
+
+        /** The latency, in milliseconds. */
+        private final long latency;
+
+        /**
+         * Constructor.
+         *
+         * @param delay The latency, in milliseconds.
+         */
+        LatencyContainer(final long delay) {
+            latency = delay;
+        }
+
+        /** {@inheritDoc} */
+        @Override
+        public void handle(final Request request, final Response response) {
+            final String path = request.getPath().toString();
+            final String id = path.substring(path.lastIndexOf('/') + 1);
+            try {
+                Thread.sleep(latency);
+                response.setContentType("application/json");
+                try (OutputStream output = response.getOutputStream()) {
+                    output.write(("[{\"koodiUri\":\"oppilaitosnumero_" + id + "\",\"metadata\":[{\"nimi\":\"School "
+                            + id + "\",\"kieli\":\"FI\"}],\"versio\":1,\"koodiArvo\":\"" + id + "\"}]")
+                            .getBytes(StandardCharsets.UTF_8));
+                }
+                response.close();
+            } catch (IOException e) {
+                // the client gave up
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+}
@@ -23,11 +23,15 @@
 
 package fi.mpass.shibboleth.attribute.resolver.spring.dc;
 
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.Collections;
 
 import org.testng.Assert;
 import org.testng.annotations.BeforeTest;
 import org.testng.annotations.Test;
 
+import fi.mpass.shibboleth.attribute.resolver.dc.impl.EndpointSelector;
 import fi.mpass.shibboleth.attribute.resolver.dc.impl.RestDataConnector;
 import net.shibboleth.idp.attribute.resolver.spring.testing.BaseAttributeDefinitionParserTest;
 import net.shibboleth.shared.component.ComponentInitializationException;
@@ -93,6 +97,64 @@ public class RestDataConnectorParserTest extends BaseAttributeDefinitionParserTe
         Assert.assertEquals(dataConnector.getToken(), expectedToken);
         Assert.assertEquals(dataConnector.getNameApiBaseUrl(), expectedNameApiBaseUrl);
         Assert.assertNull(dataConnector.getNameApiCallerId());
+        Assert.assertEquals(dataConnector.getEndpointMaxConnectionsTotal(), RestDataConnector.DEFAULT_MAX_CONNECTIONS);
+        Assert.assertEquals(dataConnector.getNameApiMaxConnectionsTotal(), RestDataConnector.DEFAULT_MAX_CONNECTIONS);
+        Assert.assertEquals(dataConnector.getMaxResponseSize(), RestDataConnector.DEFAULT_MAX_RESPONSE_SIZE);
+        Assert.assertEquals(dataConnector.getSchoolCacheTtl(), RestDataConnector.DEFAULT_SCHOOL_CACHE_TTL);
+        Assert.assertEquals(dataConnector.getSchoolCacheMaxEntries(), RestDataConnector.DEFAULT_SCHOOL_CACHE_MAX_ENTRIES);
+        Assert.assertEquals(dataConnector.getSchoolNegativeCacheTtl(), RestDataConnector.DEFAULT_SCHOOL_NEGATIVE_CACHE_TTL);
+        Assert.assertEquals(dataConnector.getSchoolCacheMaxStaleness(), RestDataConnector.DEFAULT_SCHOOL_CACHE_MAX_STALENESS);
+        Assert.assertEquals(dataConnector.getSchoolRefreshMaxConcurrency(), RestDataConnector.DEFAULT_SCHOOL_REFRESH_MAX_CONCURRENCY);
+        Assert.assertEquals(dataConnector.getSchoolLookupMaxConcurrency(), RestDataConnector.DEFAULT_SCHOOL_LOOKUP_MAX_CONCURRENCY);
+        Assert.assertNull(dataConnector.getSchoolPreloadUrl());
+        Assert.assertNull(dataConnector.getSchoolPreloadFile());
+        Assert.assertNull(dataConnector.getSchoolSnapshotFile());
+        Assert.assertEquals(dataConnector.getSchoolSnapshotInterval(), RestDataConnector.DEFAULT_SCHOOL_SNAPSHOT_INTERVAL);
+        Assert.assertEquals(dataConnector.getUserCacheTtl(), RestDataConnector.DEFAULT_USER_CACHE_TTL);
+        Assert.assertEquals(dataConnector.getUserCacheMaxEntries(), RestDataConnector.DEFAULT_USER_CACHE_MAX_ENTRIES);
+        Assert.assertTrue(dataConnector.getUserCacheExcludedIdps().isEmpty());
+        Assert.assertEquals(dataConnector.getResolvedAttributeCacheTtl(), RestDataConnector.DEFAULT_RESOLVED_ATTRIBUTE_CACHE_TTL);
+        Assert.assertEquals(dataConnector.getResolvedAttributeCacheMaxEntries(), RestDataConnector.DEFAULT_RESOLVED_ATTRIBUTE_CACHE_MAX_ENTRIES);
+        Assert.assertFalse(dataConnector.isAsyncEnabled());
+        Assert.assertEquals(dataConnector.getResolutionTimeout(), RestDataConnector.DEFAULT_RESOLUTION_TIMEOUT);
+        Assert.assertEquals(dataConnector.getUpstreamExecutionMode(), RestDataConnector.EXECUTION_MODE_PLATFORM);
+        Assert.assertEquals(dataConnector.getUpstreamMaxConcurrencyPerHost(),
+                RestDataConnector.DEFAULT_UPSTREAM_MAX_CONCURRENCY_PER_HOST);
+        Assert.assertNull(dataConnector.getHostConcurrencyLimiter());
+        Assert.assertEquals(dataConnector.getNameApiCircuitBreakerFailureRateThreshold(),
+                RestDataConnector.DEFAULT_CIRCUIT_BREAKER_FAILURE_RATE_THRESHOLD);
+        Assert.assertEquals(dataConnector.getNameApiCircuitBreakerWindowSize(),
+                RestDataConnector.DEFAULT_CIRCUIT_BREAKER_WINDOW_SIZE);
+        Assert.assertEquals(dataConnector.getNameApiCircuitBreakerOpenDuration(),
+                RestDataConnector.DEFAULT_CIRCUIT_BREAKER_OPEN_DURATION);
+        Assert.assertEquals(dataConnector.getNameApiCircuitBreakerHalfOpenProbes(),
+                RestDataConnector.DEFAULT_CIRCUIT_BREAKER_HALF_OPEN_PROBES);
+        Assert.assertEquals(dataConnector.getEndpointCircuitBreakerFailureRateThreshold(),
+                RestDataConnector.DEFAULT_ENDPOINT_CIRCUIT_BREAKER_FAILURE_RATE_THRESHOLD);
+        Assert.assertEquals(dataConnector.getEndpointCircuitBreakerWindowSize(),
+                RestDataConnector.DEFAULT_CIRCUIT_BREAKER_WINDOW_SIZE);
+        Assert.assertEquals(dataConnector.getEndpointCircuitBreakerOpenDuration(),
+                RestDataConnector.DEFAULT_CIRCUIT_BREAKER_OPEN_DURATION);
+        Assert.assertEquals(dataConnector.getEndpointCircuitBreakerHalfOpenProbes(),
+                RestDataConnector.DEFAULT_CIRCUIT_BREAKER_HALF_OPEN_PROBES);
+        Assert.assertEquals(dataConnector.getLastKnownUserCacheTtl(),
+                RestDataConnector.DEFAULT_LAST_KNOWN_USER_CACHE_TTL);
+        Assert.assertEquals(dataConnector.getLastKnownUserCacheMaxEntries(),
+                RestDataConnector.DEFAULT_LAST_KNOWN_USER_CACHE_MAX_ENTRIES);
+        Assert.assertEquals(dataConnector.getEndpointHedgePercentile(),
+                RestDataConnector.DEFAULT_ENDPOINT_HEDGE_PERCENTILE);
+        Assert.assertEquals(dataConnector.getEndpointHedgeMaxPercent(),
+                RestDataConnector.DEFAULT_ENDPOINT_HEDGE_MAX_PERCENT);
+        Assert.assertEquals(dataConnector.getEndpointHedgeMinDelay(),
+                RestDataConnector.DEFAULT_ENDPOINT_HEDGE_MIN_DELAY);
+        Assert.assertNull(dataConnector.getEndpointHedgingPolicy());
+        Assert.assertEquals(dataConnector.getEndpointUrls(), Collections.singletonList(expectedEndpointUrl));
+        Assert.assertEquals(dataConnector.getEndpointSelection(), RestDataConnector.DEFAULT_ENDPOINT_SELECTION);
+        Assert.assertEquals(dataConnector.getEndpointMaxRetries(), RestDataConnector.DEFAULT_ENDPOINT_MAX_RETRIES);
+        Assert.assertEquals(dataConnector.getEndpointEjectionThreshold(),
+                RestDataConnector.DEFAULT_ENDPOINT_EJECTION_THRESHOLD);
+        Assert.assertEquals(dataConnector.getEndpointEjectionDuration(),
+                RestDataConnector.DEFAULT_ENDPOINT_EJECTION_DURATION);
     }
 
     /**
@@ -123,6 +185,56 @@ public class RestDataConnectorParserTest extends BaseAttributeDefinitionParserTe
         Assert.assertEquals(dataConnector.getOfficeTypes().contains("organisaatiotyyppi_03"), true);
         Assert.assertEquals(dataConnector.getOfficeTypes().contains("organisaatiotyyppi_07"), false);
         Assert.assertEquals(dataConnector.getOfficeTypes().contains("organisaatiotyyppi_08"), true);
+        Assert.assertEquals(dataConnector.getEndpointMaxConnectionsTotal(), 20);
+        Assert.assertEquals(dataConnector.getEndpointMaxConnectionsPerRoute(), 10);
+        Assert.assertEquals(dataConnector.getNameApiMaxConnectionsTotal(), 40);
+        Assert.assertEquals(dataConnector.getNameApiMaxConnectionsPerRoute(), 30);
+        Assert.assertEquals(dataConnector.getEndpointPoolStatistics().getMaxConnections(), 20);
+        Assert.assertEquals(dataConnector.getNameApiPoolStatistics().getMaxConnections(), 40);
+        Assert.assertEquals(dataConnector.getMaxResponseSize(), 65536);
+        Assert.assertEquals(dataConnector.getSchoolCacheTtl(), Duration.ofMinutes(10));
+        Assert.assertEquals(dataConnector.getSchoolCacheMaxEntries(), 500);
+        Assert.assertEquals(dataConnector.getSchoolNegativeCacheTtl(), Duration.ofSeconds(30));
+        Assert.assertEquals(dataConnector.getSchoolCacheMaxStaleness(), Duration.ofHours(1));
+        Assert.assertEquals(dataConnector.getSchoolRefreshMaxConcurrency(), 4);
+        Assert.assertEquals(dataConnector.getSchoolLookupMaxConcurrency(), 8);
+        Assert.assertEquals(dataConnector.getSchoolPreloadUrl(), "http://localhost/schools");
+        Assert.assertEquals(dataConnector.getSchoolPreloadFile(),
+                "src/test/resources/fi/mpass/shibboleth/attribute/resolver/data/schools.json");
+        Assert.assertEquals(dataConnector.getSchoolSnapshotFile(), "target/school-snapshot.bin");
+        Assert.assertEquals(dataConnector.getSchoolSnapshotInterval(), Duration.ofMinutes(5));
+        Assert.assertEquals(dataConnector.getUserCacheTtl(), Duration.ofMinutes(2));
+        Assert.assertEquals(dataConnector.getUserCacheMaxEntries(), 1000);
+        Assert.assertEquals(dataConnector.getUserCacheExcludedIdps().size(), 2);
+        Assert.assertTrue(dataConnector.getUserCacheExcludedIdps().contains("excludedIdp2"));
+        Assert.assertEquals(dataConnector.getResolvedAttributeCacheTtl(), Duration.ofMinutes(1));
+        Assert.assertEquals(dataConnector.getResolvedAttributeCacheMaxEntries(), 2000);
+        Assert.assertTrue(dataConnector.isAsyncEnabled());
+        Assert.assertEquals(dataConnector.getResolutionTimeout(), Duration.ofSeconds(3));
+        Assert.assertEquals(dataConnector.getUpstreamExecutionMode(), RestDataConnector.EXECUTION_MODE_VIRTUAL);
+        Assert.assertEquals(dataConnector.getUpstreamMaxConcurrencyPerHost(), 20);
+        Assert.assertEquals(dataConnector.getHostConcurrencyLimiter().getMaxPerHost(), 20);
+        Assert.assertEquals(dataConnector.getNameApiCircuitBreakerFailureRateThreshold(), 25);
+        Assert.assertEquals(dataConnector.getNameApiCircuitBreakerWindowSize(), 10);
+        Assert.assertEquals(dataConnector.getNameApiCircuitBreakerOpenDuration(), Duration.ofMinutes(1));
+        Assert.assertEquals(dataConnector.getNameApiCircuitBreakerHalfOpenProbes(), 2);
+        Assert.assertEquals(dataConnector.getEndpointCircuitBreakerFailureRateThreshold(), 30);
+        Assert.assertEquals(dataConnector.getEndpointCircuitBreakerWindowSize(), 15);
+        Assert.assertEquals(dataConnector.getEndpointCircuitBreakerOpenDuration(), Duration.ofSeconds(45));
+        Assert.assertEquals(dataConnector.getEndpointCircuitBreakerHalfOpenProbes(), 4);
+        Assert.assertEquals(dataConnector.getLastKnownUserCacheTtl(), Duration.ofHours(24));
+        Assert.assertEquals(dataConnector.getLastKnownUserCacheMaxEntries(), 500);
+        Assert.assertEquals(dataConnector.getEndpointHedgePercentile(), 95);
+        Assert.assertEquals(dataConnector.getEndpointHedgeMaxPercent(), 2);
+        Assert.assertEquals(dataConnector.getEndpointHedgeMinDelay(), Duration.ofMillis(100));
+        Assert.assertEquals(dataConnector.getEndpointHedgingPolicy().getPercentile(), 95);
+        Assert.assertEquals(dataConnector.getEndpointUrls(),
+                Arrays.asList(expectedEndpointUrl, "testindEndpointUrl2"));
+        Assert.assertEquals(dataConnector.getEndpointSelection(), EndpointSelector.STRATEGY_EWMA);
+        Assert.assertEquals(dataConnector.getEndpointMaxRetries(), 2);
+        Assert.assertEquals(dataConnector.getEndpointEjectionThreshold(), 3);
+        Assert.assertEquals(dataConnector.getEndpointEjectionDuration(), Duration.ofSeconds(10));
+        Assert.assertEquals(dataConnector.getEndpointSelector().getEndpoints().size(), 2);
     }
 
     /**